@@ -0,0 +1,41 @@
+package com.painnick.zakuhead5;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the angle out of a /servo response body.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AngleParserBenchmark {
+
+    // Same shape as servo_handler in http_server.cpp.
+    static final byte[] BODY = "{\"angle\":135,\"us\":42}".getBytes(StandardCharsets.US_ASCII);
+
+    @Benchmark
+    public int parse() {
+        return AngleParser.parse(BODY, BODY.length, 90);
+    }
+
+    @Benchmark
+    public int parseHeadMicros() {
+        return AngleParser.parseHeadMicros(BODY, BODY.length);
+    }
+
+    /** String + JSONObject, as ZakuHeadApi.call and ZakuHeadController did it before. */
+    @Benchmark
+    public int jsonObject() {
+        JSONObject json = new JSONObject(new String(BODY, 0, BODY.length, StandardCharsets.UTF_8));
+        return json.has("angle") ? json.getInt("angle") : 90;
+    }
+}
@@ -0,0 +1,44 @@
+package com.painnick.zakuhead5;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding a servo move and reading its ack on the UDP command channel, next to what the /servo path costs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandFrameBenchmark {
+
+    public int delta = -15;
+    public boolean found = true;
+    public int seq = 4711;
+    private final byte[] frame = new byte[CommandFrame.LENGTH];
+    private final byte[] ack = {'Z', (byte) (CommandFrame.OP_MOVE | CommandFrame.ACK), 0x12, 0x67, (byte) 0xff,
+            (byte) 0xf1, 0, (byte) 135, 0, 42};
+
+    @Benchmark
+    public byte[] encode() {
+        CommandFrame.encode(frame, CommandFrame.OP_MOVE, seq, delta, found);
+        return frame;
+    }
+
+    @Benchmark
+    public int readAck() {
+        return CommandFrame.isAckOf(ack, ack.length, seq) ? CommandFrame.angleOf(ack) : -1;
+    }
+
+    /** The /servo path and the angle parsed from its response, for comparison. */
+    @Benchmark
+    public int servoUrlAndParse() {
+        String url = CommandUrls.servo(delta, found);
+        return url.length() + AngleParser.parse(AngleParserBenchmark.BODY, AngleParserBenchmark.BODY.length, 90);
+    }
+}
@@ -0,0 +1,40 @@
+package com.painnick.zakuhead5;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the /servo and /led paths sent for every command.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandUrlsBenchmark {
+
+    public int delta = -15;
+    public boolean found = true;
+    public int bright = 10;
+
+    @Benchmark
+    public String servo() {
+        return CommandUrls.servo(delta, found);
+    }
+
+    /** String concatenation as ZakuHeadApi did it before. */
+    @Benchmark
+    public String servoConcat() {
+        String dir = delta >= 0 ? "left" : "right";
+        return "/servo?dir=" + dir + "&step=" + Math.abs(delta) + "&found=" + (found ? "true" : "false");
+    }
+
+    @Benchmark
+    public String led() {
+        return CommandUrls.led(bright);
+    }
+}
@@ -0,0 +1,68 @@
+package com.painnick.zakuhead5;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Largest-face selection over the detections of one frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FaceSelectorBenchmark {
+
+    /** Stand-in for MediaPipe's Detection, which needs the Android runtime. */
+    static final class Face {
+        final float width;
+
+        Face(float width) {
+            this.width = width;
+        }
+    }
+
+    private static final FaceSelector.WidthOf<Face> WIDTH = face -> face.width;
+
+    @Param({"0", "1", "4"})
+    public int faces;
+
+    private List<Face> detections;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        detections = new ArrayList<>();
+        for (int i = 0; i < faces; i++) {
+            detections.add(new Face(0.05f + random.nextFloat() * 0.4f));
+        }
+    }
+
+    @Benchmark
+    public Face largest() {
+        return FaceSelector.largest(detections, WIDTH);
+    }
+
+    /** The for-each loop MainActivity used before. */
+    @Benchmark
+    public Face largestForEach() {
+        float maxWidth = 0;
+        Face found = null;
+        for (Face face : detections) {
+            if (maxWidth < face.width) {
+                found = face;
+                maxWidth = face.width;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,99 @@
+package com.painnick.zakuhead5;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a detection sequence through {@link FaceTracker} on a simulated 30 fps clock. The gc profiler
+ * should report no allocation per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FaceTrackerBenchmark {
+
+    private static final long FRAME_NANOS = 33_333_333L;
+
+    /** Counts commands instead of sending them. */
+    static final class CountingHead implements FaceTracker.Head {
+        long moves;
+        long leds;
+
+        @Override
+        public void moveLeft(int degree, boolean found) {
+            moves++;
+        }
+
+        @Override
+        public void moveRight(int degree, boolean found) {
+            moves++;
+        }
+
+        @Override
+        public void ledOn(boolean forced) {
+            leds++;
+        }
+
+        @Override
+        public void ledOff(boolean forced) {
+            leds++;
+        }
+    }
+
+    static final class ManualClock implements NanoClock {
+        long now;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    }
+
+    // Face center per frame, or NaN for no face: walks, goes missing for a few seconds, comes back.
+    private final float[] centers = new float[4096];
+    private final CountingHead head = new CountingHead();
+    private final ManualClock clock = new ManualClock();
+    @Param({"false", "true"})
+    public boolean predict;
+
+    private FaceTracker tracker;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        float center = 0.5f;
+        for (int i = 0; i < centers.length; i++) {
+            if ((i / 300) % 3 == 2) {
+                centers[i] = Float.NaN;
+                continue;
+            }
+            center = Math.max(0f, Math.min(1f, center + (random.nextFloat() - 0.5f) * 0.05f));
+            centers[i] = center;
+        }
+        tracker = new FaceTracker(head, new FaceTracker.Config(), new PidSteering(),
+                predict ? new TargetPredictor() : null, clock);
+    }
+
+    @Benchmark
+    public FaceTracker.State frame() {
+        clock.now += FRAME_NANOS;
+        float center = centers[next];
+        next = (next + 1) & (centers.length - 1);
+        if (Float.isNaN(center)) {
+            tracker.onNoFace(clock.now, 90);
+        } else {
+            tracker.onFace(center, clock.now, 90);
+        }
+        return tracker.getState();
+    }
+}
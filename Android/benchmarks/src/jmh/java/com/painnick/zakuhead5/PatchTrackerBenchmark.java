@@ -0,0 +1,59 @@
+package com.painnick.zakuhead5;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One {@link PatchTracker#track(byte[])} on the controller's 96x72 plane, the work a frame costs when the
+ * detector is skipped. The face moves by the given number of pixels each frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PatchTrackerBenchmark {
+
+    private static final int WIDTH = 96;
+    private static final int HEIGHT = 72;
+
+    @Param({"0", "4"})
+    public int step;
+
+    private final byte[][] frames = new byte[16][];
+    private PatchTracker tracker;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        byte[] background = new byte[WIDTH * HEIGHT];
+        random.nextBytes(background);
+        byte[] face = new byte[16 * 20];
+        random.nextBytes(face);
+        for (int i = 0; i < frames.length; i++) {
+            // Back and forth, so the face stays in the frame.
+            int x = 40 + (i < frames.length / 2 ? i : frames.length - i) * step / 2;
+            byte[] frame = background.clone();
+            for (int row = 0; row < 20; row++) {
+                System.arraycopy(face, row * 16, frame, (26 + row) * WIDTH + x, 16);
+            }
+            frames[i] = frame;
+        }
+        tracker = new PatchTracker(WIDTH, HEIGHT, 8, 20, 6);
+        tracker.setTemplate(frames[0], 40f / WIDTH, 26f / HEIGHT, 16f / WIDTH, 20f / HEIGHT);
+    }
+
+    @Benchmark
+    public boolean track() {
+        next = (next + 1) & (frames.length - 1);
+        return tracker.track(frames[next]);
+    }
+}
@@ -0,0 +1,38 @@
+package com.painnick.zakuhead5;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dead-zone steering decision over face positions spread across the frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SteeringPolicyBenchmark {
+
+    private final float[] centers = new float[1024];
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < centers.length; i++) {
+            centers[i] = random.nextFloat();
+        }
+    }
+
+    @Benchmark
+    public FACE_DIRECTION decide() {
+        next = (next + 1) & (centers.length - 1);
+        return SteeringPolicy.decide(centers[next]);
+    }
+}
@@ -0,0 +1,154 @@
+package com.painnick.zakuhead5;
+
+import java.util.Locale;
+
+/**
+ * Runs {@link AdaptiveQuality} against a simulated Wi-Fi link, next to the firmware's fixed VGA/q10.
+ * <p>
+ * The link's bandwidth follows a script: fine, then a microwave oven next door, then a half-way recovery,
+ * then good again. A frame's download time follows from the typical JPEG size of the level; fetch and
+ * detection overlap, as with a pipeline depth of 2, so frames come at the pace of the slower of the two, and
+ * never faster than the sensor. The detector's confidence grows with the pixels across the face, which comes
+ * close to the head for a while in the middle. Prints every decision that changed the level and, per link
+ * phase, the rate and confidence reached.
+ * <p>
+ * {@code ./gradlew :loadtest:run -PmainClass=com.painnick.zakuhead5.AdaptiveQualitySimulation}
+ */
+public class AdaptiveQualitySimulation {
+
+    private static final double TARGET_FPS = 10;
+    private static final double SENSOR_FPS = 25;
+    private static final double INFERENCE_MILLIS = 35;
+    private static final double LINK_LATENCY_MILLIS = 8;
+    private static final long DURATION_MILLIS = 120_000;
+
+    // {start millis, bytes per second}
+    private static final long[][] LINK = {
+            {0, 400_000},
+            {30_000, 110_000},
+            {60_000, 220_000},
+            {90_000, 600_000},
+    };
+
+    static final class ManualClock implements NanoClock {
+        long now;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    }
+
+    static double bandwidthAt(double millis) {
+        long bandwidth = LINK[0][1];
+        for (long[] phase : LINK) {
+            if (millis >= phase[0]) {
+                bandwidth = phase[1];
+            }
+        }
+        return bandwidth;
+    }
+
+    /**
+     * Face width as a share of the frame: across the room, close to the head from 45 s to 90 s, then across
+     * the room again.
+     */
+    static double faceShareAt(double millis) {
+        return millis >= 45_000 && millis < 90_000 ? 0.2 : 0.07;
+    }
+
+    static double scoreOf(AdaptiveQuality.Level level, double faceShare) {
+        // About 60 pixels across a face give the short-range model all it needs; heavy compression costs a bit.
+        double pixels = faceShare * level.width;
+        return Math.min(0.97, 0.55 + 0.42 * Math.min(1, pixels / 60)) - (level.quality >= 20 ? 0.05 : 0);
+    }
+
+    static final class PhaseStats {
+        double seconds;
+        double frames;
+        double scoreSum;
+        double onTargetSeconds;
+    }
+
+    static PhaseStats[] run(boolean adaptive, boolean print) {
+        ManualClock clock = new ManualClock();
+        AdaptiveQuality quality = new AdaptiveQuality(new AdaptiveQuality.Config(), clock);
+        quality.setCurrent("VGA", 10, "VGA");
+        PhaseStats[] phases = new PhaseStats[LINK.length];
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new PhaseStats();
+        }
+        double now = 0;
+        long windowFrames = 0;
+        double windowDownload = 0;
+        double windowStartedAt = 0;
+        // For the per second on-target share.
+        double secondStartedAt = 0;
+        int secondFrames = 0;
+        while (now < DURATION_MILLIS) {
+            AdaptiveQuality.Level level = quality.getLevel();
+            double download = LINK_LATENCY_MILLIS + level.typicalBytes * 1000.0 / bandwidthAt(now);
+            double interval = Math.max(Math.max(download, INFERENCE_MILLIS), 1000 / SENSOR_FPS);
+            now += interval;
+            clock.now = (long) (now * 1_000_000);
+            double score = scoreOf(level, faceShareAt(now));
+            quality.onScore((float) score);
+            windowFrames++;
+            windowDownload += download;
+            int phase = phaseAt(now);
+            phases[phase].frames++;
+            phases[phase].scoreSum += score;
+            secondFrames++;
+            if (now - secondStartedAt >= 1000) {
+                if (secondFrames * 1000 / (now - secondStartedAt) >= TARGET_FPS * 0.9) {
+                    phases[phase].onTargetSeconds++;
+                }
+                phases[phase].seconds++;
+                secondStartedAt = now;
+                secondFrames = 0;
+            }
+            if (adaptive && quality.isWindowDue()) {
+                AdaptiveQuality.Decision decision = quality.evaluate(windowFrames * 1000 / (now - windowStartedAt),
+                        windowDownload / windowFrames, INFERENCE_MILLIS);
+                if (print && decision.isChange()) {
+                    System.out.printf(Locale.US, "  %6.1fs %s%n", now / 1000, decision);
+                }
+                windowFrames = 0;
+                windowDownload = 0;
+                windowStartedAt = now;
+            }
+        }
+        return phases;
+    }
+
+    private static int phaseAt(double millis) {
+        int phase = 0;
+        for (int i = 0; i < LINK.length; i++) {
+            if (millis >= LINK[i][0]) {
+                phase = i;
+            }
+        }
+        return phase;
+    }
+
+    public static void main(String[] args) {
+        System.out.printf(Locale.US, "target %.0f fps, inference %.0f ms, face near from 45s to 90s, else far%n%n",
+                TARGET_FPS, INFERENCE_MILLIS);
+        System.out.println("Adaptive decisions:");
+        PhaseStats[] adaptive = run(true, true);
+        PhaseStats[] fixed = run(false, false);
+        System.out.println();
+        System.out.printf(Locale.US, "%-14s %-9s %7s %10s %11s%n", "link", "mode", "fps", "on target", "confidence");
+        for (int i = 0; i < LINK.length; i++) {
+            String link = String.format(Locale.US, "%ds %dKB/s", LINK[i][0] / 1000, LINK[i][1] / 1000);
+            print(link, "fixed", fixed[i]);
+            print(link, "adaptive", adaptive[i]);
+        }
+    }
+
+    private static void print(String link, String mode, PhaseStats stats) {
+        System.out.printf(Locale.US, "%-14s %-9s %7.1f %9.0f%% %11.2f%n", link, mode,
+                stats.frames / Math.max(stats.seconds, 1), stats.onTargetSeconds * 100 / Math.max(stats.seconds, 1),
+                stats.scoreSum / Math.max(stats.frames, 1));
+    }
+}
@@ -0,0 +1,225 @@
+package com.painnick.zakuhead5;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the same servo moves to a {@link FakeZakuHead} once as /servo requests on a keep-alive connection and
+ * once as {@link CommandFrame} datagrams over the {@link UdpCommandChannel}, on a clean link and on one that
+ * loses some requests, and compares the round-trip, the bytes each command puts on the wire and the bytes the
+ * sending thread allocates per command.
+ * <p>
+ * The head's own time per command comes from the "us" of the /servo response and from the ack; against the
+ * fake head it only tells the cost of its Java handlers. On the ESP32 the same two numbers, in the
+ * HEAD_COMMAND stage of the app's metrics, compare the firmware's work per command on both paths.
+ * <p>
+ * {@code ./gradlew :loadtest:run -PmainClass=com.painnick.zakuhead5.CommandChannelHarness}
+ */
+public class CommandChannelHarness {
+
+    private static final int WARMUP_COMMANDS = 2_000;
+    private static final int COMMANDS = 5_000;
+    // Commands sent through the byte-counting proxy. It adds a hop, so round-trips are measured without it.
+    private static final int COUNTED_COMMANDS = 200;
+    // IPv4 and UDP headers of a datagram.
+    private static final int UDP_OVERHEAD_BYTES = 28;
+
+    enum Channel {
+        HTTP("http keep-alive"),
+        UDP("udp datagram");
+
+        final String label;
+
+        Channel(String label) {
+            this.label = label;
+        }
+    }
+
+    interface Sender {
+        boolean move(int delta) throws IOException;
+    }
+
+    private final FakeZakuHead head;
+    private final Channel channel;
+
+    CommandChannelHarness(FakeZakuHead head, Channel channel) {
+        this.head = head;
+        this.channel = channel;
+    }
+
+    String run() throws IOException {
+        PipelineMetrics metrics = new PipelineMetrics();
+        LatencyHistogram roundTrips = new LatencyHistogram();
+        long failed;
+        double allocatedPerCommand;
+        double wireBytesPerCommand;
+        if (channel == Channel.HTTP) {
+            KeepAliveHttpTransport transport = new KeepAliveHttpTransport(head.getControlUrl());
+            try {
+                Sender sender = delta -> sendHttp(transport, metrics, delta);
+                send(sender, WARMUP_COMMANDS, null);
+                allocatedPerCommand = allocatedBytesPerCommand(sender);
+                metrics.reset();
+                failed = send(sender, COMMANDS, roundTrips);
+            } finally {
+                transport.close();
+            }
+            wireBytesPerCommand = countHttpBytesPerCommand();
+        } else {
+            UdpCommandChannel.Config config = new UdpCommandChannel.Config();
+            config.port = head.getCommandPort();
+            UdpCommandChannel udp = new UdpCommandChannel(head.getControlUrl(), config, metrics);
+            udp.open();
+            try {
+                Sender sender = delta -> udp.sendMove(delta, true);
+                send(sender, WARMUP_COMMANDS, null);
+                allocatedPerCommand = allocatedBytesPerCommand(sender);
+                metrics.reset();
+                failed = send(sender, COMMANDS, roundTrips);
+            } finally {
+                udp.close();
+            }
+            wireBytesPerCommand = 2 * (CommandFrame.LENGTH + UDP_OVERHEAD_BYTES);
+        }
+        LatencyHistogram headTimes = metrics.getHistogram(PipelineMetrics.Stage.HEAD_COMMAND);
+        return String.format(Locale.US, "%-16s %7.2f %7.2f %7.2f %7.1f | %7.1f %7.1f | %6.0f %6.0f | %5d",
+                channel.label, roundTrips.getMeanMillis(), roundTrips.getPercentileMillis(50),
+                roundTrips.getPercentileMillis(99), roundTrips.getMaxMillis(),
+                headTimes.getPercentileMillis(50) * 1000, headTimes.getPercentileMillis(99) * 1000,
+                wireBytesPerCommand, allocatedPerCommand, failed);
+    }
+
+    private static boolean sendHttp(ZakuHeadTransport transport, PipelineMetrics metrics, int delta) throws IOException {
+        HttpResponse response = transport.get(CommandUrls.servo(delta, true), ZakuHeadTransport.RequestClass.CONTROL);
+        int headMicros = AngleParser.parseHeadMicros(response.body, response.length);
+        if (headMicros >= 0) {
+            metrics.record(PipelineMetrics.Stage.HEAD_COMMAND, headMicros * 1000L);
+        }
+        return response.isSuccessful();
+    }
+
+    /**
+     * @return the commands that failed after all retries.
+     */
+    private static long send(Sender sender, int commands, LatencyHistogram roundTrips) {
+        long failed = 0;
+        for (int i = 0; i < commands; i++) {
+            long startedAt = System.nanoTime();
+            boolean acked;
+            try {
+                // Back and forth, so the head never runs into its end stops.
+                acked = sender.move(i % 2 == 0 ? 3 : -3);
+            } catch (IOException e) {
+                acked = false;
+            }
+            if (!acked) {
+                failed++;
+            } else if (roundTrips != null) {
+                roundTrips.recordNanos(System.nanoTime() - startedAt);
+            }
+        }
+        return failed;
+    }
+
+    private static double allocatedBytesPerCommand(Sender sender) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        send(sender, COUNTED_COMMANDS, null);
+        return (threads.getThreadAllocatedBytes(thread) - before) / (double) COUNTED_COMMANDS;
+    }
+
+    /**
+     * Sends a few /servo requests through a proxy that counts the bytes of both directions.
+     *
+     * @return request and response bytes per command, TCP/IP headers and acks not included.
+     */
+    private double countHttpBytesPerCommand() throws IOException {
+        AtomicLong bytes = new AtomicLong();
+        try (ServerSocket proxy = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"))) {
+            int controlPort = Integer.parseInt(head.getControlUrl().replaceAll(".*:", ""));
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        Socket client = proxy.accept();
+                        Socket server = new Socket("127.0.0.1", controlPort);
+                        client.setTcpNoDelay(true);
+                        server.setTcpNoDelay(true);
+                        pump(client, server, bytes);
+                        pump(server, client, bytes);
+                    }
+                } catch (IOException e) {
+                    // Proxy closed.
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+            KeepAliveHttpTransport transport = new KeepAliveHttpTransport("http://127.0.0.1:" + proxy.getLocalPort());
+            try {
+                PipelineMetrics metrics = new PipelineMetrics();
+                send(delta -> sendHttp(transport, metrics, delta), COUNTED_COMMANDS, null);
+            } finally {
+                transport.close();
+            }
+        }
+        return bytes.get() / (double) COUNTED_COMMANDS;
+    }
+
+    private static void pump(Socket from, Socket to, AtomicLong bytes) {
+        Thread thread = new Thread(() -> {
+            byte[] buffer = new byte[4096];
+            try (InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream()) {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    bytes.addAndGet(n);
+                    out.write(buffer, 0, n);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // One side went away.
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static void main(String[] args) throws IOException {
+        double[] lossRates = {0, 0.02};
+        System.out.printf(Locale.US, "%d servo moves per run, one at a time, as the control lane sends them%n",
+                COMMANDS);
+        for (double lossRate : lossRates) {
+            System.out.printf(Locale.US, "%n%.0f%% of requests lost%n", lossRate * 100);
+            System.out.printf(Locale.US, "%-16s %7s %7s %7s %7s | %7s %7s | %6s %6s | %5s%n",
+                    "channel", "rtt", "p50", "p99", "max", "head50", "head99", "wire", "alloc", "fail");
+            for (Channel channel : Channel.values()) {
+                FakeZakuHead.Options options = new FakeZakuHead.Options();
+                options.latencyMillis = 0;
+                options.jitterMillis = 0;
+                options.commandPort = 0;
+                // A lost /servo goes unanswered until the control policy's read timeout, and is not retried. A lost
+                // datagram, or its ack, is resent after the ack timeout.
+                options.stallRate = lossRate;
+                options.commandLossRate = lossRate / 2;
+                FakeZakuHead head = new FakeZakuHead(options);
+                head.start();
+                try {
+                    System.out.println(new CommandChannelHarness(head, channel).run());
+                } finally {
+                    head.stop();
+                }
+            }
+        }
+        System.out.println();
+        System.out.println("rtt: mean, ms, of acked commands, resends included. head: the head's own time per"
+                + " command, us. wire: payload bytes per command, both ways, plus the IP/UDP headers for udp.");
+        System.out.println("alloc: bytes allocated by the sending thread per command. fail: commands not acked"
+                + " after all retries.");
+    }
+}
@@ -0,0 +1,181 @@
+package com.painnick.zakuhead5;
+
+import java.util.Locale;
+
+/**
+ * Runs an hour of a mostly empty room through {@link FaceTracker} and {@link DutyCycle}, next to the loop
+ * without a duty cycle that asks for frames as fast as it can all the time.
+ * <p>
+ * People come by three times. The phone runs hot for ten minutes, while one of them is there, and comes off the
+ * charger at a low battery for the last ten. Each frame costs the same CPU time and carries the same JPEG;
+ * between frames the app idles at a small CPU cost. Prints the time, frames, CPU and traffic per mode, what
+ * the duty cycle saved, and how fast it noticed each visitor and got back to the full rate.
+ * <p>
+ * {@code ./gradlew :loadtest:run -PmainClass=com.painnick.zakuhead5.DutyCycleSimulation}
+ */
+public class DutyCycleSimulation {
+
+    private static final double FULL_FPS = 20;
+    private static final double CPU_MILLIS_PER_FRAME = 30;
+    private static final double IDLE_CPU_MILLIS_PER_SECOND = 5;
+    private static final long BYTES_PER_FRAME = 20_000;
+    private static final long DURATION_MILLIS = 3_600_000;
+
+    // {from millis, to millis} in which a face is in view.
+    private static final long[][] VISITS = {
+            {300_400, 420_000},
+            {1_500_700, 1_530_000},
+            {2_400_250, 2_700_000},
+    };
+    private static final long HOT_FROM_MILLIS = 2_460_000;
+    private static final long HOT_TO_MILLIS = 3_060_000;
+    private static final long UNPLUGGED_FROM_MILLIS = 3_000_000;
+
+    static final class ManualClock implements NanoClock {
+        long now;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    }
+
+    static final class SimulatedUsage implements DutyCycle.Usage {
+        double cpuMillis;
+        long networkBytes;
+
+        @Override
+        public long cpuMillis() {
+            return (long) cpuMillis;
+        }
+
+        @Override
+        public long networkBytes() {
+            return networkBytes;
+        }
+    }
+
+    private static final FaceTracker.Head NO_HEAD = new FaceTracker.Head() {
+        @Override
+        public void moveLeft(int degree, boolean found) {
+        }
+
+        @Override
+        public void moveRight(int degree, boolean found) {
+        }
+
+        @Override
+        public void ledOn(boolean forced) {
+        }
+
+        @Override
+        public void ledOff(boolean forced) {
+        }
+    };
+
+    static boolean faceAt(double millis) {
+        for (long[] visit : VISITS) {
+            if (millis >= visit[0] && millis < visit[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static final class Result {
+        long frames;
+        double cpuMillis;
+        long networkBytes;
+        DutyCycle dutyCycle;
+        // Per visit: from the face coming into view to the frame that saw it, and from there to the next frame.
+        final double[] noticeMillis = new double[VISITS.length];
+        final double[] nextFrameMillis = new double[VISITS.length];
+    }
+
+    static Result run(boolean dutyCycled) {
+        ManualClock clock = new ManualClock();
+        SimulatedUsage usage = new SimulatedUsage();
+        FaceTracker tracker = new FaceTracker(NO_HEAD, new FaceTracker.Config(), clock);
+        DutyCycle dutyCycle = new DutyCycle(new DutyCycle.Config(), clock, usage);
+        Result result = new Result();
+        result.dutyCycle = dutyCycle;
+        double fullIntervalMillis = 1000 / FULL_FPS;
+        double now = 0;
+        int visit = -1;
+        double detectedAt = -1;
+        boolean hot = false;
+        boolean unplugged = false;
+        while (now < DURATION_MILLIS) {
+            double intervalMillis = dutyCycled
+                    ? Math.max(fullIntervalMillis, dutyCycle.getFrameIntervalNanos() / 1e6)
+                    : fullIntervalMillis;
+            now += intervalMillis;
+            clock.now = (long) (now * 1_000_000);
+            if (dutyCycled && !hot && now >= HOT_FROM_MILLIS && now < HOT_TO_MILLIS) {
+                hot = true;
+                dutyCycle.onThermalStatus(2);
+            } else if (dutyCycled && hot && now >= HOT_TO_MILLIS) {
+                hot = false;
+                dutyCycle.onThermalStatus(0);
+            }
+            if (dutyCycled && !unplugged && now >= UNPLUGGED_FROM_MILLIS) {
+                unplugged = true;
+                dutyCycle.onBattery(15, false);
+            }
+            // The frame itself, then idling until the next one.
+            usage.cpuMillis += CPU_MILLIS_PER_FRAME + IDLE_CPU_MILLIS_PER_SECOND * intervalMillis / 1000;
+            usage.networkBytes += BYTES_PER_FRAME;
+            result.frames++;
+            if (detectedAt >= 0) {
+                result.nextFrameMillis[visit] = now - detectedAt;
+                detectedAt = -1;
+            }
+            if (faceAt(now)) {
+                if (visit < 0 || now >= VISITS[visit][1]) {
+                    visit++;
+                    result.noticeMillis[visit] = now - VISITS[visit][0];
+                    detectedAt = now;
+                }
+                tracker.onFace(0.5f, clock.now, 90);
+            } else {
+                tracker.onNoFace(clock.now, 90);
+            }
+            dutyCycle.onTrackerState(tracker.getState());
+        }
+        result.cpuMillis = usage.cpuMillis;
+        result.networkBytes = usage.networkBytes;
+        return result;
+    }
+
+    public static void main(String[] args) {
+        System.out.printf(Locale.US, "%.0f fps at full rate, %.0f ms CPU and %d KB per frame, %d minutes with %d"
+                        + " visits, hot from %d to %d min, unplugged at 15%% from %d min%n%n",
+                FULL_FPS, CPU_MILLIS_PER_FRAME, BYTES_PER_FRAME / 1000, DURATION_MILLIS / 60_000, VISITS.length,
+                HOT_FROM_MILLIS / 60_000, HOT_TO_MILLIS / 60_000, UNPLUGGED_FROM_MILLIS / 60_000);
+        Result always = run(false);
+        Result cycled = run(true);
+        System.out.println(cycled.dutyCycle);
+        System.out.println();
+        System.out.printf(Locale.US, "%-12s %8s %10s %10s%n", "loop", "frames", "cpu s/min", "MB/min");
+        print("always on", always);
+        print("duty cycled", cycled);
+        System.out.printf(Locale.US, "%-12s %7.0f%% %9.0f%% %9.0f%%%n", "saved",
+                100 - cycled.frames * 100.0 / always.frames, 100 - cycled.cpuMillis * 100 / always.cpuMillis,
+                100 - cycled.networkBytes * 100.0 / always.networkBytes);
+        System.out.println();
+        System.out.printf(Locale.US, "%-8s %12s %12s %12s%n", "visit", "at", "noticed ms", "next frame");
+        for (int i = 0; i < VISITS.length; i++) {
+            System.out.printf(Locale.US, "%-8d %11dm %12.0f %9.0f ms%n", i + 1, VISITS[i][0] / 60_000,
+                    cycled.noticeMillis[i], cycled.nextFrameMillis[i]);
+        }
+        System.out.println();
+        System.out.println("noticed: face in view to the frame that saw it. next frame: from that frame to the one"
+                + " after it, " + (long) (1000 / FULL_FPS) + " ms at full rate.");
+    }
+
+    private static void print(String loop, Result result) {
+        double minutes = DURATION_MILLIS / 60_000.0;
+        System.out.printf(Locale.US, "%-12s %8d %10.1f %10.2f%n", loop, result.frames,
+                result.cpuMillis / 1000 / minutes, result.networkBytes / 1e6 / minutes);
+    }
+}
@@ -0,0 +1,631 @@
+package com.painnick.zakuhead5;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Stand-in for the ESP32 head, with the endpoints and response shapes of http_server.cpp.
+ * <p>
+ * Like the firmware, the camera server (/capture, /stream, /orientation, /camera) and the control server
+ * (/servo, /led, /orientation, /camera) listen on two ports and each handles one request at a time. Frames
+ * are replayed from a directory of recorded JPEGs, no faster than the configured sensor frame rate, and
+ * re-encoded at the framesize and quality set through /camera. Latency, jitter, bandwidth and failures can
+ * be injected per server, as well as requests that are lost on the way and a head that goes offline.
+ * <p>
+ * With a command port, it also answers {@link CommandFrame} datagrams like command_server.cpp, on one thread,
+ * acking a resent sequence number again without moving twice. Datagrams can be lost either way.
+ */
+public class FakeZakuHead {
+
+    private static final String PART_BOUNDARY = "123456789000000000000987654321";
+    private static final int SEGMENT_BYTES = 1460;
+    // MONO_EYE_MIN_ANGLE and MONO_EYE_MAX_ANGLE in zaku_servo.h.
+    private static final int MIN_ANGLE = 10;
+    private static final int MAX_ANGLE = 170;
+
+    public static class Options {
+        /** 0 picks a free port. */
+        public int cameraPort = 0;
+        /** 0 picks a free port. */
+        public int controlPort = 0;
+        /** Directory of *.jpg frames, replayed in name order. Null generates VGA test frames. */
+        public File frameDirectory = null;
+        /** Rate at which the sensor produces new frames. */
+        public double sensorFps = 25;
+        /** Added before every response. */
+        public long latencyMillis = 5;
+        /** Up to this much is randomly added to the latency. */
+        public long jitterMillis = 5;
+        /** Throughput of the simulated Wi-Fi link for bodies. 0 is unlimited. */
+        public long bandwidthBytesPerSecond = 0;
+        /** Share of requests answered with HTTP 500. */
+        public double errorRate = 0;
+        /** Share of requests whose connection is dropped without a response. */
+        public double dropRate = 0;
+        /**
+         * Share of requests that are never answered, as if lost on the way. Unlike a slow response, the
+         * server is free for the next request meanwhile.
+         */
+        public double stallRate = 0;
+        /** How long a lost request's connection stays open before the server gives up on it. */
+        public long stallMillis = 10_000;
+        /** UDP port of the command channel. 0 picks a free port, -1 has none, as firmwares before it. */
+        public int commandPort = -1;
+        /** Share of command datagrams lost on the way, and again of their acks. */
+        public double commandLossRate = 0;
+        public long seed = 1;
+    }
+
+    private final Options options;
+    // As loaded or generated, before /camera settings.
+    private final List<byte[]> sourceFrames;
+    // Replaced under this by /camera.
+    private volatile List<byte[]> frames;
+    private String framesize = "VGA";
+    private int quality = 10;
+    private final Random random;
+    private final HttpServer cameraServer;
+    private final HttpServer controlServer;
+    private final ExecutorService cameraExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService controlExecutor = Executors.newSingleThreadExecutor();
+    private final ScheduledExecutorService stallTimer = Executors.newSingleThreadScheduledExecutor();
+    private final DatagramSocket commandSocket;
+    private final Thread commandThread;
+
+    private final long frameIntervalNanos;
+    // Frame pacing. Only held to take the next frame and its due time, never while waiting for it.
+    private final Object sensorLock = new Object();
+    // Guarded by sensorLock.
+    private int nextFrame = 0;
+    private long lastFrameAt = 0;
+    // The servo's own, so that a command never waits behind the camera.
+    private final Object servoLock = new Object();
+    // Guarded by servoLock.
+    private int angle = 90;
+    private long servoCommands = 0;
+    // Guarded by this.
+    private int flip = 0;
+    private long ledCommands = 0;
+    private volatile boolean stopped = false;
+    private volatile boolean offline = false;
+    private long offlineRequests = 0;
+    private long commandDatagrams = 0;
+    private long resentCommands = 0;
+
+    public FakeZakuHead(Options options) throws IOException {
+        this.options = options;
+        sourceFrames = options.frameDirectory != null ? loadFrames(options.frameDirectory) : generateFrames(30);
+        frames = sourceFrames;
+        if (frames.isEmpty()) {
+            throw new IOException("No .jpg frames in " + options.frameDirectory);
+        }
+        random = new Random(options.seed);
+        frameIntervalNanos = (long) (1e9 / options.sensorFps);
+
+        // Otherwise Nagle's algorithm holds back every small response body for a delayed ACK (~40 ms).
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        cameraServer = HttpServer.create(new InetSocketAddress("127.0.0.1", options.cameraPort), 8);
+        cameraServer.setExecutor(cameraExecutor);
+        cameraServer.createContext("/capture", this::handleCapture);
+        cameraServer.createContext("/stream", this::handleStream);
+        cameraServer.createContext("/orientation", this::handleOrientation);
+        cameraServer.createContext("/camera", this::handleCamera);
+
+        controlServer = HttpServer.create(new InetSocketAddress("127.0.0.1", options.controlPort), 8);
+        controlServer.setExecutor(controlExecutor);
+        controlServer.createContext("/servo", this::handleServo);
+        controlServer.createContext("/led", this::handleLed);
+        controlServer.createContext("/orientation", this::handleOrientation);
+        controlServer.createContext("/camera", this::handleCamera);
+
+        if (options.commandPort >= 0) {
+            commandSocket = new DatagramSocket(options.commandPort, InetAddress.getByName("127.0.0.1"));
+            commandThread = new Thread(this::serveCommands, "FakeZakuHeadCommands");
+            commandThread.setDaemon(true);
+        } else {
+            commandSocket = null;
+            commandThread = null;
+        }
+    }
+
+    public void start() {
+        cameraServer.start();
+        controlServer.start();
+        if (commandThread != null) {
+            commandThread.start();
+        }
+    }
+
+    public void stop() {
+        stopped = true;
+        cameraServer.stop(0);
+        controlServer.stop(0);
+        cameraExecutor.shutdownNow();
+        controlExecutor.shutdownNow();
+        stallTimer.shutdownNow();
+        if (commandSocket != null) {
+            commandSocket.close();
+        }
+    }
+
+    /**
+     * While offline, as while the head reboots, every connection is closed without a response.
+     */
+    public void setOffline(boolean offline) {
+        this.offline = offline;
+    }
+
+    /**
+     * Requests that came in while offline.
+     */
+    public synchronized long getOfflineRequests() {
+        return offlineRequests;
+    }
+
+    public String getCameraUrl() {
+        return "http://127.0.0.1:" + cameraServer.getAddress().getPort();
+    }
+
+    public String getControlUrl() {
+        return "http://127.0.0.1:" + controlServer.getAddress().getPort();
+    }
+
+    /**
+     * Port of the command channel, -1 without one.
+     */
+    public int getCommandPort() {
+        return commandSocket != null ? commandSocket.getLocalPort() : -1;
+    }
+
+    /**
+     * Command datagrams that reached the head, resends included.
+     */
+    public synchronized long getCommandDatagrams() {
+        return commandDatagrams;
+    }
+
+    /**
+     * Commands that came again after their ack got lost, and were acked without being applied.
+     */
+    public synchronized long getResentCommands() {
+        return resentCommands;
+    }
+
+    public int getAngle() {
+        synchronized (servoLock) {
+            return angle;
+        }
+    }
+
+    public long getServoCommands() {
+        synchronized (servoLock) {
+            return servoCommands;
+        }
+    }
+
+    public synchronized long getLedCommands() {
+        return ledCommands;
+    }
+
+    private void handleCapture(HttpExchange exchange) throws IOException {
+        if (injectFailure(exchange)) {
+            return;
+        }
+        byte[] jpeg = nextFrame();
+        exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+        exchange.getResponseHeaders().set("Content-Disposition", "inline; filename=capture.jpg");
+        exchange.sendResponseHeaders(200, jpeg.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            writeThrottled(out, jpeg, 0, jpeg.length);
+        }
+    }
+
+    private void handleStream(HttpExchange exchange) throws IOException {
+        if (injectFailure(exchange)) {
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "multipart/x-mixed-replace;boundary=" + PART_BOUNDARY);
+        exchange.sendResponseHeaders(200, 0);
+        // Like the firmware, the stream keeps the camera server busy until the client goes away.
+        try (OutputStream out = exchange.getResponseBody()) {
+            while (!stopped) {
+                byte[] jpeg = nextFrame();
+                byte[] head = ("\r\n--" + PART_BOUNDARY + "\r\nContent-Type: image/jpeg\r\nContent-Length: "
+                        + jpeg.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+                out.write(head);
+                writeThrottled(out, jpeg, 0, jpeg.length);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Client closed the stream.
+        }
+    }
+
+    private void handleServo(HttpExchange exchange) throws IOException {
+        if (injectFailure(exchange)) {
+            return;
+        }
+        String dir = queryParameter(exchange.getRequestURI(), "dir");
+        String step = queryParameter(exchange.getRequestURI(), "step");
+        if (dir == null || step == null) {
+            respond(exchange, 404, "text/plain", new byte[0]);
+            return;
+        }
+        long startedAt = System.nanoTime();
+        int degree = parseIntOrZero(step);
+        int body = move(dir.equals("left") ? degree : dir.equals("right") ? -degree : 0);
+        long micros = (System.nanoTime() - startedAt) / 1000;
+        respond(exchange, 200, "application/json",
+                ("{\"angle\":" + body + ",\"us\":" + micros + "}").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @param delta positive turns left.
+     * @return the angle after the move.
+     */
+    private int move(int delta) {
+        synchronized (servoLock) {
+            angle = Math.max(MIN_ANGLE, Math.min(MAX_ANGLE, angle + delta));
+            servoCommands++;
+            return angle;
+        }
+    }
+
+    private void serveCommands() {
+        byte[] frame = new byte[CommandFrame.LENGTH];
+        byte[] lastAck = new byte[CommandFrame.LENGTH];
+        int lastSeq = -1;
+        DatagramPacket packet = new DatagramPacket(frame, frame.length);
+        while (!stopped) {
+            try {
+                packet.setLength(frame.length);
+                commandSocket.receive(packet);
+                if (offline || packet.getLength() != CommandFrame.LENGTH || frame[0] != CommandFrame.MAGIC
+                        || (frame[1] & CommandFrame.ACK) != 0 || lose()) {
+                    continue;
+                }
+                synchronized (this) {
+                    commandDatagrams++;
+                }
+                long delay;
+                synchronized (random) {
+                    delay = options.latencyMillis
+                            + (options.jitterMillis > 0 ? (long) (random.nextDouble() * options.jitterMillis) : 0);
+                }
+                sleepMillis(delay);
+                long startedAt = System.nanoTime();
+                int seq = CommandFrame.seqOf(frame);
+                if (seq == lastSeq) {
+                    synchronized (this) {
+                        resentCommands++;
+                    }
+                    ack(lastAck, packet);
+                    continue;
+                }
+                boolean refused = false;
+                int value = CommandFrame.valueOf(frame);
+                if (frame[1] == CommandFrame.OP_MOVE) {
+                    move(value);
+                } else if (frame[1] == CommandFrame.OP_LED && 0 <= value && value < 256) {
+                    synchronized (this) {
+                        ledCommands++;
+                    }
+                } else {
+                    refused = true;
+                }
+                int micros = (int) Math.min(0xffff, (System.nanoTime() - startedAt) / 1000);
+                frame[1] |= (byte) CommandFrame.ACK;
+                frame[6] = (byte) (refused ? CommandFrame.FLAG_ERROR : 0);
+                frame[7] = (byte) getAngle();
+                frame[8] = (byte) (micros >> 8);
+                frame[9] = (byte) micros;
+                lastSeq = seq;
+                System.arraycopy(frame, 0, lastAck, 0, CommandFrame.LENGTH);
+                ack(frame, packet);
+            } catch (IOException e) {
+                // Socket closed by stop().
+            }
+        }
+    }
+
+    private void ack(byte[] frame, DatagramPacket from) throws IOException {
+        if (lose()) {
+            return;
+        }
+        commandSocket.send(new DatagramPacket(frame, CommandFrame.LENGTH, from.getSocketAddress()));
+    }
+
+    private boolean lose() {
+        synchronized (random) {
+            return options.commandLossRate > 0 && random.nextDouble() < options.commandLossRate;
+        }
+    }
+
+    private void handleLed(HttpExchange exchange) throws IOException {
+        if (injectFailure(exchange)) {
+            return;
+        }
+        if (queryParameter(exchange.getRequestURI(), "bright") == null) {
+            respond(exchange, 404, "text/plain", new byte[0]);
+            return;
+        }
+        synchronized (this) {
+            ledCommands++;
+        }
+        respond(exchange, 200, "text/plain", new byte[0]);
+    }
+
+    private void handleOrientation(HttpExchange exchange) throws IOException {
+        String value = queryParameter(exchange.getRequestURI(), "flip");
+        int body;
+        synchronized (this) {
+            if (value != null) {
+                flip = parseIntOrZero(value) != 0 ? 1 : 0;
+            }
+            body = flip;
+        }
+        respond(exchange, 200, "application/json", ("{\"flip\":" + body + "}").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void handleCamera(HttpExchange exchange) throws IOException {
+        String requestedFramesize = queryParameter(exchange.getRequestURI(), "framesize");
+        String requestedQuality = queryParameter(exchange.getRequestURI(), "quality");
+        String body;
+        synchronized (this) {
+            String newFramesize = framesize;
+            int newQuality = quality;
+            // Like the firmware: nothing larger or better than the init settings, VGA/q10.
+            if (requestedFramesize != null && widthOf(requestedFramesize) > 0
+                    && widthOf(requestedFramesize) <= widthOf("VGA")) {
+                newFramesize = requestedFramesize;
+            }
+            if (requestedQuality != null) {
+                int q = parseIntOrZero(requestedQuality);
+                if (10 <= q && q <= 63) {
+                    newQuality = q;
+                }
+            }
+            if (!newFramesize.equals(framesize) || newQuality != quality) {
+                framesize = newFramesize;
+                quality = newQuality;
+                frames = transcode(sourceFrames, widthOf(framesize), heightOf(framesize), quality);
+            }
+            body = "{\"framesize\":\"" + framesize + "\",\"quality\":" + quality + ",\"max\":\"VGA\"}";
+        }
+        respond(exchange, 200, "application/json", body.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static int widthOf(String framesize) {
+        switch (framesize) {
+            case "QVGA":
+                return 320;
+            case "CIF":
+                return 400;
+            case "VGA":
+                return 640;
+            case "SVGA":
+                return 800;
+            default:
+                return 0;
+        }
+    }
+
+    private static int heightOf(String framesize) {
+        return framesize.equals("CIF") ? 296 : widthOf(framesize) * 3 / 4;
+    }
+
+    /**
+     * Scales and re-encodes the frames, with the sensor's quality scale (lower is better) mapped roughly onto
+     * the JDK encoder's.
+     */
+    private static List<byte[]> transcode(List<byte[]> sources, int width, int height, int quality)
+            throws IOException {
+        List<byte[]> result = new ArrayList<>();
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality((float) Math.max(0.05, 1 - quality * 1.2 / 64));
+        try {
+            for (byte[] source : sources) {
+                BufferedImage image = ImageIO.read(new ByteArrayInputStream(source));
+                BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                Graphics2D g = scaled.createGraphics();
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(image, 0, 0, width, height, null);
+                g.dispose();
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try (ImageOutputStream imageOut = ImageIO.createImageOutputStream(out)) {
+                    writer.setOutput(imageOut);
+                    writer.write(null, new IIOImage(scaled, null, null), param);
+                }
+                result.add(out.toByteArray());
+            }
+        } finally {
+            writer.dispose();
+        }
+        return result;
+    }
+
+    /**
+     * Waits out the injected latency, then maybe fails the request.
+     *
+     * @return true when the exchange was failed and must not be answered.
+     */
+    private boolean injectFailure(HttpExchange exchange) throws IOException {
+        if (offline) {
+            synchronized (this) {
+                offlineRequests++;
+            }
+            exchange.close();
+            return true;
+        }
+        long delay;
+        double roll;
+        synchronized (random) {
+            delay = options.latencyMillis + (options.jitterMillis > 0 ? (long) (random.nextDouble() * options.jitterMillis) : 0);
+            roll = random.nextDouble();
+        }
+        sleepMillis(delay);
+        if (roll < options.dropRate) {
+            // Closing without a response makes the server drop the connection.
+            exchange.close();
+            return true;
+        }
+        if (roll < options.dropRate + options.errorRate) {
+            respond(exchange, 500, "text/plain", new byte[0]);
+            return true;
+        }
+        if (roll < options.dropRate + options.errorRate + options.stallRate) {
+            stallTimer.schedule(exchange::close, options.stallMillis, TimeUnit.MILLISECONDS);
+            return true;
+        }
+        return false;
+    }
+
+    private byte[] nextFrame() {
+        List<byte[]> current = frames;
+        long due;
+        byte[] frame;
+        synchronized (sensorLock) {
+            // The sensor delivers a new frame buffer at most every frame interval.
+            due = Math.max(System.nanoTime(), lastFrameAt + frameIntervalNanos);
+            lastFrameAt = due;
+            frame = current.get(nextFrame % current.size());
+            nextFrame = (nextFrame + 1) % current.size();
+        }
+        sleepMillis((due - System.nanoTime()) / 1_000_000);
+        return frame;
+    }
+
+    private void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void writeThrottled(OutputStream out, byte[] data, int offset, int length) throws IOException {
+        if (options.bandwidthBytesPerSecond <= 0) {
+            out.write(data, offset, length);
+            return;
+        }
+        long startedAt = System.nanoTime();
+        int written = 0;
+        while (written < length) {
+            int segment = Math.min(SEGMENT_BYTES, length - written);
+            out.write(data, offset + written, segment);
+            written += segment;
+            long due = startedAt + written * 1_000_000_000L / options.bandwidthBytesPerSecond;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                out.flush();
+                sleepMillis(wait / 1_000_000);
+            }
+        }
+    }
+
+    private static String queryParameter(URI uri, String name) {
+        String query = uri.getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                return pair.substring(eq + 1);
+            }
+        }
+        return null;
+    }
+
+    private static int parseIntOrZero(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void sleepMillis(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static List<byte[]> loadFrames(File directory) throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.toLowerCase(Locale.US).endsWith(".jpg"));
+        List<byte[]> frames = new ArrayList<>();
+        if (files == null) {
+            return frames;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            frames.add(Files.readAllBytes(file.toPath()));
+        }
+        return frames;
+    }
+
+    /**
+     * VGA frames with a bright square moving across, about the size of the head's default JPEGs.
+     */
+    private static List<byte[]> generateFrames(int count) throws IOException {
+        List<byte[]> frames = new ArrayList<>();
+        Random noise = new Random(7);
+        for (int i = 0; i < count; i++) {
+            BufferedImage image = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = image.createGraphics();
+            for (int y = 0; y < 480; y += 8) {
+                for (int x = 0; x < 640; x += 8) {
+                    int v = 60 + noise.nextInt(80);
+                    g.setColor(new Color(v, v, v));
+                    g.fillRect(x, y, 8, 8);
+                }
+            }
+            g.setColor(new Color(230, 190, 160));
+            g.fillOval(80 + i * 15, 160, 120, 150);
+            g.dispose();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "jpg", out);
+            frames.add(out.toByteArray());
+        }
+        return frames;
+    }
+}
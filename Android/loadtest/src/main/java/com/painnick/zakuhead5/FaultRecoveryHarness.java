@@ -0,0 +1,190 @@
+package com.painnick.zakuhead5;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Runs the /capture loop of {@link ZakuHeadApi}, on a {@link JvmHeadPlatform}, against a {@link FakeZakuHead}
+ * that loses and fails some requests and now and then goes offline, as if it rebooted, and reports how well the
+ * loop's supervision copes.
+ * <p>
+ * The loop polls with up to the pipeline depth of fetches in flight, every frame asking for the next. It runs
+ * once per {@link Mode} of its {@link HeadHealth}: failures retried at once, after the backoff, and after the
+ * backoff with hedged requests. Reports the frame rate, the time from a /capture request to its frame, the
+ * longest waits between frames while the head was online, the time from the end of each outage to the next
+ * frame, and the requests the offline head had to turn away. The loop's warnings are not printed.
+ * <p>
+ * {@code ./gradlew :loadtest:run -PmainClass=com.painnick.zakuhead5.FaultRecoveryHarness}
+ */
+public class FaultRecoveryHarness {
+
+    private static final int PIPELINE_DEPTH = 2;
+    private static final long DURATION_MILLIS = 30_000;
+
+    // {offline from, back online at} millis
+    private static final long[][] OUTAGES = {
+            {4_000, 6_000},
+            {10_000, 11_000},
+            {15_000, 18_000},
+            {23_000, 25_000},
+    };
+
+    enum Mode {
+        /** Failures retried at once. */
+        RETRY("retry"),
+        BACKOFF("backoff"),
+        HEDGED("backoff+hedge");
+
+        final String label;
+
+        Mode(String label) {
+            this.label = label;
+        }
+
+        HeadHealth.Config config() {
+            HeadHealth.Config config = new HeadHealth.Config();
+            if (this == RETRY) {
+                config.backoffBaseMillis = 1;
+                config.backoffMaxMillis = 1;
+            }
+            config.hedged = this == HEDGED;
+            return config;
+        }
+    }
+
+    private final FakeZakuHead head;
+    private final Mode mode;
+    private final HeadHealth health;
+    private final ZakuHeadApi<RawFrame> api;
+    private final LatencyHistogram fetchLatency = new LatencyHistogram();
+    private final long startedAt = System.nanoTime();
+
+    // Guarded by this.
+    private final List<Long> frameMillis = new ArrayList<>();
+
+    FaultRecoveryHarness(FakeZakuHead head, Mode mode) {
+        this.head = head;
+        this.mode = mode;
+        health = new HeadHealth(mode.config(), NanoClock.SYSTEM, new Random(3));
+        api = new ZakuHeadApi<>(new JvmHeadPlatform(), head.getCameraUrl(), head.getControlUrl(), PIPELINE_DEPTH);
+        api.setHeadHealth(health);
+        api.setPreferSensorFlip(false);
+        api.setNewFrameListener(this::onFrame);
+    }
+
+    String run() throws InterruptedException {
+        api.start();
+        for (long[] outage : OUTAGES) {
+            sleepUntil(outage[0]);
+            head.setOffline(true);
+            sleepUntil(outage[1]);
+            head.setOffline(false);
+        }
+        sleepUntil(DURATION_MILLIS);
+        api.close();
+
+        LatencyHistogram gaps = new LatencyHistogram();
+        LatencyHistogram recoveries = new LatencyHistogram();
+        int unrecovered = 0;
+        long frames;
+        long lastFrame;
+        synchronized (this) {
+            frames = frameMillis.size();
+            lastFrame = frames == 0 ? 0 : frameMillis.get(frameMillis.size() - 1);
+            for (int i = 1; i < frameMillis.size(); i++) {
+                if (!overlapsOutage(frameMillis.get(i - 1), frameMillis.get(i))) {
+                    gaps.recordNanos((frameMillis.get(i) - frameMillis.get(i - 1)) * 1_000_000);
+                }
+            }
+            for (long[] outage : OUTAGES) {
+                long recovery = -1;
+                for (long at : frameMillis) {
+                    if (at >= outage[1]) {
+                        recovery = at - outage[1];
+                        break;
+                    }
+                }
+                if (recovery < 0) {
+                    unrecovered++;
+                } else {
+                    recoveries.recordNanos(recovery * 1_000_000);
+                }
+            }
+        }
+        return String.format(Locale.US,
+                "%-14s %5.1f %6.0f %6.0f %6.0f | %6.0f %6.0f | %6.0f %6.0f %5d | %6.1fs %8d %8d %4d/%d",
+                mode.label, frames * 1000.0 / DURATION_MILLIS,
+                fetchLatency.getPercentileMillis(50), fetchLatency.getPercentileMillis(99),
+                fetchLatency.getMaxMillis(), gaps.getPercentileMillis(99), gaps.getMaxMillis(),
+                recoveries.getMeanMillis(), recoveries.getMaxMillis(), unrecovered, lastFrame / 1000.0,
+                head.getOfflineRequests(), health.getRestartCount(), health.getHedgeWinCount(),
+                health.getHedgeCount());
+    }
+
+    private static boolean overlapsOutage(long from, long to) {
+        for (long[] outage : OUTAGES) {
+            if (from < outage[1] && to > outage[0]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * On an image lane. A polled frame's timestamp is when its /capture was sent.
+     */
+    private void onFrame(RawFrame frame, long timestampUs) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            fetchLatency.recordNanos(now - timestampUs * 1000);
+            frameMillis.add((now - startedAt) / 1_000_000);
+        }
+        api.releaseFrame(frame);
+        api.reloadImage();
+    }
+
+    private void sleepUntil(long millis) throws InterruptedException {
+        long wait = millis - (System.nanoTime() - startedAt) / 1_000_000;
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        FakeZakuHead.Options options = new FakeZakuHead.Options();
+        options.latencyMillis = 5;
+        options.jitterMillis = 10;
+        options.errorRate = 0.01;
+        options.dropRate = 0.01;
+        options.stallRate = 0.02;
+        HeadLog.setSink((level, tag, message) -> {
+            if (level >= HeadLog.ERROR) {
+                System.err.println("E/" + tag + ": " + message);
+            }
+        });
+        System.out.printf(Locale.US, "%ds, pipeline depth %d, %.0f%% of requests lost, %.0f%% dropped, %.0f%% HTTP 500,"
+                        + " offline %d times for 1-3s%n%n",
+                DURATION_MILLIS / 1000, PIPELINE_DEPTH, options.stallRate * 100, options.dropRate * 100,
+                options.errorRate * 100, OUTAGES.length);
+        System.out.printf(Locale.US, "%-14s %5s %6s %6s %6s | %6s %6s | %6s %6s %5s | %7s %8s %8s %6s%n",
+                "supervision", "fps", "fetch", "p99", "max", "gap99", "max", "rec", "max", "never", "last",
+                "offline", "restarts", "hedges");
+        for (Mode mode : Mode.values()) {
+            FakeZakuHead head = new FakeZakuHead(options);
+            head.start();
+            try {
+                System.out.println(new FaultRecoveryHarness(head, mode).run());
+            } finally {
+                head.stop();
+            }
+        }
+        System.out.println();
+        System.out.println("fetch: request to frame, p50, ms. gap: between frames while online."
+                + " rec: mean time from the end of an outage to the next frame; never: outages without one.");
+        System.out.println("last: time of the last frame. offline: requests the offline head turned away."
+                + " hedges: won/sent.");
+    }
+}
@@ -0,0 +1,200 @@
+package com.painnick.zakuhead5;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Replays synthetic face sequences through {@link DetectionCadence} and {@link PatchTracker}, against running
+ * the detector on every frame.
+ * <p>
+ * Frames are luma planes of the size the controller samples: a textured background, a textured face patch on
+ * a scripted path, and sensor noise. The "detector" knows where the face is, give or take half a pixel, and
+ * finds it only while most of it is in the frame. Reports the share of frames that still needed the detector,
+ * the error of the box center the steering would get, frames where a face was reported that had left (ghost)
+ * or none was reported for one in view (missed), and the tracker's own cost per frame.
+ * <p>
+ * {@code ./gradlew :loadtest:run -PmainClass=com.painnick.zakuhead5.HybridDetectionReplay}
+ */
+public class HybridDetectionReplay {
+
+    private static final int WIDTH = 96;
+    private static final int HEIGHT = 72;
+    private static final int FACE_WIDTH = 16;
+    private static final int FACE_HEIGHT = 20;
+    private static final int FRAMES = 600;
+    private static final int SENSOR_NOISE = 4;
+
+    interface Path {
+        /**
+         * @return x of the face's left edge at the frame, in plane pixels.
+         */
+        double xAt(int frame);
+    }
+
+    static final class Result {
+        int detections;
+        double meanErrorPercent;
+        double p95ErrorPercent;
+        int ghostFrames;
+        int missedFrames;
+        double trackMicros;
+    }
+
+    static Result replay(Path path, boolean hybrid, long seed) {
+        Random random = new Random(seed);
+        byte[] background = texture(WIDTH, HEIGHT, 40, 120, random);
+        byte[] face = texture(FACE_WIDTH, FACE_HEIGHT, 110, 230, random);
+        byte[] luma = new byte[WIDTH * HEIGHT];
+        PatchTracker tracker = new PatchTracker(WIDTH, HEIGHT, 8, 20, 6);
+        DetectionCadence cadence = new DetectionCadence();
+        int faceY = (HEIGHT - FACE_HEIGHT) / 2;
+        double[] errors = new double[FRAMES];
+        int errorCount = 0;
+        long trackNanos = 0;
+        int tracked = 0;
+        Result result = new Result();
+        for (int frame = 0; frame < FRAMES; frame++) {
+            int faceX = (int) Math.round(path.xAt(frame));
+            render(luma, background, face, faceX, faceY, random);
+            double trueCenter = (faceX + FACE_WIDTH / 2.0) / WIDTH;
+            int visible = Math.min(faceX + FACE_WIDTH, WIDTH) - Math.max(faceX, 0);
+            boolean inView = visible * 2 > FACE_WIDTH;
+
+            boolean reported = false;
+            double center = 0;
+            boolean detect = !hybrid || cadence.shouldDetect();
+            if (!detect) {
+                long startedAt = System.nanoTime();
+                boolean found = tracker.track(luma);
+                trackNanos += System.nanoTime() - startedAt;
+                tracked++;
+                if (found) {
+                    cadence.onTracked(tracker.getLastMotion());
+                    reported = true;
+                    center = tracker.getXmin() + tracker.getWidth() / 2;
+                } else {
+                    cadence.onTrackLost();
+                    detect = true;
+                }
+            }
+            if (detect) {
+                result.detections++;
+                if (inView) {
+                    float xmin = (float) ((faceX + random.nextDouble() - 0.5) / WIDTH);
+                    float ymin = (float) ((faceY + random.nextDouble() - 0.5) / HEIGHT);
+                    float width = (float) FACE_WIDTH / WIDTH;
+                    float height = (float) FACE_HEIGHT / HEIGHT;
+                    if (hybrid) {
+                        cadence.onDetected(tracker.setTemplate(luma, xmin, ymin, width, height));
+                    }
+                    reported = true;
+                    center = xmin + width / 2;
+                } else if (hybrid) {
+                    cadence.onDetected(false);
+                }
+            }
+            if (reported && !inView) {
+                result.ghostFrames++;
+            } else if (!reported && inView) {
+                result.missedFrames++;
+            } else if (reported) {
+                errors[errorCount++] = Math.abs(center - trueCenter) * 100;
+            }
+        }
+        Arrays.sort(errors, 0, errorCount);
+        double sum = 0;
+        for (int i = 0; i < errorCount; i++) {
+            sum += errors[i];
+        }
+        result.meanErrorPercent = errorCount == 0 ? 0 : sum / errorCount;
+        result.p95ErrorPercent = errorCount == 0 ? 0 : errors[(int) (errorCount * 0.95)];
+        result.trackMicros = tracked == 0 ? 0 : trackNanos / 1e3 / tracked;
+        return result;
+    }
+
+    /**
+     * Random values in [min, max), smoothed so the texture has structure a few pixels wide, like a face or a
+     * room at this resolution.
+     */
+    private static byte[] texture(int width, int height, int min, int max, Random random) {
+        int[] raw = new int[width * height];
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = min + random.nextInt(max - min);
+        }
+        byte[] smoothed = new byte[raw.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int sum = 0;
+                int n = 0;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int sx = x + dx;
+                        int sy = y + dy;
+                        if (sx >= 0 && sx < width && sy >= 0 && sy < height) {
+                            sum += raw[sy * width + sx];
+                            n++;
+                        }
+                    }
+                }
+                smoothed[y * width + x] = (byte) (sum / n);
+            }
+        }
+        return smoothed;
+    }
+
+    private static void render(byte[] luma, byte[] background, byte[] face, int faceX, int faceY, Random random) {
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int fx = x - faceX;
+                int fy = y - faceY;
+                int value = fx >= 0 && fx < FACE_WIDTH && fy >= 0 && fy < FACE_HEIGHT
+                        ? face[fy * FACE_WIDTH + fx] & 0xff
+                        : background[y * WIDTH + x] & 0xff;
+                value += random.nextInt(2 * SENSOR_NOISE + 1) - SENSOR_NOISE;
+                luma[y * WIDTH + x] = (byte) Math.max(0, Math.min(255, value));
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        String[] names = {"still", "walk", "swing", "leave and return"};
+        double centerX = (WIDTH - FACE_WIDTH) / 2.0;
+        Path[] paths = {
+                frame -> centerX + Math.sin(frame * 0.7) * 0.4,
+                // 1.5 px per frame, back and forth across the middle.
+                frame -> centerX + 30 * (2 * Math.abs((frame * 1.5 / 60.0) % 2 - 1) - 1),
+                // Up to 4.7 px per frame.
+                frame -> centerX + 30 * Math.sin(frame * 2 * Math.PI / 40),
+                // Walks out to the right at 3 px per frame, stays out, comes back.
+                frame -> {
+                    int phase = frame % 150;
+                    if (phase < 40) {
+                        return centerX;
+                    } else if (phase < 60) {
+                        return centerX + (phase - 40) * 3.0;
+                    } else if (phase < 100) {
+                        return WIDTH + 10;
+                    } else if (phase < 120) {
+                        return WIDTH - (phase - 100) * 3.0;
+                    }
+                    return WIDTH - 60;
+                }
+        };
+        System.out.printf(Locale.US, "%d frames per scenario, %dx%d luma, %dx%d face%n%n",
+                FRAMES, WIDTH, HEIGHT, FACE_WIDTH, FACE_HEIGHT);
+        System.out.printf(Locale.US, "%-18s %-8s %9s %9s %9s %6s %6s %8s%n",
+                "scenario", "mode", "detected", "err mean", "err p95", "ghost", "missed", "track");
+        for (int i = 0; i < paths.length; i++) {
+            for (boolean hybrid : new boolean[]{false, true}) {
+                Result result = replay(paths[i], hybrid, 17 + i);
+                System.out.printf(Locale.US, "%-18s %-8s %8.0f%% %8.2f%% %8.2f%% %6d %6d %6.1fus%n",
+                        names[i], hybrid ? "hybrid" : "every", result.detections * 100.0 / FRAMES,
+                        result.meanErrorPercent, result.p95ErrorPercent, result.ghostFrames, result.missedFrames,
+                        result.trackMicros);
+            }
+        }
+        System.out.println();
+        System.out.println("err: |reported - true| face center, in % of the frame width.");
+    }
+}
@@ -0,0 +1,235 @@
+package com.painnick.zakuhead5;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives {@link ZakuHeadApi} on a {@link JvmHeadPlatform} against a {@link FakeZakuHead} and reports sustained
+ * frame rate, command round-trip and tail latencies for every transport and pipeline mode.
+ * <p>
+ * Frames go through a {@link LatestFrameMailbox} to a detector that is a fixed sleep; every detected frame sends
+ * a servo correction, as the tracker does while a face is off center. Warnings of the pipeline are not printed,
+ * so that an injected failure rate does not flood the report.
+ * <p>
+ * {@code ./gradlew :loadtest:run --args="--duration 10 --latency 20 --jitter 30 --bandwidth 600"}
+ */
+public class LoadHarness {
+
+    interface TransportFactory {
+        ZakuHeadTransport create(String url, PipelineMetrics metrics);
+    }
+
+    static class Scenario {
+        final String transportName;
+        final TransportFactory transport;
+        final boolean streaming;
+        final int pipelineDepth;
+
+        Scenario(String transportName, TransportFactory transport, boolean streaming, int pipelineDepth) {
+            this.transportName = transportName;
+            this.transport = transport;
+            this.streaming = streaming;
+            this.pipelineDepth = pipelineDepth;
+        }
+
+        String mode() {
+            return streaming ? "stream" : "poll x" + pipelineDepth;
+        }
+    }
+
+    private final FakeZakuHead head;
+    private final JvmHeadPlatform platform = new JvmHeadPlatform();
+    private final long warmupMillis;
+    private final long durationMillis;
+    private final long inferenceMillis;
+
+    private volatile boolean running;
+    private volatile boolean measuring;
+    private final AtomicLong fetchedFrames = new AtomicLong();
+    // Guarded by this.
+    private long lastFrameAt = 0;
+    private final LatencyHistogram frameGaps = new LatencyHistogram();
+
+    LoadHarness(FakeZakuHead head, long warmupMillis, long durationMillis, long inferenceMillis) {
+        this.head = head;
+        this.warmupMillis = warmupMillis;
+        this.durationMillis = durationMillis;
+        this.inferenceMillis = inferenceMillis;
+    }
+
+    String run(Scenario scenario) throws InterruptedException {
+        PipelineMetrics metrics = new PipelineMetrics();
+        ZakuHeadApi<RawFrame> api = new ZakuHeadApi<>(platform, scenario.transport.create(head.getCameraUrl(), metrics),
+                scenario.transport.create(head.getControlUrl(), metrics), scenario.pipelineDepth, metrics);
+        // The fake head's orientation does not matter here, and a restore at close would outlive the scenario.
+        api.setPreferSensorFlip(false);
+        api.setIngestMode(scenario.streaming ? ZakuHeadApi.IngestMode.STREAMING : ZakuHeadApi.IngestMode.POLLING);
+        LatestFrameMailbox<RawFrame> mailbox = new LatestFrameMailbox<>();
+        api.setNewFrameListener((frame, timestampUs) -> {
+            onFrame();
+            LatestFrameMailbox.Entry<RawFrame> replaced = mailbox.offer(frame, timestampUs * 1000);
+            if (replaced != null) {
+                api.releaseFrame(replaced.frame);
+                mailbox.recycle(replaced);
+            }
+            api.reloadImage();
+        });
+
+        running = true;
+        measuring = false;
+        Thread detector = new Thread(() -> detect(api, mailbox, metrics), "detector");
+        detector.start();
+        api.start();
+
+        Thread.sleep(warmupMillis);
+        metrics.reset();
+        synchronized (this) {
+            frameGaps.reset();
+            lastFrameAt = 0;
+        }
+        fetchedFrames.set(0);
+        long droppedBefore = mailbox.getDroppedCount();
+        long failuresBefore = api.getHeadHealth().getFailureCount();
+        measuring = true;
+        Thread.sleep(durationMillis);
+        PipelineMetrics.Snapshot snapshot = metrics.snapshot();
+        long fetched = fetchedFrames.get();
+        long dropped = mailbox.getDroppedCount() - droppedBefore;
+        long failures = api.getHeadHealth().getFailureCount() - failuresBefore;
+        LatencyHistogram servo = metrics.getHistogram(PipelineMetrics.Stage.SERVO_RTT);
+        LatencyHistogram age = metrics.getHistogram(PipelineMetrics.Stage.FRAME_AGE);
+        String result;
+        synchronized (this) {
+            result = String.format(Locale.US,
+                    "%-10s %-8s fetch=%5.1ffps detect=%5.1ffps dropped=%4d failures=%d"
+                            + " | gap p50=%6.1f p99=%6.1f max=%6.1f | age p50=%6.1f p99=%6.1f"
+                            + " | servo p50=%6.1f p99=%6.1f max=%6.1f ms (n=%d)",
+                    scenario.transportName, scenario.mode(),
+                    fetched * 1000.0 / durationMillis, snapshot.fps, dropped, failures,
+                    frameGaps.getPercentileMillis(50), frameGaps.getPercentileMillis(99), frameGaps.getMaxMillis(),
+                    age.getPercentileMillis(50), age.getPercentileMillis(99),
+                    servo.getPercentileMillis(50), servo.getPercentileMillis(99), servo.getMaxMillis(),
+                    servo.getCount());
+        }
+
+        running = false;
+        detector.join(5000);
+        api.close();
+        return result + "\n" + snapshot + "\n" + api.getCommandQueue();
+    }
+
+    private void onFrame() {
+        if (!measuring) {
+            return;
+        }
+        fetchedFrames.incrementAndGet();
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (lastFrameAt != 0) {
+                frameGaps.recordNanos(now - lastFrameAt);
+            }
+            lastFrameAt = now;
+        }
+    }
+
+    private void detect(ZakuHeadApi<RawFrame> api, LatestFrameMailbox<RawFrame> mailbox, PipelineMetrics metrics) {
+        long detected = 0;
+        while (running) {
+            LatestFrameMailbox.Entry<RawFrame> entry = mailbox.take();
+            if (entry == null) {
+                sleepMillis(1);
+                continue;
+            }
+            long startedAt = System.nanoTime();
+            metrics.record(PipelineMetrics.Stage.FRAME_AGE, startedAt - entry.captureNanos);
+            sleepMillis(inferenceMillis);
+            metrics.record(PipelineMetrics.Stage.INFERENCE, System.nanoTime() - startedAt);
+            metrics.onFrame();
+            api.releaseFrame(entry.frame);
+            mailbox.recycle(entry);
+            detected++;
+            if (detected % 3 == 2) {
+                api.moveRight(5, true);
+            } else {
+                api.moveLeft(5, true);
+            }
+        }
+    }
+
+    private static void sleepMillis(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected --name value, got " + args[i]);
+            }
+            values.put(args[i].substring(2), args[i + 1]);
+        }
+        return values;
+    }
+
+    private static double number(Map<String, String> args, String name, double fallback) {
+        String value = args.get(name);
+        return value == null ? fallback : Double.parseDouble(value);
+    }
+
+    /**
+     * Options: --frames DIR, --fps N (sensor), --latency MS, --jitter MS, --bandwidth KB/s, --error RATE,
+     * --drop RATE, --stall RATE, --inference MS, --warmup S, --duration S.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> values = parseArgs(args);
+        FakeZakuHead.Options options = new FakeZakuHead.Options();
+        if (values.containsKey("frames")) {
+            options.frameDirectory = new File(values.get("frames"));
+        }
+        options.sensorFps = number(values, "fps", options.sensorFps);
+        options.latencyMillis = (long) number(values, "latency", options.latencyMillis);
+        options.jitterMillis = (long) number(values, "jitter", options.jitterMillis);
+        options.bandwidthBytesPerSecond = (long) (number(values, "bandwidth", 0) * 1024);
+        options.errorRate = number(values, "error", options.errorRate);
+        options.dropRate = number(values, "drop", options.dropRate);
+        options.stallRate = number(values, "stall", options.stallRate);
+
+        HeadLog.setSink((level, tag, message) -> {
+            if (level >= HeadLog.ERROR) {
+                System.err.println("E/" + tag + ": " + message);
+            }
+        });
+        FakeZakuHead head = new FakeZakuHead(options);
+        head.start();
+        LoadHarness harness = new LoadHarness(head,
+                (long) (number(values, "warmup", 1) * 1000),
+                (long) (number(values, "duration", 5) * 1000),
+                (long) number(values, "inference", 30));
+
+        TransportFactory urlConnection = (url, metrics) -> new UrlConnectionTransport(url);
+        TransportFactory keepAlive = KeepAliveHttpTransport::new;
+        List<Scenario> scenarios = new ArrayList<>();
+        scenarios.add(new Scenario("urlconn", urlConnection, false, 1));
+        scenarios.add(new Scenario("urlconn", urlConnection, false, 2));
+        scenarios.add(new Scenario("keepalive", keepAlive, false, 1));
+        scenarios.add(new Scenario("keepalive", keepAlive, false, 2));
+        scenarios.add(new Scenario("keepalive", keepAlive, true, 1));
+        try {
+            for (Scenario scenario : scenarios) {
+                System.out.println(harness.run(scenario));
+            }
+        } finally {
+            head.stop();
+        }
+    }
+}
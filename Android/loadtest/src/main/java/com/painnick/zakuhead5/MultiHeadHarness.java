@@ -0,0 +1,271 @@
+package com.painnick.zakuhead5;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives 1 to 16 {@link FakeZakuHead}s from one process, as a {@code HeadRegistry} does, and reports the
+ * aggregate frame rate, each head's share of the detector and the capture-to-result latency.
+ * <p>
+ * Each head polls /capture with up to the pipeline depth of fetches in flight, the way {@code ZakuHeadApi} does,
+ * and its frames go to one detector through an {@link InferenceScheduler}. The fetches run either on image lanes
+ * of their own head, twice the depth per head as a head on its own has, or on one {@link ImageLanePool} shared
+ * by all heads. Decoding is a fixed sleep on the lane and detection a fixed sleep on the detector thread. The
+ * thread column counts the threads the app would run for that many heads.
+ * <p>
+ * {@code ./gradlew :loadtest:run -PmainClass=com.painnick.zakuhead5.MultiHeadHarness}
+ */
+public class MultiHeadHarness {
+
+    private static final int[] HEAD_COUNTS = {1, 2, 4, 8, 16};
+    private static final int PIPELINE_DEPTH = 2;
+    private static final int SHARED_LANES = 8;
+    // SharedHeadResources.Config.controlThreads
+    private static final int SHARED_CONTROL_THREADS = 2;
+    private static final long DECODE_MILLIS = 4;
+    private static final long INFERENCE_MILLIS = 8;
+    private static final long WARMUP_MILLIS = 2_000;
+    private static final long DURATION_MILLIS = 6_000;
+
+    enum Mode {
+        OWN("own lanes"),
+        SHARED("shared lanes");
+
+        final String label;
+
+        Mode(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * One head's polling loop, {@code ZakuHeadApi.reloadImage()} without hedges.
+     */
+    private class HeadLoop implements InferenceScheduler.Client<Long> {
+        final ZakuHeadTransport transport;
+        final ImageLanePool lanes;
+        final LatestFrameMailbox<Long> mailbox = new LatestFrameMailbox<>();
+        final AtomicInteger activeFetches = new AtomicInteger();
+        final AtomicBoolean laneWaitPending = new AtomicBoolean(false);
+        final Runnable laneWaitTask = () -> {
+            laneWaitPending.set(false);
+            reload();
+        };
+        final AtomicLong fetched = new AtomicLong();
+        final AtomicLong detected = new AtomicLong();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        HeadLoop(FakeZakuHead head, ImageLanePool lanes) {
+            transport = new KeepAliveHttpTransport(head.getCameraUrl());
+            this.lanes = lanes;
+        }
+
+        void reload() {
+            while (running) {
+                int active = activeFetches.get();
+                if (active >= PIPELINE_DEPTH) {
+                    return;
+                }
+                if (!activeFetches.compareAndSet(active, active + 1)) {
+                    continue;
+                }
+                ImageLanePool.ImageLane lane = lanes.poll();
+                if (lane == null) {
+                    activeFetches.decrementAndGet();
+                    if (laneWaitPending.compareAndSet(false, true)) {
+                        lanes.awaitIdleLane(laneWaitTask);
+                    }
+                    return;
+                }
+                lane.execute(() -> fetch(lane));
+            }
+        }
+
+        private void fetch(ImageLanePool.ImageLane lane) {
+            long captureNanos = System.nanoTime();
+            boolean received = false;
+            try {
+                received = transport.get("/capture", ZakuHeadTransport.RequestClass.IMAGE).isSuccessful();
+            } catch (IOException e) {
+                // Asks again below.
+            }
+            if (received) {
+                sleepMillis(DECODE_MILLIS);
+            }
+            lane.release();
+            activeFetches.decrementAndGet();
+            if (received && running) {
+                if (measuring) {
+                    fetched.incrementAndGet();
+                }
+                mailbox.offer(captureNanos, captureNanos);
+                inference.schedule();
+            }
+            reload();
+        }
+
+        @Override
+        public boolean infer(LatestFrameMailbox.Entry<Long> entry, long token) {
+            if (!running) {
+                return false;
+            }
+            // The entry goes back to the mailbox when this returns.
+            long captureNanos = entry.captureNanos;
+            detector.execute(() -> {
+                sleepMillis(INFERENCE_MILLIS);
+                long doneAt = System.nanoTime();
+                if (!running) {
+                    return;
+                }
+                inferenceExecutor.execute(() -> {
+                    if (measuring) {
+                        detected.incrementAndGet();
+                        latency.recordNanos(doneAt - captureNanos);
+                        allLatency.recordNanos(doneAt - captureNanos);
+                    }
+                    inference.onDone(token);
+                });
+            });
+            return true;
+        }
+    }
+
+    private final Mode mode;
+    private final ExecutorService inferenceExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService detector = Executors.newSingleThreadExecutor();
+    private final InferenceScheduler<Long> inference =
+            new InferenceScheduler<>(inferenceExecutor, 1_000_000_000L, NanoClock.SYSTEM);
+    private final List<ExecutorService> laneThreads = new ArrayList<>();
+    private final List<HeadLoop> loops = new ArrayList<>();
+    private final LatencyHistogram allLatency = new LatencyHistogram();
+    private volatile boolean running = true;
+    private volatile boolean measuring = false;
+
+    MultiHeadHarness(List<FakeZakuHead> heads, Mode mode) {
+        this.mode = mode;
+        ImageLanePool shared = mode == Mode.SHARED ? newLanes(SHARED_LANES) : null;
+        for (FakeZakuHead head : heads) {
+            HeadLoop loop = new HeadLoop(head, shared != null ? shared : newLanes(PIPELINE_DEPTH * 2));
+            inference.register(loop, loop.mailbox);
+            loops.add(loop);
+        }
+    }
+
+    private ImageLanePool newLanes(int count) {
+        List<ExecutorService> executors = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            executors.add(Executors.newSingleThreadExecutor());
+        }
+        laneThreads.addAll(executors);
+        return new ImageLanePool(executors);
+    }
+
+    /**
+     * Threads of the app: per head on its own a control, supervisor, controller and inference thread besides its
+     * image lanes; with shared resources a few control threads, the lanes and one each of the rest.
+     */
+    private int appThreadCount() {
+        int heads = loops.size();
+        return mode == Mode.OWN ? heads * (PIPELINE_DEPTH * 2 + 4) : SHARED_CONTROL_THREADS + SHARED_LANES + 3;
+    }
+
+    String run() throws InterruptedException {
+        for (HeadLoop loop : loops) {
+            loop.reload();
+        }
+        Thread.sleep(WARMUP_MILLIS);
+        measuring = true;
+        Thread.sleep(DURATION_MILLIS);
+        measuring = false;
+        running = false;
+
+        long fetched = 0;
+        long detected = 0;
+        double minFps = Double.MAX_VALUE;
+        double maxFps = 0;
+        double sum = 0;
+        double sumOfSquares = 0;
+        double worstP99 = 0;
+        for (HeadLoop loop : loops) {
+            fetched += loop.fetched.get();
+            detected += loop.detected.get();
+            double fps = loop.detected.get() * 1000.0 / DURATION_MILLIS;
+            minFps = Math.min(minFps, fps);
+            maxFps = Math.max(maxFps, fps);
+            sum += fps;
+            sumOfSquares += fps * fps;
+            worstP99 = Math.max(worstP99, loop.latency.getPercentileMillis(99));
+        }
+        // Jain's fairness index: 1 when every head gets the same share of the detector, 1/n when one gets it all.
+        double fairness = sumOfSquares == 0 ? 0 : sum * sum / (loops.size() * sumOfSquares);
+
+        // Let the fetches in flight end before the queue they would hand their frames to goes away.
+        for (ExecutorService executor : laneThreads) {
+            executor.shutdown();
+        }
+        for (ExecutorService executor : laneThreads) {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        detector.shutdown();
+        detector.awaitTermination(5, TimeUnit.SECONDS);
+        inferenceExecutor.shutdown();
+        for (HeadLoop loop : loops) {
+            loop.transport.close();
+        }
+        return String.format(Locale.US,
+                "%5d %-13s %7d | %7.1f %7.1f | %6.1f %6.1f %5.2f | %6.0f %6.0f %6.0f",
+                loops.size(), mode.label, appThreadCount(), fetched * 1000.0 / DURATION_MILLIS,
+                detected * 1000.0 / DURATION_MILLIS, minFps, maxFps, fairness,
+                allLatency.getPercentileMillis(50), allLatency.getPercentileMillis(99), worstP99);
+    }
+
+    private static void sleepMillis(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        FakeZakuHead.Options options = new FakeZakuHead.Options();
+        options.latencyMillis = 5;
+        options.jitterMillis = 5;
+        int maxHeads = HEAD_COUNTS[HEAD_COUNTS.length - 1];
+        List<FakeZakuHead> heads = new ArrayList<>();
+        for (int i = 0; i < maxHeads; i++) {
+            options.seed = i + 1;
+            FakeZakuHead head = new FakeZakuHead(options);
+            head.start();
+            heads.add(head);
+        }
+        try {
+            System.out.printf(Locale.US, "pipeline depth %d, %.0f fps sensors, %d ms decode, one detector at %d ms"
+                            + " per frame, %d shared lanes%n%n",
+                    PIPELINE_DEPTH, options.sensorFps, DECODE_MILLIS, INFERENCE_MILLIS, SHARED_LANES);
+            System.out.printf(Locale.US, "%5s %-13s %7s | %7s %7s | %6s %6s %5s | %6s %6s %6s%n",
+                    "heads", "fetching", "threads", "fetch", "detect", "min", "max", "fair", "p50", "p99", "worst");
+            for (int count : HEAD_COUNTS) {
+                for (Mode mode : Mode.values()) {
+                    System.out.println(new MultiHeadHarness(heads.subList(0, count), mode).run());
+                }
+            }
+        } finally {
+            for (FakeZakuHead head : heads) {
+                head.stop();
+            }
+        }
+        System.out.println();
+        System.out.println("fetch, detect: frames per second of all heads together. min, max: detected frames per"
+                + " second of the slowest and fastest head; fair: Jain's index of them.");
+        System.out.println("p50, p99: capture to detector result over all heads, ms. worst: p99 of the worst head.");
+    }
+}
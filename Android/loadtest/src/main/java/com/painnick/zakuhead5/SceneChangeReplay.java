@@ -0,0 +1,130 @@
+package com.painnick.zakuhead5;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Replays synthetic 1/8 scale frames, as {@link FrameCodec#decodeSignature} sees them, through
+ * {@link SceneChangeGate}.
+ * <p>
+ * A VGA frame at 1/8 is 80x60, and a face a metre or two from the head is then 6 to 10 pixels wide. Reports
+ * the share of frames skipped and, for the scenarios where something happens, how many frames the gate let
+ * go by before it sent one to the detector.
+ * <p>
+ * {@code ./gradlew :loadtest:run -PmainClass=com.painnick.zakuhead5.SceneChangeReplay}
+ */
+public class SceneChangeReplay {
+
+    private static final int WIDTH = 80;
+    private static final int HEIGHT = 60;
+    private static final int FRAMES = 450;
+    private static final long FRAME_NANOS = 1_000_000_000L / 15;
+    private static final int SENSOR_NOISE = 6;
+
+    interface Scene {
+        /**
+         * @return a face-sized blob at this frame as {x, y, size}, or null for none.
+         */
+        int[] faceAt(int frame);
+
+        /**
+         * @return brightness offset of the whole frame, e.g. auto exposure or daylight.
+         */
+        int exposureAt(int frame);
+    }
+
+    static final class ManualClock implements NanoClock {
+        long now;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    }
+
+    public static void main(String[] args) {
+        String[] names = {"empty room", "exposure drift", "walk in (near)", "step in (far)", "sit still"};
+        Scene[] scenes = {
+                scene(frame -> null, frame -> 0),
+                scene(frame -> null, frame -> frame / 15),
+                // Enters from the left edge at 1 px per frame from frame 200, 10 px wide.
+                scene(frame -> frame < 200 ? null : new int[]{Math.min(35, frame - 210), 25, 10}, frame -> 0),
+                // Appears at once at frame 200, 6 px wide.
+                scene(frame -> frame < 200 ? null : new int[]{50, 20, 6}, frame -> 0),
+                // Somebody in view the whole time, holding still.
+                scene(frame -> new int[]{35, 25, 10}, frame -> 0)
+        };
+        System.out.printf(Locale.US, "%d frames at 15 fps per scenario, %dx%d, noise +-%d%n%n",
+                FRAMES, WIDTH, HEIGHT, SENSOR_NOISE);
+        System.out.printf(Locale.US, "%-16s %8s %8s %14s%n", "scenario", "skipped", "forced", "event->analyze");
+        for (int i = 0; i < scenes.length; i++) {
+            replay(names[i], scenes[i], 31 + i);
+        }
+    }
+
+    interface FaceAt {
+        int[] at(int frame);
+    }
+
+    interface ExposureAt {
+        int at(int frame);
+    }
+
+    private static Scene scene(FaceAt face, ExposureAt exposure) {
+        return new Scene() {
+            @Override
+            public int[] faceAt(int frame) {
+                return face.at(frame);
+            }
+
+            @Override
+            public int exposureAt(int frame) {
+                return exposure.at(frame);
+            }
+        };
+    }
+
+    private static void replay(String name, Scene scene, long seed) {
+        Random random = new Random(seed);
+        int[] room = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < room.length; i++) {
+            // Walls, furniture: large flat areas with some edges.
+            room[i] = 60 + ((i % WIDTH) / 20) * 25 + ((i / WIDTH) / 15) * 10;
+        }
+        ManualClock clock = new ManualClock();
+        SceneChangeGate gate = new SceneChangeGate(new SceneChangeGate.Config(), clock);
+        int[] argb = new int[WIDTH * HEIGHT];
+        byte[] signature = new byte[gate.getWidth() * gate.getHeight()];
+        int eventFrame = -1;
+        int latency = -1;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            clock.now += FRAME_NANOS;
+            int[] face = scene.faceAt(frame);
+            int exposure = scene.exposureAt(frame);
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    int value = room[y * WIDTH + x] + exposure;
+                    if (face != null && x >= face[0] && x < face[0] + face[2] && y >= face[1]
+                            && y < face[1] + face[2] * 4 / 3) {
+                        value = 190;
+                    }
+                    value = Math.max(0, Math.min(255, value + random.nextInt(2 * SENSOR_NOISE + 1) - SENSOR_NOISE));
+                    argb[y * WIDTH + x] = 0xff000000 | (value << 16) | (value << 8) | value;
+                }
+            }
+            boolean visible = face != null && face[0] + face[2] / 2 >= 0;
+            if (visible && eventFrame < 0 && frame > 0 && scene.faceAt(0) == null) {
+                eventFrame = frame;
+            }
+            SceneChangeGate.signatureOf(argb, WIDTH, HEIGHT, signature, gate.getWidth(), gate.getHeight());
+            boolean analyzed = gate.shouldAnalyze(signature);
+            if (eventFrame >= 0 && latency < 0 && analyzed) {
+                latency = frame - eventFrame;
+            }
+        }
+        long total = gate.getAnalyzedCount() + gate.getSkippedCount();
+        System.out.printf(Locale.US, "%-16s %7.0f%% %8d %14s%n", name, gate.getSkippedCount() * 100.0 / total,
+                gate.getForcedCount(),
+                eventFrame < 0 ? "-" : latency + " frames");
+    }
+}
@@ -0,0 +1,214 @@
+package com.painnick.zakuhead5;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * Closed-loop simulation of the head following a face through {@link FaceTracker}, to compare
+ * {@link SteeringController}s and {@link TargetPredictor} without the hardware.
+ * <p>
+ * Frames are captured at a fixed rate; each result arrives after the capture-to-result latency, and the
+ * resulting command reaches the servo after the command latency. The servo turns at a limited speed and stops
+ * at the firmware's end stops.
+ * <ul>
+ *     <li>Step: the face jumps to a new bearing at t=0. Reports the time until it stays inside the dead zone,
+ *     or "never", and how far the head overshoots it. The limits for the steerings the app uses are checked
+ *     by zakuhead-core's SteeringStepResponseTest.</li>
+ *     <li>Moving: the face walks or swings, and the detector misses it now and then. Reports the RMS bearing
+ *     error and how many results the tracker spent outside FOUND.</li>
+ * </ul>
+ * {@code ./gradlew :loadtest:run -PmainClass=com.painnick.zakuhead5.SteeringSimulation}
+ */
+public class SteeringSimulation {
+
+    private static final double FOV_DEGREES = 66;
+    private static final double FRAME_MILLIS = 1000.0 / 15;
+    // MG90S class servo: about 0.1 s per 60 degrees.
+    private static final double SERVO_DEGREES_PER_MILLI = 0.6;
+    private static final long DURATION_MILLIS = 6000;
+    // Error before this is the initial acquisition, not tracking.
+    private static final long SETTLE_MILLIS = 1000;
+    // The 0.4-0.6 window of the frame, in degrees.
+    private static final double CENTERED_DEGREES = 0.1 * FOV_DEGREES;
+
+    interface Motion {
+        double bearingAt(long millis);
+    }
+
+    interface Dropout {
+        boolean missed(long millis);
+    }
+
+    interface TrackerFactory {
+        FaceTracker create(FaceTracker.Head head, NanoClock clock);
+    }
+
+    static final class Result {
+        double timeToCenterMillis = Double.NaN;
+        double overshootDegrees;
+        double rmsErrorDegrees;
+        int notFoundResults;
+        int commands;
+
+        String describeTimeToCenter() {
+            return Double.isNaN(timeToCenterMillis) ? "never" : String.format(Locale.US, "%.0fms", timeToCenterMillis);
+        }
+    }
+
+    static Result simulate(TrackerFactory factory, Motion motion, Dropout dropout,
+                           long resultLatencyMillis, long commandLatencyMillis) {
+        long[] now = {0};
+        // {due millis, degrees}
+        ArrayDeque<long[]> commands = new ArrayDeque<>();
+        Result result = new Result();
+        FaceTracker tracker = factory.create(new FaceTracker.Head() {
+            @Override
+            public void moveLeft(int degree, boolean found) {
+                send(degree);
+            }
+
+            @Override
+            public void moveRight(int degree, boolean found) {
+                send(-degree);
+            }
+
+            private void send(int degrees) {
+                if (degrees != 0) {
+                    commands.add(new long[]{now[0] / 1_000_000L + commandLatencyMillis, degrees});
+                    result.commands++;
+                }
+            }
+
+            @Override
+            public void ledOn(boolean forced) {
+            }
+
+            @Override
+            public void ledOff(boolean forced) {
+            }
+        }, () -> now[0]);
+        tracker.setCommandLeadMillis(commandLatencyMillis);
+
+        double cameraAngle = 90;
+        int servoTarget = 90;
+        int reportedAngle = 90;
+        // {due millis, capture millis, center * 1e6 or -1}
+        ArrayDeque<long[]> results = new ArrayDeque<>();
+        // {due millis, angle}
+        ArrayDeque<long[]> reports = new ArrayDeque<>();
+        double initialSign = Math.signum(motion.bearingAt(0) - cameraAngle);
+        long centeredSince = -1;
+        double squaredError = 0;
+        long errorSamples = 0;
+        boolean seen = false;
+        double nextFrame = 0;
+
+        for (long t = 0; t <= DURATION_MILLIS; t++) {
+            now[0] = t * 1_000_000L;
+            double bearing = motion.bearingAt(t);
+            if (t >= nextFrame) {
+                nextFrame += FRAME_MILLIS;
+                double center = 0.5 - (bearing - cameraAngle) / FOV_DEGREES;
+                boolean visible = center >= 0 && center <= 1 && !dropout.missed(t);
+                results.add(new long[]{t + resultLatencyMillis, t, visible ? Math.round(center * 1e6) : -1});
+            }
+            while (!results.isEmpty() && results.peek()[0] <= t) {
+                long[] frame = results.poll();
+                if (frame[2] >= 0) {
+                    seen = true;
+                    tracker.onFace((float) (frame[2] / 1e6), frame[1] * 1_000_000L, reportedAngle);
+                } else {
+                    tracker.onNoFace(frame[1] * 1_000_000L, reportedAngle);
+                }
+                if (seen && tracker.getState() != FaceTracker.State.FOUND) {
+                    result.notFoundResults++;
+                }
+            }
+            while (!commands.isEmpty() && commands.peek()[0] <= t) {
+                servoTarget = Math.max(10, Math.min(170, servoTarget + (int) commands.poll()[1]));
+                // The response carries the new angle back over the same link.
+                reports.add(new long[]{t + commandLatencyMillis, servoTarget});
+            }
+            while (!reports.isEmpty() && reports.peek()[0] <= t) {
+                reportedAngle = (int) reports.poll()[1];
+            }
+            double step = Math.min(SERVO_DEGREES_PER_MILLI, Math.abs(servoTarget - cameraAngle));
+            cameraAngle += Math.signum(servoTarget - cameraAngle) * step;
+
+            double error = bearing - cameraAngle;
+            if (Math.signum(error) == -initialSign) {
+                result.overshootDegrees = Math.max(result.overshootDegrees, Math.abs(error));
+            }
+            if (Math.abs(error) <= CENTERED_DEGREES) {
+                if (centeredSince < 0) {
+                    centeredSince = t;
+                }
+            } else {
+                centeredSince = -1;
+            }
+            if (t >= SETTLE_MILLIS) {
+                squaredError += error * error;
+                errorSamples++;
+            }
+        }
+        if (centeredSince >= 0) {
+            result.timeToCenterMillis = centeredSince;
+        }
+        result.rmsErrorDegrees = Math.sqrt(squaredError / errorSamples);
+        return result;
+    }
+
+    public static void main(String[] args) {
+        PidSteering.Config uncompensated = new PidSteering.Config();
+        uncompensated.compensateLatency = false;
+        String[] names = {"bang-bang 5", "pid", "pid no-comp", "pid+kalman"};
+        TrackerFactory[] factories = {
+                (head, clock) -> new FaceTracker(head, new FaceTracker.Config(), new BangBangSteering(5), clock),
+                (head, clock) -> new FaceTracker(head, new FaceTracker.Config(), new PidSteering(), clock),
+                (head, clock) -> new FaceTracker(head, new FaceTracker.Config(), new PidSteering(uncompensated), clock),
+                (head, clock) -> new FaceTracker(head, new FaceTracker.Config(), new PidSteering(),
+                        new TargetPredictor(), clock)
+        };
+        long[][] latencies = {{150, 20}, {300, 40}, {500, 80}};
+        Dropout never = t -> false;
+
+        System.out.println("Step response");
+        System.out.println(String.format(Locale.US, "%-12s %6s %9s | %10s %11s %5s",
+                "steering", "face", "latency", "centered", "overshoot", "cmds"));
+        // Up to 30 degrees off, so the face starts inside the 66 degree field of view.
+        double[] faceAngles = {100, 110, 120};
+        for (long[] latency : latencies) {
+            for (double faceAngle : faceAngles) {
+                for (int i = 0; i < names.length; i++) {
+                    Result result = simulate(factories[i], t -> faceAngle, never, latency[0], latency[1]);
+                    System.out.println(String.format(Locale.US, "%-12s %6.0f %4d+%-3dms | %10s %8.1fdeg %5d",
+                            names[i], faceAngle, latency[0], latency[1], result.describeTimeToCenter(),
+                            result.overshootDegrees, result.commands));
+                }
+            }
+        }
+
+        String[] motionNames = {"walk 12deg/s", "swing 20deg/3s"};
+        Motion[] motions = {
+                t -> 80 + 12 * t / 1000.0,
+                t -> 90 + 20 * Math.sin(2 * Math.PI * t / 3000.0)
+        };
+        // Three short misses, like a turned head or motion blur.
+        Dropout dropouts = t -> (t >= 2000 && t < 2250) || (t >= 3500 && t < 3700) || (t >= 4800 && t < 5100);
+
+        System.out.println();
+        System.out.println("Moving face with dropouts");
+        System.out.println(String.format(Locale.US, "%-12s %-15s %9s | %9s %9s %5s",
+                "steering", "motion", "latency", "rms error", "not found", "cmds"));
+        for (long[] latency : latencies) {
+            for (int m = 0; m < motions.length; m++) {
+                for (int i = 0; i < names.length; i++) {
+                    Result result = simulate(factories[i], motions[m], dropouts, latency[0], latency[1]);
+                    System.out.println(String.format(Locale.US, "%-12s %-15s %4d+%-3dms | %6.1fdeg %9d %5d",
+                            names[i], motionNames[m], latency[0], latency[1], result.rmsErrorDegrees,
+                            result.notFoundResults, result.commands));
+                }
+            }
+        }
+    }
+}
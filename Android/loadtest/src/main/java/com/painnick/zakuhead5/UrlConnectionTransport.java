@@ -0,0 +1,54 @@
+package com.painnick.zakuhead5;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * One {@link HttpURLConnection} per request, disconnected afterwards, as {@code ZakuHeadApi} did before
+ * {@link KeepAliveHttpTransport}. Only here as the baseline of the load harness.
+ */
+public class UrlConnectionTransport implements ZakuHeadTransport {
+
+    private final String baseUrl;
+
+    public UrlConnectionTransport(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    @Override
+    public HttpResponse get(String path, RequestClass requestClass) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        try {
+            connection.connect();
+            int status = connection.getResponseCode();
+            InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            if (in != null) {
+                byte[] buffer = new byte[8 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    body.write(buffer, 0, read);
+                }
+                in.close();
+            }
+            return new HttpResponse(status, body.toByteArray(), body.size());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public HttpStream openStream(String path, RequestClass requestClass) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.connect();
+        int status = connection.getResponseCode();
+        return new HttpStream(status, connection.getContentType(), connection.getInputStream(), connection::disconnect);
+    }
+
+    @Override
+    public void close() {
+    }
+}
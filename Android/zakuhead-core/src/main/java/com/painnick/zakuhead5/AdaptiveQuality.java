@@ -0,0 +1,248 @@
+package com.painnick.zakuhead5;
+
+import java.util.Locale;
+
+/**
+ * Picks the head's framesize and JPEG quality so that frames keep coming at the target rate.
+ * <p>
+ * Once per window the caller reports the frame rate it received and the mean download and inference times.
+ * When the rate falls short and the link is the bottleneck, the best cheaper {@link Level} the measured link
+ * should carry is used, and the level that failed is not tried again for a while. When the rate is met but
+ * the detector is unsure of the faces it finds, or finds none, the next better level is tried if its
+ * projected download still fits the frame budget. A short rate caused by the detector itself changes
+ * nothing, since the detector sees 128x128 whatever the camera sends. Every window ends in a
+ * {@link Decision}, also when the level stays. Thread safe.
+ */
+public class AdaptiveQuality {
+
+    /**
+     * One framesize and quality setting of the sensor.
+     */
+    public static final class Level {
+        public final String framesize;
+        public final int width;
+        public final int height;
+        /** Lower is better. */
+        public final int quality;
+        /** Typical JPEG size of an indoor scene, to project the download time before trying a level. */
+        public final int typicalBytes;
+
+        Level(String framesize, int width, int height, int quality, int typicalBytes) {
+            this.framesize = framesize;
+            this.width = width;
+            this.height = height;
+            this.quality = quality;
+            this.typicalBytes = typicalBytes;
+        }
+
+        @Override
+        public String toString() {
+            return framesize + "/q" + quality;
+        }
+    }
+
+    /**
+     * Cheapest first. Framesizes are the names the firmware's /camera accepts.
+     */
+    public static final Level[] LEVELS = {
+            new Level("QVGA", 320, 240, 20, 5_000),
+            new Level("QVGA", 320, 240, 12, 8_000),
+            new Level("CIF", 400, 296, 12, 12_000),
+            new Level("VGA", 640, 480, 12, 20_000),
+            new Level("VGA", 640, 480, 10, 26_000),
+            new Level("SVGA", 800, 600, 10, 40_000),
+    };
+
+    public static class Config {
+        public double targetFps = 10;
+        public long windowMillis = 2000;
+        /** Windows left alone after a change, while the head switches and the averages catch up. */
+        public int holdWindows = 1;
+        /** Mean detection score below which more pixels are worth trying. */
+        public float minConfidence = 0.85f;
+        /** Share of the frame budget the projected download of a better level may take. */
+        public double headroom = 0.7;
+        /** A level that could not keep the target rate is not tried again for this long. */
+        public long cooldownMillis = 30_000;
+    }
+
+    /**
+     * The outcome of one window.
+     */
+    public static final class Decision {
+        public final Level from;
+        public final Level to;
+        public final String reason;
+
+        Decision(Level from, Level to, String reason) {
+            this.from = from;
+            this.to = to;
+            this.reason = reason;
+        }
+
+        public boolean isChange() {
+            return from != to;
+        }
+
+        @Override
+        public String toString() {
+            return (isChange() ? from + " -> " + to : "hold " + from) + ": " + reason;
+        }
+    }
+
+    private final double targetFps;
+    private final long windowNanos;
+    private final int holdWindows;
+    private final float minConfidence;
+    private final double headroom;
+    private final long cooldownNanos;
+    private final NanoClock clock;
+
+    // Guarded by this.
+    private int level = 4;
+    private int maxLevel = LEVELS.length - 1;
+    // A level that was link-bound is not stepped up to again until its cooldownUntil.
+    private final boolean[] barred = new boolean[LEVELS.length];
+    private final long[] cooldownUntil = new long[LEVELS.length];
+    private int holdLeft = 0;
+    private long windowStartedAt;
+    private double scoreSum = 0;
+    private int scoreCount = 0;
+    private long changes = 0;
+
+    public AdaptiveQuality(Config config, NanoClock clock) {
+        targetFps = config.targetFps;
+        windowNanos = config.windowMillis * 1_000_000L;
+        holdWindows = config.holdWindows;
+        minConfidence = config.minConfidence;
+        headroom = config.headroom;
+        cooldownNanos = config.cooldownMillis * 1_000_000L;
+        this.clock = clock;
+        windowStartedAt = clock.nanoTime();
+    }
+
+    /**
+     * Takes over what the head reports it uses.
+     *
+     * @param maxFramesize the largest framesize the head allows, or null if unknown.
+     */
+    public synchronized void setCurrent(String framesize, int quality, String maxFramesize) {
+        int best = -1;
+        for (int i = 0; i < LEVELS.length; i++) {
+            if (LEVELS[i].framesize.equals(framesize)
+                    && (best < 0 || Math.abs(LEVELS[i].quality - quality) < Math.abs(LEVELS[best].quality - quality))) {
+                best = i;
+            }
+        }
+        if (best >= 0) {
+            level = best;
+        }
+        if (maxFramesize != null) {
+            for (int i = 0; i < LEVELS.length; i++) {
+                if (LEVELS[i].framesize.equals(maxFramesize)) {
+                    maxLevel = i;
+                }
+            }
+            level = Math.min(level, maxLevel);
+        }
+    }
+
+    public synchronized Level getLevel() {
+        return LEVELS[level];
+    }
+
+    /**
+     * Score of a face the detector picked, 0 to 1.
+     */
+    public synchronized void onScore(float score) {
+        scoreSum += score;
+        scoreCount++;
+    }
+
+    /**
+     * Drops the window so far, e.g. after the caller slowed the frames down on purpose, and lets the next one
+     * settle like the first window after a change.
+     */
+    public synchronized void restartWindow() {
+        windowStartedAt = clock.nanoTime();
+        scoreSum = 0;
+        scoreCount = 0;
+        holdLeft = holdWindows;
+    }
+
+    public synchronized boolean isWindowDue() {
+        return clock.nanoTime() - windowStartedAt >= windowNanos;
+    }
+
+    /**
+     * Ends the window.
+     *
+     * @param fps             frames received from the head per second, including any dropped later on.
+     * @param downloadMillis  mean time to download one frame.
+     * @param inferenceMillis mean time the detector took per frame.
+     */
+    public synchronized Decision evaluate(double fps, double downloadMillis, double inferenceMillis) {
+        long now = clock.nanoTime();
+        windowStartedAt = now;
+        double confidence = scoreCount == 0 ? Double.NaN : scoreSum / scoreCount;
+        scoreSum = 0;
+        scoreCount = 0;
+        String measured = String.format(Locale.US, "%.1f fps, download %.0fms, inference %.0fms, confidence %.2f",
+                fps, downloadMillis, inferenceMillis, confidence);
+        if (holdLeft > 0) {
+            holdLeft--;
+            return hold(measured + ", settling");
+        }
+        double budgetMillis = 1000 / targetFps;
+        if (fps < targetFps * 0.9) {
+            if (downloadMillis < inferenceMillis) {
+                return hold(measured + ", detector-bound");
+            }
+            if (level == 0) {
+                return hold(measured + ", link-bound at the lowest level");
+            }
+            barred[level] = true;
+            cooldownUntil[level] = now + cooldownNanos;
+            // Straight to the best level the measured link should carry, rather than one step per window.
+            int to = level - 1;
+            while (to > 0 && projectedMillis(downloadMillis, to) > budgetMillis * headroom) {
+                to--;
+            }
+            return change(to, measured + ", link-bound");
+        }
+        if (level < maxLevel && !(confidence >= minConfidence)) {
+            if (barred[level + 1] && now - cooldownUntil[level + 1] < 0) {
+                return hold(measured + ", " + LEVELS[level + 1] + " failed recently");
+            }
+            double projected = projectedMillis(downloadMillis, level + 1);
+            if (projected > budgetMillis * headroom) {
+                return hold(String.format(Locale.US, "%s, %s would need %.0fms of %.0fms",
+                        measured, LEVELS[level + 1], projected, budgetMillis));
+            }
+            return change(level + 1, measured + (Double.isNaN(confidence) ? ", no face" : ", low confidence"));
+        }
+        return hold(measured);
+    }
+
+    private double projectedMillis(double downloadMillis, int to) {
+        return downloadMillis * LEVELS[to].typicalBytes / LEVELS[level].typicalBytes;
+    }
+
+    private Decision hold(String reason) {
+        return new Decision(LEVELS[level], LEVELS[level], reason);
+    }
+
+    private Decision change(int to, String reason) {
+        Decision decision = new Decision(LEVELS[level], LEVELS[to], reason);
+        level = to;
+        holdLeft = holdWindows;
+        changes++;
+        return decision;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "quality: %s (max %s) target=%.0ffps changes=%d",
+                LEVELS[level], LEVELS[maxLevel], targetFps, changes);
+    }
+}
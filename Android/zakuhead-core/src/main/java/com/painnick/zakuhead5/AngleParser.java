@@ -0,0 +1,77 @@
+package com.painnick.zakuhead5;
+
+/**
+ * Reads the servo angle, and the time the head spent on the command, out of a {@code {"angle":N,"us":M}} response
+ * without building a String or a JSONObject.
+ */
+public final class AngleParser {
+
+    private static final byte[] ANGLE_KEY = {'"', 'a', 'n', 'g', 'l', 'e', '"'};
+    private static final byte[] HEAD_MICROS_KEY = {'"', 'u', 's', '"'};
+
+    private AngleParser() {
+    }
+
+    /**
+     * @return the integer after {@code "angle":} in {@code body[0..length)}, or {@code fallback} when there is none.
+     */
+    public static int parse(byte[] body, int length, int fallback) {
+        return parseField(body, length, ANGLE_KEY, fallback);
+    }
+
+    /**
+     * @return the integer after {@code "us":} in {@code body[0..length)}, or -1 from a firmware that does not
+     * report it.
+     */
+    public static int parseHeadMicros(byte[] body, int length) {
+        return parseField(body, length, HEAD_MICROS_KEY, -1);
+    }
+
+    private static int parseField(byte[] body, int length, byte[] key, int fallback) {
+        int last = length - key.length;
+        for (int i = 0; i <= last; i++) {
+            if (!matchesKey(body, i, key)) {
+                continue;
+            }
+            int p = skipSpaces(body, i + key.length, length);
+            if (p >= length || body[p] != ':') {
+                continue;
+            }
+            p = skipSpaces(body, p + 1, length);
+            boolean negative = p < length && body[p] == '-';
+            if (negative) {
+                p++;
+            }
+            int start = p;
+            long value = 0;
+            while (p < length && body[p] >= '0' && body[p] <= '9') {
+                value = value * 10 + (body[p] - '0');
+                if (value > Integer.MAX_VALUE) {
+                    return fallback;
+                }
+                p++;
+            }
+            if (p == start) {
+                return fallback;
+            }
+            return (int) (negative ? -value : value);
+        }
+        return fallback;
+    }
+
+    private static boolean matchesKey(byte[] body, int offset, byte[] key) {
+        for (int k = 0; k < key.length; k++) {
+            if (body[offset + k] != key[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int skipSpaces(byte[] body, int p, int length) {
+        while (p < length && (body[p] == ' ' || body[p] == '\t' || body[p] == '\r' || body[p] == '\n')) {
+            p++;
+        }
+        return p;
+    }
+}
@@ -0,0 +1,29 @@
+package com.painnick.zakuhead5;
+
+/**
+ * A fixed step toward any face outside the {@link SteeringPolicy} dead zone. How the head steered originally.
+ */
+public class BangBangSteering implements SteeringController {
+
+    private final int stepDegrees;
+
+    public BangBangSteering(int stepDegrees) {
+        this.stepDegrees = stepDegrees;
+    }
+
+    @Override
+    public int steer(float center, long captureNanos, int servoAngle, long nowNanos) {
+        switch (SteeringPolicy.decide(center)) {
+            case LEFT:
+                return stepDegrees;
+            case RIGHT:
+                return -stepDegrees;
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public void reset() {
+    }
+}
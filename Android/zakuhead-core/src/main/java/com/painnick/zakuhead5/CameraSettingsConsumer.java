@@ -0,0 +1,10 @@
+package com.painnick.zakuhead5;
+
+public interface CameraSettingsConsumer {
+    /**
+     * What the head's sensor uses after a /camera request.
+     *
+     * @param maxFramesize the largest framesize the head allows, or null from a firmware that does not say.
+     */
+    void onCameraSettings(String framesize, int quality, String maxFramesize);
+}
@@ -0,0 +1,210 @@
+package com.painnick.zakuhead5;
+
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+/**
+ * Merges servo and LED commands that have not been sent yet.
+ * <p>
+ * At most one drain job is queued on the executor. Until it runs, further moves are added into one net
+ * delta and only the latest LED brightness is kept. A move whose found flag differs from the pending one
+ * (a tracking correction arriving during a search, or the other way round) replaces it, and a move that
+ * waited longer than the stale limit is dropped instead of being sent. A {@link MoveListener} hears what became
+ * of the moves: the net delta of each drain, or 0 when nothing was sent.
+ */
+public class CoalescingCommandQueue {
+
+    public interface Sink {
+        /**
+         * @param delta positive turns left, negative turns right.
+         */
+        void sendServo(int delta, boolean found);
+
+        void sendLed(int bright);
+    }
+
+    public interface MoveListener {
+        /**
+         * On the executor, before the move goes to the sink.
+         *
+         * @param delta          the net delta sent for every move submitted up to {@code drainedAtNanos}, or 0 when
+         *                       they were dropped or cancelled out.
+         * @param drainedAtNanos {@link System#nanoTime()} when the pending move was taken.
+         */
+        void onMoveSent(int delta, long drainedAtNanos);
+    }
+
+    private static final int NO_LED = -1;
+
+    private final Executor executor;
+    private final Sink sink;
+    private final long staleNanos;
+    private volatile MoveListener moveListener;
+
+    // Guarded by this.
+    private boolean drainScheduled = false;
+    private boolean movePending = false;
+    private int pendingDelta = 0;
+    private boolean pendingFound = false;
+    private int pendingMoveCount = 0;
+    private long pendingMoveAt = 0;
+    private int pendingLed = NO_LED;
+
+    private long submittedMoves = 0;
+    private long sentMoves = 0;
+    private long coalescedMoves = 0;
+    private long droppedMoves = 0;
+    private long submittedLeds = 0;
+    private long sentLeds = 0;
+    private long coalescedLeds = 0;
+
+    /**
+     * @param staleMillis a move not sent within this time after it was last updated is dropped.
+     */
+    public CoalescingCommandQueue(Executor executor, Sink sink, long staleMillis) {
+        this.executor = executor;
+        this.sink = sink;
+        this.staleNanos = staleMillis * 1_000_000L;
+    }
+
+    public void setMoveListener(MoveListener listener) {
+        moveListener = listener;
+    }
+
+    public void move(int delta, boolean found) {
+        boolean schedule;
+        synchronized (this) {
+            submittedMoves++;
+            if (movePending) {
+                if (pendingFound == found) {
+                    pendingDelta += delta;
+                    coalescedMoves++;
+                } else {
+                    // Superseded: the pending move belongs to the other mode (tracking vs. search).
+                    droppedMoves += pendingMoveCount;
+                    pendingDelta = delta;
+                    pendingMoveCount = 0;
+                }
+            } else {
+                pendingDelta = delta;
+                pendingMoveCount = 0;
+            }
+            movePending = true;
+            pendingFound = found;
+            pendingMoveCount++;
+            pendingMoveAt = System.nanoTime();
+            schedule = scheduleDrain();
+        }
+        if (schedule) {
+            executor.execute(this::drain);
+        }
+    }
+
+    public void led(int bright) {
+        boolean schedule;
+        synchronized (this) {
+            submittedLeds++;
+            if (pendingLed != NO_LED) {
+                coalescedLeds++;
+            }
+            pendingLed = bright;
+            schedule = scheduleDrain();
+        }
+        if (schedule) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private boolean scheduleDrain() {
+        if (drainScheduled) {
+            return false;
+        }
+        drainScheduled = true;
+        return true;
+    }
+
+    private void drain() {
+        boolean hadMove;
+        boolean sendMove;
+        int delta;
+        boolean found;
+        int bright;
+        long drainedAt;
+        synchronized (this) {
+            drainedAt = System.nanoTime();
+            drainScheduled = false;
+            hadMove = movePending;
+            sendMove = movePending;
+            delta = pendingDelta;
+            found = pendingFound;
+            bright = pendingLed;
+            if (sendMove && drainedAt - pendingMoveAt > staleNanos) {
+                droppedMoves += pendingMoveCount;
+                sendMove = false;
+            } else if (sendMove && delta == 0 && !found) {
+                // Net zero search move: nothing to tell the head.
+                droppedMoves += pendingMoveCount;
+                sendMove = false;
+            } else if (sendMove) {
+                sentMoves++;
+            }
+            if (bright != NO_LED) {
+                sentLeds++;
+            }
+            movePending = false;
+            pendingDelta = 0;
+            pendingMoveCount = 0;
+            pendingLed = NO_LED;
+        }
+        MoveListener listener = moveListener;
+        if (hadMove && listener != null) {
+            listener.onMoveSent(sendMove ? delta : 0, drainedAt);
+        }
+        if (sendMove) {
+            sink.sendServo(delta, found);
+        }
+        if (bright != NO_LED) {
+            sink.sendLed(bright);
+        }
+    }
+
+    public synchronized long getSubmittedMoves() {
+        return submittedMoves;
+    }
+
+    public synchronized long getSentMoves() {
+        return sentMoves;
+    }
+
+    /**
+     * Moves that were merged into a pending move instead of being sent on their own.
+     */
+    public synchronized long getCoalescedMoves() {
+        return coalescedMoves;
+    }
+
+    /**
+     * Moves that were superseded, stale or cancelled out, and never reached the head.
+     */
+    public synchronized long getDroppedMoves() {
+        return droppedMoves;
+    }
+
+    public synchronized long getSubmittedLeds() {
+        return submittedLeds;
+    }
+
+    public synchronized long getSentLeds() {
+        return sentLeds;
+    }
+
+    public synchronized long getCoalescedLeds() {
+        return coalescedLeds;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "servo: submitted=%d sent=%d coalesced=%d dropped=%d, led: submitted=%d sent=%d coalesced=%d",
+                submittedMoves, sentMoves, coalescedMoves, droppedMoves, submittedLeds, sentLeds, coalescedLeds);
+    }
+}
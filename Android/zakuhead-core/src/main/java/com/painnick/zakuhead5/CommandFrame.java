@@ -0,0 +1,77 @@
+package com.painnick.zakuhead5;
+
+/**
+ * The 10 byte servo/LED datagram of the head's UDP command channel, see command_server.cpp.
+ * <pre>
+ *  0     magic 'Z'
+ *  1     op: {@link #OP_MOVE} or {@link #OP_LED}; the ack has {@link #ACK} set
+ *  2-3   sequence number, big endian
+ *  4-5   value, signed big endian: degrees for a move (positive turns left), brightness for the LED
+ *  6     flags: {@link #FLAG_FOUND}; in the ack, {@link #FLAG_ERROR}
+ *  7     ack: servo angle after the command
+ *  8-9   ack: microseconds the head spent on the command, big endian
+ * </pre>
+ * Reads and writes caller-owned buffers, so sending a command allocates nothing.
+ */
+public final class CommandFrame {
+
+    public static final int LENGTH = 10;
+    public static final int MAGIC = 'Z';
+    public static final int OP_MOVE = 1;
+    public static final int OP_LED = 2;
+    public static final int ACK = 0x80;
+    public static final int FLAG_FOUND = 0x01;
+    /** Set in the ack when the head refused the command. */
+    public static final int FLAG_ERROR = 0x40;
+
+    private CommandFrame() {
+    }
+
+    /**
+     * @param seq   only the low 16 bits are sent.
+     * @param value degrees for {@link #OP_MOVE}, brightness for {@link #OP_LED}.
+     */
+    public static void encode(byte[] frame, int op, int seq, int value, boolean found) {
+        frame[0] = (byte) MAGIC;
+        frame[1] = (byte) op;
+        frame[2] = (byte) (seq >> 8);
+        frame[3] = (byte) seq;
+        frame[4] = (byte) (value >> 8);
+        frame[5] = (byte) value;
+        frame[6] = (byte) (found ? FLAG_FOUND : 0);
+        frame[7] = 0;
+        frame[8] = 0;
+        frame[9] = 0;
+    }
+
+    /**
+     * @return true when {@code frame[0..length)} is the ack of the command with this sequence number.
+     */
+    public static boolean isAckOf(byte[] frame, int length, int seq) {
+        return length == LENGTH && frame[0] == MAGIC && (frame[1] & ACK) != 0 && seqOf(frame) == (seq & 0xffff);
+    }
+
+    public static int seqOf(byte[] frame) {
+        return (frame[2] & 0xff) << 8 | frame[3] & 0xff;
+    }
+
+    public static int valueOf(byte[] frame) {
+        return (short) ((frame[4] & 0xff) << 8 | frame[5] & 0xff);
+    }
+
+    public static boolean isFound(byte[] frame) {
+        return (frame[6] & FLAG_FOUND) != 0;
+    }
+
+    public static boolean isRefused(byte[] frame) {
+        return (frame[6] & FLAG_ERROR) != 0;
+    }
+
+    public static int angleOf(byte[] frame) {
+        return frame[7] & 0xff;
+    }
+
+    public static int headMicrosOf(byte[] frame) {
+        return (frame[8] & 0xff) << 8 | frame[9] & 0xff;
+    }
+}
@@ -0,0 +1,102 @@
+package com.painnick.zakuhead5;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits ZakuHead traffic into a control lane for servo/LED commands and a set of image lanes for /capture.
+ * <p>
+ * The control lane has its own thread with a higher priority, so a command computed from a fresh detection
+ * never waits behind a JPEG download. Each image lane runs at most one fetch at a time. The pipeline depth
+ * bounds the regular fetches; the lanes beyond it carry hedged ones. Heads of a {@link HeadRegistry} share the
+ * threads of both with other heads.
+ */
+public class CommandScheduler {
+
+    private final SerialExecutor controlExecutor;
+    private final ImageLanePool imageLanes;
+
+    private final LaneStats controlStats = new LaneStats("control");
+
+    // Threads this scheduler started itself, empty when they are shared.
+    private final List<SerialExecutor> ownThreads = new ArrayList<>();
+
+    CommandScheduler(HeadPlatform<?> platform, String name, int imageLaneCount) {
+        this(platform.newExecutor(name + "ControlThread", true), createImageThreads(platform, name, imageLaneCount));
+    }
+
+    private CommandScheduler(SerialExecutor controlExecutor, List<SerialExecutor> imageThreads) {
+        this(controlExecutor, new ImageLanePool(imageThreads));
+        ownThreads.add(controlExecutor);
+        ownThreads.addAll(imageThreads);
+    }
+
+    /**
+     * @param controlExecutor may be shared with other heads; this head's commands still run in order.
+     * @param imageLanes      may be shared with other heads.
+     */
+    CommandScheduler(SerialExecutor controlExecutor, ImageLanePool imageLanes) {
+        this.controlExecutor = controlExecutor;
+        this.imageLanes = imageLanes;
+    }
+
+    static List<SerialExecutor> createImageThreads(HeadPlatform<?> platform, String name, int count) {
+        List<SerialExecutor> threads = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            threads.add(platform.newExecutor(name + "ImageThread" + i, false));
+        }
+        return threads;
+    }
+
+    public void executeControl(Runnable job) {
+        long queuedAt = System.nanoTime();
+        controlStats.onQueued();
+        controlExecutor.execute(() -> {
+            long startedAt = System.nanoTime();
+            controlStats.onStarted(startedAt - queuedAt);
+            try {
+                job.run();
+            } finally {
+                controlStats.onFinished(System.nanoTime() - startedAt);
+            }
+        });
+    }
+
+    /**
+     * Takes an image lane that is not fetching. The caller must {@link ImageLanePool.ImageLane#release()} it once
+     * the frame is off the wire.
+     *
+     * @return an idle lane, or null when all lanes are busy.
+     */
+    public ImageLanePool.ImageLane pollIdleImageLane() {
+        return imageLanes.poll();
+    }
+
+    /**
+     * See {@link ImageLanePool#awaitIdleLane(Runnable)}.
+     */
+    public void awaitIdleImageLane(Runnable refill) {
+        imageLanes.awaitIdleLane(refill);
+    }
+
+    public LaneStats getControlStats() {
+        return controlStats;
+    }
+
+    /**
+     * With shared image lanes, these count the fetches of every head on them.
+     */
+    public LaneStats getImageStats() {
+        return imageLanes.getStats();
+    }
+
+    /**
+     * Stops the threads this scheduler started, once the jobs already posted to them are done. Shared threads
+     * are left to their owner.
+     */
+    void shutdown() {
+        for (SerialExecutor executor : ownThreads) {
+            executor.shutdown();
+        }
+    }
+}
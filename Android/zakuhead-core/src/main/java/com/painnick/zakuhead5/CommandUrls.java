@@ -0,0 +1,37 @@
+package com.painnick.zakuhead5;
+
+/**
+ * Paths of the head's control endpoints, built with a single presized StringBuilder each.
+ */
+public final class CommandUrls {
+
+    private CommandUrls() {
+    }
+
+    /**
+     * @param delta degrees to turn. Positive turns left, negative turns right.
+     */
+    public static String servo(int delta, boolean found) {
+        StringBuilder builder = new StringBuilder(48);
+        builder.append("/servo?dir=").append(delta >= 0 ? "left" : "right")
+                .append("&step=").append(Math.abs(delta))
+                .append("&found=").append(found ? "true" : "false");
+        return builder.toString();
+    }
+
+    public static String led(int bright) {
+        StringBuilder builder = new StringBuilder(20);
+        builder.append("/led?bright=").append(bright);
+        return builder.toString();
+    }
+
+    /**
+     * @param framesize sensor framesize name, e.g. "VGA".
+     * @param quality   JPEG quality of the sensor, lower is better.
+     */
+    public static String camera(String framesize, int quality) {
+        StringBuilder builder = new StringBuilder(40);
+        builder.append("/camera?framesize=").append(framesize).append("&quality=").append(quality);
+        return builder.toString();
+    }
+}
@@ -0,0 +1,101 @@
+package com.painnick.zakuhead5;
+
+import java.util.Locale;
+
+/**
+ * Decides which frames get the full detector and which only the {@link PatchTracker}.
+ * <p>
+ * The detector runs whenever nothing is tracked, when the tracker loses the face, and at least every
+ * interval frames. The interval follows the measured motion: long while the face holds still, down to the
+ * minimum while it moves fast. Not thread safe.
+ */
+public class DetectionCadence {
+
+    public static class Config {
+        public int minInterval = 2;
+        public int maxInterval = 10;
+        /** Motion per frame, as a share of the frame, at or below which the longest interval is used. */
+        public float lowMotion = 0.004f;
+        /** Motion per frame at or above which the shortest interval is used. */
+        public float highMotion = 0.03f;
+        /** Weight of the newest motion sample in the running average. */
+        public float motionSmoothing = 0.3f;
+    }
+
+    private final int minInterval;
+    private final int maxInterval;
+    private final float lowMotion;
+    private final float highMotion;
+    private final float motionSmoothing;
+
+    private boolean tracking = false;
+    private int framesSinceDetection = 0;
+    private int interval;
+    private float motion = 0;
+
+    private long detections = 0;
+    private long tracked = 0;
+    private long trackLosses = 0;
+
+    public DetectionCadence() {
+        this(new Config());
+    }
+
+    public DetectionCadence(Config config) {
+        minInterval = config.minInterval;
+        maxInterval = config.maxInterval;
+        lowMotion = config.lowMotion;
+        highMotion = config.highMotion;
+        motionSmoothing = config.motionSmoothing;
+        interval = minInterval;
+    }
+
+    public boolean shouldDetect() {
+        return !tracking || framesSinceDetection + 1 >= interval;
+    }
+
+    /**
+     * @param trackable true when a face was found and the tracker took it.
+     */
+    public void onDetected(boolean trackable) {
+        detections++;
+        tracking = trackable;
+        framesSinceDetection = 0;
+    }
+
+    /**
+     * @param frameMotion how far the face moved since the previous frame, from {@link PatchTracker#getLastMotion()}.
+     */
+    public void onTracked(float frameMotion) {
+        tracked++;
+        framesSinceDetection++;
+        motion += motionSmoothing * (frameMotion - motion);
+        float t = (motion - lowMotion) / (highMotion - lowMotion);
+        t = Math.max(0f, Math.min(1f, t));
+        interval = Math.round(maxInterval - t * (maxInterval - minInterval));
+    }
+
+    public void onTrackLost() {
+        trackLosses++;
+        tracking = false;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public long getDetections() {
+        return detections;
+    }
+
+    public long getTracked() {
+        return tracked;
+    }
+
+    @Override
+    public String toString() {
+        long total = detections + tracked;
+        return String.format(Locale.US, "cadence: detected=%d tracked=%d (%.0f%%) losses=%d interval=%d motion=%.4f",
+                detections, tracked, total == 0 ? 0 : tracked * 100.0 / total, trackLosses, interval, motion);
+    }
+}
@@ -0,0 +1,83 @@
+package com.painnick.zakuhead5;
+
+import java.util.Locale;
+
+/**
+ * Inference latency and detection stability of one face detection configuration.
+ * <p>
+ * Latency is the time from {@code send} to the result callback. Stability is how much the tracked face
+ * center moves between consecutive results, and how often the result flips between found and not found.
+ * Run the app once per mode and compare the logged lines.
+ */
+public class DetectionStats {
+
+    // MediaPipe returns results in the order frames were sent, so send times are matched first in, first out.
+    private static final int MAX_IN_FLIGHT = 16;
+
+    private final String label;
+    private final long[] sentAt = new long[MAX_IN_FLIGHT];
+    private int head = 0;
+    private int size = 0;
+
+    private long results = 0;
+    private long totalLatencyNanos = 0;
+    private long maxLatencyNanos = 0;
+    private long foundResults = 0;
+    private long flips = 0;
+    private long centerSteps = 0;
+    private double totalCenterStep = 0;
+    private boolean lastFound = false;
+    private float lastCenter = 0;
+
+    public DetectionStats(String label) {
+        this.label = label;
+    }
+
+    public synchronized void onSent(long nanoTime) {
+        if (size == MAX_IN_FLIGHT) {
+            // Results are being dropped somewhere. Forget the oldest send.
+            head = (head + 1) % MAX_IN_FLIGHT;
+            size--;
+        }
+        sentAt[(head + size) % MAX_IN_FLIGHT] = nanoTime;
+        size++;
+    }
+
+    /**
+     * @param center horizontal center of the selected face, 0..1. Ignored when {@code found} is false.
+     */
+    public synchronized void onResult(long nanoTime, boolean found, float center) {
+        if (size > 0) {
+            long latency = nanoTime - sentAt[head];
+            head = (head + 1) % MAX_IN_FLIGHT;
+            size--;
+            totalLatencyNanos += latency;
+            maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+        }
+        if (results > 0 && found != lastFound) {
+            flips++;
+        }
+        if (found) {
+            foundResults++;
+            if (lastFound) {
+                totalCenterStep += Math.abs(center - lastCenter);
+                centerSteps++;
+            }
+            lastCenter = center;
+        }
+        lastFound = found;
+        results++;
+    }
+
+    public synchronized long getResults() {
+        return results;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%s: results=%d latency(avg=%.1fms max=%.1fms) found=%d flips=%d centerJitter=%.4f",
+                label, results,
+                results == 0 ? 0 : totalLatencyNanos / 1e6 / results, maxLatencyNanos / 1e6,
+                foundResults, flips, centerSteps == 0 ? 0 : totalCenterStep / centerSteps);
+    }
+}
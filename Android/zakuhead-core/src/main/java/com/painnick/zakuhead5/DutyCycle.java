@@ -0,0 +1,198 @@
+package com.painnick.zakuhead5;
+
+import java.util.Locale;
+
+/**
+ * Picks how often the head is asked for a frame: as fast as the pipeline goes while there may be a face, a slow
+ * idle rate once the {@link FaceTracker} has been LOST for a while, and slower still while the phone is hot or
+ * low on battery.
+ * <p>
+ * Any state but LOST ends the idle rate at once, so the frame that shows a face brings back the full rate for
+ * the next one. Time, frames, CPU time and network traffic are accounted to the {@link Mode} they were spent
+ * in; CPU and traffic are read from {@link Usage} on every change of mode and for {@link #toString()} only.
+ * Thread safe.
+ */
+public class DutyCycle {
+
+    public enum Mode {
+        /** As fast as the pipeline goes. */
+        ACTIVE,
+        /** LOST for {@link Config#idleAfterLostMillis}. */
+        IDLE,
+        /** Hot or low on battery, with or without a face. */
+        THROTTLED
+    }
+
+    /**
+     * Counters of the whole process, read for the accounting.
+     */
+    public interface Usage {
+        long cpuMillis();
+
+        long networkBytes();
+    }
+
+    public static class Config {
+        /** LOST for this long drops to the idle rate. */
+        public long idleAfterLostMillis = 10_000;
+        public double idleFps = 1;
+        /** Cap while throttled and not LOST for long. 0 leaves the full rate. */
+        public double throttledFps = 5;
+        /** Rate while throttled and LOST for long. */
+        public double throttledIdleFps = 0.25;
+        /** Thermal status, as PowerManager.THERMAL_STATUS_*, from which on to throttle. MODERATE by default. */
+        public int throttleThermalStatus = 2;
+        /** Throttle when not charging and at or below this battery level. */
+        public int lowBatteryPercent = 20;
+    }
+
+    private final long idleAfterLostNanos;
+    private final long idleIntervalNanos;
+    private final long throttledIntervalNanos;
+    private final long throttledIdleIntervalNanos;
+    private final int throttleThermalStatus;
+    private final int lowBatteryPercent;
+    private final NanoClock clock;
+    private final Usage usage;
+
+    // Guarded by this.
+    private Mode mode = Mode.ACTIVE;
+    private long intervalNanos = 0;
+    private boolean lost = false;
+    private long lostSince = 0;
+    private int thermalStatus = 0;
+    private int batteryPercent = 100;
+    private boolean charging = true;
+    private long modeSince;
+    private long lastCpuMillis;
+    private long lastNetworkBytes;
+    private final long[] modeNanos = new long[Mode.values().length];
+    private final long[] modeFrames = new long[Mode.values().length];
+    private final long[] modeCpuMillis = new long[Mode.values().length];
+    private final long[] modeNetworkBytes = new long[Mode.values().length];
+    private long changes = 0;
+
+    public DutyCycle(Config config, NanoClock clock, Usage usage) {
+        idleAfterLostNanos = config.idleAfterLostMillis * 1_000_000L;
+        idleIntervalNanos = intervalNanos(config.idleFps);
+        throttledIntervalNanos = intervalNanos(config.throttledFps);
+        throttledIdleIntervalNanos = intervalNanos(config.throttledIdleFps);
+        throttleThermalStatus = config.throttleThermalStatus;
+        lowBatteryPercent = config.lowBatteryPercent;
+        this.clock = clock;
+        this.usage = usage;
+        modeSince = clock.nanoTime();
+        lastCpuMillis = usage.cpuMillis();
+        lastNetworkBytes = usage.networkBytes();
+    }
+
+    private static long intervalNanos(double fps) {
+        return fps > 0 ? (long) (1e9 / fps) : 0;
+    }
+
+    /**
+     * The tracker's state after a frame.
+     *
+     * @return true when the frame interval changed.
+     */
+    public synchronized boolean onTrackerState(FaceTracker.State state) {
+        long now = clock.nanoTime();
+        modeFrames[mode.ordinal()]++;
+        if (state != FaceTracker.State.LOST) {
+            lost = false;
+        } else if (!lost) {
+            lost = true;
+            lostSince = now;
+        }
+        return evaluate(now);
+    }
+
+    /**
+     * @param status PowerManager.THERMAL_STATUS_*.
+     * @return true when the frame interval changed.
+     */
+    public synchronized boolean onThermalStatus(int status) {
+        thermalStatus = status;
+        return evaluate(clock.nanoTime());
+    }
+
+    /**
+     * @return true when the frame interval changed.
+     */
+    public synchronized boolean onBattery(int percent, boolean charging) {
+        batteryPercent = percent;
+        this.charging = charging;
+        return evaluate(clock.nanoTime());
+    }
+
+    private boolean evaluate(long now) {
+        boolean idle = lost && now - lostSince >= idleAfterLostNanos;
+        boolean throttled = thermalStatus >= throttleThermalStatus
+                || (!charging && batteryPercent <= lowBatteryPercent);
+        Mode newMode = throttled ? Mode.THROTTLED : idle ? Mode.IDLE : Mode.ACTIVE;
+        long newInterval = throttled
+                ? idle ? throttledIdleIntervalNanos : throttledIntervalNanos
+                : idle ? idleIntervalNanos : 0;
+        if (newMode != mode) {
+            account(now);
+            mode = newMode;
+            changes++;
+        }
+        if (newInterval == intervalNanos) {
+            return false;
+        }
+        intervalNanos = newInterval;
+        return true;
+    }
+
+    /**
+     * Charges the time and usage since the last call to the current mode.
+     */
+    private void account(long now) {
+        long cpuMillis = usage.cpuMillis();
+        long networkBytes = usage.networkBytes();
+        int i = mode.ordinal();
+        modeNanos[i] += now - modeSince;
+        modeCpuMillis[i] += cpuMillis - lastCpuMillis;
+        modeNetworkBytes[i] += networkBytes - lastNetworkBytes;
+        modeSince = now;
+        lastCpuMillis = cpuMillis;
+        lastNetworkBytes = networkBytes;
+    }
+
+    public synchronized Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return the time to leave between two frames, or 0 to ask for the next frame as soon as possible.
+     */
+    public synchronized long getFrameIntervalNanos() {
+        return intervalNanos;
+    }
+
+    /**
+     * Time spent in the mode so far, the current stretch included.
+     */
+    public synchronized long getModeNanos(Mode mode) {
+        account(clock.nanoTime());
+        return modeNanos[mode.ordinal()];
+    }
+
+    @Override
+    public synchronized String toString() {
+        account(clock.nanoTime());
+        StringBuilder sb = new StringBuilder(String.format(Locale.US, "duty: %s interval=%dms changes=%d",
+                mode, intervalNanos / 1_000_000, changes));
+        for (Mode m : Mode.values()) {
+            int i = m.ordinal();
+            double seconds = modeNanos[i] / 1e9;
+            double minutes = seconds / 60;
+            sb.append(String.format(Locale.US, "\n  %-9s %7.0fs %5.1ffps cpu=%5.1fs/min net=%6.2fMB/min",
+                    m, seconds, seconds > 0 ? modeFrames[i] / seconds : 0,
+                    minutes > 0 ? modeCpuMillis[i] / 1000.0 / minutes : 0,
+                    minutes > 0 ? modeNetworkBytes[i] / 1e6 / minutes : 0));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,7 @@
+package com.painnick.zakuhead5;
+
+enum FACE_DIRECTION {
+    NONE,
+    LEFT,
+    RIGHT
+}
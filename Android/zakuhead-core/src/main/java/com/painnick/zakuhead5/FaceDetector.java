@@ -0,0 +1,20 @@
+package com.painnick.zakuhead5;
+
+/**
+ * The face detector a {@link ZakuHeadController} feeds, e.g. MediaPipe's on Android or a stub on a plain JVM.
+ * <p>
+ * Gets one frame at a time. Its result callback, on any thread, must report the face it picked, with the
+ * timestamp of the frame, to the controller's
+ * {@link ZakuHeadController#onInferenceDone(long, boolean, float, float, float, float)}, or
+ * {@link ZakuHeadController#onInferenceError()} on an error; only then does the next frame go in. The timestamp
+ * tells a result from one that comes back after its frame timed out.
+ */
+public interface FaceDetector<F> {
+
+    /**
+     * @param frame       may only be used until this method returns; copy what the detection needs later.
+     * @param timestampUs monotonic capture time in microseconds ({@link System#nanoTime()} based). Strictly
+     *                    increasing from one frame of a head to the next.
+     */
+    void detect(F frame, long timestampUs);
+}
@@ -0,0 +1,37 @@
+package com.painnick.zakuhead5;
+
+import java.util.List;
+
+/**
+ * Picks the face to follow among several detections.
+ */
+public final class FaceSelector {
+
+    /**
+     * Relative bounding box width of a detection, 0..1.
+     */
+    public interface WidthOf<T> {
+        float widthOf(T face);
+    }
+
+    private FaceSelector() {
+    }
+
+    /**
+     * @return the widest face, which is usually the closest one, or null when there is none.
+     */
+    public static <T> T largest(List<T> faces, WidthOf<? super T> width) {
+        T largest = null;
+        float maxWidth = 0;
+        // Indexed, so no Iterator is allocated per frame.
+        for (int i = 0, size = faces.size(); i < size; i++) {
+            T face = faces.get(i);
+            float w = width.widthOf(face);
+            if (maxWidth < w) {
+                largest = face;
+                maxWidth = w;
+            }
+        }
+        return largest;
+    }
+}
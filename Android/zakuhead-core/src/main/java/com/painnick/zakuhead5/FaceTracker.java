@@ -0,0 +1,274 @@
+package com.painnick.zakuhead5;
+
+/**
+ * Decides what the head does with each detection result: follow a visible face, nudge to show it is still
+ * following, and sweep in the last known direction when the face is gone.
+ * <p>
+ * States:
+ * <ul>
+ *     <li>FOUND: a face is visible. The LED is on and the {@link SteeringController} turns the head toward it.</li>
+ *     <li>SEARCH: the face just disappeared. The head keeps turning the way the face went.</li>
+ *     <li>LOST: nothing seen for {@link Config#lostTimeoutMillis}. The LED goes off, the sweep goes on.</li>
+ * </ul>
+ * With a {@link TargetPredictor}, steering aims at where the face will be when the command lands, and a face
+ * missing for a few frames is followed on its predicted path instead of starting a SEARCH.
+ * <p>
+ * Time comes from a {@link NanoClock}, never from the wall clock, and nothing is allocated per frame.
+ * Results must come from one thread; only {@link #setDirection(FACE_DIRECTION)} may be called from another.
+ */
+public class FaceTracker {
+
+    public enum State {
+        FOUND,
+        SEARCH,
+        LOST
+    }
+
+    /**
+     * What the tracker drives. {@link ZakuHeadController} implements it.
+     */
+    public interface Head {
+        void moveLeft(int degree, boolean found);
+
+        void moveRight(int degree, boolean found);
+
+        void ledOn(boolean forced);
+
+        void ledOff(boolean forced);
+    }
+
+    public static class Config {
+        /** Without a face for this long, the face counts as lost. */
+        public long lostTimeoutMillis = 3000;
+        /** While a centered face is followed, the head nudges every this often to show it. */
+        public long acknowledgeIntervalMillis = 3000;
+        /** First nudge after the face was found. */
+        public long acknowledgeDelayMillis = 1000;
+        /** Step toward a face outside the dead zone, when no other {@link SteeringController} is given. */
+        public int trackingStepDegrees = 5;
+        /** Step of the sweep while the face is missing. */
+        public int searchStepDegrees = 30;
+        /** The sweep stops at these servo angles, exclusive. */
+        public int searchMinAngle = 20;
+        public int searchMaxAngle = 160;
+        /** End stops of the head servo (MONO_EYE_MIN_ANGLE, MONO_EYE_MAX_ANGLE). */
+        public int servoMinAngle = 10;
+        public int servoMaxAngle = 170;
+        /** A commanded move shows in frames captured this long after it was sent. */
+        public long servoSettleMillis = 60;
+    }
+
+    // Commanded angles, to know where the camera pointed when a frame was captured.
+    private static final int ANGLE_HISTORY = 16;
+    // Without moves for this long, the angle reported by the head is taken as it is.
+    private static final long ANGLE_RESYNC_NANOS = 1_000_000_000L;
+
+    private final Head head;
+    private final NanoClock clock;
+    private final SteeringController steering;
+    private final TargetPredictor predictor;
+    private final long lostTimeoutNanos;
+    private final long acknowledgeIntervalNanos;
+    private final long acknowledgeDelayNanos;
+    private final int searchStep;
+    private final int searchMinAngle;
+    private final int searchMaxAngle;
+    private final int servoMinAngle;
+    private final int servoMaxAngle;
+    private final long settleNanos;
+
+    private final long[] angleTimes = new long[ANGLE_HISTORY];
+    private final int[] angles = new int[ANGLE_HISTORY];
+    private int angleIndex = 0;
+    private int angleCount = 0;
+    private long lastMoveAt;
+
+    private State state = State.SEARCH;
+    private volatile FACE_DIRECTION direction = FACE_DIRECTION.NONE;
+    // From the first sighting until the face is LOST. A short SEARCH does not restart the sequence.
+    private boolean following = false;
+    private long lastSeenAt;
+    private long nextAcknowledgeAt;
+    // From the result to the command arriving at the head. Updated from the measured /servo round-trip.
+    private volatile long commandLeadNanos = 50_000_000L;
+
+    public FaceTracker(Head head) {
+        this(head, new Config(), NanoClock.SYSTEM);
+    }
+
+    public FaceTracker(Head head, Config config, NanoClock clock) {
+        this(head, config, new BangBangSteering(config.trackingStepDegrees), clock);
+    }
+
+    public FaceTracker(Head head, Config config, SteeringController steering, NanoClock clock) {
+        this(head, config, steering, null, clock);
+    }
+
+    /**
+     * @param predictor filters the face's motion, or null to steer on the raw detections.
+     */
+    public FaceTracker(Head head, Config config, SteeringController steering, TargetPredictor predictor,
+                       NanoClock clock) {
+        this.head = head;
+        this.clock = clock;
+        this.steering = steering;
+        this.predictor = predictor;
+        lostTimeoutNanos = config.lostTimeoutMillis * 1_000_000L;
+        acknowledgeIntervalNanos = config.acknowledgeIntervalMillis * 1_000_000L;
+        acknowledgeDelayNanos = config.acknowledgeDelayMillis * 1_000_000L;
+        searchStep = config.searchStepDegrees;
+        searchMinAngle = config.searchMinAngle;
+        searchMaxAngle = config.searchMaxAngle;
+        servoMinAngle = config.servoMinAngle;
+        servoMaxAngle = config.servoMaxAngle;
+        settleNanos = config.servoSettleMillis * 1_000_000L;
+        // Starting up counts as having just lost sight of the face.
+        lastSeenAt = clock.nanoTime();
+    }
+
+    /**
+     * A face was detected.
+     *
+     * @param center       horizontal center of the followed face, 0..1.
+     * @param captureNanos when the frame was captured, on the same clock.
+     * @param servoAngle   the head's current angle, from the last /servo response.
+     */
+    public void onFace(float center, long captureNanos, int servoAngle) {
+        long now = clock.nanoTime();
+        boolean newlyFound = !following;
+        if (newlyFound) {
+            following = true;
+            nextAcknowledgeAt = now + acknowledgeDelayNanos;
+            steering.reset();
+            if (predictor != null) {
+                predictor.reset();
+            }
+        }
+        state = State.FOUND;
+        head.ledOn(newlyFound);
+
+        if (predictor != null) {
+            // The reported angle trails the moves in flight. Judge the frame from where the camera was pointing.
+            int cameraAngle = cameraAngleAt(captureNanos, servoAngle, now);
+            predictor.update(center, cameraAngle, captureNanos);
+            center = predictor.predictCenter(cameraAngle, now + commandLeadNanos);
+        }
+        if (!steer(center, captureNanos, servoAngle, now) && now - nextAcknowledgeAt >= 0) {
+            // 일정 시간동안 얼굴을 찾고 있더라도 찾았다는 사실을 알림
+            head.moveLeft(0, true);
+            nextAcknowledgeAt = now + acknowledgeIntervalNanos;
+        }
+        lastSeenAt = now;
+    }
+
+    /**
+     * @return true when a move was sent.
+     */
+    private boolean steer(float center, long captureNanos, int servoAngle, long now) {
+        int degrees = steering.steer(center, captureNanos, servoAngle, now);
+        if (degrees != 0) {
+            move(degrees, true, servoAngle, now);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * No face in this frame.
+     *
+     * @param captureNanos when the frame was captured, on the same clock.
+     * @param servoAngle   the head's current angle, from the last /servo response.
+     */
+    public void onNoFace(long captureNanos, int servoAngle) {
+        long now = clock.nanoTime();
+        if (state == State.FOUND && predictor != null && predictor.isTracking(captureNanos)) {
+            // A short dropout, typically motion blur or a turned head. Follow the predicted path.
+            int cameraAngle = cameraAngleAt(captureNanos, servoAngle, now);
+            steer(predictor.predictCenter(cameraAngle, now + commandLeadNanos), captureNanos, servoAngle, now);
+            return;
+        }
+        if (state == State.FOUND) {
+            state = State.SEARCH;
+        }
+        if (state == State.SEARCH && now - lastSeenAt > lostTimeoutNanos) {
+            state = State.LOST;
+            following = false;
+            head.ledOff(true);
+        }
+
+        // 기존 방향으로 카메라 이동
+        if (searchMinAngle < servoAngle && servoAngle < searchMaxAngle) {
+            move(direction == FACE_DIRECTION.RIGHT ? -searchStep : searchStep, false, servoAngle, now);
+        }
+    }
+
+    /**
+     * @param degrees positive turns left.
+     */
+    private void move(int degrees, boolean found, int servoAngle, long now) {
+        if (degrees < 0) {
+            direction = FACE_DIRECTION.RIGHT;
+            head.moveRight(-degrees, found);
+        } else {
+            direction = FACE_DIRECTION.LEFT;
+            head.moveLeft(degrees, found);
+        }
+        int from = angleCount > 0 ? angles[(angleIndex + ANGLE_HISTORY - 1) % ANGLE_HISTORY] : servoAngle;
+        if (angleCount == 0) {
+            recordAngle(now - 1, from);
+        }
+        recordAngle(now, Math.max(servoMinAngle, Math.min(servoMaxAngle, from + degrees)));
+        lastMoveAt = now;
+    }
+
+    private void recordAngle(long at, int angle) {
+        angleTimes[angleIndex] = at;
+        angles[angleIndex] = angle;
+        angleIndex = (angleIndex + 1) % ANGLE_HISTORY;
+        angleCount = Math.min(angleCount + 1, ANGLE_HISTORY);
+    }
+
+    /**
+     * The angle the camera had settled on when a frame was captured, from the moves sent so far.
+     */
+    private int cameraAngleAt(long captureNanos, int servoAngle, long now) {
+        if (angleCount == 0 || now - lastMoveAt > ANGLE_RESYNC_NANOS) {
+            // Nothing in flight. The head knows best, also after moves not made by this tracker.
+            angleCount = 0;
+            return servoAngle;
+        }
+        long visibleBefore = captureNanos - settleNanos;
+        int i = (angleIndex + ANGLE_HISTORY - 1) % ANGLE_HISTORY;
+        for (int n = 0; n < angleCount; n++) {
+            if (angleTimes[i] - visibleBefore <= 0) {
+                return angles[i];
+            }
+            i = (i + ANGLE_HISTORY - 1) % ANGLE_HISTORY;
+        }
+        // Older than the history. Take the oldest known angle.
+        return angles[(angleIndex + ANGLE_HISTORY - angleCount) % ANGLE_HISTORY];
+    }
+
+    /**
+     * How long a command takes to reach the head, about half the /servo round-trip. The predictor aims this far
+     * past the result.
+     */
+    public void setCommandLeadMillis(long millis) {
+        commandLeadNanos = millis * 1_000_000L;
+    }
+
+    /**
+     * Where to sweep next while the face is missing, for example after a manual move.
+     */
+    public void setDirection(FACE_DIRECTION direction) {
+        this.direction = direction;
+    }
+
+    public FACE_DIRECTION getDirection() {
+        return direction;
+    }
+
+    public State getState() {
+        return state;
+    }
+}
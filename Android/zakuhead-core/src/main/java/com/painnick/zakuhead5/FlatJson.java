@@ -0,0 +1,83 @@
+package com.painnick.zakuhead5;
+
+/**
+ * Reads fields out of the flat JSON objects the head answers with, e.g. {@code {"framesize":"VGA","quality":10}},
+ * without a JSON library. Nested objects, arrays and escapes other than {@code \"} and {@code \\} are not
+ * expected and not supported.
+ */
+public final class FlatJson {
+
+    private FlatJson() {
+    }
+
+    /**
+     * @return the string value of the field, or null when there is none or it is not a string.
+     */
+    public static String getString(String json, String key) {
+        int p = valueStart(json, key);
+        if (p < 0 || p >= json.length() || json.charAt(p) != '"') {
+            return null;
+        }
+        StringBuilder value = new StringBuilder();
+        for (p++; p < json.length(); p++) {
+            char c = json.charAt(p);
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c == '\\' && p + 1 < json.length()) {
+                c = json.charAt(++p);
+            }
+            value.append(c);
+        }
+        return null;
+    }
+
+    /**
+     * @return the integer value of the field, or {@code fallback} when there is none or it is not an integer.
+     */
+    public static int getInt(String json, String key, int fallback) {
+        int p = valueStart(json, key);
+        if (p < 0) {
+            return fallback;
+        }
+        int end = p;
+        if (end < json.length() && json.charAt(end) == '-') {
+            end++;
+        }
+        while (end < json.length() && Character.isDigit(json.charAt(end))) {
+            end++;
+        }
+        try {
+            return Integer.parseInt(json.substring(p, end));
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    /**
+     * @return the index of the first character of the field's value, or -1.
+     */
+    private static int valueStart(String json, String key) {
+        String quotedKey = '"' + key + '"';
+        int from = 0;
+        while (true) {
+            int i = json.indexOf(quotedKey, from);
+            if (i < 0) {
+                return -1;
+            }
+            int p = skipSpaces(json, i + quotedKey.length());
+            if (p < json.length() && json.charAt(p) == ':') {
+                return skipSpaces(json, p + 1);
+            }
+            // The key's name as a value, e.g. {"name":"quality"}.
+            from = i + 1;
+        }
+    }
+
+    private static int skipSpaces(String json, int p) {
+        while (p < json.length() && Character.isWhitespace(json.charAt(p))) {
+            p++;
+        }
+        return p;
+    }
+}
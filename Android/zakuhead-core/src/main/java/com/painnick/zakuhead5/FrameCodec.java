@@ -0,0 +1,42 @@
+package com.painnick.zakuhead5;
+
+/**
+ * Turns the head's JPEGs into frames of the platform's image type {@code F}, e.g. an Android Bitmap, and takes
+ * them back once they are used. Thread safe.
+ */
+public interface FrameCodec<F> {
+
+    /**
+     * The smallest frame the consumers can work with. A decoder that can scale while decoding may return
+     * frames down to this size. 0x0 asks for the full resolution.
+     */
+    void setTargetSize(int minWidth, int minHeight);
+
+    /**
+     * @param rotation degrees to rotate the decoded frame by, or 0.
+     * @return a frame the caller owns until {@link #release}, or null when the JPEG could not be decoded.
+     */
+    F decode(byte[] jpeg, int length, int rotation);
+
+    /**
+     * Fills a {@link SceneChangeGate} signature of the JPEG, much cheaper than a full {@link #decode}.
+     *
+     * @return false when the JPEG could not be decoded, or the codec cannot make signatures.
+     */
+    boolean decodeSignature(byte[] jpeg, int length, byte[] signature, int width, int height);
+
+    /**
+     * Takes a frame back. The caller must not touch it afterwards.
+     */
+    void release(F frame);
+
+    /**
+     * Marks the end of one frame, for per-frame allocation counters.
+     */
+    void onFrame();
+
+    /**
+     * A sampler for the patch tracker's small grayscale planes, for use on one thread.
+     */
+    LumaSampler<F> newLumaSampler(int width, int height);
+}
@@ -0,0 +1,11 @@
+package com.painnick.zakuhead5;
+
+public interface FrameConsumer<F> {
+    /**
+     * @param frame       a frame of the head's {@link FrameCodec}. The consumer of {@link ZakuHeadApi} owns it
+     *                    until it calls {@link ZakuHeadApi#releaseFrame(Object)}.
+     * @param timestampUs monotonic capture time in microseconds ({@link System#nanoTime()} based). Strictly
+     *                    increasing from one frame to the next.
+     */
+    void onNewFrame(F frame, long timestampUs);
+}
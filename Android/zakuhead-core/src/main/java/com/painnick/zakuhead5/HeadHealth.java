@@ -0,0 +1,198 @@
+package com.painnick.zakuhead5;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Keeps track of whether frames still come from the head, and decides when to retry, restart or hedge.
+ * <p>
+ * Every fetch ends in {@link #onFrame(long)} or {@link #onFailure()}. A failure answers with a
+ * {@link RetryBackoff} delay. No good frame for the stall timeout, while no retry is pending, means the loop
+ * itself has stopped and must be restarted; {@link #isStalled()} says so at most once per timeout. The
+ * latency percentile of recent fetches is the delay after which a second, hedged /capture is worth sending.
+ * Gaps between good frames that had a failure or a restart in them are kept as recovery times. Thread safe.
+ */
+public class HeadHealth {
+
+    public static class Config {
+        /** No good frame for this long stops the loop being trusted. */
+        public long stallTimeoutMillis = 3000;
+        public long backoffBaseMillis = 100;
+        /** About the time an ESP32 takes to reboot and rejoin the soft AP. */
+        public long backoffMaxMillis = 2000;
+        /** False never sends a hedged /capture. */
+        public boolean hedged = true;
+        /** A fetch slower than this percentile of recent ones gets a hedged twin. */
+        public double hedgePercentile = 95;
+        /** Never hedge before this, so a fast link does not double its requests on noise. */
+        public long minHedgeDelayMillis = 40;
+        /** Fetches measured before the first hedge. */
+        public int hedgeWarmupFetches = 20;
+        /** Fetches per window of the hedge percentile, so it follows the link as it changes. */
+        public int hedgeWindowFetches = 200;
+    }
+
+    private final long stallTimeoutNanos;
+    private final boolean hedged;
+    private final double hedgePercentile;
+    private final long minHedgeDelayMillis;
+    private final int hedgeWarmupFetches;
+    private final int hedgeWindowFetches;
+    private final NanoClock clock;
+
+    // Guarded by this.
+    private final RetryBackoff backoff;
+    private final LatencyHistogram fetchLatency = new LatencyHistogram();
+    private long hedgeDelayMillis = -1;
+    private long lastGoodFrameAt;
+    private long lastRestartAt;
+    private boolean disturbed = false;
+    private int consecutiveFailures = 0;
+    private long failures = 0;
+    private long restarts = 0;
+    private long hedges = 0;
+    private long hedgesWon = 0;
+
+    private final LatencyHistogram recoveries = new LatencyHistogram();
+
+    public HeadHealth() {
+        this(new Config(), NanoClock.SYSTEM, new Random());
+    }
+
+    public HeadHealth(Config config, NanoClock clock, Random random) {
+        stallTimeoutNanos = config.stallTimeoutMillis * 1_000_000L;
+        hedged = config.hedged;
+        hedgePercentile = config.hedgePercentile;
+        minHedgeDelayMillis = config.minHedgeDelayMillis;
+        hedgeWarmupFetches = config.hedgeWarmupFetches;
+        hedgeWindowFetches = config.hedgeWindowFetches;
+        this.clock = clock;
+        backoff = new RetryBackoff(config.backoffBaseMillis, config.backoffMaxMillis, random);
+        lastGoodFrameAt = clock.nanoTime();
+        lastRestartAt = lastGoodFrameAt;
+    }
+
+    /**
+     * A frame came, changed or not.
+     *
+     * @param fetchNanos time from request to the last byte, or -1 for a frame of a stream.
+     */
+    public synchronized void onFrame(long fetchNanos) {
+        long now = clock.nanoTime();
+        if (disturbed) {
+            recoveries.recordNanos(now - lastGoodFrameAt);
+            disturbed = false;
+        }
+        lastGoodFrameAt = now;
+        consecutiveFailures = 0;
+        backoff.reset();
+        if (hedged && fetchNanos >= 0) {
+            fetchLatency.recordNanos(fetchNanos);
+            long count = fetchLatency.getCount();
+            if (count >= hedgeWindowFetches || (hedgeDelayMillis < 0 && count >= hedgeWarmupFetches)) {
+                hedgeDelayMillis = Math.max(minHedgeDelayMillis,
+                        (long) Math.ceil(fetchLatency.getPercentileMillis(hedgePercentile)));
+            }
+            if (count >= hedgeWindowFetches) {
+                fetchLatency.reset();
+            }
+        }
+    }
+
+    /**
+     * A fetch failed: no connection, an error status, or a frame that would not decode.
+     *
+     * @return milliseconds to wait before fetching again.
+     */
+    public synchronized long onFailure() {
+        disturbed = true;
+        consecutiveFailures++;
+        failures++;
+        return backoff.nextDelayMillis();
+    }
+
+    /**
+     * @return true when no good frame came for the stall timeout, nor since the last restart. The caller is
+     * expected to restart the loop and report it with {@link #onRestart()}.
+     */
+    public synchronized boolean isStalled() {
+        long now = clock.nanoTime();
+        return now - lastGoodFrameAt >= stallTimeoutNanos && now - lastRestartAt >= stallTimeoutNanos;
+    }
+
+    public synchronized void onRestart() {
+        lastRestartAt = clock.nanoTime();
+        disturbed = true;
+        restarts++;
+    }
+
+    /**
+     * Frames are wanted again after a pause. The time without them was not an outage.
+     */
+    public synchronized void onResume() {
+        lastGoodFrameAt = clock.nanoTime();
+        lastRestartAt = lastGoodFrameAt;
+        disturbed = false;
+        consecutiveFailures = 0;
+        backoff.reset();
+    }
+
+    /**
+     * @return how long a fetch may take before a hedged one is sent, or -1 while too few were measured.
+     */
+    public synchronized long getHedgeDelayMillis() {
+        return hedgeDelayMillis;
+    }
+
+    public synchronized void onHedge() {
+        hedges++;
+    }
+
+    /**
+     * The hedged fetch brought the frame before the one it was hedging.
+     */
+    public synchronized void onHedgeWon() {
+        hedgesWon++;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public synchronized long getLastGoodFrameAgeMillis() {
+        return (clock.nanoTime() - lastGoodFrameAt) / 1_000_000;
+    }
+
+    public synchronized long getFailureCount() {
+        return failures;
+    }
+
+    public synchronized long getRestartCount() {
+        return restarts;
+    }
+
+    public synchronized long getHedgeCount() {
+        return hedges;
+    }
+
+    public synchronized long getHedgeWinCount() {
+        return hedgesWon;
+    }
+
+    /**
+     * Gaps between good frames that had a failure or a restart in them.
+     */
+    public LatencyHistogram getRecoveries() {
+        return recoveries;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US,
+                "head: last frame %dms ago, failures=%d (%d in a row) restarts=%d"
+                        + " recovery p50=%.0f max=%.0fms (n=%d) hedges=%d won=%d after %dms",
+                (clock.nanoTime() - lastGoodFrameAt) / 1_000_000, failures, consecutiveFailures, restarts,
+                recoveries.getPercentileMillis(50), recoveries.getMaxMillis(), recoveries.getCount(),
+                hedges, hedgesWon, hedgeDelayMillis);
+    }
+}
@@ -0,0 +1,58 @@
+package com.painnick.zakuhead5;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Log lines of the pipeline, written to stderr unless the platform sets a sink of its own, e.g. logcat.
+ */
+public final class HeadLog {
+
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    public interface Sink {
+        /**
+         * @param level {@link #INFO}, {@link #WARN} or {@link #ERROR}, as Android's log priorities.
+         */
+        void log(int level, String tag, String message);
+    }
+
+    private static final Sink STDERR = (level, tag, message) ->
+            System.err.println((level >= ERROR ? "E/" : level >= WARN ? "W/" : "I/") + tag + ": " + message);
+
+    private static volatile Sink sink = STDERR;
+
+    private HeadLog() {
+    }
+
+    public static void setSink(Sink sink) {
+        HeadLog.sink = sink != null ? sink : STDERR;
+    }
+
+    public static void i(String tag, String message) {
+        sink.log(INFO, tag, message);
+    }
+
+    public static void w(String tag, String message) {
+        sink.log(WARN, tag, message);
+    }
+
+    /**
+     * Appends the stack trace of {@code t} to the message, as Android's {@code Log.w(tag, msg, tr)} does.
+     */
+    public static void w(String tag, String message, Throwable t) {
+        sink.log(WARN, tag, message + '\n' + stackTrace(t));
+    }
+
+    public static void e(String tag, String message) {
+        sink.log(ERROR, tag, message);
+    }
+
+    private static String stackTrace(Throwable t) {
+        StringWriter out = new StringWriter();
+        t.printStackTrace(new PrintWriter(out));
+        return out.toString();
+    }
+}
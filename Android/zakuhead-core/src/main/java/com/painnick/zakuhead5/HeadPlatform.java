@@ -0,0 +1,29 @@
+package com.painnick.zakuhead5;
+
+/**
+ * What the pipeline needs from the platform it runs on: threads, a codec for the platform's image type
+ * {@code F}, and the process's CPU and network counters. Android and the headless runner each bring one.
+ * <p>
+ * One platform may serve several heads; their codecs then share whatever frame pool the platform keeps.
+ */
+public interface HeadPlatform<F> {
+
+    /**
+     * Starts a thread of its own.
+     *
+     * @param urgent for servo/LED commands, which must not wait behind frame work on a busy CPU.
+     */
+    SerialExecutor newExecutor(String name, boolean urgent);
+
+    /**
+     * A codec for the frames of one head.
+     *
+     * @param metrics receives the DECODE, ROTATE and SIGNATURE times.
+     */
+    FrameCodec<F> newCodec(PipelineMetrics metrics);
+
+    /**
+     * CPU time and traffic of the whole process, for the {@link DutyCycle}.
+     */
+    DutyCycle.Usage getUsage();
+}
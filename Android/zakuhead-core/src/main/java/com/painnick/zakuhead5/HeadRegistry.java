@@ -0,0 +1,139 @@
+package com.painnick.zakuhead5;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Drives several ZakuHeads from one app: a {@link ZakuHeadController} per head, all on the threads of one
+ * {@link SharedHeadResources} and in front of one detector.
+ * <p>
+ * Every head keeps its own command queue, tracking state and metrics. Their frames reach the detector through
+ * one {@link InferenceScheduler}, one at a time and the heads in turn. The detector's result callback finds the
+ * head a result belongs to from the frame's timestamp, with {@link #getDetectingHead(long)}. Feed the detector in
+ * static image mode: in video mode it would smooth detections across frames of different heads. MediaPipe then
+ * does not carry the timestamp through, but returns results in the order the frames went in, so keep the sent
+ * timestamps in a queue. Heads poll /capture; a /stream would hold
+ * one of the shared image lanes for as long as it runs.
+ */
+public class HeadRegistry<F> {
+
+    public interface FrameListener<F> {
+        /**
+         * A frame to send to the detector. Called on the shared inference thread; the frame goes back to the
+         * codec when this returns.
+         */
+        void onNewFrame(Head<F> head, F frame, long timestampUs);
+    }
+
+    public static class Head<F> {
+        public final String name;
+        public final ZakuHeadController<F> controller;
+
+        private Head(String name, String host, String controlHost, HeadRegistry<F> registry) {
+            this.name = name;
+            // No frame comes before start(), by when this head is complete.
+            controller = new ZakuHeadController<>(host, controlHost,
+                    (frame, timestampUs) -> registry.frameListener.onNewFrame(this, frame, timestampUs),
+                    null, registry.pipelineDepth, registry.shared);
+        }
+    }
+
+    private final SharedHeadResources<F> shared;
+    private final int pipelineDepth;
+    private final FrameListener<F> frameListener;
+    private final List<Head<F>> heads = new ArrayList<>();
+
+    /**
+     * @param platform      threads and codecs of all heads.
+     * @param pipelineDepth frames fetched ahead per head.
+     */
+    public HeadRegistry(HeadPlatform<F> platform, SharedHeadResources.Config config, int pipelineDepth,
+                        FrameListener<F> frameListener) {
+        shared = new SharedHeadResources<>(platform, config);
+        this.pipelineDepth = pipelineDepth;
+        this.frameListener = frameListener;
+    }
+
+    /**
+     * Must be called before {@link #start()}. Configure the head through its controller, also before start.
+     *
+     * @param host        URL of the head's camera server.
+     * @param controlHost URL of the head's control server.
+     */
+    public synchronized Head<F> add(String name, String host, String controlHost) {
+        Head<F> head = new Head<>(name, host, controlHost, this);
+        heads.add(head);
+        return head;
+    }
+
+    public synchronized List<Head<F>> getHeads() {
+        return Collections.unmodifiableList(new ArrayList<>(heads));
+    }
+
+    /**
+     * @param timestampUs as the frame was given to the {@link FrameListener}.
+     * @return the head whose frame with this timestamp is in the detector, or null when the result came after
+     * its frame timed out. Meant for the detector's result callback, which must then call the head's
+     * {@link ZakuHeadController#onInferenceDone(long, boolean, float, float, float, float)}.
+     */
+    public synchronized Head<F> getDetectingHead(long timestampUs) {
+        for (Head<F> head : heads) {
+            if (head.controller.isDetecting(timestampUs)) {
+                return head;
+            }
+        }
+        return null;
+    }
+
+    public synchronized void start() {
+        for (Head<F> head : heads) {
+            head.controller.start();
+        }
+    }
+
+    public synchronized void pause() {
+        for (Head<F> head : heads) {
+            head.controller.pause();
+        }
+    }
+
+    public synchronized void resume() {
+        for (Head<F> head : heads) {
+            head.controller.resume();
+        }
+    }
+
+    public synchronized void close() {
+        for (Head<F> head : heads) {
+            head.controller.close();
+        }
+        shared.shutdown();
+    }
+
+    public SharedHeadResources<F> getShared() {
+        return shared;
+    }
+
+    /**
+     * The shared lanes and detector queue, then one line per head.
+     */
+    public synchronized String describeStats() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.US, "heads=%d threads=%d%n", heads.size(), shared.getThreadCount()))
+                .append(shared.getImageStats()).append('\n')
+                .append(shared.getPlatform()).append('\n')
+                .append(shared.getInference());
+        for (Head<F> head : heads) {
+            PipelineMetrics metrics = head.controller.getMetrics();
+            LatencyHistogram age = metrics.getHistogram(PipelineMetrics.Stage.FRAME_AGE);
+            LatencyHistogram servo = metrics.getHistogram(PipelineMetrics.Stage.SERVO_RTT);
+            builder.append(String.format(Locale.US,
+                    "%n%s: %.1f fps, age p50=%.0f p99=%.0fms, servo p50=%.1fms, dropped=%d",
+                    head.name, metrics.snapshot().fps, age.getPercentileMillis(50), age.getPercentileMillis(99),
+                    servo.getPercentileMillis(50), head.controller.getFrameMailbox().getDroppedCount()));
+        }
+        return builder.toString();
+    }
+}
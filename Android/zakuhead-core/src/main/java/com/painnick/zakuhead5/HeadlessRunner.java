@@ -0,0 +1,112 @@
+package com.painnick.zakuhead5;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The app's control pipeline without Android: fetches frames from a head (or a fake one), sends them through a
+ * {@link StubFaceDetector} and steers the head with a {@link FaceTracker}, as MainActivity does with MediaPipe.
+ * Prints the pipeline's stats every few seconds and the detection rate and capture-to-result latency at the end.
+ * <p>
+ * Meant for profiling the pipeline with the usual JVM tools (JFR, async-profiler, jcmd) on a Linux box:
+ * {@code ./gradlew :zakuhead-core:run --args="--host http://127.0.0.1:8080 --control http://127.0.0.1:8081"}
+ * <p>
+ * Options: --host URL, --control URL, --depth N, --ingest polling|streaming, --inference MS, --busy true|false,
+ * --udp true|false, --duty-cycle true|false, --report S, --duration S (0 runs until killed).
+ */
+public class HeadlessRunner {
+
+    private final ZakuHeadController<RawFrame> controller;
+    private final FaceTracker faceTracker;
+    private final StubFaceDetector detector;
+    private final LatencyHistogram resultLatency = new LatencyHistogram();
+    private long results;
+    private long faces;
+
+    HeadlessRunner(Map<String, String> values) {
+        StubFaceDetector.Config detectorConfig = new StubFaceDetector.Config();
+        detectorConfig.inferenceMillis = (long) number(values, "inference", detectorConfig.inferenceMillis);
+        detectorConfig.busy = Boolean.parseBoolean(values.getOrDefault("busy", "false"));
+        detector = new StubFaceDetector(detectorConfig, this::onResult);
+        controller = new ZakuHeadController<>(new JvmHeadPlatform(),
+                values.getOrDefault("host", ZakuHeadController.DEFAULT_HOST),
+                values.getOrDefault("control", ZakuHeadController.DEFAULT_CONTROL_HOST),
+                detector, null, (int) number(values, "depth", 2));
+        PidSteering steering = new PidSteering();
+        controller.getCommandQueue().setMoveListener(steering);
+        faceTracker = new FaceTracker(controller, new FaceTracker.Config(), steering, new TargetPredictor(),
+                NanoClock.SYSTEM);
+        if (Boolean.parseBoolean(values.getOrDefault("udp", "false"))) {
+            controller.setUdpCommands();
+        }
+        if (Boolean.parseBoolean(values.getOrDefault("duty-cycle", "false"))) {
+            controller.setDutyCycle(new DutyCycle.Config());
+        }
+        controller.setIngestMode("streaming".equals(values.get("ingest"))
+                ? ZakuHeadApi.IngestMode.STREAMING : ZakuHeadApi.IngestMode.POLLING);
+    }
+
+    /**
+     * On the detector's thread, like MediaPipe's result listener.
+     */
+    private synchronized void onResult(long timestampUs, boolean found, float xmin, float ymin, float width,
+                                       float height, float score) {
+        if (!controller.onInferenceDone(timestampUs, found, xmin, ymin, width, height)) {
+            return;
+        }
+        long captureNanos = timestampUs * 1000;
+        resultLatency.recordNanos(System.nanoTime() - captureNanos);
+        results++;
+        if (found) {
+            faces++;
+            controller.onDetectionScore(score);
+            faceTracker.onFace(xmin + width / 2, captureNanos, controller.getLastAngle());
+        } else {
+            faceTracker.onNoFace(captureNanos, controller.getLastAngle());
+        }
+        controller.onTrackerState(faceTracker.getState());
+    }
+
+    private synchronized String describeResults(double seconds) {
+        return String.format(Locale.US, "results: %.1f/s faces=%d/%d capture to result p50=%.1fms p99=%.1fms"
+                        + " max=%.1fms", results / seconds, faces, results, resultLatency.getPercentileMillis(50),
+                resultLatency.getPercentileMillis(99), resultLatency.getMaxMillis());
+    }
+
+    void run(long durationMillis, long reportMillis) throws InterruptedException {
+        long startedAt = System.nanoTime();
+        controller.start();
+        long until = durationMillis > 0 ? System.currentTimeMillis() + durationMillis : Long.MAX_VALUE;
+        while (System.currentTimeMillis() < until) {
+            Thread.sleep(Math.max(1, Math.min(reportMillis, until - System.currentTimeMillis())));
+            System.out.println(controller.describeStats());
+            System.out.println(describeResults((System.nanoTime() - startedAt) / 1e9));
+            System.out.println();
+        }
+        detector.close();
+        controller.close();
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected --name value, got " + args[i]);
+            }
+            values.put(args[i].substring(2), args[i + 1]);
+        }
+        return values;
+    }
+
+    private static double number(Map<String, String> args, String name, double fallback) {
+        String value = args.get(name);
+        return value == null ? fallback : Double.parseDouble(value);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> values = parseArgs(args);
+        HeadlessRunner runner = new HeadlessRunner(values);
+        runner.run((long) (number(values, "duration", 0) * 1000), (long) (number(values, "report", 10) * 1000));
+    }
+}
@@ -0,0 +1,82 @@
+package com.painnick.zakuhead5;
+
+/**
+ * One frame asked for with /capture, and maybe a hedged second request for the same frame.
+ * <p>
+ * Whichever request succeeds first owns the outcome; the other one's frame is thrown away unread. A failure
+ * only owns the outcome once no request for the frame is left in flight, since the other one may still
+ * bring it. Each request must end in exactly one {@link #onSuccess()} or {@link #onFailure()}. Thread safe.
+ */
+public class HedgedFetch {
+
+    public final long seq;
+    public final long startedAt;
+
+    // Guarded by this.
+    private int inFlight = 1;
+    private boolean hedged = false;
+    private boolean done = false;
+    private long doneAt;
+
+    /**
+     * @param startedAt {@link System#nanoTime()} when the first request went out.
+     */
+    public HedgedFetch(long seq, long startedAt) {
+        this.seq = seq;
+        this.startedAt = startedAt;
+    }
+
+    /**
+     * @return true when the caller must send the hedged request now: none was sent yet and the frame is still
+     * outstanding. A caller that may not get to send it finds out before, e.g. by taking a free lane first.
+     */
+    public synchronized boolean tryHedge() {
+        if (done || hedged) {
+            return false;
+        }
+        hedged = true;
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * @return true when this request owns the outcome and must deliver its frame.
+     */
+    public synchronized boolean onSuccess() {
+        inFlight--;
+        if (done) {
+            return false;
+        }
+        done = true;
+        doneAt = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * @return true when this was the last request for the frame, so the caller must handle the failure.
+     */
+    public synchronized boolean onFailure() {
+        inFlight--;
+        if (done || inFlight > 0) {
+            return false;
+        }
+        done = true;
+        doneAt = System.nanoTime();
+        return true;
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the outcome was decided. Only valid once {@link #isDone()}.
+     */
+    public synchronized long getDoneAt() {
+        return doneAt;
+    }
+
+    public synchronized boolean isHedged() {
+        return hedged;
+    }
+}
@@ -0,0 +1,27 @@
+package com.painnick.zakuhead5;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Status and body of a {@link ZakuHeadTransport} request. The body is {@code body[0..length)}.
+ */
+public class HttpResponse {
+
+    public final int status;
+    public final byte[] body;
+    public final int length;
+
+    public HttpResponse(int status, byte[] body, int length) {
+        this.status = status;
+        this.body = body;
+        this.length = length;
+    }
+
+    public boolean isSuccessful() {
+        return 200 <= status && status < 300;
+    }
+
+    public String bodyAsString() {
+        return new String(body, 0, length, StandardCharsets.UTF_8);
+    }
+}
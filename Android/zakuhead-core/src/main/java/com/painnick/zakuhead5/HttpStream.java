@@ -0,0 +1,37 @@
+package com.painnick.zakuhead5;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An open response whose body is read incrementally, such as the multipart /stream.
+ * Closing it closes the underlying connection, which also unblocks a pending read.
+ */
+public class HttpStream implements Closeable {
+
+    public final int status;
+    public final String contentType;
+    public final InputStream body;
+    private final Closeable connection;
+
+    public HttpStream(int status, String contentType, InputStream body, Closeable connection) {
+        this.status = status;
+        this.contentType = contentType;
+        this.body = body;
+        this.connection = connection;
+    }
+
+    public boolean isSuccessful() {
+        return 200 <= status && status < 300;
+    }
+
+    @Override
+    public void close() {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            // Already gone.
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.painnick.zakuhead5;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * The image lanes /capture fetches run on, owned by one head or shared by all heads of a {@link HeadRegistry}.
+ * <p>
+ * Each lane runs at most one fetch at a time. A head that finds every lane busy leaves a refill behind and is
+ * handed the next lane that comes free, in the order the heads asked, so a busy head cannot keep the lanes to
+ * itself by asking again the moment its own fetch ends.
+ */
+public class ImageLanePool {
+
+    private final ConcurrentLinkedQueue<ImageLane> idleLanes = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+    private final LaneStats stats = new LaneStats("image");
+    private final int laneCount;
+
+    /**
+     * @param executors one single-threaded executor per lane.
+     */
+    public ImageLanePool(List<? extends Executor> executors) {
+        for (Executor executor : executors) {
+            idleLanes.add(new ImageLane(executor));
+        }
+        laneCount = executors.size();
+    }
+
+    /**
+     * Takes a lane that is not fetching. The caller must {@link ImageLane#release()} it once the frame is off the
+     * wire.
+     *
+     * @return an idle lane, or null when all lanes are busy.
+     */
+    public ImageLane poll() {
+        return idleLanes.poll();
+    }
+
+    /**
+     * Runs {@code refill} once a lane is idle, on the thread that releases it, or right away if one already is.
+     * The refill must be cheap and must not be left behind twice by the same head.
+     */
+    public void awaitIdleLane(Runnable refill) {
+        waiting.add(refill);
+        // A lane released between the caller's poll() and now found nobody waiting.
+        runWaiting();
+    }
+
+    private void runWaiting() {
+        while (!idleLanes.isEmpty()) {
+            Runnable refill = waiting.poll();
+            if (refill == null) {
+                return;
+            }
+            refill.run();
+        }
+    }
+
+    public int getLaneCount() {
+        return laneCount;
+    }
+
+    /**
+     * Queue depth and wait time of the fetches of every head on these lanes.
+     */
+    public LaneStats getStats() {
+        return stats;
+    }
+
+    public class ImageLane {
+        private final Executor executor;
+
+        private ImageLane(Executor executor) {
+            this.executor = executor;
+        }
+
+        public void execute(Runnable job) {
+            long queuedAt = System.nanoTime();
+            stats.onQueued();
+            executor.execute(() -> {
+                long startedAt = System.nanoTime();
+                stats.onStarted(startedAt - queuedAt);
+                try {
+                    job.run();
+                } finally {
+                    stats.onFinished(System.nanoTime() - startedAt);
+                }
+            });
+        }
+
+        public void release() {
+            idleLanes.add(this);
+            runWaiting();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.painnick.zakuhead5;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+/**
+ * Feeds one detector from the frame mailboxes of one or more heads, one frame at a time.
+ * <p>
+ * Each head's {@link LatestFrameMailbox} holds only its newest frame, so at most one frame per head waits for the
+ * detector, and a head that delivers faster than its share only replaces its own frames. Heads with a frame
+ * waiting are served in turn, starting after the one served last, so each gets an even share of the detector
+ * however fast it delivers. Everything but {@link #register} runs on the given executor.
+ * <p>
+ * Every frame that goes in gets a token. A result that comes back after its frame timed out carries a token
+ * that is no longer current, so it cannot end the frame of another head that went in since.
+ */
+public class InferenceScheduler<T> {
+
+    public interface Client<T> {
+        /**
+         * Called on the scheduler's executor with the client's next frame. The entry goes back to the mailbox
+         * when this returns, so it must not be kept; its frame stays the client's.
+         *
+         * @param token identifies the frame in the detector; its result must pass it to {@link #onDone(long)}.
+         * @return true when the frame went to the detector, false when the client handled it without it.
+         */
+        boolean infer(LatestFrameMailbox.Entry<T> entry, long token);
+    }
+
+    private final Executor executor;
+    private final long timeoutNanos;
+    private final NanoClock clock;
+    private final Runnable drainTask = this::drain;
+
+    // Copied on register, read on the executor.
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private volatile Client<T>[] clients = new Client[0];
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private volatile LatestFrameMailbox<T>[] mailboxes = new LatestFrameMailbox[0];
+
+    // Written on the executor only.
+    private volatile int detecting = -1;
+    // Of the frame last sent. Written before detecting.
+    private volatile long token = 0;
+    private volatile long lateResults = 0;
+    private volatile long[] sent = new long[0];
+    private volatile long timeouts = 0;
+    // Only touched on the executor.
+    private int next = 0;
+    private long detectingSince = 0;
+
+    /**
+     * @param timeoutNanos if the detector never reports back on a frame, stop waiting for it after this long.
+     */
+    public InferenceScheduler(Executor executor, long timeoutNanos, NanoClock clock) {
+        this.executor = executor;
+        this.timeoutNanos = timeoutNanos;
+        this.clock = clock;
+    }
+
+    /**
+     * Must be called before the first {@link #schedule()}.
+     *
+     * @return the client's index, for {@link #getSentCount(int)}.
+     */
+    public synchronized int register(Client<T> client, LatestFrameMailbox<T> mailbox) {
+        int index = clients.length;
+        Client<T>[] newClients = Arrays.copyOf(clients, index + 1);
+        newClients[index] = client;
+        LatestFrameMailbox<T>[] newMailboxes = Arrays.copyOf(mailboxes, index + 1);
+        newMailboxes[index] = mailbox;
+        mailboxes = newMailboxes;
+        clients = newClients;
+        return index;
+    }
+
+    /**
+     * A client put a frame in its mailbox.
+     */
+    public void schedule() {
+        executor.execute(drainTask);
+    }
+
+    /**
+     * The detector is done with the frame it was given; the next one may go in. Must be called on the executor.
+     *
+     * @return false when the frame had timed out, and the result was ignored.
+     */
+    public boolean onDone(long token) {
+        if (!isDetecting(token)) {
+            lateResults++;
+            return false;
+        }
+        detecting = -1;
+        drain();
+        return true;
+    }
+
+    /**
+     * @return true while the frame with this token is in the detector and has not timed out.
+     */
+    public boolean isDetecting(long token) {
+        // Detecting first: a timeout resets it before the next frame takes a new token.
+        return detecting >= 0 && this.token == token;
+    }
+
+    /**
+     * @return the client whose frame is in the detector, or null. Safe to call from the detector's result
+     * callback, since no other frame goes in before {@link #onDone()}.
+     */
+    public Client<T> getDetectingClient() {
+        // Once: a timeout on the executor may reset it in between.
+        int detecting = this.detecting;
+        return detecting >= 0 ? clients[detecting] : null;
+    }
+
+    private void drain() {
+        if (detecting >= 0) {
+            if (clock.nanoTime() - detectingSince < timeoutNanos) {
+                return;
+            }
+            timeouts++;
+            detecting = -1;
+        }
+        Client<T>[] clients = this.clients;
+        LatestFrameMailbox<T>[] mailboxes = this.mailboxes;
+        if (sent.length != clients.length) {
+            sent = Arrays.copyOf(sent, clients.length);
+        }
+        int idle = 0;
+        // Stop once every mailbox came up empty in a row.
+        while (idle < clients.length) {
+            int index = next;
+            next = (next + 1) % clients.length;
+            LatestFrameMailbox.Entry<T> entry = mailboxes[index].take();
+            if (entry == null) {
+                idle++;
+                continue;
+            }
+            idle = 0;
+            // Before the frame goes in, since its result may come back before infer() returns.
+            long token = ++this.token;
+            detecting = index;
+            detectingSince = clock.nanoTime();
+            boolean sentToDetector = clients[index].infer(entry, token);
+            // The client is done with the entry; the frame is its own to release.
+            mailboxes[index].recycle(entry);
+            if (sentToDetector) {
+                sent[index]++;
+                return;
+            }
+            detecting = -1;
+        }
+    }
+
+    /**
+     * Frames of this client that went to the detector.
+     */
+    public long getSentCount(int index) {
+        long[] sent = this.sent;
+        return index < sent.length ? sent[index] : 0;
+    }
+
+    @Override
+    public String toString() {
+        long[] sent = this.sent;
+        return String.format(Locale.US, "inference: heads=%d sent=%s timeouts=%d late=%d", clients.length,
+                Arrays.toString(sent), timeouts, lateResults);
+    }
+}
@@ -0,0 +1,53 @@
+package com.painnick.zakuhead5;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+
+/**
+ * Runs the heads on a plain JVM, for the headless runner: daemon threads, undecoded {@link RawFrame}s, and the
+ * process's CPU time where the JVM reports it. Network bytes are not counted and stay 0.
+ */
+public class JvmHeadPlatform implements HeadPlatform<RawFrame> {
+
+    private static final DutyCycle.Usage PROCESS_USAGE = new DutyCycle.Usage() {
+        private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+        @Override
+        public long cpuMillis() {
+            // HotSpot and OpenJ9 both implement the com.sun extension; -1 where CPU time is not supported.
+            if (os instanceof com.sun.management.OperatingSystemMXBean) {
+                return Math.max(0, ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime() / 1_000_000);
+            }
+            return 0;
+        }
+
+        @Override
+        public long networkBytes() {
+            return 0;
+        }
+    };
+
+    /**
+     * Urgent threads send the servo and LED commands and get a raised priority, as far as the OS honours it.
+     */
+    @Override
+    public SerialExecutor newExecutor(String name, boolean urgent) {
+        return new ScheduledSerialExecutor(name, urgent ? Thread.NORM_PRIORITY + 2 : Thread.NORM_PRIORITY);
+    }
+
+    @Override
+    public FrameCodec<RawFrame> newCodec(PipelineMetrics metrics) {
+        return new RawFrameCodec(metrics);
+    }
+
+    @Override
+    public DutyCycle.Usage getUsage() {
+        return PROCESS_USAGE;
+    }
+
+    @Override
+    public String toString() {
+        return "jvm: " + System.getProperty("java.vm.name") + " " + System.getProperty("java.version") + ", "
+                + Runtime.getRuntime().availableProcessors() + " cpus";
+    }
+}
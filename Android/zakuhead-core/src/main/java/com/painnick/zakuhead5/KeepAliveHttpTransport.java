@@ -0,0 +1,449 @@
+package com.painnick.zakuhead5;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Locale;
+
+/**
+ * HTTP/1.1 transport that keeps idle connections to the head open and reuses them.
+ * <p>
+ * {@link java.net.HttpURLConnection} with {@code disconnect()} pays a TCP handshake for every frame and every
+ * servo step, and without timeouts a stalled ESP32 blocks the calling lane forever. This transport speaks just
+ * enough HTTP for the esp_http_server responses: Content-Length, chunked, or read-to-close bodies.
+ */
+public class KeepAliveHttpTransport implements ZakuHeadTransport {
+
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+    private static final int MAX_HEADER_LINE = 1024;
+
+    private final String host;
+    private final String hostName;
+    private final int port;
+    private final EnumMap<RequestClass, RequestPolicy> policies = new EnumMap<>(RequestClass.class);
+    private final PipelineMetrics metrics;
+
+    // Guarded by itself.
+    private final ArrayDeque<Connection> idleConnections = new ArrayDeque<>();
+    private boolean closed = false;
+
+    public KeepAliveHttpTransport(String baseUrl) {
+        this(baseUrl, null);
+    }
+
+    /**
+     * @param metrics receives the CONNECT times, and FIRST_BYTE and DOWNLOAD for IMAGE requests. May be null.
+     */
+    public KeepAliveHttpTransport(String baseUrl, PipelineMetrics metrics) {
+        this.metrics = metrics;
+        URL url;
+        try {
+            url = new URL(baseUrl);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid ZakuHead url: " + baseUrl, e);
+        }
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        host = port == 80 ? url.getHost() : url.getHost() + ":" + port;
+        hostName = url.getHost();
+        this.port = port;
+        policies.put(RequestClass.IMAGE, RequestPolicy.IMAGE);
+        policies.put(RequestClass.CONTROL, RequestPolicy.CONTROL);
+    }
+
+    public void setPolicy(RequestClass requestClass, RequestPolicy policy) {
+        policies.put(requestClass, policy);
+    }
+
+    @Override
+    public HttpResponse get(String path, RequestClass requestClass) throws IOException {
+        RequestPolicy policy = policies.get(requestClass);
+        byte[] request = ("GET " + path + " HTTP/1.1\r\nHost: " + host + "\r\nConnection: keep-alive\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        IOException lastError = null;
+        int retriesLeft = policy.maxRetries;
+        boolean staleRetryLeft = true;
+        while (true) {
+            Connection connection = takeIdleConnection(!policy.resendable);
+            boolean reused = connection != null;
+            try {
+                if (connection == null) {
+                    connection = connect(policy);
+                }
+                connection.socket.setSoTimeout(policy.readTimeoutMillis);
+                HttpResponse response = exchange(connection, request, requestClass == RequestClass.IMAGE);
+                if (connection.keepAlive) {
+                    putIdleConnection(connection);
+                } else {
+                    connection.close();
+                }
+                return response;
+            } catch (IOException e) {
+                lastError = e;
+                boolean gotResponse = connection != null && connection.receivedBytes;
+                if (connection != null) {
+                    connection.close();
+                }
+                // The head closed an idle keep-alive socket, so the request never reached it. A timeout is no
+                // such sign: the head may have got the request and still be working on it.
+                if (policy.resendable && reused && !gotResponse && staleRetryLeft
+                        && !(e instanceof SocketTimeoutException)) {
+                    staleRetryLeft = false;
+                    continue;
+                }
+                if (retriesLeft-- <= 0) {
+                    throw lastError;
+                }
+            }
+        }
+    }
+
+    private Connection connect(RequestPolicy policy) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            long startedAt = System.nanoTime();
+            socket.connect(new InetSocketAddress(hostName, port), policy.connectTimeoutMillis);
+            record(PipelineMetrics.Stage.CONNECT, System.nanoTime() - startedAt);
+            return new Connection(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private HttpResponse exchange(Connection connection, byte[] request, boolean timed) throws IOException {
+        long sentAt = System.nanoTime();
+        ResponseHead head = sendRequest(connection, request);
+        long firstByteAt = System.nanoTime();
+        HttpResponse response;
+        if (head.chunked) {
+            response = readChunkedBody(connection, head.status);
+        } else if (head.contentLength >= 0) {
+            byte[] body = new byte[head.contentLength];
+            readFully(connection.in, body, 0, head.contentLength);
+            response = new HttpResponse(head.status, body, head.contentLength);
+        } else {
+            response = readToClose(connection, head.status);
+            head.keepAlive = false;
+        }
+        connection.keepAlive = head.keepAlive;
+        if (timed) {
+            record(PipelineMetrics.Stage.FIRST_BYTE, firstByteAt - sentAt);
+            record(PipelineMetrics.Stage.DOWNLOAD, System.nanoTime() - firstByteAt);
+        }
+        return response;
+    }
+
+    private void record(PipelineMetrics.Stage stage, long nanos) {
+        if (metrics != null) {
+            metrics.record(stage, nanos);
+        }
+    }
+
+    @Override
+    public HttpStream openStream(String path, RequestClass requestClass) throws IOException {
+        RequestPolicy policy = policies.get(requestClass);
+        byte[] request = ("GET " + path + " HTTP/1.1\r\nHost: " + host + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        // A stream occupies its connection until it is closed, so it never comes from or goes back to the pool.
+        Connection connection = connect(policy);
+        try {
+            connection.socket.setSoTimeout(policy.readTimeoutMillis);
+            ResponseHead head = sendRequest(connection, request);
+            InputStream body;
+            if (head.chunked) {
+                body = new ChunkedInputStream(connection);
+            } else {
+                body = connection.in;
+            }
+            return new HttpStream(head.status, head.contentType, body, connection.socket);
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    private ResponseHead sendRequest(Connection connection, byte[] request) throws IOException {
+        connection.receivedBytes = false;
+        connection.out.write(request);
+        connection.out.flush();
+
+        String statusLine = readLine(connection);
+        String[] statusParts = statusLine.split(" ", 3);
+        if (statusParts.length < 2 || !statusParts[0].startsWith("HTTP/")) {
+            throw new IOException("Malformed status line: " + statusLine);
+        }
+        ResponseHead head = new ResponseHead();
+        try {
+            head.status = Integer.parseInt(statusParts[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed status line: " + statusLine);
+        }
+        head.keepAlive = !"HTTP/1.0".equals(statusParts[0]);
+        String line;
+        while (!(line = readLine(connection)).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim().toLowerCase(Locale.US);
+            String value = line.substring(colon + 1).trim();
+            if (name.equals("content-length")) {
+                try {
+                    head.contentLength = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed Content-Length: " + value);
+                }
+            } else if (name.equals("transfer-encoding")) {
+                head.chunked = value.toLowerCase(Locale.US).contains("chunked");
+            } else if (name.equals("connection")) {
+                head.keepAlive = value.equalsIgnoreCase("keep-alive") || (head.keepAlive && !value.equalsIgnoreCase("close"));
+            } else if (name.equals("content-type")) {
+                head.contentType = value;
+            }
+        }
+        return head;
+    }
+
+    private static int readChunkSize(Connection connection) throws IOException {
+        String sizeLine = readLine(connection);
+        int semicolon = sizeLine.indexOf(';');
+        try {
+            return Integer.parseInt((semicolon >= 0 ? sizeLine.substring(0, semicolon) : sizeLine).trim(), 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed chunk size: " + sizeLine);
+        }
+    }
+
+    private HttpResponse readChunkedBody(Connection connection, int status) throws IOException {
+        byte[] body = new byte[16 * 1024];
+        int length = 0;
+        while (true) {
+            int size = readChunkSize(connection);
+            if (size == 0) {
+                // Trailers, then the empty line that ends the message.
+                while (!readLine(connection).isEmpty()) {
+                }
+                return new HttpResponse(status, body, length);
+            }
+            if (length + size > body.length) {
+                byte[] grown = new byte[Math.max(body.length * 2, length + size)];
+                System.arraycopy(body, 0, grown, 0, length);
+                body = grown;
+            }
+            readFully(connection.in, body, length, size);
+            length += size;
+            readLine(connection);
+        }
+    }
+
+    private HttpResponse readToClose(Connection connection, int status) throws IOException {
+        byte[] body = new byte[16 * 1024];
+        int length = 0;
+        int read;
+        while ((read = connection.in.read(body, length, body.length - length)) != -1) {
+            length += read;
+            if (length == body.length) {
+                byte[] grown = new byte[body.length * 2];
+                System.arraycopy(body, 0, grown, 0, length);
+                body = grown;
+            }
+        }
+        return new HttpResponse(status, body, length);
+    }
+
+    private static String readLine(Connection connection) throws IOException {
+        StringBuilder line = connection.lineBuffer;
+        line.setLength(0);
+        while (true) {
+            int c = connection.in.read();
+            if (c == -1) {
+                throw new EOFException("Connection closed by the head");
+            }
+            connection.receivedBytes = true;
+            if (c == '\n') {
+                int end = line.length();
+                if (end > 0 && line.charAt(end - 1) == '\r') {
+                    line.setLength(end - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() >= MAX_HEADER_LINE) {
+                throw new IOException("Header line too long");
+            }
+            line.append((char) c);
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            int read = in.read(buffer, offset, length);
+            if (read == -1) {
+                throw new EOFException("Connection closed in the middle of a body");
+            }
+            offset += read;
+            length -= read;
+        }
+    }
+
+    /**
+     * @param checkStale make sure the head has not closed the connection, for requests that must not be sent
+     *                   twice. Costs up to a millisecond.
+     */
+    private Connection takeIdleConnection(boolean checkStale) {
+        while (true) {
+            Connection connection;
+            synchronized (idleConnections) {
+                do {
+                    connection = idleConnections.pollLast();
+                } while (connection != null && connection.socket.isClosed());
+            }
+            if (connection == null || !checkStale || !isStale(connection)) {
+                return connection;
+            }
+            connection.close();
+        }
+    }
+
+    /**
+     * @return true when the head closed or reset the connection, or sent something nobody asked for.
+     */
+    private static boolean isStale(Connection connection) {
+        try {
+            if (connection.in.available() > 0) {
+                return true;
+            }
+            connection.socket.setSoTimeout(1);
+            connection.in.read();
+            return true;
+        } catch (SocketTimeoutException e) {
+            // Nothing to read and still open.
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private void putIdleConnection(Connection connection) {
+        synchronized (idleConnections) {
+            if (!closed && idleConnections.size() < MAX_IDLE_CONNECTIONS) {
+                idleConnections.addLast(connection);
+                return;
+            }
+        }
+        connection.close();
+    }
+
+    @Override
+    public void close() {
+        synchronized (idleConnections) {
+            closed = true;
+            Connection connection;
+            while ((connection = idleConnections.pollFirst()) != null) {
+                connection.close();
+            }
+        }
+    }
+
+    private static class ResponseHead {
+        int status;
+        int contentLength = -1;
+        boolean chunked = false;
+        boolean keepAlive = true;
+        String contentType = null;
+    }
+
+    /**
+     * Decodes a chunked body incrementally, for responses that never end (/stream).
+     */
+    private static class ChunkedInputStream extends InputStream {
+        private final Connection connection;
+        private int chunkLeft = 0;
+        private boolean finished = false;
+
+        ChunkedInputStream(Connection connection) {
+            this.connection = connection;
+        }
+
+        private boolean nextChunk() throws IOException {
+            if (finished) {
+                return false;
+            }
+            if (chunkLeft == 0) {
+                chunkLeft = readChunkSize(connection);
+                if (chunkLeft == 0) {
+                    finished = true;
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!nextChunk()) {
+                return -1;
+            }
+            int c = connection.in.read();
+            if (c == -1) {
+                throw new EOFException("Connection closed in the middle of a chunk");
+            }
+            if (--chunkLeft == 0) {
+                readLine(connection);
+            }
+            return c;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!nextChunk()) {
+                return -1;
+            }
+            int read = connection.in.read(buffer, offset, Math.min(length, chunkLeft));
+            if (read == -1) {
+                throw new EOFException("Connection closed in the middle of a chunk");
+            }
+            chunkLeft -= read;
+            if (chunkLeft == 0) {
+                readLine(connection);
+            }
+            return read;
+        }
+    }
+
+    private static class Connection {
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        final StringBuilder lineBuffer = new StringBuilder(128);
+        boolean keepAlive = true;
+        boolean receivedBytes = false;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            in = new BufferedInputStream(socket.getInputStream(), 8 * 1024);
+            out = socket.getOutputStream();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already gone.
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.painnick.zakuhead5;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue depth and timing counters for one {@link CommandScheduler} lane.
+ */
+public class LaneStats {
+
+    private final String name;
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong totalRunNanos = new AtomicLong();
+
+    LaneStats(String name) {
+        this.name = name;
+    }
+
+    void onQueued() {
+        queueDepth.incrementAndGet();
+    }
+
+    void onStarted(long waitNanos) {
+        queueDepth.decrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        long max;
+        while ((max = maxWaitNanos.get()) < waitNanos) {
+            if (maxWaitNanos.compareAndSet(max, waitNanos)) {
+                break;
+            }
+        }
+    }
+
+    void onFinished(long runNanos) {
+        totalRunNanos.addAndGet(runNanos);
+        completed.incrementAndGet();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Jobs submitted to the lane that have not started yet.
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * Average time a job spent queued before it started, in milliseconds.
+     */
+    public double getAverageWaitMillis() {
+        long count = completed.get();
+        return count == 0 ? 0 : totalWaitNanos.get() / 1e6 / count;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    /**
+     * Average time a job spent running (request round-trip included), in milliseconds.
+     */
+    public double getAverageRunMillis() {
+        long count = completed.get();
+        return count == 0 ? 0 : totalRunNanos.get() / 1e6 / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s: depth=%d done=%d wait(avg=%.1fms max=%.1fms) run(avg=%.1fms)",
+                name, getQueueDepth(), getCompletedCount(), getAverageWaitMillis(), getMaxWaitMillis(), getAverageRunMillis());
+    }
+}
@@ -0,0 +1,120 @@
+package com.painnick.zakuhead5;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Single-slot, lock-free hand-off between frame acquisition and inference.
+ * <p>
+ * A new frame replaces one that has not been taken yet, so the detector always works on the freshest image
+ * and a slow detector never builds up a queue of stale frames. The producer gets the replaced frame back
+ * to recycle it.
+ * <p>
+ * Entries go around too: whoever ends up with one, the consumer after {@link #take()} or the producer after a
+ * replacing {@link #offer(Object, long)}, hands it back with {@link #recycle(Entry)} once done with it, and the
+ * next offer fills it in instead of allocating. One entry sits in the slot, one is with the consumer and one with
+ * the producer, so two spares are enough. An entry that is not handed back is simply left to the GC.
+ */
+public class LatestFrameMailbox<T> {
+
+    public static final class Entry<T> {
+        // Written only before the entry is published through the slot.
+        public T frame;
+        public long captureNanos;
+    }
+
+    private final AtomicReference<Entry<T>> slot = new AtomicReference<>();
+    private final AtomicReferenceArray<Entry<T>> spares = new AtomicReferenceArray<>(2);
+
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong taken = new AtomicLong();
+    private final AtomicLong totalAgeNanos = new AtomicLong();
+    private final AtomicLong maxAgeNanos = new AtomicLong();
+
+    /**
+     * @param captureNanos {@link System#nanoTime()} at capture, for the frame age at {@link #take()}.
+     * @return the frame this one replaced, which the caller now owns again, or null if the slot was empty.
+     */
+    public Entry<T> offer(T frame, long captureNanos) {
+        Entry<T> entry = null;
+        for (int i = 0; i < spares.length() && entry == null; i++) {
+            entry = spares.getAndSet(i, null);
+        }
+        if (entry == null) {
+            entry = new Entry<>();
+        }
+        entry.frame = frame;
+        entry.captureNanos = captureNanos;
+        Entry<T> replaced = slot.getAndSet(entry);
+        offered.incrementAndGet();
+        if (replaced != null) {
+            dropped.incrementAndGet();
+        }
+        return replaced;
+    }
+
+    /**
+     * @return the latest frame, or null if there is none.
+     */
+    public Entry<T> take() {
+        Entry<T> entry = slot.getAndSet(null);
+        if (entry != null) {
+            long age = System.nanoTime() - entry.captureNanos;
+            taken.incrementAndGet();
+            totalAgeNanos.addAndGet(age);
+            long max;
+            while ((max = maxAgeNanos.get()) < age) {
+                if (maxAgeNanos.compareAndSet(max, age)) {
+                    break;
+                }
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Hands back an entry from {@link #take()} or {@link #offer(Object, long)} for reuse. The caller must be
+     * done with it, frame included, and must not touch it again.
+     */
+    public void recycle(Entry<T> entry) {
+        // Do not keep the frame reachable while the entry waits.
+        entry.frame = null;
+        for (int i = 0; i < spares.length(); i++) {
+            if (spares.compareAndSet(i, null, entry)) {
+                return;
+            }
+        }
+    }
+
+    public long getOfferedCount() {
+        return offered.get();
+    }
+
+    /**
+     * Frames replaced before the detector got to them.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Average time from capture to {@link #take()}, in milliseconds.
+     */
+    public double getAverageAgeMillis() {
+        long count = taken.get();
+        return count == 0 ? 0 : totalAgeNanos.get() / 1e6 / count;
+    }
+
+    public double getMaxAgeMillis() {
+        return maxAgeNanos.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "mailbox: offered=%d dropped=%d taken=%d age(avg=%.1fms max=%.1fms)",
+                offered.get(), dropped.get(), taken.get(), getAverageAgeMillis(), getMaxAgeMillis());
+    }
+}
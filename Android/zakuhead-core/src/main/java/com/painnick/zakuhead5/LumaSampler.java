@@ -0,0 +1,17 @@
+package com.painnick.zakuhead5;
+
+/**
+ * Shrinks a frame to a small grayscale plane for the cheap per-frame checks (patch tracking, scene change).
+ * Made by a {@link FrameCodec}; reuses its buffers, not thread safe.
+ */
+public interface LumaSampler<F> {
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * @param luma receives {@code width * height} luma values, row by row.
+     */
+    void sample(F frame, byte[] luma);
+}
@@ -0,0 +1,242 @@
+package com.painnick.zakuhead5;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * Incremental parser for a multipart/x-mixed-replace JPEG stream.
+ * <p>
+ * Reads one part at a time into a reused buffer and hands it to the {@link FrameListener} before reading the
+ * next, so memory stays at one frame regardless of how long the stream runs. Parts with a Content-Length
+ * header are read in one go; parts without one are scanned for the next boundary.
+ */
+public class MjpegStreamReader {
+
+    public interface FrameListener {
+        /**
+         * @param jpeg the frame is {@code jpeg[0..length)}. The buffer is reused for the next frame.
+         */
+        void onFrame(byte[] jpeg, int length);
+    }
+
+    private static final int MAX_HEADER_LINE = 256;
+    private static final int INITIAL_FRAME_CAPACITY = 64 * 1024;
+
+    private final InputStream in;
+    private final byte[] boundary;
+    // KMP failure function of the boundary: the length of the longest proper prefix of boundary[0..i] that is
+    // also its suffix, so that a mismatch resumes from there instead of from scratch ("---frame").
+    private final int[] fallback;
+    private final StringBuilder lineBuffer = new StringBuilder(MAX_HEADER_LINE);
+    private byte[] frame = new byte[INITIAL_FRAME_CAPACITY];
+    // Whether the boundary in front of the next part is still unread. After a part with a Content-Length it is
+    // read lazily, so that frame is delivered without waiting for the head to start the following one.
+    private boolean boundaryPending = true;
+    // Whether the last part read ended at the closing boundary.
+    private boolean closed = false;
+    private long partStartedAt = 0;
+
+    /**
+     * @param boundary the boundary parameter of the Content-Type, without the leading "--".
+     */
+    public MjpegStreamReader(InputStream in, String boundary) {
+        this.in = in;
+        this.boundary = ("--" + boundary).getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+        fallback = new int[this.boundary.length];
+        for (int i = 1, matched = 0; i < this.boundary.length; i++) {
+            while (matched > 0 && this.boundary[i] != this.boundary[matched]) {
+                matched = fallback[matched - 1];
+            }
+            if (this.boundary[i] == this.boundary[matched]) {
+                matched++;
+            }
+            fallback[i] = matched;
+        }
+    }
+
+    /**
+     * @return the boundary parameter of a multipart Content-Type, or null if there is none.
+     */
+    public static String parseBoundary(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        int index = contentType.toLowerCase(Locale.US).indexOf("boundary=");
+        if (index < 0) {
+            return null;
+        }
+        String value = contentType.substring(index + "boundary=".length());
+        int end = value.indexOf(';');
+        if (end >= 0) {
+            value = value.substring(0, end);
+        }
+        value = value.trim();
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            value = value.substring(1, value.length() - 1);
+        }
+        if (value.startsWith("--")) {
+            // Some servers put the dashes in the parameter itself.
+            value = value.substring(2);
+        }
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Reads the next part and passes it to the listener.
+     *
+     * @return false at the end of the stream.
+     */
+    public boolean readFrame(FrameListener listener) throws IOException {
+        if (closed) {
+            return false;
+        }
+        if (boundaryPending) {
+            // Also skips the preamble in front of the first boundary.
+            if (!skipToBoundary()) {
+                return false;
+            }
+            boundaryPending = false;
+        }
+        partStartedAt = System.nanoTime();
+        int contentLength = -1;
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            if (line.startsWith("--")) {
+                // Closing boundary ("--boundary--").
+                return false;
+            }
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("content-length")) {
+                try {
+                    contentLength = Integer.parseInt(line.substring(colon + 1).trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed part Content-Length: " + line);
+                }
+            }
+        }
+        int length;
+        if (contentLength >= 0) {
+            ensureCapacity(contentLength);
+            readFully(frame, contentLength);
+            length = contentLength;
+            boundaryPending = true;
+        } else {
+            length = readUntilBoundary();
+            if (length < 0) {
+                return false;
+            }
+        }
+        listener.onFrame(frame, length);
+        return true;
+    }
+
+    /**
+     * @return System.nanoTime() when the headers of the last part started to arrive.
+     */
+    public long getPartStartedAt() {
+        return partStartedAt;
+    }
+
+    /**
+     * Consumes input up to and including the next boundary line.
+     */
+    private boolean skipToBoundary() throws IOException {
+        int matched = 0;
+        int c;
+        while ((c = in.read()) != -1) {
+            while (matched > 0 && c != boundary[matched]) {
+                matched = fallback[matched - 1];
+            }
+            if (c == boundary[matched] && ++matched == boundary.length) {
+                return finishBoundaryLine();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the part body into the frame buffer until the next boundary. The CRLF in front of the boundary
+     * belongs to the boundary, not to the body. The part in front of the closing boundary is still a frame.
+     *
+     * @return the body length, or -1 when the stream ended first.
+     */
+    private int readUntilBoundary() throws IOException {
+        int length = 0;
+        int c;
+        while ((c = in.read()) != -1) {
+            ensureCapacity(length + 1);
+            frame[length++] = (byte) c;
+            if (length >= boundary.length && endsWithBoundary(length)) {
+                length -= boundary.length;
+                if (length >= 2 && frame[length - 2] == '\r' && frame[length - 1] == '\n') {
+                    length -= 2;
+                }
+                closed = !finishBoundaryLine();
+                return length;
+            }
+        }
+        return -1;
+    }
+
+    private boolean endsWithBoundary(int length) {
+        int start = length - boundary.length;
+        for (int i = 0; i < boundary.length; i++) {
+            if (frame[start + i] != boundary[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Consumes the rest of a boundary line.
+     *
+     * @return false for the closing boundary.
+     */
+    private boolean finishBoundaryLine() throws IOException {
+        String rest = readLine();
+        return !rest.startsWith("--");
+    }
+
+    private String readLine() throws IOException {
+        lineBuffer.setLength(0);
+        while (true) {
+            int c = in.read();
+            if (c == -1) {
+                throw new EOFException("Stream ended in the middle of a part header");
+            }
+            if (c == '\n') {
+                int end = lineBuffer.length();
+                if (end > 0 && lineBuffer.charAt(end - 1) == '\r') {
+                    lineBuffer.setLength(end - 1);
+                }
+                return lineBuffer.toString();
+            }
+            if (lineBuffer.length() >= MAX_HEADER_LINE) {
+                throw new IOException("Part header line too long");
+            }
+            lineBuffer.append((char) c);
+        }
+    }
+
+    private void readFully(byte[] buffer, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int read = in.read(buffer, offset, length - offset);
+            if (read == -1) {
+                throw new EOFException("Stream ended in the middle of a frame");
+            }
+            offset += read;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > frame.length) {
+            byte[] grown = new byte[Math.max(frame.length * 2, capacity)];
+            System.arraycopy(frame, 0, grown, 0, frame.length);
+            frame = grown;
+        }
+    }
+}
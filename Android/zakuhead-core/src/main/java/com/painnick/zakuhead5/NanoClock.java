@@ -0,0 +1,11 @@
+package com.painnick.zakuhead5;
+
+/**
+ * Monotonic time source, replaceable so timing logic can be replayed faster than real time.
+ */
+public interface NanoClock {
+
+    NanoClock SYSTEM = System::nanoTime;
+
+    long nanoTime();
+}
@@ -0,0 +1,185 @@
+package com.painnick.zakuhead5;
+
+/**
+ * Follows a detected face between detections by matching its luma patch in the next frames.
+ * <p>
+ * The patch is cut from the frame the detector ran on, then searched for within a small radius around its
+ * last position by the sum of absolute differences. A poor best match (the face turned, was covered or left)
+ * or a featureless patch ends the track, and the caller runs the detector again. Scale changes are not
+ * followed; the next detection picks them up. Works on planes from {@link LumaSampler}; allocates only when a
+ * larger patch than ever before is set.
+ */
+public class PatchTracker {
+
+    private final int width;
+    private final int height;
+    private final int searchRadius;
+    private final int maxMeanDifference;
+    private final int minContrast;
+
+    private byte[] template = new byte[0];
+    private int templateWidth;
+    private int templateHeight;
+    private boolean tracking = false;
+    private int x;
+    private int y;
+    private float lastMotion;
+    private int lastMeanDifference;
+
+    /**
+     * @param width             width of the luma planes.
+     * @param height            height of the luma planes.
+     * @param searchRadius      how far, in plane pixels, the face may move from one frame to the next.
+     * @param maxMeanDifference worst mean absolute luma difference still accepted as the same face.
+     * @param minContrast       least mean absolute deviation of a patch worth tracking.
+     */
+    public PatchTracker(int width, int height, int searchRadius, int maxMeanDifference, int minContrast) {
+        this.width = width;
+        this.height = height;
+        this.searchRadius = searchRadius;
+        this.maxMeanDifference = maxMeanDifference;
+        this.minContrast = minContrast;
+    }
+
+    /**
+     * Starts following the face at the given relative box in {@code luma}.
+     *
+     * @return false when the patch is too small or too flat to track.
+     */
+    public boolean setTemplate(byte[] luma, float xmin, float ymin, float boxWidth, float boxHeight) {
+        tracking = false;
+        int left = clamp(Math.round(xmin * width), 0, width - 1);
+        int top = clamp(Math.round(ymin * height), 0, height - 1);
+        int right = clamp(Math.round((xmin + boxWidth) * width), left, width);
+        int bottom = clamp(Math.round((ymin + boxHeight) * height), top, height);
+        int w = right - left;
+        int h = bottom - top;
+        if (w < 4 || h < 4) {
+            return false;
+        }
+        if (template.length < w * h) {
+            template = new byte[w * h];
+        }
+        long sum = 0;
+        for (int row = 0; row < h; row++) {
+            System.arraycopy(luma, (top + row) * width + left, template, row * w, w);
+        }
+        for (int i = 0; i < w * h; i++) {
+            sum += template[i] & 0xff;
+        }
+        int mean = (int) (sum / (w * h));
+        long deviation = 0;
+        for (int i = 0; i < w * h; i++) {
+            deviation += Math.abs((template[i] & 0xff) - mean);
+        }
+        if (deviation / (w * h) < minContrast) {
+            return false;
+        }
+        templateWidth = w;
+        templateHeight = h;
+        x = left;
+        y = top;
+        lastMotion = 0;
+        tracking = true;
+        return true;
+    }
+
+    /**
+     * Looks for the patch in the next frame.
+     *
+     * @return true when it was found; the box is then updated. False ends the track.
+     */
+    public boolean track(byte[] luma) {
+        if (!tracking) {
+            return false;
+        }
+        int area = templateWidth * templateHeight;
+        // A candidate stops early once it is worse than the best so far, so every sum compared below is complete.
+        long bestSad = (long) maxMeanDifference * area + 1;
+        int bestX = -1;
+        int bestY = -1;
+        int minX = Math.max(0, x - searchRadius);
+        int maxX = Math.min(width - templateWidth, x + searchRadius);
+        int minY = Math.max(0, y - searchRadius);
+        int maxY = Math.min(height - templateHeight, y + searchRadius);
+        for (int cy = minY; cy <= maxY; cy++) {
+            for (int cx = minX; cx <= maxX; cx++) {
+                long sad = sad(luma, cx, cy, bestSad);
+                // Prefer the smaller move on ties, so a flat surrounding does not pull the box away.
+                if (sad < bestSad || (sad == bestSad && bestX >= 0
+                        && Math.abs(cx - x) + Math.abs(cy - y) < Math.abs(bestX - x) + Math.abs(bestY - y))) {
+                    bestSad = sad;
+                    bestX = cx;
+                    bestY = cy;
+                }
+            }
+        }
+        if (bestX < 0) {
+            tracking = false;
+            return false;
+        }
+        lastMotion = (float) Math.hypot((bestX - x) / (double) width, (bestY - y) / (double) height);
+        lastMeanDifference = (int) (bestSad / area);
+        x = bestX;
+        y = bestY;
+        return true;
+    }
+
+    private long sad(byte[] luma, int cx, int cy, long limit) {
+        long sad = 0;
+        for (int row = 0; row < templateHeight; row++) {
+            int frameOffset = (cy + row) * width + cx;
+            int templateOffset = row * templateWidth;
+            for (int col = 0; col < templateWidth; col++) {
+                sad += Math.abs((luma[frameOffset + col] & 0xff) - (template[templateOffset + col] & 0xff));
+            }
+            // Not on equality: a partial sum that ties the best must still be finished before the tie-break.
+            if (sad > limit) {
+                return sad;
+            }
+        }
+        return sad;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    public boolean isTracking() {
+        return tracking;
+    }
+
+    public void clear() {
+        tracking = false;
+    }
+
+    public float getXmin() {
+        return x / (float) width;
+    }
+
+    public float getYmin() {
+        return y / (float) height;
+    }
+
+    public float getWidth() {
+        return templateWidth / (float) width;
+    }
+
+    public float getHeight() {
+        return templateHeight / (float) height;
+    }
+
+    /**
+     * Distance the patch moved in the last {@link #track(byte[])}, as a share of the frame diagonal units.
+     */
+    public float getLastMotion() {
+        return lastMotion;
+    }
+
+    /**
+     * Mean absolute luma difference of the last match. Lower is better.
+     */
+    public int getLastMeanDifference() {
+        return lastMeanDifference;
+    }
+}
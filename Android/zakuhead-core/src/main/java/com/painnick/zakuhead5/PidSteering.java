@@ -0,0 +1,171 @@
+package com.painnick.zakuhead5;
+
+/**
+ * PID controller from the face's offset off center to a servo move.
+ * <p>
+ * The offset is converted to degrees with the camera's field of view, so the gains are in degrees per degree.
+ * A frame shows the head where it was at capture time; moves commanded after that (less the time the servo
+ * needs to get there) are still in flight and are subtracted from the error, so a slow pipeline does not
+ * make the head turn twice for the same offset. As a {@link CoalescingCommandQueue.MoveListener} of the head's
+ * command queue, it counts what the queue actually sent, when it sent it, in place of the moves it asked for:
+ * merged moves count once, and stale or superseded ones not at all. Without one, every move it returned counts
+ * as sent. The move is limited per command and per second, and never pushes the servo past its end stops; at an
+ * end stop the integral stops growing. The queue's drains may come from another thread.
+ */
+public class PidSteering implements SteeringController, CoalescingCommandQueue.MoveListener {
+
+    public static class Config {
+        public float kp = 0.6f;
+        public float ki = 0.0f;
+        public float kd = 0.05f;
+        /** Offsets smaller than this, as a share of the frame width, are left alone. */
+        public float deadband = 0.1f;
+        /** Horizontal field of view of the camera. OV2640 with the stock lens. */
+        public float fovDegrees = 66f;
+        public int maxStepDegrees = 20;
+        public float maxDegreesPerSecond = 180f;
+        /** A commanded move shows in frames captured this long after it was sent. */
+        public long servoSettleMillis = 60;
+        /** Subtract moves still in flight from the error. */
+        public boolean compensateLatency = true;
+        /** End stops of the head servo (MONO_EYE_MIN_ANGLE, MONO_EYE_MAX_ANGLE). */
+        public int minAngle = 10;
+        public int maxAngle = 170;
+    }
+
+    // Moves younger than the oldest frame still being processed. Far more than a pipeline ever holds.
+    private static final int HISTORY = 16;
+    // A longer gap means the face was gone; derivative and rate limit start over.
+    private static final long MAX_DT_NANOS = 500_000_000L;
+
+    private final float kp;
+    private final float ki;
+    private final float kd;
+    private final float deadband;
+    private final float fovDegrees;
+    private final int maxStep;
+    private final float maxDegreesPerSecond;
+    private final long settleNanos;
+    private final boolean compensateLatency;
+    private final int minAngle;
+    private final int maxAngle;
+
+    // Guarded by this.
+    private final long[] commandTimes = new long[HISTORY];
+    private final int[] commandDegrees = new int[HISTORY];
+    // False while a move was returned by steer() and the queue has not said yet what it sent for it.
+    private final boolean[] commandSent = new boolean[HISTORY];
+    private int commandIndex = 0;
+
+    private boolean hasPrevious = false;
+    private long previousAt;
+    private float previousError;
+    private float integral;
+
+    public PidSteering() {
+        this(new Config());
+    }
+
+    public PidSteering(Config config) {
+        kp = config.kp;
+        ki = config.ki;
+        kd = config.kd;
+        deadband = config.deadband;
+        fovDegrees = config.fovDegrees;
+        maxStep = config.maxStepDegrees;
+        maxDegreesPerSecond = config.maxDegreesPerSecond;
+        settleNanos = config.servoSettleMillis * 1_000_000L;
+        compensateLatency = config.compensateLatency;
+        minAngle = config.minAngle;
+        maxAngle = config.maxAngle;
+    }
+
+    @Override
+    public synchronized int steer(float center, long captureNanos, int servoAngle, long nowNanos) {
+        float offset = 0.5f - center;
+        if (Math.abs(offset) < deadband) {
+            integral = 0;
+            hasPrevious = false;
+            return 0;
+        }
+        float error = offset * fovDegrees;
+        if (compensateLatency) {
+            error -= inFlightDegrees(captureNanos);
+        }
+
+        float dt = 0;
+        if (hasPrevious && nowNanos - previousAt < MAX_DT_NANOS) {
+            dt = (nowNanos - previousAt) / 1e9f;
+        }
+        float output = kp * error + ki * integral;
+        if (dt > 0) {
+            output += kd * (error - previousError) / dt;
+        }
+
+        float limit = maxStep;
+        if (dt > 0) {
+            limit = Math.min(limit, Math.max(1f, maxDegreesPerSecond * dt));
+        }
+        output = Math.max(-limit, Math.min(limit, output));
+        int degrees = Math.round(output);
+        // Positive turns left, which raises the angle.
+        int clamped = Math.max(minAngle - servoAngle, Math.min(maxAngle - servoAngle, degrees));
+        if (clamped == degrees && dt > 0) {
+            integral += error * dt;
+        }
+
+        hasPrevious = true;
+        previousAt = nowNanos;
+        previousError = error;
+        if (clamped != 0) {
+            record(nowNanos, clamped, false);
+        }
+        return clamped;
+    }
+
+    /**
+     * Replaces the moves returned up to {@code drainedAtNanos} with the one the queue sent for them. Needs
+     * {@code steer()}'s clock to be {@link System#nanoTime()}, as {@link NanoClock#SYSTEM} is.
+     */
+    @Override
+    public synchronized void onMoveSent(int delta, long drainedAtNanos) {
+        for (int i = 0; i < HISTORY; i++) {
+            if (!commandSent[i] && commandTimes[i] - drainedAtNanos <= 0) {
+                commandDegrees[i] = 0;
+            }
+        }
+        if (delta != 0) {
+            record(drainedAtNanos, delta, true);
+        }
+    }
+
+    private void record(long atNanos, int degrees, boolean sent) {
+        commandTimes[commandIndex] = atNanos;
+        commandDegrees[commandIndex] = degrees;
+        commandSent[commandIndex] = sent;
+        commandIndex = (commandIndex + 1) % HISTORY;
+    }
+
+    /**
+     * Degrees commanded too late to show in a frame captured at {@code captureNanos}.
+     */
+    private float inFlightDegrees(long captureNanos) {
+        long visibleBefore = captureNanos - settleNanos;
+        int sum = 0;
+        for (int i = 0; i < HISTORY; i++) {
+            if (commandDegrees[i] != 0 && commandTimes[i] - visibleBefore > 0) {
+                sum += commandDegrees[i];
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public synchronized void reset() {
+        for (int i = 0; i < HISTORY; i++) {
+            commandDegrees[i] = 0;
+        }
+        hasPrevious = false;
+        integral = 0;
+    }
+}
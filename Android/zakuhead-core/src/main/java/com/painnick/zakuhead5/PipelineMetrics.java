@@ -0,0 +1,121 @@
+package com.painnick.zakuhead5;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-stage latency histograms and frame rate of the whole head pipeline, from the HTTP connect to the
+ * servo command round-trip.
+ * <p>
+ * Recording is allocation free and lock free, so it can stay on in production. {@link #snapshot()} copies
+ * the current numbers for display or export.
+ */
+public class PipelineMetrics {
+
+    public enum Stage {
+        /** TCP connect, only when no idle connection could be reused. */
+        CONNECT,
+        /** /capture request sent until its response head is in. */
+        FIRST_BYTE,
+        /** Response head (or MJPEG part head) until the whole JPEG is in. */
+        DOWNLOAD,
+        /** 1/8 scale decode for the scene-change gate. */
+        SIGNATURE,
+        DECODE,
+        ROTATE,
+        /** Frame sent to the detector until its result arrives. */
+        INFERENCE,
+        /** Following the face with the patch tracker on a frame the detector skipped. */
+        TRACK,
+        /** Drawing the frame and the detections for the preview. */
+        RENDER,
+        /** Servo command sent until its response or ack. */
+        SERVO_RTT,
+        /** Time the head spent on a servo or LED command, as it reports it. */
+        HEAD_COMMAND,
+        /** Capture until the frame is sent to the detector. */
+        FRAME_AGE
+    }
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+    private final AtomicLong frames = new AtomicLong();
+    private volatile long startedAt = System.nanoTime();
+
+    public PipelineMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].recordNanos(nanos);
+    }
+
+    /**
+     * Counts one frame that made it through the detector.
+     */
+    public void onFrame() {
+        frames.incrementAndGet();
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        frames.set(0);
+        startedAt = System.nanoTime();
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Immutable copy of the metrics at one point in time.
+     */
+    public static class Snapshot {
+        public final double fps;
+        public final long frames;
+        public final long[] counts = new long[Stage.values().length];
+        public final double[] p50Millis = new double[Stage.values().length];
+        public final double[] p99Millis = new double[Stage.values().length];
+        public final double[] maxMillis = new double[Stage.values().length];
+        /** Time spent in each stage per second of wall time, e.g. the detector's share of a core. */
+        public final double[] busyMillisPerSecond = new double[Stage.values().length];
+
+        Snapshot(PipelineMetrics metrics) {
+            frames = metrics.frames.get();
+            double seconds = (System.nanoTime() - metrics.startedAt) / 1e9;
+            fps = seconds > 0 ? frames / seconds : 0;
+            for (Stage stage : Stage.values()) {
+                LatencyHistogram histogram = metrics.getHistogram(stage);
+                int i = stage.ordinal();
+                counts[i] = histogram.getCount();
+                p50Millis[i] = histogram.getPercentileMillis(50);
+                p99Millis[i] = histogram.getPercentileMillis(99);
+                maxMillis[i] = histogram.getMaxMillis();
+                busyMillisPerSecond[i] = seconds > 0 ? histogram.getMeanMillis() * counts[i] / seconds : 0;
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(String.format(Locale.US, "fps=%.1f frames=%d\n", fps, frames));
+            builder.append(String.format(Locale.US, "%-10s %7s %8s %8s %8s %8s\n", "stage", "n", "p50", "p99", "max", "busy/s"));
+            for (Stage stage : Stage.values()) {
+                int i = stage.ordinal();
+                if (counts[i] == 0) {
+                    continue;
+                }
+                builder.append(String.format(Locale.US, "%-10s %7d %6.1fms %6.1fms %6.1fms %6.1fms\n",
+                        stage.name(), counts[i], p50Millis[i], p99Millis[i], maxMillis[i], busyMillisPerSecond[i]));
+            }
+            return builder.toString();
+        }
+    }
+}
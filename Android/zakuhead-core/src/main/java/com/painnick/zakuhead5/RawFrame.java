@@ -0,0 +1,21 @@
+package com.painnick.zakuhead5;
+
+/**
+ * A frame as the headless runner passes it on: the JPEG itself, undecoded, and its size from the JPEG header.
+ */
+public class RawFrame {
+    public final byte[] jpeg;
+    public final int length;
+    public final int width;
+    public final int height;
+    /** Degrees the frame should be rotated by before display; never applied. */
+    public final int rotation;
+
+    public RawFrame(byte[] jpeg, int length, int width, int height, int rotation) {
+        this.jpeg = jpeg;
+        this.length = length;
+        this.width = width;
+        this.height = height;
+        this.rotation = rotation;
+    }
+}
@@ -0,0 +1,140 @@
+package com.painnick.zakuhead5;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * {@link FrameCodec} of {@link RawFrame}s for a JVM without an image library: copies the JPEG and reads its size
+ * from the frame header, without decoding any pixels.
+ * <p>
+ * So it makes no scene-change signatures, and its luma planes are flat grey, which the patch tracker refuses as
+ * a template; the scene-change gate then lets every frame through and hybrid detection runs the detector on
+ * every frame. The copy stands in for the decode in the DECODE time.
+ */
+public class RawFrameCodec implements FrameCodec<RawFrame> {
+
+    private final PipelineMetrics metrics;
+
+    // Guarded by this.
+    private long frames;
+    private long failures;
+    private long jpegBytes;
+    private int lastWidth;
+    private int lastHeight;
+
+    /**
+     * @param metrics receives the DECODE times, or null.
+     */
+    public RawFrameCodec(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Ignored; frames keep the camera's size.
+     */
+    @Override
+    public void setTargetSize(int minWidth, int minHeight) {
+    }
+
+    @Override
+    public RawFrame decode(byte[] jpeg, int length, int rotation) {
+        long startedAt = System.nanoTime();
+        int[] size = readSize(jpeg, length);
+        if (size == null) {
+            synchronized (this) {
+                failures++;
+            }
+            return null;
+        }
+        RawFrame frame = new RawFrame(Arrays.copyOf(jpeg, length), length, size[0], size[1], rotation);
+        if (metrics != null) {
+            metrics.record(PipelineMetrics.Stage.DECODE, System.nanoTime() - startedAt);
+        }
+        synchronized (this) {
+            frames++;
+            jpegBytes += length;
+            lastWidth = size[0];
+            lastHeight = size[1];
+        }
+        return frame;
+    }
+
+    @Override
+    public boolean decodeSignature(byte[] jpeg, int length, byte[] signature, int width, int height) {
+        return false;
+    }
+
+    /**
+     * Nothing to give back; frames are left to the garbage collector.
+     */
+    @Override
+    public void release(RawFrame frame) {
+    }
+
+    @Override
+    public void onFrame() {
+    }
+
+    @Override
+    public LumaSampler<RawFrame> newLumaSampler(int width, int height) {
+        return new LumaSampler<RawFrame>() {
+            @Override
+            public int getWidth() {
+                return width;
+            }
+
+            @Override
+            public int getHeight() {
+                return height;
+            }
+
+            @Override
+            public void sample(RawFrame frame, byte[] luma) {
+                Arrays.fill(luma, 0, width * height, (byte) 128);
+            }
+        };
+    }
+
+    /**
+     * @return {width, height} from the first start-of-frame marker, or null when this is no JPEG.
+     */
+    static int[] readSize(byte[] jpeg, int length) {
+        if (length < 4 || (jpeg[0] & 0xff) != 0xff || (jpeg[1] & 0xff) != 0xd8) {
+            return null;
+        }
+        int i = 2;
+        while (i + 4 <= length) {
+            if ((jpeg[i] & 0xff) != 0xff) {
+                return null;
+            }
+            int marker = jpeg[i + 1] & 0xff;
+            if (marker == 0xff) {
+                // Fill byte.
+                i++;
+                continue;
+            }
+            if (marker == 0xd9 || marker == 0xda) {
+                // End of image or start of scan before any frame header.
+                return null;
+            }
+            int segmentLength = ((jpeg[i + 2] & 0xff) << 8) | (jpeg[i + 3] & 0xff);
+            // SOF0 to SOF15, except DHT (C4), JPG (C8) and DAC (CC).
+            if (marker >= 0xc0 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc) {
+                if (i + 9 > length) {
+                    return null;
+                }
+                int height = ((jpeg[i + 5] & 0xff) << 8) | (jpeg[i + 6] & 0xff);
+                int width = ((jpeg[i + 7] & 0xff) << 8) | (jpeg[i + 8] & 0xff);
+                return width > 0 && height > 0 ? new int[]{width, height} : null;
+            }
+            i += 2 + segmentLength;
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "raw frames: frames=%d failed=%d last=%dx%d jpeg=%dKB", frames, failures,
+                lastWidth, lastHeight, frames == 0 ? 0 : jpegBytes / 1024 / frames);
+    }
+}
@@ -0,0 +1,37 @@
+package com.painnick.zakuhead5;
+
+/**
+ * Timeouts and retry budget for one {@link ZakuHeadTransport.RequestClass}.
+ */
+public class RequestPolicy {
+
+    public final int connectTimeoutMillis;
+    public final int readTimeoutMillis;
+    /**
+     * Extra attempts after a failed request. A resendable request that finds a reused idle connection closed
+     * by the head, before any response byte arrives, is also retried once on a fresh connection, and that
+     * does not count here.
+     */
+    public final int maxRetries;
+    /**
+     * Whether the request may go out again once it may have reached the head. If not, idle connections are
+     * checked before the request is sent on them instead, and a failed request is never sent again.
+     */
+    public final boolean resendable;
+
+    public RequestPolicy(int connectTimeoutMillis, int readTimeoutMillis, int maxRetries, boolean resendable) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.maxRetries = resendable ? maxRetries : 0;
+        this.resendable = resendable;
+    }
+
+    /** A VGA JPEG over the soft AP takes 50-150 ms. GET /capture is safe to repeat. */
+    public static final RequestPolicy IMAGE = new RequestPolicy(1000, 2000, 1, true);
+
+    /**
+     * A repeated /servo would move the head twice, also when the first one was applied but answered too late,
+     * so it is never sent again. The next command of the tracker makes up for a lost one.
+     */
+    public static final RequestPolicy CONTROL = new RequestPolicy(500, 500, 0, false);
+}
@@ -0,0 +1,54 @@
+package com.painnick.zakuhead5;
+
+import java.util.Random;
+
+/**
+ * Delays between attempts to reach a head that keeps failing: exponential, capped, and jittered.
+ * <p>
+ * The delay doubles with every failure in a row, so a head that is rebooting or out of range is not kept
+ * busy with requests it cannot answer. Each delay is drawn from the upper half of its range, so that several
+ * lanes that failed together do not all come back at the same moment. Not thread safe.
+ */
+public class RetryBackoff {
+
+    private final long baseMillis;
+    private final long maxMillis;
+    private final Random random;
+
+    private int attempts = 0;
+
+    /**
+     * @param baseMillis delay after the first failure, before jitter.
+     * @param maxMillis  longest delay, before jitter.
+     */
+    public RetryBackoff(long baseMillis, long maxMillis, Random random) {
+        if (baseMillis < 1 || maxMillis < baseMillis) {
+            throw new IllegalArgumentException("Invalid backoff: " + baseMillis + ".." + maxMillis);
+        }
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+        this.random = random;
+    }
+
+    /**
+     * @return how long to wait before the next attempt, between half and all of the current ceiling.
+     */
+    public long nextDelayMillis() {
+        // 2^30 times any sane base is far beyond the cap.
+        long ceiling = Math.min(maxMillis, baseMillis << Math.min(attempts, 30));
+        attempts++;
+        long half = ceiling / 2;
+        return ceiling - half + (long) (random.nextDouble() * (half + 1));
+    }
+
+    /**
+     * Starts again from the base delay. Called after a success.
+     */
+    public void reset() {
+        attempts = 0;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+}
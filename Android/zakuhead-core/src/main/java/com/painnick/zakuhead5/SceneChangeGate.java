@@ -0,0 +1,154 @@
+package com.painnick.zakuhead5;
+
+import java.util.Locale;
+
+/**
+ * Lets a frame through to decode and detection only when the scene changed since the last frame that went
+ * through.
+ * <p>
+ * Each frame is reduced to a tiny luma signature, a grid of cell averages. Averaging hundreds of pixels per
+ * cell removes the sensor noise, while a face entering the room, a door opening or the head turning moves
+ * several cells by far more. The frame is compared with the last analyzed one, not the previous one, so a
+ * slow change adds up until it counts. {@link #invalidate()} and a maximum skip time make sure a stale
+ * result is never reused for long. Thread safe.
+ */
+public class SceneChangeGate {
+
+    public static class Config {
+        public int width = 16;
+        public int height = 12;
+        /** Luma difference of one cell that counts as a change. */
+        public int cellThreshold = 10;
+        /** Changed cells still counted as the same scene, e.g. a flickering light. */
+        public int maxChangedCells = 1;
+        /** A frame is analyzed at least this often, whatever the signature says. */
+        public long maxSkipMillis = 2000;
+    }
+
+    private final int width;
+    private final int height;
+    private final int cellThreshold;
+    private final int maxChangedCells;
+    private final long maxSkipNanos;
+    private final NanoClock clock;
+
+    // Guarded by this.
+    private final byte[] reference;
+    private boolean referenceValid = false;
+    private long analyzedAt;
+    private long analyzed = 0;
+    private long skipped = 0;
+    private long forced = 0;
+
+    public SceneChangeGate() {
+        this(new Config(), NanoClock.SYSTEM);
+    }
+
+    public SceneChangeGate(Config config, NanoClock clock) {
+        width = config.width;
+        height = config.height;
+        cellThreshold = config.cellThreshold;
+        maxChangedCells = config.maxChangedCells;
+        maxSkipNanos = config.maxSkipMillis * 1_000_000L;
+        this.clock = clock;
+        reference = new byte[width * height];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @param signature {@link #getWidth()} x {@link #getHeight()} cell averages, see
+     *                  {@link #signatureOf(int[], int, int, byte[], int, int)}.
+     * @return true when the frame must be analyzed. It then becomes the reference for the next frames.
+     */
+    public synchronized boolean shouldAnalyze(byte[] signature) {
+        long now = clock.nanoTime();
+        boolean analyze;
+        if (!referenceValid) {
+            analyze = true;
+        } else if (now - analyzedAt >= maxSkipNanos) {
+            forced++;
+            analyze = true;
+        } else {
+            analyze = changedCells(signature) > maxChangedCells;
+        }
+        if (!analyze) {
+            skipped++;
+            return false;
+        }
+        System.arraycopy(signature, 0, reference, 0, reference.length);
+        referenceValid = true;
+        analyzedAt = now;
+        analyzed++;
+        return true;
+    }
+
+    private int changedCells(byte[] signature) {
+        int changed = 0;
+        for (int i = 0; i < reference.length; i++) {
+            if (Math.abs((signature[i] & 0xff) - (reference[i] & 0xff)) > cellThreshold) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * The next frame is analyzed whatever it looks like, e.g. because the head was told to move.
+     */
+    public synchronized void invalidate() {
+        referenceValid = false;
+    }
+
+    public synchronized long getAnalyzedCount() {
+        return analyzed;
+    }
+
+    public synchronized long getSkippedCount() {
+        return skipped;
+    }
+
+    /**
+     * Frames analyzed only because {@link Config#maxSkipMillis} ran out.
+     */
+    public synchronized long getForcedCount() {
+        return forced;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long total = analyzed + skipped;
+        return String.format(Locale.US, "scene gate: analyzed=%d (forced=%d) skipped=%d (%.0f%%)",
+                analyzed, forced, skipped, total == 0 ? 0 : skipped * 100.0 / total);
+    }
+
+    /**
+     * Averages ARGB pixels into a grid of luma cells.
+     *
+     * @param out receives {@code outWidth * outHeight} cell averages, row by row.
+     */
+    public static void signatureOf(int[] argb, int width, int height, byte[] out, int outWidth, int outHeight) {
+        for (int cy = 0; cy < outHeight; cy++) {
+            int top = cy * height / outHeight;
+            int bottom = Math.max(top + 1, (cy + 1) * height / outHeight);
+            for (int cx = 0; cx < outWidth; cx++) {
+                int left = cx * width / outWidth;
+                int right = Math.max(left + 1, (cx + 1) * width / outWidth);
+                int sum = 0;
+                for (int y = top; y < bottom; y++) {
+                    for (int x = left; x < right; x++) {
+                        int c = argb[y * width + x];
+                        sum += (((c >> 16) & 0xff) * 77 + ((c >> 8) & 0xff) * 150 + (c & 0xff) * 29) >> 8;
+                    }
+                }
+                out[cy * outWidth + cx] = (byte) (sum / ((bottom - top) * (right - left)));
+            }
+        }
+    }
+}
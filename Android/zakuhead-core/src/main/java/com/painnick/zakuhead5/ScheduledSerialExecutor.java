@@ -0,0 +1,42 @@
+package com.painnick.zakuhead5;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SerialExecutor} on one thread of a {@link ScheduledThreadPoolExecutor}. Like a quitting Android handler
+ * thread, it drops the delayed jobs that are not due yet when shut down.
+ */
+public class ScheduledSerialExecutor implements SerialExecutor {
+    private final ScheduledThreadPoolExecutor executor;
+
+    public ScheduledSerialExecutor(String threadName, int priority) {
+        executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setPriority(priority);
+            // The runner decides when the process ends, not the pipeline's threads.
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        executor.execute(command);
+    }
+
+    @Override
+    public void executeDelayed(Runnable command, long delayMillis) {
+        executor.schedule(command, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public boolean shutdown() {
+        if (executor.isShutdown()) {
+            return false;
+        }
+        executor.shutdown();
+        return true;
+    }
+}
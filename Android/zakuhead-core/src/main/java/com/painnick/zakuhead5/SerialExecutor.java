@@ -0,0 +1,21 @@
+package com.painnick.zakuhead5;
+
+import java.util.concurrent.Executor;
+
+/**
+ * One thread that runs its jobs in order, now or after a delay. A {@link HeadPlatform} makes them.
+ */
+public interface SerialExecutor extends Executor {
+
+    /**
+     * Runs the command on the thread once the delay has passed.
+     */
+    void executeDelayed(Runnable command, long delayMillis);
+
+    /**
+     * Stops the thread once the jobs already posted are done. Jobs posted later are rejected.
+     *
+     * @return false when it was stopped already.
+     */
+    boolean shutdown();
+}
@@ -0,0 +1,99 @@
+package com.painnick.zakuhead5;
+
+import java.util.List;
+
+/**
+ * Threads, frames and the detector queue shared by the heads of a {@link HeadRegistry}, so the number of
+ * threads stays the same however many heads there are.
+ * <p>
+ * On its own, a head runs a control thread, two image threads per frame in flight, a supervisor, a controller
+ * and an inference thread. Here every head's commands stay on one of a few control threads, its fetches take
+ * turns on a common {@link ImageLanePool}, and one supervisor, one controller and one inference thread serve
+ * them all. The heads' codecs come from one {@link HeadPlatform}, and so share its frame pool.
+ */
+public class SharedHeadResources<F> {
+
+    private static final String TAG = "ZakuHeads";
+
+    // If the detector never reports back on a frame, stop waiting for it after this long.
+    private static final long INFERENCE_TIMEOUT_NANOS = 1_000_000_000L;
+
+    public static class Config {
+        /** Each head's commands stay on one of them, so they still arrive in order. */
+        public int controlThreads = 2;
+        /** /capture fetches of all heads together, hedges included. */
+        public int imageLanes = 8;
+    }
+
+    final HeadPlatform<F> platform;
+    private final SerialExecutor[] controlExecutors;
+    private final List<SerialExecutor> imageThreads;
+    final ImageLanePool imageLanes;
+    final SerialExecutor supervisor;
+    final SerialExecutor executor;
+    final SerialExecutor inferenceExecutor;
+    final InferenceScheduler<F> inference;
+
+    // Guarded by this.
+    private int nextControlExecutor = 0;
+
+    public SharedHeadResources(HeadPlatform<F> platform, Config config) {
+        this.platform = platform;
+        controlExecutors = new SerialExecutor[config.controlThreads];
+        for (int i = 0; i < controlExecutors.length; i++) {
+            controlExecutors[i] = platform.newExecutor(TAG + "ControlThread" + i, true);
+        }
+        imageThreads = CommandScheduler.createImageThreads(platform, TAG, config.imageLanes);
+        imageLanes = new ImageLanePool(imageThreads);
+        supervisor = platform.newExecutor(TAG + "Supervisor", false);
+        executor = platform.newExecutor(TAG + "Controller", false);
+        inferenceExecutor = platform.newExecutor(TAG + "Inference", false);
+        inference = new InferenceScheduler<>(inferenceExecutor, INFERENCE_TIMEOUT_NANOS, NanoClock.SYSTEM);
+    }
+
+    /**
+     * A scheduler for one more head, on the next control thread in turn and the shared image lanes.
+     */
+    synchronized CommandScheduler newScheduler() {
+        SerialExecutor control = controlExecutors[nextControlExecutor];
+        nextControlExecutor = (nextControlExecutor + 1) % controlExecutors.length;
+        return new CommandScheduler(control, imageLanes);
+    }
+
+    /**
+     * Fetches of every head on the shared image lanes.
+     */
+    public LaneStats getImageStats() {
+        return imageLanes.getStats();
+    }
+
+    public HeadPlatform<F> getPlatform() {
+        return platform;
+    }
+
+    /**
+     * Frames each head sent to the detector.
+     */
+    public InferenceScheduler<F> getInference() {
+        return inference;
+    }
+
+    public int getThreadCount() {
+        return controlExecutors.length + imageLanes.getLaneCount() + 3;
+    }
+
+    /**
+     * Stops the threads once the work already posted to them is done. The heads must be closed first.
+     */
+    void shutdown() {
+        supervisor.shutdown();
+        executor.shutdown();
+        inferenceExecutor.shutdown();
+        for (SerialExecutor control : controlExecutors) {
+            control.shutdown();
+        }
+        for (SerialExecutor image : imageThreads) {
+            image.shutdown();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.painnick.zakuhead5;
+
+/**
+ * Turns the position of the followed face into a servo move.
+ */
+public interface SteeringController {
+
+    /**
+     * @param center       horizontal center of the face, 0..1, in the frame captured at {@code captureNanos}.
+     * @param captureNanos {@link NanoClock#nanoTime()} when that frame was captured.
+     * @param servoAngle   the head's angle from the last /servo response.
+     * @param nowNanos     {@link NanoClock#nanoTime()} now.
+     * @return degrees to turn: positive left ({@code moveLeft}), negative right, 0 to hold still.
+     */
+    int steer(float center, long captureNanos, int servoAngle, long nowNanos);
+
+    /**
+     * Forgets the motion history, for example when the face was lost.
+     */
+    void reset();
+}
@@ -0,0 +1,25 @@
+package com.painnick.zakuhead5;
+
+/**
+ * Which way to turn the head for a face at a given horizontal position.
+ */
+public final class SteeringPolicy {
+
+    // A face centered between these is close enough. Turning for less only makes the head shake.
+    public static final float DEAD_ZONE_MIN = 0.4f;
+    public static final float DEAD_ZONE_MAX = 0.6f;
+
+    private SteeringPolicy() {
+    }
+
+    /**
+     * @param center horizontal center of the face, 0 (left edge of the frame) to 1 (right edge).
+     * @return {@link FACE_DIRECTION#NONE} inside the dead zone, otherwise the side the face is on.
+     */
+    public static FACE_DIRECTION decide(float center) {
+        if (DEAD_ZONE_MIN <= center && center <= DEAD_ZONE_MAX) {
+            return FACE_DIRECTION.NONE;
+        }
+        return center > 0.5f ? FACE_DIRECTION.RIGHT : FACE_DIRECTION.LEFT;
+    }
+}
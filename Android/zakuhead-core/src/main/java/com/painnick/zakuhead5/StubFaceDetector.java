@@ -0,0 +1,89 @@
+package com.painnick.zakuhead5;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stands in for the face detector on a JVM: takes a fixed time per frame on a thread of its own, as MediaPipe's
+ * graph does, and reports one face that swings left and right across the frame and leaves it now and then.
+ * <p>
+ * Where the face is depends only on the frame's timestamp, so runs at the same frame times see the same faces.
+ */
+public class StubFaceDetector implements FaceDetector<RawFrame> {
+
+    public static class Config {
+        /** Time per frame. */
+        public long inferenceMillis = 30;
+        /** Spin for the inference time instead of sleeping, so the detector shows up as CPU in a profile. */
+        public boolean busy = false;
+        /** One swing from the left to the right and back. */
+        public long swingPeriodMillis = 8000;
+        /** Share of each swing during which the face is in view. */
+        public double visibleShare = 0.8;
+        /** Relative size of the face box. */
+        public float faceWidth = 0.2f;
+        public float faceHeight = 0.25f;
+    }
+
+    public interface Listener {
+        /**
+         * On the detector's thread. Must pass the result on to {@link ZakuHeadController#onInferenceDone}.
+         *
+         * @param timestampUs of the frame, as given to {@link #detect}.
+         */
+        void onResult(long timestampUs, boolean found, float xmin, float ymin, float width, float height,
+                      float score);
+    }
+
+    private final Config config;
+    private final Listener listener;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "StubFaceDetector");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public StubFaceDetector(Config config, Listener listener) {
+        this.config = config;
+        this.listener = listener;
+    }
+
+    @Override
+    public void detect(RawFrame frame, long timestampUs) {
+        executor.execute(() -> {
+            waitMillis(config.inferenceMillis);
+            double phase = (timestampUs / 1000 % config.swingPeriodMillis) / (double) config.swingPeriodMillis;
+            if (phase >= config.visibleShare) {
+                listener.onResult(timestampUs, false, 0, 0, 0, 0, 0);
+                return;
+            }
+            float center = (float) (0.5 + 0.35 * Math.sin(2 * Math.PI * phase / config.visibleShare));
+            listener.onResult(timestampUs, true, center - config.faceWidth / 2, 0.5f - config.faceHeight / 2,
+                    config.faceWidth, config.faceHeight, 0.9f);
+        });
+    }
+
+    private void waitMillis(long millis) {
+        if (config.busy) {
+            long until = System.nanoTime() + millis * 1_000_000;
+            while (System.nanoTime() < until) {
+                // Spin.
+            }
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for the frame in flight, so no result comes after a {@link ZakuHeadController#close()} that follows.
+     */
+    public void close() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,126 @@
+package com.painnick.zakuhead5;
+
+/**
+ * Constant-velocity Kalman filter on the bearing of the followed face, to aim where the face will be when a
+ * command lands instead of where it was when the frame was captured.
+ * <p>
+ * The filter runs on the bearing (servo angle plus the face's offset in degrees), not on the position in the
+ * frame, so turning the head does not look like the face moving. Between detections the estimate coasts on
+ * the last velocity for a limited time.
+ */
+public class TargetPredictor {
+
+    public static class Config {
+        /** Horizontal field of view of the camera. */
+        public float fovDegrees = 66f;
+        /** How hard the face may accelerate, as a variance in (deg/s^2)^2. */
+        public double accelerationVariance = 400;
+        /** Detector jitter of the face center, as a variance in deg^2. */
+        public double measurementVariance = 2;
+        /** Uncertainty of the speed of a newly found face, as a variance in (deg/s)^2. */
+        public double initialVelocityVariance = 900;
+        /** Without a detection for longer than this, the track is stale. */
+        public long maxCoastMillis = 400;
+        /** Never extrapolate further ahead than this. */
+        public long maxLeadMillis = 500;
+    }
+
+    private final float fovDegrees;
+    private final double accelerationVariance;
+    private final double measurementVariance;
+    private final double initialVelocityVariance;
+    private final long maxCoastNanos;
+    private final long maxLeadNanos;
+
+    private boolean tracking = false;
+    private long updatedAt;
+    // State: bearing (deg) and angular speed (deg/s), with covariance p.
+    private double bearing;
+    private double velocity;
+    private double p00;
+    private double p01;
+    private double p11;
+
+    public TargetPredictor() {
+        this(new Config());
+    }
+
+    public TargetPredictor(Config config) {
+        fovDegrees = config.fovDegrees;
+        accelerationVariance = config.accelerationVariance;
+        measurementVariance = config.measurementVariance;
+        initialVelocityVariance = config.initialVelocityVariance;
+        maxCoastNanos = config.maxCoastMillis * 1_000_000L;
+        maxLeadNanos = config.maxLeadMillis * 1_000_000L;
+    }
+
+    /**
+     * Adds a detection.
+     *
+     * @param center       horizontal center of the face in the frame, 0..1.
+     * @param cameraAngle  servo angle when the frame was captured.
+     * @param captureNanos capture time of the frame.
+     */
+    public void update(float center, int cameraAngle, long captureNanos) {
+        double measured = cameraAngle + (0.5 - center) * fovDegrees;
+        if (!tracking || captureNanos - updatedAt > maxCoastNanos) {
+            tracking = true;
+            updatedAt = captureNanos;
+            bearing = measured;
+            velocity = 0;
+            p00 = measurementVariance;
+            p01 = 0;
+            p11 = initialVelocityVariance;
+            return;
+        }
+        if (captureNanos - updatedAt > 0) {
+            predictState((captureNanos - updatedAt) / 1e9);
+            updatedAt = captureNanos;
+        }
+        double s = p00 + measurementVariance;
+        double k0 = p00 / s;
+        double k1 = p01 / s;
+        double innovation = measured - bearing;
+        bearing += k0 * innovation;
+        velocity += k1 * innovation;
+        double p01Before = p01;
+        p00 -= k0 * p00;
+        p01 -= k0 * p01;
+        p11 -= k1 * p01Before;
+    }
+
+    private void predictState(double dt) {
+        bearing += velocity * dt;
+        double dt2 = dt * dt;
+        p00 += dt * 2 * p01 + dt2 * p11 + accelerationVariance * dt2 * dt2 / 4;
+        p01 += dt * p11 + accelerationVariance * dt2 * dt / 2;
+        p11 += accelerationVariance * dt2;
+    }
+
+    /**
+     * @return true when there is a detection no older than the coast limit at {@code nowNanos}.
+     */
+    public boolean isTracking(long nowNanos) {
+        return tracking && nowNanos - updatedAt <= maxCoastNanos;
+    }
+
+    /**
+     * Where the face will be at {@code atNanos}, as a frame position seen from {@code cameraAngle}.
+     */
+    public float predictCenter(int cameraAngle, long atNanos) {
+        long lead = Math.max(0, Math.min(maxLeadNanos, atNanos - updatedAt));
+        double predicted = bearing + velocity * (lead / 1e9);
+        return (float) (0.5 - (predicted - cameraAngle) / fovDegrees);
+    }
+
+    /**
+     * Estimated angular speed of the face, deg/s. Positive moves toward higher servo angles.
+     */
+    public double getVelocity() {
+        return velocity;
+    }
+
+    public void reset() {
+        tracking = false;
+    }
+}
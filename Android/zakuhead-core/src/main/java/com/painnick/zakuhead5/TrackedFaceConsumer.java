@@ -0,0 +1,11 @@
+package com.painnick.zakuhead5;
+
+public interface TrackedFaceConsumer {
+    /**
+     * A face followed by the patch tracker on a frame the detector skipped. Relative coordinates, as in the
+     * detector's bounding boxes.
+     *
+     * @param captureNanos {@link System#nanoTime()} at capture of the frame.
+     */
+    void onTrackedFace(float xmin, float ymin, float width, float height, long captureNanos);
+}
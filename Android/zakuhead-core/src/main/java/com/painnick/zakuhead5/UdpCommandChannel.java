@@ -0,0 +1,257 @@
+package com.painnick.zakuhead5;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Sends servo and LED commands to the head as {@link CommandFrame} datagrams and waits for each ack.
+ * <p>
+ * A command whose ack does not come within the ack timeout is sent again with the same sequence number; the
+ * head applies it only once and acks it again. Acks of earlier commands that come late are skipped. The
+ * buffers and packets are allocated once, so a command costs no garbage. A command that is never acked is
+ * given up, not sent over HTTP, since the head may have applied it; lost moves are counted on their own. After a
+ * few commands lost in a row, from a head whose firmware has no command channel or over a link that is down,
+ * {@link #isAvailable()} turns false so the caller can go back to HTTP, until a {@link #probe()} gets an ack.
+ * One command at a time, as the control lane sends them.
+ */
+public class UdpCommandChannel {
+
+    public static class Config {
+        /** COMMAND_PORT in command_server.cpp. */
+        public int port = 82;
+        /** A command round-trip over the soft AP takes a few milliseconds. */
+        public int ackTimeoutMillis = 50;
+        public int maxAttempts = 3;
+        /** Commands lost in a row that mean the head has no command channel, or none that gets through. */
+        public int unavailableAfter = 5;
+    }
+
+    private final String hostName;
+    private final int port;
+    private final long ackTimeoutNanos;
+    private final int maxAttempts;
+    private final int unavailableAfter;
+    private final PipelineMetrics metrics;
+
+    // Guarded by this.
+    private DatagramSocket socket;
+    private final byte[] sendBuffer = new byte[CommandFrame.LENGTH];
+    private final byte[] receiveBuffer = new byte[CommandFrame.LENGTH];
+    private final DatagramPacket sendPacket = new DatagramPacket(sendBuffer, CommandFrame.LENGTH);
+    private final DatagramPacket receivePacket = new DatagramPacket(receiveBuffer, CommandFrame.LENGTH);
+    // Starts anywhere, so the first command of a new session is not taken for a resend of the last one.
+    private int nextSeq = new Random().nextInt(0x10000);
+    private int lostInARow = 0;
+    private volatile boolean available = true;
+    private volatile int lastAngle = -1;
+
+    private long sent = 0;
+    private long acked = 0;
+    private long resent = 0;
+    private long lost = 0;
+    private long lostMoves = 0;
+    private long probes = 0;
+    private long refused = 0;
+    private long lateAcks = 0;
+    private final LatencyHistogram roundTrips = new LatencyHistogram();
+
+    /**
+     * @param baseUrl URL of the head's control server; only its host is used.
+     * @param metrics receives HEAD_COMMAND for every acked command. May be null.
+     */
+    public UdpCommandChannel(String baseUrl, Config config, PipelineMetrics metrics) {
+        try {
+            hostName = new URL(baseUrl).getHost();
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid ZakuHead url: " + baseUrl, e);
+        }
+        port = config.port;
+        ackTimeoutNanos = config.ackTimeoutMillis * 1_000_000L;
+        maxAttempts = config.maxAttempts;
+        unavailableAfter = config.unavailableAfter;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Binds the local socket. Must be called off the UI thread, before the first command.
+     */
+    public synchronized void open() throws SocketException {
+        socket = new DatagramSocket();
+        socket.connect(new InetSocketAddress(hostName, port));
+    }
+
+    /**
+     * @param delta positive turns left, negative turns right.
+     * @return true when the head acked the move.
+     */
+    public boolean sendMove(int delta, boolean found) {
+        return send(CommandFrame.OP_MOVE, delta, found);
+    }
+
+    /**
+     * @return true when the head acked the brightness.
+     */
+    public boolean sendLed(int bright) {
+        return send(CommandFrame.OP_LED, bright, false);
+    }
+
+    /**
+     * Sends a move of 0 degrees, which the head only acks, to find out whether the channel works again once
+     * {@link #isAvailable()} turned false. Must be called off the UI thread.
+     *
+     * @return true when the head acked it. The channel is then available again.
+     */
+    public synchronized boolean probe() {
+        if (socket == null) {
+            return false;
+        }
+        probes++;
+        if (!exchange(CommandFrame.OP_MOVE, 0, false)) {
+            return false;
+        }
+        onAck();
+        available = true;
+        return true;
+    }
+
+    private synchronized boolean send(int op, int value, boolean found) {
+        if (socket == null || !available) {
+            return false;
+        }
+        sent++;
+        if (exchange(op, value, found)) {
+            acked++;
+            return onAck();
+        }
+        lost++;
+        if (op == CommandFrame.OP_MOVE) {
+            lostMoves++;
+        }
+        lostInARow++;
+        if (lostInARow >= unavailableAfter) {
+            available = false;
+        }
+        return false;
+    }
+
+    /**
+     * Sends a new frame, and again while its ack does not come, up to the attempts.
+     *
+     * @return true when it was acked; the ack is in the receive buffer.
+     */
+    private boolean exchange(int op, int value, boolean found) {
+        int seq = nextSeq;
+        nextSeq = (nextSeq + 1) & 0xffff;
+        CommandFrame.encode(sendBuffer, op, seq, value, found);
+        long startedAt = System.nanoTime();
+        try {
+            for (int attempt = 0; attempt < maxAttempts; attempt++) {
+                if (attempt > 0) {
+                    resent++;
+                }
+                socket.send(sendPacket);
+                if (awaitAck(seq, System.nanoTime() + ackTimeoutNanos)) {
+                    roundTrips.recordNanos(System.nanoTime() - startedAt);
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            // E.g. ICMP port unreachable from a firmware without the command channel. Counted as lost.
+        }
+        return false;
+    }
+
+    private boolean awaitAck(int seq, long deadline) throws IOException {
+        while (true) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                return false;
+            }
+            socket.setSoTimeout((int) Math.max(1, left / 1_000_000));
+            receivePacket.setLength(CommandFrame.LENGTH);
+            try {
+                socket.receive(receivePacket);
+            } catch (SocketTimeoutException e) {
+                return false;
+            }
+            if (CommandFrame.isAckOf(receiveBuffer, receivePacket.getLength(), seq)) {
+                return true;
+            }
+            lateAcks++;
+        }
+    }
+
+    private boolean onAck() {
+        lostInARow = 0;
+        lastAngle = CommandFrame.angleOf(receiveBuffer);
+        if (metrics != null) {
+            metrics.record(PipelineMetrics.Stage.HEAD_COMMAND, CommandFrame.headMicrosOf(receiveBuffer) * 1000L);
+        }
+        if (CommandFrame.isRefused(receiveBuffer)) {
+            refused++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return false once the head turned out to have no command channel.
+     */
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * Servo angle from the last ack, -1 until the first one.
+     */
+    public int getLastAngle() {
+        return lastAngle;
+    }
+
+    /**
+     * First send until the ack, resends included.
+     */
+    public LatencyHistogram getRoundTrips() {
+        return roundTrips;
+    }
+
+    public synchronized long getResentCount() {
+        return resent;
+    }
+
+    public synchronized long getLostCount() {
+        return lost;
+    }
+
+    /**
+     * Moves given up without an ack, of the {@link #getLostCount() lost} commands. The head may or may not have
+     * turned for them.
+     */
+    public synchronized long getLostMoveCount() {
+        return lostMoves;
+    }
+
+    public synchronized void close() {
+        if (socket != null) {
+            socket.close();
+            socket = null;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US,
+                "udp commands%s: sent=%d acked=%d resent=%d lost=%d (moves %d) refused=%d late=%d probes=%d"
+                        + " rtt p50=%.1f p99=%.1fms",
+                available ? "" : " (unavailable)", sent, acked, resent, lost, lostMoves, refused, lateAcks, probes,
+                roundTrips.getPercentileMillis(50), roundTrips.getPercentileMillis(99));
+    }
+}
@@ -0,0 +1,11 @@
+package com.painnick.zakuhead5;
+
+public interface UnchangedFrameConsumer {
+    /**
+     * A frame the {@link SceneChangeGate} found unchanged. It was neither decoded nor detected; the last
+     * result still describes it.
+     *
+     * @param captureNanos {@link System#nanoTime()} at capture of the frame.
+     */
+    void onUnchangedFrame(long captureNanos);
+}
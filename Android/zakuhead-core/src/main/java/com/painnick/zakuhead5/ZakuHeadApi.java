@@ -0,0 +1,892 @@
+package com.painnick.zakuhead5;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pulls frames from one ZakuHead and sends it servo/LED commands. Frames are decoded into the platform's image
+ * type {@code F} by its {@link FrameCodec}.
+ */
+public class ZakuHeadApi<F> {
+
+    /**
+     * How frames are pulled from the head.
+     */
+    public enum IngestMode {
+        /** One GET /capture per frame. Works with every firmware. */
+        POLLING,
+        /**
+         * One long-lived GET /stream (multipart/x-mixed-replace). Polls while /stream gives no frame, e.g. on a
+         * head without it, and tries /stream again every minute.
+         */
+        STREAMING
+    }
+
+    private static final String TAG = "ZakuHeadApi";
+
+    // A move that could not be sent within this time describes where the face was, not where it is.
+    private static final long STALE_COMMAND_MILLIS = 500;
+
+    // How often the watchdog looks for a loop that stopped without a failure.
+    private static final long WATCHDOG_PERIOD_MILLIS = 500;
+
+    // Answers from /stream without a frame before polling instead, so one bad response at start-up does not
+    // settle the session. While polling, /stream is tried once more this often.
+    private static final int STREAM_ATTEMPTS = 3;
+    private static final long STREAM_PROBE_MILLIS = 60_000;
+
+    // While commands go over HTTP, the UDP command channel is tried again this often, e.g. after a Wi-Fi blip.
+    private static final long COMMAND_PROBE_MILLIS = 10_000;
+
+    private final CommandScheduler scheduler;
+    private final CoalescingCommandQueue commandQueue;
+    private final PipelineMetrics metrics;
+    private final FrameCodec<F> codec;
+    private final int pipelineDepth;
+    // Frames asked for with /capture and not yet delivered or failed. Hedges do not count.
+    private final AtomicInteger activeFetches = new AtomicInteger();
+    // The last /capture sent, which the next one waits behind at the head.
+    private final AtomicReference<HedgedFetch> lastFetch = new AtomicReference<>();
+    // Only replaced before start().
+    private volatile HeadHealth headHealth = new HeadHealth();
+    // Hedges, retries and the watchdog, so that none of them waits behind a fetch or a command.
+    private final SerialExecutor supervisor;
+    // False when the threads belong to a HeadRegistry.
+    private final boolean ownsThreads;
+    private final AtomicBoolean retryPending = new AtomicBoolean(false);
+    private final Runnable retryTask = () -> {
+        retryPending.set(false);
+        refill();
+    };
+    // True while a refill waits for one of the image lanes, which other heads may be using.
+    private final AtomicBoolean laneWaitPending = new AtomicBoolean(false);
+    private final Runnable laneWaitTask = () -> {
+        laneWaitPending.set(false);
+        refill();
+    };
+    private final Runnable watchdogTask = this::checkStalled;
+    // True from reloadImage() until pause().
+    private volatile boolean capturing = false;
+    private volatile boolean closed = false;
+    // True while the caller asks for every frame itself, at a rate of its own.
+    private volatile boolean paced = false;
+    private final AtomicLong requestedFrameSeq = new AtomicLong();
+    private long deliveredFrameSeq = 0;
+    private long deliveredTimestampUs = 0;
+    private volatile IngestMode ingestMode = IngestMode.POLLING;
+    private volatile boolean preferSensorFlip = true;
+    // The camera is mounted upside down. False once the head's sensor has agreed to flip the image itself.
+    private volatile boolean rotateOnPhone = true;
+    private final AtomicBoolean streamRunning = new AtomicBoolean(false);
+    private volatile boolean streamWanted = false;
+    // True while polling because /stream gave no frame, until streamProbeAt (System.nanoTime()).
+    private volatile boolean streamFallback = false;
+    private volatile long streamProbeAt = 0;
+    private volatile HttpStream currentStream;
+    // Only touched on the lane that reads the stream.
+    private MjpegStreamReader currentReader;
+    private final MjpegStreamReader.FrameListener streamFrameListener = this::onStreamFrame;
+    private volatile int lastAngle = 90;
+    private FrameConsumer<F> newFrameListener;
+    // Null lets every frame through to the decoder.
+    private SceneChangeGate sceneChangeGate;
+    // Guarded by sceneChangeGate.
+    private byte[] signature;
+    private UnchangedFrameConsumer unchangedFrameListener;
+    private ZakuHeadApiConsumer apiListener;
+    // Null sends servo/LED commands over HTTP.
+    private volatile UdpCommandChannel commandChannel;
+    // The channel set before start(), also while commands go over HTTP, or null without one.
+    private volatile UdpCommandChannel udpChannel;
+    private final Runnable commandProbeTask = this::postCommandProbe;
+    private CameraSettingsConsumer cameraSettingsListener;
+
+    private final ZakuHeadTransport imageTransport;
+    private final ZakuHeadTransport controlTransport;
+
+    public ZakuHeadApi(HeadPlatform<F> platform, String url) {
+        this(platform, url, url, 1);
+    }
+
+    public ZakuHeadApi(HeadPlatform<F> platform, String url, String controlUrl, int pipelineDepth) {
+        this(platform, url, controlUrl, pipelineDepth, new PipelineMetrics());
+    }
+
+    public ZakuHeadApi(HeadPlatform<F> platform, String url, String controlUrl, int pipelineDepth,
+                       PipelineMetrics metrics) {
+        this(platform, new KeepAliveHttpTransport(url, metrics),
+                url.equals(controlUrl) ? null : new KeepAliveHttpTransport(controlUrl, metrics),
+                pipelineDepth, metrics);
+    }
+
+    /**
+     * @param imageTransport   transport to the camera server (/capture).
+     * @param controlTransport transport to the control server (/servo, /led), or null to use
+     *                         {@code imageTransport} for both.
+     * @param pipelineDepth    number of /capture requests kept in flight. With a depth of 2, frame N+1
+     *                         is downloaded while frame N is being detected.
+     * @param metrics          receives the stage times measured here. The transports record their own.
+     */
+    public ZakuHeadApi(HeadPlatform<F> platform, ZakuHeadTransport imageTransport,
+                       ZakuHeadTransport controlTransport, int pipelineDepth, PipelineMetrics metrics) {
+        // Twice the depth, so that every fetch can have its hedge in flight, and a lane still stuck on a request
+        // whose frame the hedge already brought does not hold up the next fetch.
+        this(imageTransport, controlTransport, pipelineDepth, metrics,
+                new CommandScheduler(platform, TAG, pipelineDepth * 2), platform.newExecutor(TAG + "Supervisor", false),
+                platform.newCodec(metrics), true);
+    }
+
+    /**
+     * A head of a {@link HeadRegistry}, on threads and frames shared with the other heads.
+     */
+    public ZakuHeadApi(ZakuHeadTransport imageTransport, ZakuHeadTransport controlTransport, int pipelineDepth,
+                       PipelineMetrics metrics, SharedHeadResources<F> shared) {
+        this(imageTransport, controlTransport, pipelineDepth, metrics, shared.newScheduler(), shared.supervisor,
+                shared.platform.newCodec(metrics), false);
+    }
+
+    private ZakuHeadApi(ZakuHeadTransport imageTransport, ZakuHeadTransport controlTransport, int pipelineDepth,
+                        PipelineMetrics metrics, CommandScheduler scheduler, SerialExecutor supervisor,
+                        FrameCodec<F> codec, boolean ownsThreads) {
+        if (pipelineDepth < 1) {
+            throw new IllegalArgumentException("pipelineDepth must be at least 1: " + pipelineDepth);
+        }
+        this.imageTransport = imageTransport;
+        this.controlTransport = controlTransport != null ? controlTransport : imageTransport;
+        this.metrics = metrics;
+        this.pipelineDepth = pipelineDepth;
+        this.scheduler = scheduler;
+        this.supervisor = supervisor;
+        this.codec = codec;
+        this.ownsThreads = ownsThreads;
+        commandQueue = new CoalescingCommandQueue(scheduler::executeControl, new CoalescingCommandQueue.Sink() {
+            @Override
+            public void sendServo(int delta, boolean found) {
+                long startedAt = System.nanoTime();
+                UdpCommandChannel channel = commandChannel;
+                if (channel != null) {
+                    if (channel.sendMove(delta, found)) {
+                        lastAngle = channel.getLastAngle();
+                    }
+                    checkCommandChannel(channel);
+                } else {
+                    call(CommandUrls.servo(delta, found));
+                }
+                metrics.record(PipelineMetrics.Stage.SERVO_RTT, System.nanoTime() - startedAt);
+            }
+
+            @Override
+            public void sendLed(int bright) {
+                UdpCommandChannel channel = commandChannel;
+                if (channel != null) {
+                    channel.sendLed(bright);
+                    checkCommandChannel(channel);
+                } else {
+                    call(CommandUrls.led(bright));
+                }
+            }
+        }, STALE_COMMAND_MILLIS);
+    }
+
+    /**
+     * The listener owns each frame it receives and must hand it back with {@link #releaseFrame(Object)} once it
+     * is done with it.
+     */
+    public void setNewFrameListener(FrameConsumer<F> listener) {
+        newFrameListener = listener;
+    }
+
+    /**
+     * Checks a cheap signature of every frame before decoding it. Frames the gate finds unchanged are neither
+     * decoded nor delivered; the listener hears about them instead. Must be called before {@link #start()}.
+     */
+    public void setSceneChangeGate(SceneChangeGate gate, UnchangedFrameConsumer listener) {
+        signature = new byte[gate.getWidth() * gate.getHeight()];
+        unchangedFrameListener = listener;
+        sceneChangeGate = gate;
+    }
+
+    /**
+     * Told about the sensor settings at start-up and after every {@link #setCamera(String, int)}. Must be
+     * called before {@link #start()}.
+     */
+    public void setCameraSettingsListener(CameraSettingsConsumer listener) {
+        cameraSettingsListener = listener;
+    }
+
+    /**
+     * Only hears the responses of commands sent over HTTP.
+     */
+    public void setApiListener(ZakuHeadApiConsumer listener) {
+        apiListener = listener;
+    }
+
+    /**
+     * Sends servo/LED commands as datagrams on the head's command channel instead of HTTP requests. Goes back
+     * to HTTP while the head does not answer on it, and tries it again every few seconds. Must be called before
+     * {@link #start()}.
+     */
+    public void setCommandChannel(UdpCommandChannel channel) {
+        udpChannel = channel;
+        commandChannel = channel;
+    }
+
+    /**
+     * @return the UDP command channel, or null without one. Commands go over HTTP while it is not
+     * {@link UdpCommandChannel#isAvailable() available}.
+     */
+    public UdpCommandChannel getCommandChannel() {
+        return udpChannel;
+    }
+
+    /**
+     * Supervises the frame loop with other backoff, stall or hedge settings. Must be called before
+     * {@link #start()}.
+     */
+    public void setHeadHealth(HeadHealth headHealth) {
+        this.headHealth = headHealth;
+    }
+
+    /**
+     * Must be called before {@link #start()}.
+     */
+    public void setIngestMode(IngestMode mode) {
+        ingestMode = mode;
+    }
+
+    public IngestMode getIngestMode() {
+        return ingestMode;
+    }
+
+    /**
+     * Whether to ask the head to flip the sensor at start-up instead of rotating every frame on the phone.
+     * Must be called before {@link #start()}.
+     */
+    public void setPreferSensorFlip(boolean prefer) {
+        preferSensorFlip = prefer;
+    }
+
+    /**
+     * @return true while frames are rotated pixel by pixel on the phone.
+     */
+    public boolean isRotatingOnPhone() {
+        return rotateOnPhone;
+    }
+
+    public void start() {
+        if (newFrameListener == null) {
+            throw new IllegalStateException("newFrameListener is not set.");
+        }
+        // Settle the orientation before the first frame is requested, so no frame is rotated twice or not at all.
+        scheduler.executeControl(() -> {
+            openCommandChannel();
+            negotiateOrientation();
+            reloadImage();
+            if (cameraSettingsListener != null) {
+                callCamera("/camera");
+            }
+        });
+        supervisor.executeDelayed(watchdogTask, WATCHDOG_PERIOD_MILLIS);
+    }
+
+    /**
+     * Asks the head for another framesize and JPEG quality. It may refuse either; the settings listener
+     * hears what it uses.
+     */
+    public void setCamera(String framesize, int quality) {
+        String url = CommandUrls.camera(framesize, quality);
+        scheduler.executeControl(() -> callCamera(url));
+    }
+
+    private void openCommandChannel() {
+        UdpCommandChannel channel = commandChannel;
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.open();
+        } catch (SocketException e) {
+            HeadLog.w(TAG, "Could not open the UDP command channel, sending commands over HTTP", e);
+            commandChannel = null;
+            udpChannel = null;
+        }
+    }
+
+    /**
+     * Goes back to HTTP once the head stopped answering on the command channel, or never did. On the control
+     * lane.
+     */
+    private void checkCommandChannel(UdpCommandChannel channel) {
+        if (channel.isAvailable()) {
+            return;
+        }
+        // A firmware from before the command channel, or a link that loses every datagram for now.
+        HeadLog.w(TAG, "No acks on the UDP command channel, sending commands over HTTP: " + channel);
+        commandChannel = null;
+        supervisor.executeDelayed(commandProbeTask, COMMAND_PROBE_MILLIS);
+    }
+
+    private void postCommandProbe() {
+        scheduler.executeControl(this::probeCommandChannel);
+    }
+
+    /**
+     * On the control lane.
+     */
+    private void probeCommandChannel() {
+        UdpCommandChannel channel = udpChannel;
+        if (closed || channel == null) {
+            return;
+        }
+        if (channel.probe()) {
+            HeadLog.i(TAG, "UDP command channel is back, commands go over it again");
+            commandChannel = channel;
+        } else {
+            supervisor.executeDelayed(commandProbeTask, COMMAND_PROBE_MILLIS);
+        }
+    }
+
+    private void callCamera(String url) {
+        try {
+            HttpResponse response = controlTransport.get(url, ZakuHeadTransport.RequestClass.CONTROL);
+            if (!response.isSuccessful()) {
+                // A firmware from before /camera.
+                HeadLog.w(TAG, "Camera settings not available: HTTP " + response.status);
+                return;
+            }
+            String json = response.bodyAsString();
+            String framesize = FlatJson.getString(json, "framesize");
+            int quality = FlatJson.getInt(json, "quality", -1);
+            if (framesize == null || quality < 0) {
+                HeadLog.w(TAG, "Unexpected /camera response: " + json);
+                return;
+            }
+            if (cameraSettingsListener != null) {
+                cameraSettingsListener.onCameraSettings(framesize, quality, FlatJson.getString(json, "max"));
+            }
+        } catch (IOException e) {
+            HeadLog.w(TAG, "/camera failed", e);
+        }
+    }
+
+    private void negotiateOrientation() {
+        boolean flipped = false;
+        if (preferSensorFlip) {
+            try {
+                HttpResponse response = controlTransport.get("/orientation?flip=1", ZakuHeadTransport.RequestClass.CONTROL);
+                flipped = response.isSuccessful() && FlatJson.getInt(response.bodyAsString(), "flip", 0) == 1;
+            } catch (IOException e) {
+                HeadLog.w(TAG, "/orientation failed", e);
+            }
+        }
+        rotateOnPhone = !flipped;
+        HeadLog.i(TAG, flipped ? "Sensor flips frames on the head" : "Rotating frames on the phone");
+    }
+
+    /**
+     * The flip stays on the sensor until the head reboots, and every other client (main.py, a browser on
+     * /stream) would get the frames the way round this app asked for. Put it back as it was.
+     */
+    private void restoreOrientation() {
+        if (rotateOnPhone) {
+            return;
+        }
+        try {
+            controlTransport.get("/orientation?flip=0", ZakuHeadTransport.RequestClass.CONTROL);
+        } catch (IOException e) {
+            HeadLog.w(TAG, "Could not restore the sensor orientation", e);
+        }
+    }
+
+    // Function to establish connection and load image
+    private void loadImage(ImageLanePool.ImageLane lane, HedgedFetch fetch, boolean hedge) {
+        // The head grabs the frame buffer when it handles the request.
+        long captureNanos = System.nanoTime();
+        HttpResponse response = null;
+        try {
+            response = imageTransport.get("/capture", ZakuHeadTransport.RequestClass.IMAGE);
+            if (!response.isSuccessful()) {
+                HeadLog.w(TAG, "/capture failed: HTTP " + response.status);
+                response = null;
+            }
+        } catch (IOException e) {
+            HeadLog.w(TAG, "/capture failed", e);
+        }
+        if (response == null) {
+            lane.release();
+            if (fetch.onFailure()) {
+                activeFetches.decrementAndGet();
+                scheduleRetry();
+            }
+            return;
+        }
+        if (!fetch.onSuccess()) {
+            // The other request of the pair brought this frame first.
+            lane.release();
+            refill();
+            return;
+        }
+        long fetchNanos = System.nanoTime() - captureNanos;
+        if (hedge) {
+            headHealth.onHedgeWon();
+        }
+        F result = null;
+        boolean unchanged = false;
+        if (sceneChanged(response.body, response.length)) {
+            result = decodeFrame(response.body, response.length);
+        } else {
+            unchanged = true;
+        }
+        // Give the lane back before delivering, so the listener can immediately put the next frame on the wire.
+        lane.release();
+        activeFetches.decrementAndGet();
+        if (result == null && !unchanged) {
+            scheduleRetry();
+            return;
+        }
+        headHealth.onFrame(fetchNanos);
+        boolean delivered = result != null
+                ? deliverFrame(fetch.seq, captureNanos, result)
+                : deliverUnchangedFrame(fetch.seq, captureNanos);
+        if (!delivered) {
+            // No listener call, so nothing else asks for the next frame.
+            refill();
+        }
+    }
+
+    /**
+     * Sends a second /capture for a frame that is taking longer than almost all others, e.g. because the
+     * request or its connection got lost on the way to the head. Whichever of the two answers first is used.
+     */
+    private void hedge(HedgedFetch fetch, HedgedFetch ahead) {
+        if (fetch.isDone() || !capturing) {
+            return;
+        }
+        if (ahead != null) {
+            // The head answers one /capture at a time, so this one waited behind ours: count the delay from when
+            // that one was done. A hedge sent earlier would only wait there too, and take a sensor frame of its own.
+            long hedgeDelayMillis = headHealth.getHedgeDelayMillis();
+            if (hedgeDelayMillis < 0) {
+                return;
+            }
+            long waitMillis = ahead.isDone()
+                    ? hedgeDelayMillis - (System.nanoTime() - ahead.getDoneAt()) / 1_000_000
+                    : hedgeDelayMillis;
+            if (waitMillis > 0) {
+                supervisor.executeDelayed(() -> hedge(fetch, ahead), waitMillis);
+                return;
+            }
+        }
+        ImageLanePool.ImageLane lane = scheduler.pollIdleImageLane();
+        if (lane == null) {
+            return;
+        }
+        if (!fetch.tryHedge()) {
+            lane.release();
+            return;
+        }
+        headHealth.onHedge();
+        lane.execute(() -> loadImage(lane, fetch, true));
+    }
+
+    /**
+     * Asks for frames again once the head had time to recover. Without this a failed fetch would deliver
+     * nothing, so nothing would ever ask for the next frame.
+     */
+    private void scheduleRetry() {
+        long delayMillis = headHealth.onFailure();
+        if (retryPending.compareAndSet(false, true)) {
+            supervisor.executeDelayed(retryTask, delayMillis);
+        }
+    }
+
+    /**
+     * Restarts a loop that stopped without a failure to retry, e.g. a /stream that stays open but silent.
+     */
+    private void checkStalled() {
+        if (closed) {
+            return;
+        }
+        // A paced caller asks again on its own, maybe later than the stall timeout.
+        if (capturing && !paced && !retryPending.get() && headHealth.isStalled()) {
+            HeadLog.w(TAG, "No frame for " + headHealth.getLastGoodFrameAgeMillis() + " ms, restarting capture");
+            headHealth.onRestart();
+            if (ingestMode == IngestMode.STREAMING) {
+                // readStream() connects again.
+                HttpStream stream = currentStream;
+                if (stream != null) {
+                    stream.close();
+                }
+            }
+            refill();
+        }
+        supervisor.executeDelayed(watchdogTask, WATCHDOG_PERIOD_MILLIS);
+    }
+
+    /**
+     * @return false when the scene-change gate found the frame unchanged.
+     */
+    private boolean sceneChanged(byte[] jpeg, int length) {
+        SceneChangeGate gate = sceneChangeGate;
+        if (gate == null) {
+            return true;
+        }
+        synchronized (gate) {
+            // A frame without a signature goes on to the full decode, which reports it.
+            return !codec.decodeSignature(jpeg, length, signature, gate.getWidth(), gate.getHeight())
+                    || gate.shouldAnalyze(signature);
+        }
+    }
+
+    private F decodeFrame(byte[] jpeg, int length) {
+        return codec.decode(jpeg, length, rotateOnPhone ? 180 : 0);
+    }
+
+    private boolean shouldStream() {
+        return ingestMode == IngestMode.STREAMING && (!streamFallback || System.nanoTime() - streamProbeAt >= 0);
+    }
+
+    private void startStream() {
+        streamWanted = true;
+        if (!streamRunning.compareAndSet(false, true)) {
+            return;
+        }
+        // The stream holds one image lane for as long as it runs.
+        ImageLanePool.ImageLane lane = scheduler.pollIdleImageLane();
+        if (lane == null) {
+            // A /capture from before the switch is still in flight. Its frame will call reloadImage() again.
+            streamRunning.set(false);
+            return;
+        }
+        lane.execute(() -> readStream(lane));
+    }
+
+    /**
+     * Closes the /stream connection, if any. {@link #reloadImage()} opens it again.
+     */
+    public void stopStream() {
+        streamWanted = false;
+        HttpStream stream = currentStream;
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    private void readStream(ImageLanePool.ImageLane lane) {
+        int attemptsWithoutFrame = 0;
+        try {
+            while (streamWanted && ingestMode == IngestMode.STREAMING) {
+                boolean receivedFrame = false;
+                boolean answered = false;
+                HttpStream stream = null;
+                try {
+                    stream = imageTransport.openStream("/stream", ZakuHeadTransport.RequestClass.IMAGE);
+                    answered = true;
+                    currentStream = stream;
+                    String boundary = MjpegStreamReader.parseBoundary(stream.contentType);
+                    if (stream.isSuccessful() && boundary != null) {
+                        MjpegStreamReader reader = new MjpegStreamReader(stream.body, boundary);
+                        currentReader = reader;
+                        while (streamWanted && reader.readFrame(streamFrameListener)) {
+                            receivedFrame = true;
+                        }
+                    } else {
+                        HeadLog.w(TAG, "Unexpected /stream response: HTTP " + stream.status + " " + stream.contentType);
+                    }
+                } catch (IOException e) {
+                    if (streamWanted) {
+                        HeadLog.w(TAG, "/stream failed", e);
+                    }
+                } finally {
+                    currentStream = null;
+                    if (stream != null) {
+                        stream.close();
+                    }
+                }
+                if (receivedFrame) {
+                    attemptsWithoutFrame = 0;
+                    if (streamFallback) {
+                        HeadLog.i(TAG, "/stream is back, polling ends");
+                        streamFallback = false;
+                    }
+                }
+                if (streamWanted && !receivedFrame) {
+                    // A head that does not answer yet is booting and would not serve /capture either, so only
+                    // answers without a frame count. A probe while polling gets one attempt.
+                    if (streamFallback || (answered && ++attemptsWithoutFrame >= STREAM_ATTEMPTS)) {
+                        HeadLog.w(TAG, "No frame from /stream, polling /capture and trying again in "
+                                + STREAM_PROBE_MILLIS / 1000 + " s");
+                        streamProbeAt = System.nanoTime() + STREAM_PROBE_MILLIS * 1_000_000L;
+                        streamFallback = true;
+                        break;
+                    }
+                    sleepMillis(headHealth.onFailure());
+                } else if (streamWanted) {
+                    // The stream broke off. Give a rebooting head time before connecting again.
+                    sleepMillis(headHealth.onFailure());
+                }
+            }
+        } finally {
+            lane.release();
+            streamRunning.set(false);
+        }
+        if (streamWanted && !shouldStream()) {
+            reloadImage();
+        }
+    }
+
+    private void onStreamFrame(byte[] jpeg, int length) {
+        long captureNanos = System.nanoTime();
+        metrics.record(PipelineMetrics.Stage.DOWNLOAD, captureNanos - currentReader.getPartStartedAt());
+        if (!sceneChanged(jpeg, length)) {
+            headHealth.onFrame(-1);
+            deliverUnchangedFrame(requestedFrameSeq.incrementAndGet(), captureNanos);
+            return;
+        }
+        F result = decodeFrame(jpeg, length);
+        if (result != null) {
+            headHealth.onFrame(-1);
+            deliverFrame(requestedFrameSeq.incrementAndGet(), captureNanos, result);
+        } else {
+            headHealth.onFailure();
+        }
+    }
+
+    private static void sleepMillis(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return false when a later frame was delivered already and this one was dropped.
+     */
+    private boolean deliverFrame(long seq, long captureNanos, F frame) {
+        long timestampUs;
+        synchronized (this) {
+            // A later frame overtook this one on another lane. Never hand out frames backwards in time. After
+            // close() the listener's threads may be gone.
+            if (seq <= deliveredFrameSeq || closed) {
+                codec.release(frame);
+                return false;
+            }
+            deliveredFrameSeq = seq;
+            // MediaPipe's video mode rejects timestamps that do not strictly increase.
+            timestampUs = Math.max(captureNanos / 1000, deliveredTimestampUs + 1);
+            deliveredTimestampUs = timestampUs;
+        }
+        codec.onFrame();
+        this.newFrameListener.onNewFrame(frame, timestampUs);
+        return true;
+    }
+
+    private boolean deliverUnchangedFrame(long seq, long captureNanos) {
+        synchronized (this) {
+            if (seq <= deliveredFrameSeq || closed) {
+                return false;
+            }
+            deliveredFrameSeq = seq;
+        }
+        unchangedFrameListener.onUnchangedFrame(captureNanos);
+        return true;
+    }
+
+    private void call(String url) {
+        String jsonString = null;
+        try {
+            HttpResponse response = controlTransport.get(url, ZakuHeadTransport.RequestClass.CONTROL);
+            if (response.isSuccessful() && response.length > 0) {
+                lastAngle = AngleParser.parse(response.body, response.length, lastAngle);
+                int headMicros = AngleParser.parseHeadMicros(response.body, response.length);
+                if (headMicros >= 0) {
+                    metrics.record(PipelineMetrics.Stage.HEAD_COMMAND, headMicros * 1000L);
+                }
+                // Only build the String when someone wants more than the angle.
+                if (apiListener != null) {
+                    jsonString = response.bodyAsString();
+                }
+            }
+        } catch (IOException e) {
+            HeadLog.w(TAG, "Command failed: " + url, e);
+        }
+        if (jsonString != null && apiListener != null) {
+            this.apiListener.onResponse(jsonString);
+        }
+    }
+
+    /**
+     * Asks for more frames. In polling mode, keeps up to the pipeline depth of /capture requests in flight. In
+     * streaming mode, opens /stream unless it is already open.
+     */
+    public void reloadImage() {
+        if (!capturing) {
+            capturing = true;
+            headHealth.onResume();
+        }
+        if (shouldStream() && !paced) {
+            startStream();
+            return;
+        }
+        int depth = paced ? 1 : pipelineDepth;
+        while (true) {
+            int active = activeFetches.get();
+            if (active >= depth) {
+                return;
+            }
+            if (!activeFetches.compareAndSet(active, active + 1)) {
+                continue;
+            }
+            ImageLanePool.ImageLane lane = scheduler.pollIdleImageLane();
+            if (lane == null) {
+                // Busy with a hedge, a request a hedge already answered, or other heads' fetches.
+                activeFetches.decrementAndGet();
+                if (laneWaitPending.compareAndSet(false, true)) {
+                    scheduler.awaitIdleImageLane(laneWaitTask);
+                }
+                return;
+            }
+            HedgedFetch fetch = new HedgedFetch(requestedFrameSeq.incrementAndGet(), System.nanoTime());
+            HedgedFetch ahead = lastFetch.getAndSet(fetch);
+            lane.execute(() -> loadImage(lane, fetch, false));
+            long hedgeDelayMillis = headHealth.getHedgeDelayMillis();
+            if (hedgeDelayMillis >= 0) {
+                supervisor.executeDelayed(() -> hedge(fetch, ahead), hedgeDelayMillis);
+            }
+        }
+    }
+
+    /**
+     * Asks for more frames on the API's own behalf, unless the caller paused or paces the frames.
+     */
+    private void refill() {
+        if (capturing && !closed && !paced) {
+            reloadImage();
+        }
+    }
+
+    /**
+     * While paced, the caller asks for every frame: {@link #reloadImage()} keeps at most one /capture in flight,
+     * also in streaming mode, and a failed or lost fetch is left to the caller's next call. /stream opens again
+     * on the first {@link #reloadImage()} after pacing ends.
+     */
+    public void setPaced(boolean paced) {
+        this.paced = paced;
+        if (paced && streamWanted) {
+            stopStream();
+        }
+    }
+
+    /**
+     * Stops asking for frames, and stops retrying and restarting, until the next {@link #reloadImage()}.
+     */
+    public void pause() {
+        capturing = false;
+        stopStream();
+    }
+
+    public void moveLeft(int degree, boolean found) {
+        commandQueue.move(degree, found);
+    }
+
+    public void moveRight(int degree, boolean found) {
+        commandQueue.move(-degree, found);
+    }
+
+    public void led(int bright) {
+        commandQueue.led(bright);
+    }
+
+    /**
+     * Servo angle from the last /servo response or command ack, 90 until the first one.
+     */
+    public int getLastAngle() {
+        return lastAngle;
+    }
+
+    /**
+     * How many servo/LED commands were merged or dropped before reaching the head.
+     */
+    public CoalescingCommandQueue getCommandQueue() {
+        return commandQueue;
+    }
+
+    /**
+     * Gives a frame received by the frame listener back to the codec.
+     */
+    public void releaseFrame(F frame) {
+        codec.release(frame);
+    }
+
+    /**
+     * Smallest frame size the consumers need. See {@link FrameCodec#setTargetSize(int, int)}.
+     */
+    public void setDecodeTargetSize(int minWidth, int minHeight) {
+        codec.setTargetSize(minWidth, minHeight);
+    }
+
+    /**
+     * Latency histograms of every pipeline stage.
+     */
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Decode time and bytes per frame, as far as the platform's codec counts them.
+     */
+    public FrameCodec<F> getFrameCodec() {
+        return codec;
+    }
+
+    /**
+     * Queue depth and wait time of servo/LED commands.
+     */
+    public LaneStats getControlStats() {
+        return scheduler.getControlStats();
+    }
+
+    /**
+     * Failures, restarts, recovery times and hedged requests of the frame loop.
+     */
+    public HeadHealth getHeadHealth() {
+        return headHealth;
+    }
+
+    /**
+     * Queue depth and wait time of /capture fetches.
+     */
+    public LaneStats getImageStats() {
+        return scheduler.getImageStats();
+    }
+
+    /**
+     * Closes ImageInput and releases the resources.
+     */
+    public void close() {
+        closed = true;
+        if (ownsThreads) {
+            supervisor.shutdown();
+        }
+        scheduler.executeControl(
+                () -> {
+                    restoreOrientation();
+                    imageTransport.close();
+                    controlTransport.close();
+                    UdpCommandChannel channel = udpChannel;
+                    if (channel != null) {
+                        channel.close();
+                    }
+                });
+        if (ownsThreads) {
+            // After the job above, and after the fetches already on the image lanes.
+            scheduler.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,8 @@
+package com.painnick.zakuhead5;
+
+public interface ZakuHeadApiConsumer {
+    /**
+     * @param response the body of a servo/LED response, a flat JSON object. See {@link FlatJson}.
+     */
+    void onResponse(String response);
+}
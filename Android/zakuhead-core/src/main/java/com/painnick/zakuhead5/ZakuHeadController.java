@@ -0,0 +1,646 @@
+package com.painnick.zakuhead5;
+
+import java.util.Locale;
+
+import com.painnick.zakuhead5.ZakuHeadApi;
+import com.painnick.zakuhead5.ZakuHeadApiConsumer;
+
+/**
+ * One head's frame loop: fetches frames, hands them to the {@link FaceDetector} one at a time and carries out the
+ * {@link FaceTracker}'s moves. Frames are the platform's image type {@code F}.
+ */
+public class ZakuHeadController<F> implements FaceTracker.Head {
+
+    private static final String TAG = "ZakuHeadController";
+
+    // If the detector never reports back on a frame, stop waiting for it after this long.
+    private static final long INFERENCE_TIMEOUT_NANOS = 1_000_000_000L;
+
+    public static final String DEFAULT_HOST = "http://192.168.5.18";
+
+    // Servo/LED commands go to a second httpd instance on the ESP32, so they are not queued behind /capture.
+    public static final String DEFAULT_CONTROL_HOST = "http://192.168.5.18:81";
+
+    private final String ZakuHeadHost;
+
+    private final String ZakuHeadControlHost;
+
+    private final HeadPlatform<F> platform;
+
+    private final SerialExecutor executor;
+
+    // Runs the detector, so a slow inference never holds up acquisition. Shared by the heads of a registry.
+    private final SerialExecutor inferenceExecutor;
+
+    // False when the threads belong to a HeadRegistry.
+    private final boolean ownsThreads;
+
+    private final InferenceScheduler<F> inferenceScheduler;
+
+    private final InferenceScheduler.Client<F> inferenceClient = this::infer;
+
+    /**
+     * The frame now in the detector, or the last one. Reused for every frame: the token is cleared while the
+     * timestamp changes, so a reader that raced with the change sees a token that moved and takes it as another
+     * frame.
+     */
+    private static final class DetectorFrame {
+        volatile long token = -1;
+        volatile long timestampUs;
+
+        void set(long timestampUs, long token) {
+            this.token = -1;
+            this.timestampUs = timestampUs;
+            this.token = token;
+        }
+
+        /**
+         * @return the token of the frame with this timestamp, or -1 if it is not the current one.
+         */
+        long tokenOf(long timestampUs) {
+            long token = this.token;
+            if (token < 0 || this.timestampUs != timestampUs || this.token != token) {
+                return -1;
+            }
+            return token;
+        }
+    }
+
+    private final LatestFrameMailbox<F> frameMailbox = new LatestFrameMailbox<>();
+
+    private final PipelineMetrics metrics = new PipelineMetrics();
+
+    // System.nanoTime() when the frame now in the detector was sent, or 0. Only touched on inferenceExecutor.
+    private long inferenceStartedAt = 0;
+
+    // Written on inferenceExecutor, read by the result callback.
+    private final DetectorFrame detectorFrame = new DetectorFrame();
+
+    // Detect-every-N. Set before start() and then only touched on inferenceExecutor. Null runs the detector on
+    // every frame.
+    private TrackedFaceConsumer trackedFaceListener;
+    private LumaSampler<F> lumaSampler;
+    private PatchTracker patchTracker;
+    private DetectionCadence detectionCadence;
+    private byte[] frameLuma;
+    // Luma of the frame now in the detector. Its result becomes the tracker's template.
+    private byte[] detectingLuma;
+
+    private final FaceDetector<F> detector;
+
+    private SceneChangeGate sceneChangeGate;
+
+    private AdaptiveQuality adaptiveQuality;
+    // Adaptation waits until the head has said what it uses. Stays false with a firmware without /camera.
+    private volatile boolean cameraSettingsKnown = false;
+    // Counters at the start of the current quality window. Only touched on inferenceExecutor.
+    private long qualityWindowStartedAt = System.nanoTime();
+    private long qualityWindowReceived = 0;
+    private long qualityWindowDownloads = 0;
+    private double qualityWindowDownloadMillis = 0;
+    private long qualityWindowInferences = 0;
+    private double qualityWindowInferenceMillis = 0;
+
+    private DutyCycle dutyCycle;
+    // True while a paced frame request is posted. Only touched on executor.
+    private boolean pacingTickPending = false;
+    private final Runnable pacingTick = this::pace;
+
+    private final ZakuHeadApi<F> zakuHeadApi;
+
+    private Boolean started = false;
+
+    private Boolean stopping = true;
+
+    private boolean isLedOn = false;
+
+    public int getLastAngle() {
+        return zakuHeadApi.getLastAngle();
+    }
+
+    public LaneStats getControlStats() {
+        return zakuHeadApi.getControlStats();
+    }
+
+    public LaneStats getImageStats() {
+        return zakuHeadApi.getImageStats();
+    }
+
+    public CoalescingCommandQueue getCommandQueue() {
+        return zakuHeadApi.getCommandQueue();
+    }
+
+    /**
+     * Latency histograms of every stage, from the HTTP connect to the servo round-trip.
+     */
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Dropped frames and frame age at inference.
+     */
+    public LatestFrameMailbox<F> getFrameMailbox() {
+        return frameMailbox;
+    }
+
+    public ZakuHeadController(HeadPlatform<F> platform, FaceDetector<F> detector, ZakuHeadApiConsumer apiListener) {
+        this(platform, detector, apiListener, 1);
+    }
+
+    /**
+     * @param apiListener   receives every control response as JSON, or null when only the angle matters.
+     * @param pipelineDepth number of frames fetched ahead of the one being detected. 1 is fully serial.
+     */
+    public ZakuHeadController(HeadPlatform<F> platform, FaceDetector<F> detector, ZakuHeadApiConsumer apiListener,
+                              int pipelineDepth) {
+        this(platform, DEFAULT_HOST, DEFAULT_CONTROL_HOST, detector, apiListener, pipelineDepth);
+    }
+
+    /**
+     * A head on threads of its own.
+     *
+     * @param host        URL of the head's camera server.
+     * @param controlHost URL of the head's control server.
+     */
+    public ZakuHeadController(HeadPlatform<F> platform, String host, String controlHost, FaceDetector<F> detector,
+                              ZakuHeadApiConsumer apiListener, int pipelineDepth) {
+        this(platform, host, controlHost, detector, apiListener, pipelineDepth, null);
+    }
+
+    /**
+     * A head of a {@link HeadRegistry}.
+     *
+     * @param shared threads, frames and detector queue shared with the other heads of the registry.
+     */
+    public ZakuHeadController(String host, String controlHost, FaceDetector<F> detector,
+                              ZakuHeadApiConsumer apiListener, int pipelineDepth, SharedHeadResources<F> shared) {
+        this(shared.platform, host, controlHost, detector, apiListener, pipelineDepth, shared);
+    }
+
+    private ZakuHeadController(HeadPlatform<F> platform, String host, String controlHost, FaceDetector<F> detector,
+                               ZakuHeadApiConsumer apiListener, int pipelineDepth, SharedHeadResources<F> shared) {
+        this.platform = platform;
+        this.detector = detector;
+        ZakuHeadHost = host;
+        ZakuHeadControlHost = controlHost;
+        if (shared != null) {
+            executor = shared.executor;
+            inferenceExecutor = shared.inferenceExecutor;
+            inferenceScheduler = shared.inference;
+            zakuHeadApi = new ZakuHeadApi<>(new KeepAliveHttpTransport(host, metrics),
+                    new KeepAliveHttpTransport(controlHost, metrics), pipelineDepth, metrics, shared);
+        } else {
+            executor = platform.newExecutor("ZakuHeadController", false);
+            inferenceExecutor = platform.newExecutor("ZakuHeadInference", false);
+            inferenceScheduler = new InferenceScheduler<>(inferenceExecutor, INFERENCE_TIMEOUT_NANOS, NanoClock.SYSTEM);
+            zakuHeadApi = new ZakuHeadApi<>(platform, host, controlHost, pipelineDepth, metrics);
+        }
+        ownsThreads = shared == null;
+        inferenceScheduler.register(inferenceClient, frameMailbox);
+        zakuHeadApi.setNewFrameListener((frame, timestampUs) -> {
+            LatestFrameMailbox.Entry<F> replaced = frameMailbox.offer(frame, timestampUs * 1000);
+            if (replaced != null) {
+                // The detector did not get to it in time. A fresher frame took its place.
+                zakuHeadApi.releaseFrame(replaced.frame);
+                frameMailbox.recycle(replaced);
+            }
+            inferenceScheduler.schedule();
+            executor.execute(this::run);
+        });
+        // The angle is parsed by the API itself. The body is only turned into a String for a listener that asks for it.
+        if (apiListener != null) {
+            zakuHeadApi.setApiListener(apiListener);
+        }
+    }
+
+    /**
+     * Sends servo/LED commands over the head's UDP command channel. Must be called before {@link #start()}.
+     */
+    public void setUdpCommands() {
+        zakuHeadApi.setCommandChannel(
+                new UdpCommandChannel(ZakuHeadControlHost, new UdpCommandChannel.Config(), metrics));
+    }
+
+    /**
+     * Must be called before {@link #start()}.
+     */
+    public void setIngestMode(ZakuHeadApi.IngestMode mode) {
+        zakuHeadApi.setIngestMode(mode);
+    }
+
+    /**
+     * Smallest frame the detector and the preview need. Larger frames are decoded with a sample size.
+     */
+    public void setDecodeTargetSize(int minWidth, int minHeight) {
+        zakuHeadApi.setDecodeTargetSize(minWidth, minHeight);
+    }
+
+    public FrameCodec<F> getFrameCodec() {
+        return zakuHeadApi.getFrameCodec();
+    }
+
+    /**
+     * Skips decode and detection of frames that show the same scene as the last analyzed one, e.g. an empty
+     * room while the head stands still. Must be called before {@link #start()}.
+     *
+     * @param unchangedFrameListener told about each skipped frame, so it can reuse the last result.
+     */
+    public void setSceneChangeGate(UnchangedFrameConsumer unchangedFrameListener) {
+        sceneChangeGate = new SceneChangeGate();
+        zakuHeadApi.setSceneChangeGate(sceneChangeGate, captureNanos -> {
+            unchangedFrameListener.onUnchangedFrame(captureNanos);
+            // No frame comes through the mailbox for this frame, so ask for the next one here.
+            executor.execute(this::run);
+        });
+    }
+
+    /**
+     * Frames skipped by the scene-change gate, and the decode and detection time that saved at the current
+     * mean cost of both. Null without a gate.
+     */
+    public String describeSceneChangeGate() {
+        if (sceneChangeGate == null) {
+            return null;
+        }
+        double savedMillis = sceneChangeGate.getSkippedCount()
+                * (metrics.getHistogram(PipelineMetrics.Stage.DECODE).getMeanMillis()
+                + metrics.getHistogram(PipelineMetrics.Stage.ROTATE).getMeanMillis()
+                + metrics.getHistogram(PipelineMetrics.Stage.INFERENCE).getMeanMillis());
+        return String.format(Locale.US, "%s saved=%.1fs", sceneChangeGate, savedMillis / 1000);
+    }
+
+    /**
+     * Steps the head's framesize and JPEG quality to keep frames coming at the target rate, and to give the
+     * detector more pixels when it is unsure. Every decision is logged. Must be called before {@link #start()};
+     * does nothing with a firmware without /camera.
+     */
+    public void setAdaptiveQuality(double targetFps) {
+        AdaptiveQuality.Config config = new AdaptiveQuality.Config();
+        config.targetFps = targetFps;
+        adaptiveQuality = new AdaptiveQuality(config, NanoClock.SYSTEM);
+        zakuHeadApi.setCameraSettingsListener((framesize, quality, maxFramesize) -> {
+            adaptiveQuality.setCurrent(framesize, quality, maxFramesize);
+            cameraSettingsKnown = true;
+            HeadLog.i(TAG, "Camera at " + framesize + "/q" + quality + ", max " + maxFramesize);
+        });
+    }
+
+    /**
+     * Score of the face the detector picked, for the adaptive quality.
+     */
+    public void onDetectionScore(float score) {
+        if (adaptiveQuality != null) {
+            adaptiveQuality.onScore(score);
+        }
+    }
+
+    private void adaptQuality() {
+        if (adaptiveQuality == null || !cameraSettingsKnown || !adaptiveQuality.isWindowDue()) {
+            return;
+        }
+        if (dutyCycle != null && dutyCycle.getFrameIntervalNanos() > 0) {
+            // Paced frames are slow on purpose and say nothing about the link.
+            restartQualityWindow();
+            return;
+        }
+        long now = System.nanoTime();
+        // Frames the gate skipped did come in over the link.
+        long received = frameMailbox.getOfferedCount()
+                + (sceneChangeGate != null ? sceneChangeGate.getSkippedCount() : 0);
+        LatencyHistogram download = metrics.getHistogram(PipelineMetrics.Stage.DOWNLOAD);
+        LatencyHistogram inference = metrics.getHistogram(PipelineMetrics.Stage.INFERENCE);
+        long downloads = download.getCount();
+        double downloadMillis = download.getMeanMillis() * downloads;
+        long inferences = inference.getCount();
+        double inferenceMillis = inference.getMeanMillis() * inferences;
+
+        double fps = (received - qualityWindowReceived) * 1e9 / (now - qualityWindowStartedAt);
+        AdaptiveQuality.Decision decision = adaptiveQuality.evaluate(fps,
+                windowMean(downloadMillis - qualityWindowDownloadMillis, downloads - qualityWindowDownloads),
+                windowMean(inferenceMillis - qualityWindowInferenceMillis, inferences - qualityWindowInferences));
+        HeadLog.i(TAG, "Quality " + decision);
+        if (decision.isChange()) {
+            zakuHeadApi.setCamera(decision.to.framesize, decision.to.quality);
+            if (sceneChangeGate != null) {
+                sceneChangeGate.invalidate();
+            }
+        }
+
+        qualityWindowStartedAt = now;
+        qualityWindowReceived = received;
+        qualityWindowDownloads = downloads;
+        qualityWindowDownloadMillis = downloadMillis;
+        qualityWindowInferences = inferences;
+        qualityWindowInferenceMillis = inferenceMillis;
+    }
+
+    private void restartQualityWindow() {
+        adaptiveQuality.restartWindow();
+        qualityWindowStartedAt = System.nanoTime();
+        qualityWindowReceived = frameMailbox.getOfferedCount()
+                + (sceneChangeGate != null ? sceneChangeGate.getSkippedCount() : 0);
+        LatencyHistogram download = metrics.getHistogram(PipelineMetrics.Stage.DOWNLOAD);
+        LatencyHistogram inference = metrics.getHistogram(PipelineMetrics.Stage.INFERENCE);
+        qualityWindowDownloads = download.getCount();
+        qualityWindowDownloadMillis = download.getMeanMillis() * qualityWindowDownloads;
+        qualityWindowInferences = inference.getCount();
+        qualityWindowInferenceMillis = inference.getMeanMillis() * qualityWindowInferences;
+    }
+
+    private static double windowMean(double totalMillis, long count) {
+        return count == 0 ? 0 : totalMillis / count;
+    }
+
+    /**
+     * Asks for frames at a slow idle rate once the face tracker has been LOST for a while, and slower still while
+     * the phone is hot or low on battery. Must be called before {@link #start()}; the tracker's state must then
+     * be reported after every frame with {@link #onTrackerState(FaceTracker.State)}.
+     */
+    public void setDutyCycle(DutyCycle.Config config) {
+        dutyCycle = new DutyCycle(config, NanoClock.SYSTEM, platform.getUsage());
+    }
+
+    /**
+     * The face tracker's state after a frame. A detection brings back the full rate for the next frame.
+     */
+    public void onTrackerState(FaceTracker.State state) {
+        if (dutyCycle != null && dutyCycle.onTrackerState(state)) {
+            onFrameIntervalChanged();
+        }
+    }
+
+    /**
+     * @param status PowerManager.THERMAL_STATUS_*.
+     */
+    public void onThermalStatus(int status) {
+        if (dutyCycle != null && dutyCycle.onThermalStatus(status)) {
+            onFrameIntervalChanged();
+        }
+    }
+
+    public void onBattery(int percent, boolean charging) {
+        if (dutyCycle != null && dutyCycle.onBattery(percent, charging)) {
+            onFrameIntervalChanged();
+        }
+    }
+
+    private void onFrameIntervalChanged() {
+        long intervalNanos = dutyCycle.getFrameIntervalNanos();
+        HeadLog.i(TAG, "Duty cycle " + dutyCycle.getMode() + ", " + intervalNanos / 1_000_000 + " ms between frames");
+        zakuHeadApi.setPaced(intervalNanos > 0);
+        if (adaptiveQuality != null) {
+            // Frames of the old rate must not count toward the quality at the new one.
+            inferenceExecutor.execute(this::restartQualityWindow);
+        }
+        // Back at the full rate, fill the pipeline or open /stream right away rather than at the next tick.
+        executor.execute(this::run);
+    }
+
+    /**
+     * Asks for one frame and for the next one after the frame interval, until the interval is 0 again.
+     */
+    private void pace() {
+        pacingTickPending = false;
+        if (!started || stopping) {
+            return;
+        }
+        zakuHeadApi.reloadImage();
+        long intervalNanos = dutyCycle.getFrameIntervalNanos();
+        if (intervalNanos > 0) {
+            pacingTickPending = true;
+            executor.executeDelayed(pacingTick, intervalNanos / 1_000_000);
+        }
+    }
+
+    /**
+     * Runs the detector only every few frames and follows the face with a patch tracker in between. The
+     * interval grows while the face holds still and shrinks while it moves. Must be called before
+     * {@link #start()}, and the detector's result callback must then report the face it picked with
+     * {@link #onInferenceDone(long, boolean, float, float, float, float)}.
+     *
+     * @param trackedFaceListener receives the face on frames the detector skipped.
+     */
+    public void setHybridDetection(TrackedFaceConsumer trackedFaceListener) {
+        // 4:3 like the camera. Big enough for a face of a tenth of the frame to keep some texture.
+        lumaSampler = zakuHeadApi.getFrameCodec().newLumaSampler(96, 72);
+        patchTracker = new PatchTracker(lumaSampler.getWidth(), lumaSampler.getHeight(), 8, 20, 6);
+        detectionCadence = new DetectionCadence();
+        frameLuma = new byte[lumaSampler.getWidth() * lumaSampler.getHeight()];
+        detectingLuma = new byte[frameLuma.length];
+        this.trackedFaceListener = trackedFaceListener;
+    }
+
+    /**
+     * Everything the pipeline counts, one block per component. Meant for the overlay and for log exports.
+     */
+    public String describeStats() {
+        return metrics.snapshot() + "\n"
+                + frameMailbox + "\n"
+                + zakuHeadApi.getHeadHealth() + "\n"
+                + getImageStats() + "\n"
+                + getControlStats() + "\n"
+                + getCommandQueue() + "\n"
+                + (zakuHeadApi.getCommandChannel() != null ? zakuHeadApi.getCommandChannel() + "\n" : "")
+                + getFrameCodec()
+                + (detectionCadence != null ? "\n" + detectionCadence : "")
+                + (sceneChangeGate != null ? "\n" + describeSceneChangeGate() : "")
+                + (adaptiveQuality != null ? "\n" + adaptiveQuality : "")
+                + (dutyCycle != null ? "\n" + dutyCycle : "");
+    }
+
+    public void start() {
+        stopping = false;
+        started = true;
+        zakuHeadApi.start();
+    }
+
+    /**
+     * Must be called from the detector's result callback when it found no face. The next frame is taken from the
+     * mailbox only then, so frames wait here, where they can be replaced, and not inside the detector.
+     *
+     * @param timestampUs the timestamp the frame was given to the detector with; times 1000 it is its
+     *                    {@link System#nanoTime()} at capture.
+     * @return false when the result came too late: the frame timed out, and another may be in the detector. The
+     * result must then be ignored.
+     */
+    public boolean onInferenceDone(long timestampUs) {
+        return onInferenceDone(timestampUs, false, 0, 0, 0, 0);
+    }
+
+    /**
+     * As {@link #onInferenceDone(long)}, with the face the caller steers to, in relative coordinates. With hybrid
+     * detection it is followed on the next frames without the detector.
+     */
+    public boolean onInferenceDone(long timestampUs, boolean found, float xmin, float ymin, float width,
+                                   float height) {
+        long doneAt = System.nanoTime();
+        long token = detectorFrame.tokenOf(timestampUs);
+        if (token < 0 || !inferenceScheduler.isDetecting(token)) {
+            return false;
+        }
+        inferenceExecutor.execute(() -> {
+            // It may have timed out since.
+            if (!inferenceScheduler.isDetecting(token)) {
+                return;
+            }
+            if (inferenceStartedAt != 0) {
+                metrics.record(PipelineMetrics.Stage.INFERENCE, doneAt - inferenceStartedAt);
+                metrics.onFrame();
+            }
+            inferenceStartedAt = 0;
+            if (detectionCadence != null) {
+                detectionCadence.onDetected(found && patchTracker.setTemplate(detectingLuma, xmin, ymin, width, height));
+            }
+            adaptQuality();
+            inferenceScheduler.onDone(token);
+        });
+        return true;
+    }
+
+    /**
+     * Must be called from the detector's error callback, which does not say which frame failed. Taken as the
+     * frame now in the detector.
+     */
+    public void onInferenceError() {
+        long token = detectorFrame.token;
+        if (token < 0) {
+            return;
+        }
+        inferenceExecutor.execute(() -> {
+            if (inferenceScheduler.isDetecting(token)) {
+                inferenceStartedAt = 0;
+                inferenceScheduler.onDone(token);
+            }
+        });
+    }
+
+    /**
+     * @return true while this head's frame with this timestamp is in the detector. Safe to call from the
+     * detector's result callback.
+     */
+    public boolean isDetecting(long timestampUs) {
+        long token = detectorFrame.tokenOf(timestampUs);
+        return token >= 0 && inferenceScheduler.isDetecting(token);
+    }
+
+    /**
+     * @return true when the frame went to the detector, false when the tracker handled it.
+     */
+    private boolean infer(LatestFrameMailbox.Entry<F> entry, long token) {
+        long takenAt = System.nanoTime();
+        metrics.record(PipelineMetrics.Stage.FRAME_AGE, takenAt - entry.captureNanos);
+        if (trackedFaceListener != null && track(entry, takenAt)) {
+            return false;
+        }
+        inferenceStartedAt = takenAt;
+        long timestampUs = entry.captureNanos / 1000;
+        detectorFrame.set(timestampUs, token);
+        try {
+            detector.detect(entry.frame, timestampUs);
+        } finally {
+            zakuHeadApi.releaseFrame(entry.frame);
+        }
+        return true;
+    }
+
+    /**
+     * @return true when the tracker handled the frame, false when it has to go to the detector.
+     */
+    private boolean track(LatestFrameMailbox.Entry<F> entry, long startedAt) {
+        lumaSampler.sample(entry.frame, frameLuma);
+        if (!detectionCadence.shouldDetect()) {
+            if (patchTracker.track(frameLuma)) {
+                metrics.record(PipelineMetrics.Stage.TRACK, System.nanoTime() - startedAt);
+                metrics.onFrame();
+                detectionCadence.onTracked(patchTracker.getLastMotion());
+                zakuHeadApi.releaseFrame(entry.frame);
+                trackedFaceListener.onTrackedFace(patchTracker.getXmin(), patchTracker.getYmin(),
+                        patchTracker.getWidth(), patchTracker.getHeight(), entry.captureNanos);
+                return true;
+            }
+            detectionCadence.onTrackLost();
+        }
+        // Keep this frame's luma for the template the detector's answer will point into.
+        byte[] swap = detectingLuma;
+        detectingLuma = frameLuma;
+        frameLuma = swap;
+        return false;
+    }
+
+    public void run() {
+        if (!started || stopping) {
+            return;
+        }
+        if (dutyCycle != null && dutyCycle.getFrameIntervalNanos() > 0) {
+            // Paced: the tick asks for the next frame, not the one that just came in.
+            if (!pacingTickPending) {
+                pace();
+            }
+            return;
+        }
+        zakuHeadApi.reloadImage();
+    }
+
+    public void pause() {
+        stopping = true;
+        zakuHeadApi.pause();
+    }
+
+    public void resume() {
+        if (started) {
+            stopping = false;
+            executor.execute(this::run);
+        }
+    }
+
+    /**
+     * Stops asking for frames for good, closes the connections to the head and stops its threads, unless they
+     * are shared. The detector must not report results after this.
+     */
+    public void close() {
+        pause();
+        zakuHeadApi.close();
+        if (ownsThreads) {
+            executor.shutdown();
+            inferenceExecutor.shutdown();
+        }
+    }
+
+    @Override
+    public void moveLeft(int degree, boolean found) {
+        onMove();
+        zakuHeadApi.moveLeft(degree, found);
+    }
+
+    @Override
+    public void moveRight(int degree, boolean found) {
+        onMove();
+        zakuHeadApi.moveRight(degree, found);
+    }
+
+    private void onMove() {
+        // The view is about to change. Do not let the gate answer with a result from before the move.
+        if (sceneChangeGate != null) {
+            sceneChangeGate.invalidate();
+        }
+    }
+
+    @Override
+    public void ledOn(boolean forced) {
+        if (forced || !isLedOn) {
+            zakuHeadApi.led(10);
+        }
+        isLedOn = true;
+    }
+
+    @Override
+    public void ledOff(boolean forced) {
+        if (forced || isLedOn) {
+            zakuHeadApi.led(0);
+        }
+        isLedOn = false;
+    }
+
+
+}
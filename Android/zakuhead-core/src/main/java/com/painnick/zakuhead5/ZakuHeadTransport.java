@@ -0,0 +1,37 @@
+package com.painnick.zakuhead5;
+
+import java.io.IOException;
+
+/**
+ * Sends GET requests to one ZakuHead server. {@link ZakuHeadApi} talks to the head only through this interface.
+ */
+public interface ZakuHeadTransport {
+
+    /**
+     * Requests are grouped by class so that each class can have its own timeouts and retries.
+     */
+    enum RequestClass {
+        /** /capture. Large, idempotent. */
+        IMAGE,
+        /** /servo, /led. Small, latency sensitive, not idempotent. */
+        CONTROL
+    }
+
+    /**
+     * @param path path and query, starting with '/'.
+     * @throws IOException when the request failed after all retries.
+     */
+    HttpResponse get(String path, RequestClass requestClass) throws IOException;
+
+    /**
+     * Opens a dedicated connection and returns once the response headers are in. The body is left unread.
+     *
+     * @param path path and query, starting with '/'.
+     */
+    HttpStream openStream(String path, RequestClass requestClass) throws IOException;
+
+    /**
+     * Closes every connection held by the transport.
+     */
+    void close();
+}
@@ -0,0 +1,107 @@
+package com.painnick.zakuhead5;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaptiveQualityTest {
+
+    private static final AdaptiveQuality.Level[] LEVELS = AdaptiveQuality.LEVELS;
+
+    private final ManualClock clock = new ManualClock();
+    private AdaptiveQuality quality;
+
+    @Before
+    public void setUp() {
+        // 10 fps, so a 100ms frame budget of which a better level's download may take 70ms.
+        quality = new AdaptiveQuality(new AdaptiveQuality.Config(), clock);
+    }
+
+    private AdaptiveQuality.Decision window(double fps, double downloadMillis, double inferenceMillis) {
+        clock.advanceMillis(2000);
+        assertTrue(quality.isWindowDue());
+        return quality.evaluate(fps, downloadMillis, inferenceMillis);
+    }
+
+    @Test
+    public void linkBoundDropGoesStraightToWhatTheLinkCarries() {
+        assertSame(LEVELS[4], quality.getLevel());
+
+        // 180ms for 26kB: 20kB and 12kB would still take over 70ms, 8kB about 55ms.
+        AdaptiveQuality.Decision decision = window(5, 180, 20);
+
+        assertTrue(decision.isChange());
+        assertSame(LEVELS[4], decision.from);
+        assertSame(LEVELS[1], decision.to);
+        assertSame(LEVELS[1], quality.getLevel());
+    }
+
+    @Test
+    public void failedLevelIsBarredUntilItsCooldownEnds() {
+        quality.setCurrent("VGA", 12, null);
+        assertSame(LEVELS[3], quality.getLevel());
+        assertSame(LEVELS[2], window(5, 100, 20).to);
+
+        assertFalse(window(10, 20, 20).isChange());
+        // Fast enough and no face, but VGA/q12 could not keep up two windows ago.
+        AdaptiveQuality.Decision barred = window(10, 20, 20);
+        assertFalse(barred.isChange());
+        assertTrue(barred.reason, barred.reason.contains("failed recently"));
+
+        // The 30s cooldown ends with the next window.
+        clock.advanceMillis(24_000);
+        AdaptiveQuality.Decision retried = window(10, 20, 20);
+        assertTrue(retried.reason, retried.isChange());
+        assertSame(LEVELS[3], retried.to);
+    }
+
+    @Test
+    public void betterLevelMustFitTheBudget() {
+        quality.setCurrent("QVGA", 12, null);
+        // 50ms for 8kB projects 75ms for 12kB.
+        AdaptiveQuality.Decision decision = window(10, 50, 20);
+
+        assertFalse(decision.isChange());
+        assertSame(LEVELS[1], quality.getLevel());
+    }
+
+    @Test
+    public void confidentFacesKeepTheLevel() {
+        quality.setCurrent("QVGA", 12, null);
+        quality.onScore(0.9f);
+        quality.onScore(0.95f);
+
+        assertFalse(window(10, 20, 20).isChange());
+    }
+
+    @Test
+    public void detectorBoundWindowHolds() {
+        AdaptiveQuality.Decision decision = window(5, 40, 180);
+
+        assertFalse(decision.isChange());
+        assertTrue(decision.reason, decision.reason.contains("detector-bound"));
+        assertSame(LEVELS[4], quality.getLevel());
+    }
+
+    @Test
+    public void setCurrentClampsToMaxFramesize() {
+        quality.setCurrent("SVGA", 10, "VGA");
+        assertSame(LEVELS[4], quality.getLevel());
+
+        // Already at the largest framesize the head allows.
+        assertFalse(window(10, 10, 20).isChange());
+        assertSame(LEVELS[4], quality.getLevel());
+    }
+
+    @Test
+    public void setCurrentPicksTheClosestQuality() {
+        quality.setCurrent("QVGA", 18, null);
+        assertSame(LEVELS[0], quality.getLevel());
+
+        quality.setCurrent("QVGA", 14, null);
+        assertSame(LEVELS[1], quality.getLevel());
+    }
+}
@@ -0,0 +1,190 @@
+package com.painnick.zakuhead5;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FaceTrackerTest {
+
+    private static final class RecordingHead implements FaceTracker.Head {
+        final List<String> moves = new ArrayList<>();
+        final List<String> leds = new ArrayList<>();
+
+        @Override
+        public void moveLeft(int degree, boolean found) {
+            moves.add("left " + degree + (found ? " found" : ""));
+        }
+
+        @Override
+        public void moveRight(int degree, boolean found) {
+            moves.add("right " + degree + (found ? " found" : ""));
+        }
+
+        @Override
+        public void ledOn(boolean forced) {
+            leds.add(forced ? "on forced" : "on");
+        }
+
+        @Override
+        public void ledOff(boolean forced) {
+            leds.add(forced ? "off forced" : "off");
+        }
+    }
+
+    private final ManualClock clock = new ManualClock();
+    private RecordingHead head;
+    private FaceTracker tracker;
+
+    @Before
+    public void setUp() {
+        head = new RecordingHead();
+        // Bang-bang steps of 5 degrees, nudge after 1 s and then every 3 s, lost after 3 s.
+        tracker = new FaceTracker(head, new FaceTracker.Config(), clock);
+    }
+
+    private void face(float center) {
+        tracker.onFace(center, clock.nanoTime(), 90);
+    }
+
+    private void noFace(int servoAngle) {
+        tracker.onNoFace(clock.nanoTime(), servoAngle);
+    }
+
+    @Test
+    public void startsSearching() {
+        assertEquals(FaceTracker.State.SEARCH, tracker.getState());
+    }
+
+    @Test
+    public void foundFaceTurnsTheLedOnAndStepsTowardIt() {
+        face(0.2f);
+
+        assertEquals(FaceTracker.State.FOUND, tracker.getState());
+        assertEquals(Arrays.asList("on forced"), head.leds);
+        assertEquals(Arrays.asList("left 5 found"), head.moves);
+
+        clock.advanceMillis(66);
+        face(0.8f);
+
+        assertEquals(Arrays.asList("on forced", "on"), head.leds);
+        assertEquals(Arrays.asList("left 5 found", "right 5 found"), head.moves);
+    }
+
+    @Test
+    public void centeredFaceIsNudgedAfterTheDelayAndThenEveryInterval() {
+        face(0.5f);
+        clock.advanceMillis(999);
+        face(0.5f);
+        assertEquals(0, head.moves.size());
+
+        clock.advanceMillis(1);
+        face(0.5f);
+        assertEquals(Arrays.asList("left 0 found"), head.moves);
+
+        clock.advanceMillis(2999);
+        face(0.5f);
+        assertEquals(1, head.moves.size());
+
+        clock.advanceMillis(1);
+        face(0.5f);
+        assertEquals(Arrays.asList("left 0 found", "left 0 found"), head.moves);
+    }
+
+    @Test
+    public void steeringMoveReplacesTheNudge() {
+        face(0.5f);
+        clock.advanceMillis(1000);
+        face(0.3f);
+
+        assertEquals(Arrays.asList("left 5 found"), head.moves);
+    }
+
+    @Test
+    public void missingFaceIsSearchedForInTheDirectionItWentThenLost() {
+        face(0.8f);
+        head.moves.clear();
+
+        clock.advanceMillis(66);
+        noFace(90);
+        assertEquals(FaceTracker.State.SEARCH, tracker.getState());
+        assertEquals(Arrays.asList("right 30"), head.moves);
+        assertEquals(Arrays.asList("on forced"), head.leds);
+
+        // Lost once nothing was seen for longer than 3 s.
+        clock.advanceMillis(2934);
+        noFace(60);
+        assertEquals(FaceTracker.State.SEARCH, tracker.getState());
+
+        clock.advanceMillis(1);
+        noFace(30);
+        assertEquals(FaceTracker.State.LOST, tracker.getState());
+        assertEquals(Arrays.asList("on forced", "off forced"), head.leds);
+        assertEquals(Arrays.asList("right 30", "right 30", "right 30"), head.moves);
+    }
+
+    @Test
+    public void sweepStopsAtTheSearchRange() {
+        face(0.8f);
+        head.moves.clear();
+
+        noFace(20);
+        noFace(160);
+
+        assertEquals(0, head.moves.size());
+    }
+
+    @Test
+    public void faceBackDuringSearchIsStillTheSameFollow() {
+        face(0.5f);
+        clock.advanceMillis(500);
+        noFace(90);
+        clock.advanceMillis(200);
+        face(0.5f);
+
+        assertEquals(FaceTracker.State.FOUND, tracker.getState());
+        assertEquals(Arrays.asList("on forced", "on"), head.leds);
+
+        // The nudge keeps the schedule of the first sighting.
+        head.moves.clear();
+        clock.advanceMillis(300);
+        face(0.5f);
+        assertEquals(Arrays.asList("left 0 found"), head.moves);
+    }
+
+    @Test
+    public void faceReacquiredAfterLostStartsAFreshFollow() {
+        face(0.5f);
+        clock.advanceMillis(66);
+        noFace(90);
+        clock.advanceMillis(3001);
+        noFace(90);
+        assertEquals(FaceTracker.State.LOST, tracker.getState());
+        head.moves.clear();
+        head.leds.clear();
+
+        face(0.5f);
+        assertEquals(FaceTracker.State.FOUND, tracker.getState());
+        assertEquals(Arrays.asList("on forced"), head.leds);
+
+        clock.advanceMillis(999);
+        face(0.5f);
+        assertEquals(0, head.moves.size());
+        clock.advanceMillis(1);
+        face(0.5f);
+        assertEquals(Arrays.asList("left 0 found"), head.moves);
+    }
+
+    @Test
+    public void manualDirectionSetsTheSweep() {
+        tracker.setDirection(FACE_DIRECTION.RIGHT);
+        noFace(90);
+
+        assertEquals(Arrays.asList("right 30"), head.moves);
+        assertEquals(FACE_DIRECTION.RIGHT, tracker.getDirection());
+    }
+}
@@ -0,0 +1,146 @@
+package com.painnick.zakuhead5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KeepAliveHttpTransportTest {
+
+    private static final String STREAM_HEAD = "HTTP/1.1 200 OK\r\n"
+            + "Content-Type: multipart/x-mixed-replace;boundary=frame\r\n"
+            + "Transfer-Encoding: chunked\r\n\r\n";
+
+    private ServerSocket server;
+    private Thread serverThread;
+    private KeepAliveHttpTransport transport;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        transport = new KeepAliveHttpTransport("http://127.0.0.1:" + server.getLocalPort());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        transport.close();
+        server.close();
+        if (serverThread != null) {
+            serverThread.join(5000);
+        }
+    }
+
+    /** Answers one request with {@code response}, then closes the connection. */
+    private void respondOnce(String response) {
+        serverThread = new Thread(() -> {
+            try (Socket socket = server.accept()) {
+                InputStream in = socket.getInputStream();
+                // The request ends with an empty line.
+                int matched = 0;
+                while (matched < 4) {
+                    int c = in.read();
+                    if (c == -1) {
+                        return;
+                    }
+                    matched = c == "\r\n\r\n".charAt(matched) ? matched + 1 : (c == '\r' ? 1 : 0);
+                }
+                OutputStream out = socket.getOutputStream();
+                out.write(response.getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+            } catch (IOException e) {
+                // The test closed the server.
+            }
+        }, "fake head");
+        serverThread.start();
+    }
+
+    private static String chunk(String data, String extension) {
+        return Integer.toHexString(data.length()) + extension + "\r\n" + data + "\r\n";
+    }
+
+    private static byte[] readToEnd(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[7];
+        int read;
+        while ((read = in.read(buffer, 0, buffer.length)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void chunkedStreamDropsExtensionsAndTrailers() throws IOException {
+        String body = "--frame\r\nContent-Length: 5\r\n\r\nhello\r\n--frame--\r\n";
+        respondOnce(STREAM_HEAD
+                + chunk(body.substring(0, 12), "")
+                + chunk(body.substring(12, 30), ";name=value")
+                + chunk(body.substring(30), " ; a=\"b\"")
+                + "0;last\r\nX-Checksum: 1234\r\n\r\n");
+
+        try (HttpStream stream = transport.openStream("/stream", ZakuHeadTransport.RequestClass.IMAGE)) {
+            assertEquals(200, stream.status);
+            assertEquals("multipart/x-mixed-replace;boundary=frame", stream.contentType);
+            assertArrayEquals(body.getBytes(StandardCharsets.ISO_8859_1), readToEnd(stream.body));
+            assertEquals(-1, stream.body.read());
+        }
+    }
+
+    @Test
+    public void chunkedStreamFeedsTheMjpegReader() throws IOException {
+        String body = "preamble\r\n--frame\r\nContent-Length: 3\r\n\r\nabc\r\n--frame\r\n\r\nde\r\n--frame--\r\n";
+        StringBuilder chunks = new StringBuilder(STREAM_HEAD);
+        // Chunk boundaries fall inside the part headers, bodies and boundaries.
+        for (int i = 0; i < body.length(); i += 5) {
+            chunks.append(chunk(body.substring(i, Math.min(body.length(), i + 5)), ""));
+        }
+        respondOnce(chunks.append("0\r\n\r\n").toString());
+
+        try (HttpStream stream = transport.openStream("/stream", ZakuHeadTransport.RequestClass.IMAGE)) {
+            MjpegStreamReader reader = new MjpegStreamReader(stream.body,
+                    MjpegStreamReader.parseBoundary(stream.contentType));
+            assertEquals(Arrays.asList("abc", "de"), MjpegStreamReaderTest.readAll(reader));
+        }
+    }
+
+    @Test(expected = EOFException.class)
+    public void chunkedStreamTruncatedMidChunkFails() throws IOException {
+        respondOnce(STREAM_HEAD + "a\r\nabc");
+
+        try (HttpStream stream = transport.openStream("/stream", ZakuHeadTransport.RequestClass.IMAGE)) {
+            readToEnd(stream.body);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void malformedChunkSizeFails() throws IOException {
+        respondOnce(STREAM_HEAD + "xyz\r\nabc\r\n");
+
+        try (HttpStream stream = transport.openStream("/stream", ZakuHeadTransport.RequestClass.IMAGE)) {
+            readToEnd(stream.body);
+        }
+    }
+
+    @Test
+    public void chunkedResponseBodyDropsExtensionsAndTrailers() throws IOException {
+        respondOnce("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + chunk("{\"servo\":", ";x=1") + chunk("90}", "") + "0\r\nX-Checksum: 1234\r\n\r\n");
+
+        HttpResponse response = transport.get("/servo", ZakuHeadTransport.RequestClass.CONTROL);
+
+        assertEquals(200, response.status);
+        assertEquals("{\"servo\":90}", new String(response.body, 0, response.length, StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,51 @@
+package com.painnick.zakuhead5;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class LatestFrameMailboxTest {
+
+    private final LatestFrameMailbox<String> mailbox = new LatestFrameMailbox<>();
+
+    @Test
+    public void newerFrameReplacesTheWaitingOne() {
+        assertNull(mailbox.offer("a", 1));
+        LatestFrameMailbox.Entry<String> replaced = mailbox.offer("b", 2);
+
+        assertEquals("a", replaced.frame);
+        assertEquals(1, replaced.captureNanos);
+        LatestFrameMailbox.Entry<String> taken = mailbox.take();
+        assertEquals("b", taken.frame);
+        assertEquals(2, taken.captureNanos);
+        assertNull(mailbox.take());
+        assertEquals(2, mailbox.getOfferedCount());
+        assertEquals(1, mailbox.getDroppedCount());
+    }
+
+    @Test
+    public void recycledEntriesAreFilledInAgain() {
+        mailbox.offer("a", 1);
+        LatestFrameMailbox.Entry<String> replaced = mailbox.offer("b", 2);
+        LatestFrameMailbox.Entry<String> taken = mailbox.take();
+        mailbox.recycle(replaced);
+        mailbox.recycle(taken);
+
+        assertNull(replaced.frame);
+        assertNull(mailbox.offer("c", 3));
+        LatestFrameMailbox.Entry<String> first = mailbox.take();
+        mailbox.offer("d", 4);
+        LatestFrameMailbox.Entry<String> second = mailbox.take();
+        assertSame(replaced, first);
+        assertSame(taken, second);
+        assertEquals("d", second.frame);
+        assertEquals(4, second.captureNanos);
+
+        // Both spares are in use now.
+        mailbox.offer("e", 5);
+        assertNotSame(first, mailbox.take());
+    }
+}
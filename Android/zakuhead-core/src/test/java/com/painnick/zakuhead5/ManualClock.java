@@ -0,0 +1,19 @@
+package com.painnick.zakuhead5;
+
+/**
+ * A {@link NanoClock} that only moves when the test moves it. Starts far from 0, as {@link System#nanoTime()}
+ * may.
+ */
+final class ManualClock implements NanoClock {
+
+    private long now = 123_456_789_000L;
+
+    @Override
+    public long nanoTime() {
+        return now;
+    }
+
+    void advanceMillis(long millis) {
+        now += millis * 1_000_000L;
+    }
+}
@@ -0,0 +1,115 @@
+package com.painnick.zakuhead5;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MjpegStreamReaderTest {
+
+    private static MjpegStreamReader reader(String stream) {
+        return new MjpegStreamReader(new ByteArrayInputStream(stream.getBytes(StandardCharsets.ISO_8859_1)), "frame");
+    }
+
+    /** Reads parts until the reader reports the end. */
+    static List<String> readAll(MjpegStreamReader reader) throws IOException {
+        List<String> frames = new ArrayList<>();
+        while (reader.readFrame((jpeg, length) ->
+                frames.add(new String(jpeg, 0, length, StandardCharsets.ISO_8859_1)))) {
+        }
+        return frames;
+    }
+
+    @Test
+    public void skipsThePreambleAndReadsPartsWithContentLength() throws IOException {
+        MjpegStreamReader reader = reader("This is a preamble\r\n"
+                + "--frame\r\nContent-Type: image/jpeg\r\nContent-Length: 3\r\n\r\nabc"
+                + "\r\n--frame\r\ncontent-length:  2 \r\n\r\nde"
+                + "\r\n--frame--\r\n");
+
+        assertEquals(Arrays.asList("abc", "de"), readAll(reader));
+        assertFalse(reader.readFrame((jpeg, length) -> fail()));
+    }
+
+    @Test
+    public void scansPartsWithoutContentLengthForTheBoundary() throws IOException {
+        MjpegStreamReader reader = reader("--frame\r\nContent-Type: image/jpeg\r\n\r\nab-c\r\n--fram\r\n-"
+                + "\r\n--frame\r\n\r\nxyz"
+                + "\r\n--frame--\r\n");
+
+        assertEquals(Arrays.asList("ab-c\r\n--fram\r\n-", "xyz"), readAll(reader));
+    }
+
+    @Test
+    public void mixesPartsWithAndWithoutContentLength() throws IOException {
+        MjpegStreamReader reader = reader("--frame\r\nContent-Length: 1\r\n\r\nA"
+                + "\r\n--frame\r\nContent-Type: image/jpeg\r\n\r\nBB"
+                + "\r\n--frame\r\nContent-Length: 3\r\n\r\nCCC"
+                + "\r\n--frame--\r\n");
+
+        assertEquals(Arrays.asList("A", "BB", "CCC"), readAll(reader));
+    }
+
+    @Test
+    public void findsABoundaryThatOverlapsAPartialMatch() throws IOException {
+        // "---frame" first matches "--" and then fails on the third '-', which starts the real boundary.
+        MjpegStreamReader reader = reader("preamble ---frame\r\nContent-Length: 1\r\n\r\nA"
+                + "\r\n----frame\r\nContent-Length: 1\r\n\r\nB"
+                + "\r\n--frame--\r\n");
+
+        assertEquals(Arrays.asList("A", "B"), readAll(reader));
+    }
+
+    @Test
+    public void closingBoundaryAfterAScannedPartEndsTheStream() throws IOException {
+        MjpegStreamReader reader = reader("--frame\r\n\r\nA\r\n--frame--\r\n--frame\r\n\r\nB\r\n");
+
+        assertEquals(Arrays.asList("A"), readAll(reader));
+    }
+
+    @Test
+    public void emptyStreamHasNoFrames() throws IOException {
+        assertEquals(0, readAll(reader("")).size());
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedPartWithContentLengthFails() throws IOException {
+        readAll(reader("--frame\r\nContent-Length: 10\r\n\r\nabc"));
+    }
+
+    @Test
+    public void truncatedScannedPartEndsTheStream() throws IOException {
+        assertEquals(0, readAll(reader("--frame\r\n\r\nabc\r\n--fr")).size());
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedPartHeaderFails() throws IOException {
+        readAll(reader("--frame\r\nContent-Le"));
+    }
+
+    @Test(expected = IOException.class)
+    public void malformedContentLengthFails() throws IOException {
+        readAll(reader("--frame\r\nContent-Length: many\r\n\r\nabc"));
+    }
+
+    @Test
+    public void parsesTheBoundaryParameter() {
+        assertEquals("123456789000000000000987654321", MjpegStreamReader.parseBoundary(
+                "multipart/x-mixed-replace;boundary=123456789000000000000987654321"));
+        assertEquals("frame", MjpegStreamReader.parseBoundary("multipart/x-mixed-replace; Boundary=\"frame\""));
+        assertEquals("frame", MjpegStreamReader.parseBoundary("multipart/x-mixed-replace; boundary=--frame; x=1"));
+        assertNull(MjpegStreamReader.parseBoundary("image/jpeg"));
+        assertNull(MjpegStreamReader.parseBoundary("multipart/x-mixed-replace; boundary=\"\""));
+        assertNull(MjpegStreamReader.parseBoundary(null));
+    }
+}
@@ -0,0 +1,93 @@
+package com.painnick.zakuhead5;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PatchTrackerTest {
+
+    private static final int SIZE = 16;
+    private static final int PATCH = 4;
+    private static final int X = 6;
+    private static final int Y = 6;
+
+    private final Random random = new Random(7);
+    private byte[] patch;
+    private PatchTracker tracker;
+
+    @Before
+    public void setUp() {
+        // Mid-range values, so a test can add to them without wrapping.
+        patch = new byte[PATCH * PATCH];
+        for (int i = 0; i < patch.length; i++) {
+            patch[i] = (byte) (20 + random.nextInt(216));
+        }
+        tracker = new PatchTracker(SIZE, SIZE, 4, 10, 10);
+        byte[] first = noise();
+        paste(first, X, Y, 0, 0);
+        assertTrue(tracker.setTemplate(first, X / (float) SIZE, Y / (float) SIZE,
+                PATCH / (float) SIZE, PATCH / (float) SIZE));
+    }
+
+    private byte[] noise() {
+        byte[] plane = new byte[SIZE * SIZE];
+        random.nextBytes(plane);
+        return plane;
+    }
+
+    /** Pastes the patch at (x, y), with {@code add} added to every pixel of {@code row}. */
+    private void paste(byte[] plane, int x, int y, int row, int add) {
+        for (int r = 0; r < PATCH; r++) {
+            for (int c = 0; c < PATCH; c++) {
+                int value = patch[r * PATCH + c] & 0xff;
+                plane[(y + r) * SIZE + x + c] = (byte) (r == row ? value + add : value);
+            }
+        }
+    }
+
+    @Test
+    public void followsAMovedPatch() {
+        byte[] next = noise();
+        paste(next, X + 3, Y - 2, 0, 0);
+
+        assertTrue(tracker.track(next));
+        assertEquals((X + 3) / (float) SIZE, tracker.getXmin(), 1e-6f);
+        assertEquals((Y - 2) / (float) SIZE, tracker.getYmin(), 1e-6f);
+        assertEquals(0, tracker.getLastMeanDifference());
+    }
+
+    @Test
+    public void equalMatchesPreferTheSmallerMove() {
+        byte[] next = noise();
+        paste(next, X - 4, Y, 3, 10);
+        paste(next, X, Y, 3, 10);
+
+        assertTrue(tracker.track(next));
+        assertEquals(X / (float) SIZE, tracker.getXmin(), 1e-6f);
+    }
+
+    @Test
+    public void closerMatchThatOnlyTiesOnAPartialSumLoses() {
+        byte[] next = noise();
+        // Scanned first: SAD 40 in all.
+        paste(next, X - 4, Y, 3, 10);
+        // Scanned later and closer: SAD 40 after the first row, 40 + 20 in all.
+        paste(next, X, Y, 0, 10);
+        next[(Y + 1) * SIZE + X] += 20;
+
+        assertTrue(tracker.track(next));
+        assertEquals((X - 4) / (float) SIZE, tracker.getXmin(), 1e-6f);
+        assertEquals(40 / (PATCH * PATCH), tracker.getLastMeanDifference());
+    }
+
+    @Test
+    public void poorMatchEndsTheTrack() {
+        assertFalse(tracker.track(noise()));
+        assertFalse(tracker.isTracking());
+    }
+}
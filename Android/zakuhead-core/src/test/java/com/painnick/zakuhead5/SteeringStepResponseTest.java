@@ -0,0 +1,150 @@
+package com.painnick.zakuhead5;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+import org.junit.Test;
+
+/**
+ * Step response limits of the steerings the app uses, the compensated PID with and without the predictor. The
+ * face jumps to a new bearing at t=0 and the head follows it in a closed loop: frames at 15 fps, results after
+ * the capture-to-result latency, commands after the command latency, and a servo of limited speed. The same
+ * model as loadtest's SteeringSimulation, which also compares the other steerings and moving faces.
+ */
+public class SteeringStepResponseTest {
+
+    private static final double FOV_DEGREES = 66;
+    private static final double FRAME_MILLIS = 1000.0 / 15;
+    // MG90S class servo: about 0.1 s per 60 degrees.
+    private static final double SERVO_DEGREES_PER_MILLI = 0.6;
+    private static final long DURATION_MILLIS = 6000;
+    // The 0.4-0.6 window of the frame, in degrees.
+    private static final double CENTERED_DEGREES = 0.1 * FOV_DEGREES;
+    private static final double MAX_TIME_TO_CENTER_MILLIS = 1500;
+    private static final double MAX_OVERSHOOT_DEGREES = 8;
+
+    private static final long[][] LATENCIES = {{150, 20}, {300, 40}, {500, 80}};
+    // Up to 30 degrees off, so the face starts inside the field of view.
+    private static final double[] FACE_ANGLES = {100, 110, 120};
+
+    private interface TrackerFactory {
+        FaceTracker create(FaceTracker.Head head, NanoClock clock);
+    }
+
+    @Test
+    public void pidCentersInTimeWithoutOvershooting() {
+        assertWithinLimits("pid", (head, clock) ->
+                new FaceTracker(head, new FaceTracker.Config(), new PidSteering(), clock));
+    }
+
+    @Test
+    public void pidWithPredictorCentersInTimeWithoutOvershooting() {
+        assertWithinLimits("pid+kalman", (head, clock) ->
+                new FaceTracker(head, new FaceTracker.Config(), new PidSteering(), new TargetPredictor(), clock));
+    }
+
+    private static void assertWithinLimits(String name, TrackerFactory factory) {
+        for (long[] latency : LATENCIES) {
+            for (double faceAngle : FACE_ANGLES) {
+                double[] result = stepResponse(factory, faceAngle, latency[0], latency[1]);
+                String description = String.format(Locale.US, "%s to %.0fdeg at %d+%dms: centered after %s,"
+                                + " overshot %.1fdeg", name, faceAngle, latency[0], latency[1],
+                        Double.isNaN(result[0]) ? "never" : String.format(Locale.US, "%.0fms", result[0]),
+                        result[1]);
+                assertTrue(description, result[0] <= MAX_TIME_TO_CENTER_MILLIS);
+                assertTrue(description, result[1] <= MAX_OVERSHOOT_DEGREES);
+            }
+        }
+    }
+
+    /**
+     * @return {time until the face stays centered, or NaN; overshoot in degrees}.
+     */
+    private static double[] stepResponse(TrackerFactory factory, double faceAngle,
+                                         long resultLatencyMillis, long commandLatencyMillis) {
+        long[] now = {0};
+        // {due millis, degrees}
+        ArrayDeque<long[]> commands = new ArrayDeque<>();
+        FaceTracker tracker = factory.create(new FaceTracker.Head() {
+            @Override
+            public void moveLeft(int degree, boolean found) {
+                send(degree);
+            }
+
+            @Override
+            public void moveRight(int degree, boolean found) {
+                send(-degree);
+            }
+
+            private void send(int degrees) {
+                if (degrees != 0) {
+                    commands.add(new long[]{now[0] / 1_000_000L + commandLatencyMillis, degrees});
+                }
+            }
+
+            @Override
+            public void ledOn(boolean forced) {
+            }
+
+            @Override
+            public void ledOff(boolean forced) {
+            }
+        }, () -> now[0]);
+        tracker.setCommandLeadMillis(commandLatencyMillis);
+
+        double cameraAngle = 90;
+        int servoTarget = 90;
+        int reportedAngle = 90;
+        // {due millis, capture millis, center * 1e6 or -1}
+        ArrayDeque<long[]> results = new ArrayDeque<>();
+        // {due millis, angle}
+        ArrayDeque<long[]> reports = new ArrayDeque<>();
+        double initialSign = Math.signum(faceAngle - cameraAngle);
+        long centeredSince = -1;
+        double overshoot = 0;
+        double nextFrame = 0;
+
+        for (long t = 0; t <= DURATION_MILLIS; t++) {
+            now[0] = t * 1_000_000L;
+            if (t >= nextFrame) {
+                nextFrame += FRAME_MILLIS;
+                double center = 0.5 - (faceAngle - cameraAngle) / FOV_DEGREES;
+                boolean visible = center >= 0 && center <= 1;
+                results.add(new long[]{t + resultLatencyMillis, t, visible ? Math.round(center * 1e6) : -1});
+            }
+            while (!results.isEmpty() && results.peek()[0] <= t) {
+                long[] frame = results.poll();
+                if (frame[2] >= 0) {
+                    tracker.onFace((float) (frame[2] / 1e6), frame[1] * 1_000_000L, reportedAngle);
+                } else {
+                    tracker.onNoFace(frame[1] * 1_000_000L, reportedAngle);
+                }
+            }
+            while (!commands.isEmpty() && commands.peek()[0] <= t) {
+                servoTarget = Math.max(10, Math.min(170, servoTarget + (int) commands.poll()[1]));
+                // The response carries the new angle back over the same link.
+                reports.add(new long[]{t + commandLatencyMillis, servoTarget});
+            }
+            while (!reports.isEmpty() && reports.peek()[0] <= t) {
+                reportedAngle = (int) reports.poll()[1];
+            }
+            double step = Math.min(SERVO_DEGREES_PER_MILLI, Math.abs(servoTarget - cameraAngle));
+            cameraAngle += Math.signum(servoTarget - cameraAngle) * step;
+
+            double error = faceAngle - cameraAngle;
+            if (Math.signum(error) == -initialSign) {
+                overshoot = Math.max(overshoot, Math.abs(error));
+            }
+            if (Math.abs(error) <= CENTERED_DEGREES) {
+                if (centeredSince < 0) {
+                    centeredSince = t;
+                }
+            } else {
+                centeredSince = -1;
+            }
+        }
+        return new double[]{centeredSince >= 0 ? centeredSince : Double.NaN, overshoot};
+    }
+}
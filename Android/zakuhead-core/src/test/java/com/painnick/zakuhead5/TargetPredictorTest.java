@@ -0,0 +1,91 @@
+package com.painnick.zakuhead5;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TargetPredictorTest {
+
+    private static final float FOV = 66f;
+    private static final int CAMERA = 100;
+    private static final long FRAME_NANOS = 1_000_000_000L / 15;
+    private static final long MILLIS = 1_000_000L;
+
+    private final TargetPredictor predictor = new TargetPredictor();
+
+    private static float centerOf(double bearing) {
+        return (float) (0.5 - (bearing - CAMERA) / FOV);
+    }
+
+    private static double bearingOf(float center) {
+        return CAMERA + (0.5 - center) * FOV;
+    }
+
+    /** Feeds two seconds of a face turning at {@code speed} deg/s from 80 degrees; returns the last capture. */
+    private long follow(double speed) {
+        long t = 0;
+        for (int frame = 0; frame < 30; frame++) {
+            t = frame * FRAME_NANOS;
+            predictor.update(centerOf(80 + speed * t / 1e9), CAMERA, t);
+        }
+        return t;
+    }
+
+    @Test
+    public void leadsAConstantVelocityTarget() {
+        long last = follow(20);
+        long at = last + 300 * MILLIS;
+
+        assertEquals(20, predictor.getVelocity(), 0.5);
+        double expected = 80 + 20 * at / 1e9;
+        assertEquals(expected, bearingOf(predictor.predictCenter(CAMERA, at)), 0.5);
+        // Aiming at the last detection would be 6 degrees behind.
+        assertTrue(Math.abs(expected - bearingOf(centerOf(80 + 20 * last / 1e9))) > 5);
+    }
+
+    @Test
+    public void leadIsCappedAtMaxLead() {
+        long last = follow(20);
+        float atCap = predictor.predictCenter(CAMERA, last + 500 * MILLIS);
+
+        assertEquals(atCap, predictor.predictCenter(CAMERA, last + 900 * MILLIS), 1e-6f);
+    }
+
+    @Test
+    public void coastingStopsAfterMaxCoast() {
+        long last = follow(20);
+
+        assertTrue(predictor.isTracking(last + 400 * MILLIS));
+        assertFalse(predictor.isTracking(last + 400 * MILLIS + 1));
+    }
+
+    @Test
+    public void reseedsAfterAGap() {
+        long last = follow(20);
+        long back = last + 401 * MILLIS;
+        predictor.update(centerOf(95), CAMERA, back);
+
+        assertTrue(predictor.isTracking(back));
+        assertEquals(0, predictor.getVelocity(), 0);
+        assertEquals(95, bearingOf(predictor.predictCenter(CAMERA, back + 300 * MILLIS)), 1e-3);
+    }
+
+    @Test
+    public void keepsTheVelocityWithinTheCoast() {
+        long last = follow(20);
+        long back = last + 400 * MILLIS;
+        predictor.update(centerOf(80 + 20 * back / 1e9), CAMERA, back);
+
+        assertEquals(20, predictor.getVelocity(), 0.5);
+    }
+
+    @Test
+    public void resetStopsTracking() {
+        long last = follow(20);
+        predictor.reset();
+
+        assertFalse(predictor.isTracking(last));
+    }
+}
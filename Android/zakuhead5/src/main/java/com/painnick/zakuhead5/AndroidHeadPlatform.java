@@ -0,0 +1,72 @@
+package com.painnick.zakuhead5;
+
+import android.graphics.Bitmap;
+import android.net.TrafficStats;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Runs the heads on Android: handler threads, bitmap frames from one {@link BitmapPool}, and the process's CPU
+ * time and traffic for the duty cycle. Routes {@link HeadLog} to logcat.
+ */
+public class AndroidHeadPlatform implements HeadPlatform<Bitmap> {
+    // Enough for a few frames of one head in flight; give several heads more.
+    public static final long DEFAULT_POOL_BYTES = 8 * 1024 * 1024;
+    public static final long REGISTRY_POOL_BYTES = 24 * 1024 * 1024;
+
+    private static final DutyCycle.Usage PROCESS_USAGE = new DutyCycle.Usage() {
+        @Override
+        public long cpuMillis() {
+            return Process.getElapsedCpuTime();
+        }
+
+        @Override
+        public long networkBytes() {
+            long rx = TrafficStats.getUidRxBytes(Process.myUid());
+            long tx = TrafficStats.getUidTxBytes(Process.myUid());
+            return rx == TrafficStats.UNSUPPORTED || tx == TrafficStats.UNSUPPORTED ? 0 : rx + tx;
+        }
+    };
+
+    static {
+        HeadLog.setSink(Log::println);
+    }
+
+    private final BitmapPool bitmapPool;
+
+    public AndroidHeadPlatform() {
+        this(DEFAULT_POOL_BYTES);
+    }
+
+    public AndroidHeadPlatform(long poolBytes) {
+        bitmapPool = new BitmapPool(poolBytes);
+    }
+
+    /**
+     * Urgent threads send the servo and LED commands and run at display priority.
+     */
+    @Override
+    public SerialExecutor newExecutor(String name, boolean urgent) {
+        return new SingleThreadHandlerExecutor(name,
+                urgent ? Process.THREAD_PRIORITY_DISPLAY : Process.THREAD_PRIORITY_DEFAULT);
+    }
+
+    @Override
+    public FrameCodec<Bitmap> newCodec(PipelineMetrics metrics) {
+        return new FrameDecoder(bitmapPool, metrics);
+    }
+
+    @Override
+    public DutyCycle.Usage getUsage() {
+        return PROCESS_USAGE;
+    }
+
+    public BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
+    @Override
+    public String toString() {
+        return bitmapPool.toString();
+    }
+}
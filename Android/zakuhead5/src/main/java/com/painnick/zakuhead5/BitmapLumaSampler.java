@@ -0,0 +1,51 @@
+package com.painnick.zakuhead5;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/**
+ * {@link LumaSampler} of Android bitmaps: draws the frame scaled down into a small bitmap and weighs its pixels.
+ * Reuses its buffers; not thread safe.
+ */
+public class BitmapLumaSampler implements LumaSampler<Bitmap> {
+
+    private final int width;
+    private final int height;
+    private final Bitmap small;
+    private final Canvas canvas;
+    private final Rect destination;
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final int[] pixels;
+
+    public BitmapLumaSampler(int width, int height) {
+        this.width = width;
+        this.height = height;
+        small = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        canvas = new Canvas(small);
+        destination = new Rect(0, 0, width, height);
+        pixels = new int[width * height];
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void sample(Bitmap frame, byte[] luma) {
+        canvas.drawBitmap(frame, null, destination, paint);
+        small.getPixels(pixels, 0, width, 0, 0, width, height);
+        for (int i = 0; i < pixels.length; i++) {
+            int c = pixels[i];
+            // BT.601 weights in 8-bit fixed point.
+            luma[i] = (byte) ((((c >> 16) & 0xff) * 77 + ((c >> 8) & 0xff) * 150 + (c & 0xff) * 29) >> 8);
+        }
+    }
+}
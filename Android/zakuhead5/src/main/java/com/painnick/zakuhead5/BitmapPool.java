@@ -0,0 +1,142 @@
+package com.painnick.zakuhead5;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Bounded pool of mutable bitmaps, keyed by width, height and config.
+ * <p>
+ * Frames from the head are all the same size, so decode and rotate can keep drawing into the same few
+ * bitmaps instead of allocating several full-size bitmaps per frame.
+ */
+public class BitmapPool {
+
+    private static class Bucket {
+        final int width;
+        final int height;
+        final Bitmap.Config config;
+        final ArrayDeque<Bitmap> bitmaps = new ArrayDeque<>();
+
+        Bucket(int width, int height, Bitmap.Config config) {
+            this.width = width;
+            this.height = height;
+            this.config = config;
+        }
+    }
+
+    private final long maxPooledBytes;
+
+    // Guarded by this. Only a handful of sizes ever show up, so a list beats a map and does not box keys.
+    private final ArrayList<Bucket> buckets = new ArrayList<>();
+    private long pooledBytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long allocatedBytes = 0;
+    private long frames = 0;
+
+    public BitmapPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    /**
+     * Returns a pooled bitmap of exactly this size and config, or null on a miss. The content is undefined.
+     */
+    public synchronized Bitmap take(int width, int height, Bitmap.Config config) {
+        Bucket bucket = findBucket(width, height, config, false);
+        Bitmap bitmap = bucket == null ? null : bucket.bitmaps.pollLast();
+        if (bitmap == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        pooledBytes -= bitmap.getAllocationByteCount();
+        return bitmap;
+    }
+
+    /**
+     * Like {@link #take}, but allocates a new bitmap on a miss.
+     */
+    public Bitmap acquire(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = take(width, height, config);
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, config);
+            onAllocated(bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Records a bitmap allocated outside the pool, e.g. by a decode that could not reuse one.
+     */
+    public synchronized void onAllocated(Bitmap bitmap) {
+        allocatedBytes += bitmap.getAllocationByteCount();
+    }
+
+    /**
+     * Gives a bitmap back. The caller must not touch it afterwards.
+     */
+    public void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        if (bitmap.isMutable()) {
+            synchronized (this) {
+                int size = bitmap.getAllocationByteCount();
+                if (pooledBytes + size <= maxPooledBytes) {
+                    findBucket(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig(), true).bitmaps.addLast(bitmap);
+                    pooledBytes += size;
+                    return;
+                }
+            }
+        }
+        bitmap.recycle();
+    }
+
+    /**
+     * Marks the end of one frame, for {@link #getAllocatedBytesPerFrame()}.
+     */
+    public synchronized void onFrame() {
+        frames++;
+    }
+
+    private Bucket findBucket(int width, int height, Bitmap.Config config, boolean create) {
+        for (int i = 0; i < buckets.size(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket.width == width && bucket.height == height && bucket.config == config) {
+                return bucket;
+            }
+        }
+        if (!create) {
+            return null;
+        }
+        Bucket bucket = new Bucket(width, height, config);
+        buckets.add(bucket);
+        return bucket;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public synchronized long getAllocatedBytesPerFrame() {
+        return frames == 0 ? 0 : allocatedBytes / frames;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "bitmaps: hits=%d misses=%d allocated=%dKB (%dKB/frame) pooled=%dKB",
+                hits, misses, allocatedBytes / 1024, getAllocatedBytesPerFrame() / 1024, pooledBytes / 1024);
+    }
+}
@@ -20,14 +20,16 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Matrix;
 import android.graphics.Paint;
 import androidx.appcompat.widget.AppCompatImageView;
 import com.google.mediapipe.formats.proto.DetectionProto.Detection;
 import com.google.mediapipe.solutions.facedetection.FaceDetectionResult;
 import com.google.mediapipe.solutions.facedetection.FaceKeypoint;
 
-/** An ImageView implementation for displaying {@link FaceDetectionResult}. */
+/**
+ * An ImageView implementation for displaying {@link FaceDetectionResult}. Kept to compare against
+ * {@link FaceDetectionResultSurfaceView}, which replaces it.
+ */
 public class FaceDetectionResultImageView extends AppCompatImageView {
   private static final String TAG = "FaceDetectionResultImageView";
 
@@ -36,12 +38,18 @@ public class FaceDetectionResultImageView extends AppCompatImageView {
   private static final int BBOX_COLOR = Color.GREEN;
   private static final int BBOX_THICKNESS = 5; // Pixels
   private Bitmap latest;
+  private PipelineMetrics metrics;
 
   public FaceDetectionResultImageView(Context context) {
     super(context);
     setScaleType(ScaleType.FIT_CENTER);
   }
 
+  /** Records the RENDER time of every result, if not null. */
+  public void setMetrics(PipelineMetrics metrics) {
+    this.metrics = metrics;
+  }
+
   /**
    * Sets a {@link FaceDetectionResult} to render.
    *
@@ -52,20 +60,21 @@ public class FaceDetectionResultImageView extends AppCompatImageView {
     if (result == null) {
       return;
     }
+    long startedAt = System.nanoTime();
     Bitmap bmInput = result.inputBitmap();
     int width = bmInput.getWidth();
     int height = bmInput.getHeight();
-    latest = Bitmap.createBitmap(width, height, bmInput.getConfig());
+    // MediaPipe hands out a fresh mutable bitmap per result, so the overlay can be drawn on it in place.
+    latest = bmInput.isMutable() ? bmInput : bmInput.copy(Bitmap.Config.ARGB_8888, true);
     Canvas canvas = new Canvas(latest);
 
-    canvas.drawBitmap(bmInput, new Matrix(), null);
     int numDetectedFaces = result.multiFaceDetections().size();
     for (int i = 0; i < numDetectedFaces; ++i) {
       drawDetectionOnCanvas(result.multiFaceDetections().get(i), canvas, width, height);
     }
-
-    // 좌우 전환
-    canvas.scale(-1, 1, width, height);
+    if (metrics != null) {
+      metrics.record(PipelineMetrics.Stage.RENDER, System.nanoTime() - startedAt);
+    }
   }
 
   /** Updates the image view with the latest {@link FaceDetectionResult}. */
@@ -0,0 +1,266 @@
+package com.painnick.zakuhead5;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.Build;
+import android.os.Process;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import com.google.mediapipe.formats.proto.DetectionProto.Detection;
+import com.google.mediapipe.formats.proto.LocationDataProto.LocationData;
+import com.google.mediapipe.solutions.facedetection.FaceDetectionResult;
+import com.google.mediapipe.solutions.facedetection.FaceKeypoint;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Preview of the detector's input frames and results, drawn on a render thread of its own.
+ * <p>
+ * The result callback only copies the boxes and keypoints into a recycled {@link RenderFrame} and hands it
+ * over through a {@link LatestFrameMailbox}; the input bitmap itself is drawn as is, scaled into the surface.
+ * The render thread draws the newest frame with a hardware canvas where available, and posting it waits for
+ * the display's buffer queue, so frames that come faster than the display refreshes are replaced in the
+ * mailbox and never drawn. The UI thread is not involved at all.
+ */
+public class FaceDetectionResultSurfaceView extends SurfaceView implements SurfaceHolder.Callback {
+
+    private static final String TAG = "FaceDetectionResultSurfaceView";
+
+    private static final int KEYPOINT_COLOR = Color.RED;
+    private static final int KEYPOINT_RADIUS = 8; // Pixels of the input frame
+    private static final int BBOX_COLOR = Color.GREEN;
+    private static final int BBOX_THICKNESS = 5; // Pixels of the input frame
+    private static final int MAX_FACES = 8;
+
+    /**
+     * One frame to draw: the detector's input and its results in relative coordinates.
+     */
+    static final class RenderFrame {
+        Bitmap bitmap;
+        int faces;
+        // xmin, ymin, width, height per face; NaN xmin when the face has no box.
+        final float[] boxes = new float[MAX_FACES * 4];
+        // x, y per keypoint per face; count in keypointCounts.
+        final float[] keypoints = new float[MAX_FACES * FaceKeypoint.NUM_KEY_POINTS * 2];
+        final int[] keypointCounts = new int[MAX_FACES];
+    }
+
+    private final SingleThreadHandlerExecutor renderExecutor =
+            new SingleThreadHandlerExecutor("PreviewRenderer", Process.THREAD_PRIORITY_DISPLAY);
+    private final LatestFrameMailbox<RenderFrame> mailbox = new LatestFrameMailbox<>();
+    // Enough for one frame being filled, one waiting and one being drawn. Guarded by itself.
+    private final ArrayDeque<RenderFrame> freeFrames = new ArrayDeque<>();
+    private final Runnable drawTask = this::draw;
+
+    private final Paint bitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint keypointPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint bboxPaint = new Paint();
+    // Only touched on the render thread.
+    private final RectF destination = new RectF();
+
+    // Guards the surface: it must not be drawn on once surfaceDestroyed() has returned.
+    private final Object surfaceLock = new Object();
+    private boolean surfaceReady = false;
+    private int surfaceWidth;
+    private int surfaceHeight;
+
+    private PipelineMetrics metrics;
+    private volatile long drawn = 0;
+
+    public FaceDetectionResultSurfaceView(Context context) {
+        super(context);
+        for (int i = 0; i < 3; i++) {
+            freeFrames.add(new RenderFrame());
+        }
+        keypointPaint.setColor(KEYPOINT_COLOR);
+        bboxPaint.setColor(BBOX_COLOR);
+        bboxPaint.setStyle(Paint.Style.STROKE);
+        getHolder().addCallback(this);
+    }
+
+    /**
+     * Records the RENDER time of every drawn frame, if not null.
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Queues a result for drawing. Called on the detector's callback thread; returns without waiting for the
+     * render thread.
+     */
+    public void setFaceDetectionResult(FaceDetectionResult result) {
+        if (result == null) {
+            return;
+        }
+        RenderFrame frame = acquireFrame();
+        // MediaPipe hands out a fresh bitmap per result, so it can be drawn later without a copy.
+        frame.bitmap = result.inputBitmap();
+        frame.faces = Math.min(result.multiFaceDetections().size(), MAX_FACES);
+        for (int i = 0; i < frame.faces; i++) {
+            copyDetection(result.multiFaceDetections().get(i), frame, i);
+        }
+        LatestFrameMailbox.Entry<RenderFrame> replaced = mailbox.offer(frame, System.nanoTime());
+        if (replaced != null) {
+            // The render thread did not get to it before this one came. Never drawn.
+            releaseFrame(replaced.frame);
+            mailbox.recycle(replaced);
+        }
+        try {
+            renderExecutor.execute(drawTask);
+        } catch (RejectedExecutionException e) {
+            // A result that raced onDetachedFromWindow(). Nothing draws any more.
+        }
+    }
+
+    private static void copyDetection(Detection detection, RenderFrame frame, int face) {
+        frame.boxes[face * 4] = Float.NaN;
+        frame.keypointCounts[face] = 0;
+        if (!detection.hasLocationData()) {
+            return;
+        }
+        LocationData location = detection.getLocationData();
+        int keypoints = Math.min(location.getRelativeKeypointsCount(), FaceKeypoint.NUM_KEY_POINTS);
+        int offset = face * FaceKeypoint.NUM_KEY_POINTS * 2;
+        for (int i = 0; i < keypoints; i++) {
+            frame.keypoints[offset + i * 2] = location.getRelativeKeypoints(i).getX();
+            frame.keypoints[offset + i * 2 + 1] = location.getRelativeKeypoints(i).getY();
+        }
+        frame.keypointCounts[face] = keypoints;
+        if (location.hasRelativeBoundingBox()) {
+            LocationData.RelativeBoundingBox box = location.getRelativeBoundingBox();
+            frame.boxes[face * 4] = box.getXmin();
+            frame.boxes[face * 4 + 1] = box.getYmin();
+            frame.boxes[face * 4 + 2] = box.getWidth();
+            frame.boxes[face * 4 + 3] = box.getHeight();
+        }
+    }
+
+    private RenderFrame acquireFrame() {
+        synchronized (freeFrames) {
+            RenderFrame frame = freeFrames.pollLast();
+            return frame != null ? frame : new RenderFrame();
+        }
+    }
+
+    private void releaseFrame(RenderFrame frame) {
+        frame.bitmap = null;
+        synchronized (freeFrames) {
+            freeFrames.addLast(frame);
+        }
+    }
+
+    private void draw() {
+        LatestFrameMailbox.Entry<RenderFrame> entry = mailbox.take();
+        if (entry == null) {
+            return;
+        }
+        RenderFrame frame = entry.frame;
+        long startedAt = System.nanoTime();
+        try {
+            synchronized (surfaceLock) {
+                if (!surfaceReady || frame.bitmap == null) {
+                    return;
+                }
+                SurfaceHolder holder = getHolder();
+                boolean hardware = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+                Canvas canvas = hardware ? holder.getSurface().lockHardwareCanvas() : holder.lockCanvas();
+                if (canvas == null) {
+                    return;
+                }
+                try {
+                    drawFrame(canvas, frame);
+                } finally {
+                    // Blocks while both buffers are queued, which paces drawing to the display.
+                    if (hardware) {
+                        holder.getSurface().unlockCanvasAndPost(canvas);
+                    } else {
+                        holder.unlockCanvasAndPost(canvas);
+                    }
+                }
+            }
+            drawn++;
+            if (metrics != null) {
+                metrics.record(PipelineMetrics.Stage.RENDER, System.nanoTime() - startedAt);
+            }
+        } finally {
+            releaseFrame(frame);
+            mailbox.recycle(entry);
+        }
+    }
+
+    private void drawFrame(Canvas canvas, RenderFrame frame) {
+        int bitmapWidth = frame.bitmap.getWidth();
+        int bitmapHeight = frame.bitmap.getHeight();
+        // Fit center, as the ImageView did.
+        float scale = Math.min(surfaceWidth / (float) bitmapWidth, surfaceHeight / (float) bitmapHeight);
+        float width = bitmapWidth * scale;
+        float height = bitmapHeight * scale;
+        destination.left = (surfaceWidth - width) / 2;
+        destination.top = (surfaceHeight - height) / 2;
+        destination.right = destination.left + width;
+        destination.bottom = destination.top + height;
+
+        canvas.drawColor(Color.BLACK);
+        canvas.drawBitmap(frame.bitmap, null, destination, bitmapPaint);
+
+        bboxPaint.setStrokeWidth(BBOX_THICKNESS * scale);
+        for (int face = 0; face < frame.faces; face++) {
+            int offset = face * FaceKeypoint.NUM_KEY_POINTS * 2;
+            for (int i = 0; i < frame.keypointCounts[face]; i++) {
+                canvas.drawCircle(destination.left + frame.keypoints[offset + i * 2] * width,
+                        destination.top + frame.keypoints[offset + i * 2 + 1] * height,
+                        KEYPOINT_RADIUS * scale, keypointPaint);
+            }
+            float xmin = frame.boxes[face * 4];
+            if (Float.isNaN(xmin)) {
+                continue;
+            }
+            float left = destination.left + xmin * width;
+            float top = destination.top + frame.boxes[face * 4 + 1] * height;
+            canvas.drawRect(left, top, left + frame.boxes[face * 4 + 2] * width,
+                    top + frame.boxes[face * 4 + 3] * height, bboxPaint);
+        }
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        synchronized (surfaceLock) {
+            surfaceWidth = width;
+            surfaceHeight = height;
+            surfaceReady = true;
+        }
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        // Waits for a frame being drawn.
+        synchronized (surfaceLock) {
+            surfaceReady = false;
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        // The surface is destroyed before the view is detached, so the render thread has stopped drawing. The view
+        // is not attached again; MainActivity makes a new one.
+        super.onDetachedFromWindow();
+        renderExecutor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "preview: drawn=%d dropped=%d", drawn, mailbox.getDroppedCount());
+    }
+}
@@ -0,0 +1,300 @@
+package com.painnick.zakuhead5;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * {@link FrameCodec} of Android bitmaps: decodes JPEG frames from the head into pooled bitmaps, at no more
+ * resolution than the consumers need.
+ * <p>
+ * The short-range face model looks at a 128x128 tensor, so a VGA or larger frame can be decoded with an
+ * {@code inSampleSize} of 2 or more when nothing else needs the pixels. The JPEG decoder then skips most of
+ * the IDCT work and the bitmap is a quarter of the size or less. Decode time and bytes are recorded per
+ * source size, so the effect of each camera framesize can be compared.
+ */
+public class FrameDecoder implements FrameCodec<Bitmap> {
+
+    /**
+     * Decode counters for one source resolution and sample size.
+     */
+    public static class SizeStats {
+        public final int sourceWidth;
+        public final int sourceHeight;
+        public final int sampleSize;
+        // Actual decoded size, learned from the first decode. Used to pick a matching pooled bitmap.
+        int decodedWidth;
+        int decodedHeight;
+        long frames;
+        long decodeNanos;
+        long jpegBytes;
+        long bitmapBytes;
+
+        SizeStats(int sourceWidth, int sourceHeight, int sampleSize) {
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+            this.sampleSize = sampleSize;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%dx%d/%d -> %dx%d: frames=%d decode=%.2fms jpeg=%dKB bitmap=%dKB",
+                    sourceWidth, sourceHeight, sampleSize, decodedWidth, decodedHeight, frames,
+                    frames == 0 ? 0 : decodeNanos / 1e6 / frames,
+                    frames == 0 ? 0 : jpegBytes / 1024 / frames,
+                    frames == 0 ? 0 : bitmapBytes / 1024 / frames);
+        }
+    }
+
+    /**
+     * What one decode needs besides the bitmaps, kept for the next one.
+     */
+    private static final class Scratch {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        final Matrix matrix = new Matrix();
+        final Canvas canvas = new Canvas();
+    }
+
+    private final BitmapPool bitmapPool;
+    private final PipelineMetrics metrics;
+
+    // The image lanes may decode at the same time. A decode takes the spare, or makes its own when another
+    // decode has it, and leaves its scratch as the spare.
+    private final AtomicReference<Scratch> spareScratch = new AtomicReference<>();
+
+    private volatile int minWidth = 0;
+    private volatile int minHeight = 0;
+
+    // Guarded by itself.
+    private final ArrayList<SizeStats> sizeStats = new ArrayList<>();
+
+    // Reused by decodeSignature(). Guarded by this.
+    private Bitmap signatureBitmap;
+    private int[] signaturePixels = new int[0];
+    private final BitmapFactory.Options signatureOptions = new BitmapFactory.Options();
+
+    public FrameDecoder(BitmapPool bitmapPool) {
+        this(bitmapPool, null);
+    }
+
+    /**
+     * @param metrics receives the DECODE and ROTATE times, or null.
+     */
+    public FrameDecoder(BitmapPool bitmapPool, PipelineMetrics metrics) {
+        this.metrics = metrics;
+        this.bitmapPool = bitmapPool;
+    }
+
+    /**
+     * The decoder picks the largest power-of-two sample size that keeps the frame at least this big.
+     */
+    @Override
+    public void setTargetSize(int minWidth, int minHeight) {
+        this.minWidth = minWidth;
+        this.minHeight = minHeight;
+    }
+
+    /**
+     * @return a pooled bitmap, or null when the JPEG could not be decoded.
+     */
+    @Override
+    public Bitmap decode(byte[] jpeg, int length, int rotation) {
+        Scratch scratch = spareScratch.getAndSet(null);
+        if (scratch == null) {
+            scratch = new Scratch();
+        }
+        try {
+            return decode(jpeg, length, rotation, scratch);
+        } finally {
+            // The bitmap went out with the frame or back to the pool.
+            scratch.options.inBitmap = null;
+            spareScratch.set(scratch);
+        }
+    }
+
+    private Bitmap decode(byte[] jpeg, int length, int rotation, Scratch scratch) {
+        long startedAt = System.nanoTime();
+        BitmapFactory.Options options = scratch.options;
+        options.inJustDecodeBounds = true;
+        // With a sample size, the bounds would come out sampled.
+        options.inSampleSize = 1;
+        options.inBitmap = null;
+        options.outWidth = 0;
+        options.outHeight = 0;
+        BitmapFactory.decodeByteArray(jpeg, 0, length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = sampleSizeFor(options.outWidth, options.outHeight);
+        SizeStats stats = statsFor(options.outWidth, options.outHeight, sampleSize);
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        int expectedWidth;
+        int expectedHeight;
+        synchronized (stats) {
+            expectedWidth = stats.decodedWidth;
+            expectedHeight = stats.decodedHeight;
+        }
+        if (expectedWidth > 0) {
+            options.inBitmap = bitmapPool.take(expectedWidth, expectedHeight, Bitmap.Config.ARGB_8888);
+        }
+        Bitmap decoded;
+        try {
+            decoded = BitmapFactory.decodeByteArray(jpeg, 0, length, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap could not be reused for this JPEG.
+            bitmapPool.release(options.inBitmap);
+            options.inBitmap = null;
+            decoded = BitmapFactory.decodeByteArray(jpeg, 0, length, options);
+        }
+        if (decoded != options.inBitmap) {
+            bitmapPool.release(options.inBitmap);
+            if (decoded != null) {
+                bitmapPool.onAllocated(decoded);
+            }
+        }
+        if (decoded == null) {
+            return null;
+        }
+        long decodedAt = System.nanoTime();
+        if (metrics != null) {
+            metrics.record(PipelineMetrics.Stage.DECODE, decodedAt - startedAt);
+        }
+        synchronized (stats) {
+            stats.decodedWidth = decoded.getWidth();
+            stats.decodedHeight = decoded.getHeight();
+            stats.frames++;
+            stats.decodeNanos += decodedAt - startedAt;
+            stats.jpegBytes += length;
+            stats.bitmapBytes += decoded.getByteCount();
+        }
+        if (rotation == 0) {
+            return decoded;
+        }
+        Bitmap rotated = rotate(decoded, rotation, scratch);
+        bitmapPool.release(decoded);
+        if (metrics != null) {
+            metrics.record(PipelineMetrics.Stage.ROTATE, System.nanoTime() - decodedAt);
+        }
+        return rotated;
+    }
+
+    /**
+     * Decodes the JPEG at 1/8 scale, where the decoder only needs the DC coefficient of each block, and
+     * averages it into a {@link SceneChangeGate} signature.
+     */
+    @Override
+    public synchronized boolean decodeSignature(byte[] jpeg, int length, byte[] signature, int width, int height) {
+        long startedAt = System.nanoTime();
+        BitmapFactory.Options options = signatureOptions;
+        options.inSampleSize = 8;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inBitmap = signatureBitmap;
+        Bitmap decoded;
+        try {
+            decoded = BitmapFactory.decodeByteArray(jpeg, 0, length, options);
+        } catch (IllegalArgumentException e) {
+            // The framesize changed.
+            options.inBitmap = null;
+            decoded = BitmapFactory.decodeByteArray(jpeg, 0, length, options);
+        }
+        if (decoded == null) {
+            return false;
+        }
+        signatureBitmap = decoded;
+        int pixelCount = decoded.getWidth() * decoded.getHeight();
+        if (signaturePixels.length < pixelCount) {
+            signaturePixels = new int[pixelCount];
+        }
+        decoded.getPixels(signaturePixels, 0, decoded.getWidth(), 0, 0, decoded.getWidth(), decoded.getHeight());
+        SceneChangeGate.signatureOf(signaturePixels, decoded.getWidth(), decoded.getHeight(), signature, width, height);
+        if (metrics != null) {
+            metrics.record(PipelineMetrics.Stage.SIGNATURE, System.nanoTime() - startedAt);
+        }
+        return true;
+    }
+
+    @Override
+    public void release(Bitmap frame) {
+        bitmapPool.release(frame);
+    }
+
+    @Override
+    public void onFrame() {
+        bitmapPool.onFrame();
+    }
+
+    @Override
+    public LumaSampler<Bitmap> newLumaSampler(int width, int height) {
+        return new BitmapLumaSampler(width, height);
+    }
+
+    private int sampleSizeFor(int width, int height) {
+        int minWidth = this.minWidth;
+        int minHeight = this.minHeight;
+        if (minWidth <= 0 && minHeight <= 0) {
+            return 1;
+        }
+        minWidth = Math.max(minWidth, 1);
+        minHeight = Math.max(minHeight, 1);
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= minWidth && height / (sampleSize * 2) >= minHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private SizeStats statsFor(int width, int height, int sampleSize) {
+        synchronized (sizeStats) {
+            for (int i = 0; i < sizeStats.size(); i++) {
+                SizeStats stats = sizeStats.get(i);
+                if (stats.sourceWidth == width && stats.sourceHeight == height && stats.sampleSize == sampleSize) {
+                    return stats;
+                }
+            }
+            SizeStats stats = new SizeStats(width, height, sampleSize);
+            sizeStats.add(stats);
+            return stats;
+        }
+    }
+
+    private Bitmap rotate(Bitmap inputBitmap, int degree, Scratch scratch) {
+        int width = inputBitmap.getWidth();
+        int height = inputBitmap.getHeight();
+        boolean swap = degree % 180 != 0;
+        Bitmap rotated = bitmapPool.acquire(swap ? height : width, swap ? width : height, Bitmap.Config.ARGB_8888);
+        Matrix matrix = scratch.matrix;
+        matrix.setRotate(degree, width / 2f, height / 2f);
+        if (swap) {
+            matrix.postTranslate((height - width) / 2f, (width - height) / 2f);
+        }
+        // The JPEG is opaque and covers every pixel, so whatever the pooled bitmap held is overwritten.
+        scratch.canvas.setBitmap(rotated);
+        scratch.canvas.drawBitmap(inputBitmap, matrix, null);
+        scratch.canvas.setBitmap(null);
+        return rotated;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder().append(bitmapPool).append("\ndecode:");
+        synchronized (sizeStats) {
+            for (int i = 0; i < sizeStats.size(); i++) {
+                SizeStats stats = sizeStats.get(i);
+                synchronized (stats) {
+                    builder.append("\n  ").append(stats);
+                }
+            }
+        }
+        return builder.toString();
+    }
+}
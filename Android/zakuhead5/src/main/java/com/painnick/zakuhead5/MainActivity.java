@@ -14,11 +14,20 @@
 
 package com.painnick.zakuhead5;
 
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.graphics.Bitmap;
+import android.os.BatteryManager;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.PowerManager;
 import android.util.Log;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.FrameLayout;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
@@ -29,13 +38,7 @@ import com.google.mediapipe.formats.proto.LocationDataProto;
 import com.google.mediapipe.solutions.facedetection.FaceDetection;
 import com.google.mediapipe.solutions.facedetection.FaceDetectionOptions;
 
-import java.util.Date;
-
-enum FACE_DIRECTION {
-    NONE,
-    LEFT,
-    RIGHT
-}
+import java.util.ArrayDeque;
 
 /**
  * Main activity of MediaPipe Face Detection app.
@@ -43,21 +46,99 @@ enum FACE_DIRECTION {
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = "MainActivity";
 
-    private ZakuHeadController zakuHeadController;
+    // The head serves one /capture at a time at the sensor's pace, so a second request in flight only waits
+    // there: no more frames per second than 1, and each frame twice as old when it arrives.
+    private static final int PIPELINE_DEPTH = 1;
+
+    // Falls back to /capture polling by itself when the firmware has no /stream.
+    private static final ZakuHeadApi.IngestMode INGEST_MODE = ZakuHeadApi.IngestMode.STREAMING;
+
+    // Input tensor of the short-range face model (model selection 0).
+    private static final int DETECTOR_INPUT_SIZE = 128;
+
+    // Without the preview, frames are decoded only as large as the detector needs.
+    private static final boolean SHOW_PREVIEW = true;
+
+    // false composites on the callback thread and hands the bitmap to an ImageView on the UI thread.
+    private static final boolean USE_SURFACE_PREVIEW = true;
+
+    // false runs MediaPipe in video mode, fed with the capture timestamps of the frames.
+    private static final boolean STATIC_IMAGE_MODE = false;
+
+    // false steps a fixed 5 degrees toward any face outside the 0.4-0.6 window.
+    private static final boolean USE_PID_STEERING = true;
+
+    // Aim where the face will be when the command lands, and ride out short detection dropouts.
+    private static final boolean USE_MOTION_PREDICTION = true;
+
+    // Run the detector every few frames only and follow the face with a cheap patch tracker in between.
+    private static final boolean USE_HYBRID_DETECTION = true;
+
+    // Skip decode and detection while the scene does not change, and reuse the last result instead.
+    private static final boolean USE_SCENE_CHANGE_GATE = true;
+
+    // Servo/LED commands as 10 byte UDP datagrams instead of HTTP requests. Falls back to HTTP by itself on a
+    // firmware without the command channel.
+    private static final boolean USE_UDP_COMMANDS = true;
+
+    // Drop to about one frame a second after a while without a face, and slow down while the phone is hot or
+    // low on battery. A detection brings back the full rate.
+    private static final boolean USE_DUTY_CYCLE = true;
+
+    // Frames per second the head's framesize and JPEG quality are adapted to. 0 leaves the firmware's defaults.
+    private static final double TARGET_FPS = 10;
+
+    private static final int STATS_LOG_INTERVAL = 100;
+
+    private static final long METRICS_OVERLAY_REFRESH_MILLIS = 500;
+
+    private static final FaceSelector.WidthOf<DetectionProto.Detection> BOX_WIDTH =
+            detection -> detection.getLocationData().getRelativeBoundingBox().getWidth();
+
+    private ZakuHeadController<Bitmap> zakuHeadController;
     private FaceDetection faceDetection;
 
     // Image demo UI and image loader components.
     private FaceDetectionResultImageView imageView;
+    private FaceDetectionResultSurfaceView surfaceView;
+    // Whichever of the two is in use.
+    private View previewView;
+
+    // How often the UI thread misses a vsync, to compare the preview renderers.
+    private UiJankMonitor uiJankMonitor;
+
+    // Long-press the preview to show or hide it.
+    private TextView metricsOverlay;
+
+    private FaceTracker faceTracker;
 
-    private Date lastDetection, startFoundSeq, startNotFoundSeq;
-    private FACE_DIRECTION faceDirection = FACE_DIRECTION.NONE;
+    // Last result given to the face tracker, reused for frames the scene-change gate skips. Guarded by this.
+    private boolean lastFound = false;
+    private float lastCenter = 0;
+
+    // Thermal status from Android 10 on. Null while not listening.
+    private PowerManager.OnThermalStatusChangedListener thermalListener;
+
+    private final BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            if (level < 0 || scale <= 0) {
+                return;
+            }
+            boolean charging = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+            zakuHeadController.onBattery(level * 100 / scale, charging);
+        }
+    };
+
+    // Timestamps of the frames sent in static image mode, oldest first.
+    private final ArrayDeque<Long> sentTimestampsUs = new ArrayDeque<>();
+    private final DetectionStats detectionStats = new DetectionStats(STATIC_IMAGE_MODE ? "static" : "video");
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        lastDetection = new Date();
-        startFoundSeq = null;
-        startNotFoundSeq = null;
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
         setContentView(R.layout.activity_main);
         setupStaticImageDemoUiComponents();
@@ -71,6 +152,12 @@ public class MainActivity extends AppCompatActivity {
         if (zakuHeadController != null) {
             zakuHeadController.resume();
         }
+        if (uiJankMonitor != null) {
+            uiJankMonitor.start();
+        }
+        if (USE_DUTY_CYCLE) {
+            listenToPowerSignals();
+        }
     }
 
     @Override
@@ -79,40 +166,130 @@ public class MainActivity extends AppCompatActivity {
         if (zakuHeadController != null) {
             zakuHeadController.pause();
         }
+        if (uiJankMonitor != null) {
+            uiJankMonitor.stop();
+        }
+        if (USE_DUTY_CYCLE) {
+            stopListeningToPowerSignals();
+        }
+    }
+
+    /**
+     * Feeds the duty cycle with the thermal status and the battery level. Both are also reported right away.
+     */
+    private void listenToPowerSignals() {
+        // Sticky: the current level comes with the registration.
+        registerReceiver(batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+            thermalListener = zakuHeadController::onThermalStatus;
+            powerManager.addThermalStatusListener(thermalListener);
+            zakuHeadController.onThermalStatus(powerManager.getCurrentThermalStatus());
+        }
+    }
+
+    private void stopListeningToPowerSignals() {
+        unregisterReceiver(batteryReceiver);
+        if (thermalListener != null) {
+            ((PowerManager) getSystemService(Context.POWER_SERVICE)).removeThermalStatusListener(thermalListener);
+            thermalListener = null;
+        }
     }
 
     /**
      * Sets up the UI components for the static image demo.
      */
     private void setupStaticImageDemoUiComponents() {
-        imageView = new FaceDetectionResultImageView(this);
-        setupStaticImageModePipeline();
-        zakuHeadController = new ZakuHeadController(bitmap -> faceDetection.send(bitmap), response -> {
-        });
+        if (USE_SURFACE_PREVIEW) {
+            surfaceView = new FaceDetectionResultSurfaceView(this);
+            previewView = surfaceView;
+        } else {
+            imageView = new FaceDetectionResultImageView(this);
+            previewView = imageView;
+        }
+        uiJankMonitor = new UiJankMonitor(getWindowManager().getDefaultDisplay().getRefreshRate());
+        setupFaceDetectionPipeline();
+        zakuHeadController = new ZakuHeadController<>(new AndroidHeadPlatform(), (bitmap, timestampUs) -> {
+            detectionStats.onSent(System.nanoTime());
+            if (STATIC_IMAGE_MODE) {
+                synchronized (sentTimestampsUs) {
+                    sentTimestampsUs.addLast(timestampUs);
+                }
+                faceDetection.send(bitmap);
+            } else {
+                faceDetection.send(bitmap, timestampUs);
+            }
+        }, null, PIPELINE_DEPTH);
+        SteeringController steering = new BangBangSteering(5);
+        if (USE_PID_STEERING) {
+            PidSteering pidSteering = new PidSteering();
+            // Moves the queue merged or dropped are not in flight.
+            zakuHeadController.getCommandQueue().setMoveListener(pidSteering);
+            steering = pidSteering;
+        }
+        faceTracker = new FaceTracker(zakuHeadController, new FaceTracker.Config(), steering,
+                USE_MOTION_PREDICTION ? new TargetPredictor() : null, NanoClock.SYSTEM);
+        if (USE_SURFACE_PREVIEW) {
+            surfaceView.setMetrics(zakuHeadController.getMetrics());
+        } else {
+            imageView.setMetrics(zakuHeadController.getMetrics());
+        }
+        if (USE_HYBRID_DETECTION) {
+            // Tracked frames do not refresh the preview; its boxes stay at the last detection.
+            zakuHeadController.setHybridDetection((xmin, ymin, width, height, captureNanos) ->
+                    steer(true, xmin + width / 2, captureNanos));
+        }
+        if (USE_SCENE_CHANGE_GATE) {
+            zakuHeadController.setSceneChangeGate(this::steerUnchanged);
+        }
+        if (TARGET_FPS > 0) {
+            zakuHeadController.setAdaptiveQuality(TARGET_FPS);
+        }
+        if (USE_UDP_COMMANDS) {
+            zakuHeadController.setUdpCommands();
+        }
+        if (USE_DUTY_CYCLE) {
+            zakuHeadController.setDutyCycle(new DutyCycle.Config());
+        }
+        zakuHeadController.setIngestMode(INGEST_MODE);
+        zakuHeadController.setDecodeTargetSize(DETECTOR_INPUT_SIZE, DETECTOR_INPUT_SIZE);
+        if (SHOW_PREVIEW) {
+            // Once laid out, decode just enough pixels to fill the preview.
+            previewView.post(() -> zakuHeadController.setDecodeTargetSize(
+                    Math.max(previewView.getWidth(), DETECTOR_INPUT_SIZE),
+                    Math.max(previewView.getHeight(), DETECTOR_INPUT_SIZE)));
+        }
+
+        metricsOverlay = findViewById(R.id.metrics_overlay);
+        findViewById(R.id.preview_display_layout).setOnLongClickListener(
+                v -> {
+                    toggleMetricsOverlay();
+                    return true;
+                });
 
         // 버튼과 화면과 위치가 반대임에 유의!
         findViewById(R.id.move_left).setOnClickListener(
                 v -> {
-                    faceDirection = FACE_DIRECTION.RIGHT;
+                    faceTracker.setDirection(FACE_DIRECTION.RIGHT);
                     zakuHeadController.moveRight(15, false);
                 });
         findViewById(R.id.move_right).setOnClickListener(
                 v -> {
-                    faceDirection = FACE_DIRECTION.LEFT;
+                    faceTracker.setDirection(FACE_DIRECTION.LEFT);
                     zakuHeadController.moveLeft(15, false);
                 });
     }
 
     /**
-     * Sets up core workflow for static image mode.
+     * Sets up core workflow for static image or video mode.
      */
-    private void setupStaticImageModePipeline() {
-        // Initializes a new MediaPipe Face Detection solution instance in the static image mode.
+    private void setupFaceDetectionPipeline() {
+        // Initializes a new MediaPipe Face Detection solution instance.
         faceDetection =
                 new FaceDetection(
                         this,
                         FaceDetectionOptions.builder()
-                                .setStaticImageMode(true)
+                                .setStaticImageMode(STATIC_IMAGE_MODE)
                                 .setModelSelection(0)
                                 .setMinDetectionConfidence(0.7f)
                                 .build());
@@ -120,76 +297,121 @@ public class MainActivity extends AppCompatActivity {
         // Connects MediaPipe Face Detection solution to the user-defined FaceDetectionResultImageView.
         faceDetection.setResultListener(
                 faceDetectionResult -> {
-                    imageView.setFaceDetectionResult(faceDetectionResult);
-                    runOnUiThread(() -> imageView.update());
-
-                    float maxWidth = 0;
-                    DetectionProto.Detection foundDetection = null;
-                    for (DetectionProto.Detection detection : faceDetectionResult.multiFaceDetections()) {
-                        LocationDataProto.LocationData.RelativeBoundingBox box = detection.getLocationData().getRelativeBoundingBox();
-                        if (maxWidth < box.getWidth()) {
-                            foundDetection = detection;
-                            maxWidth = box.getWidth();
-                        }
-                    }
-
+                    DetectionProto.Detection foundDetection =
+                            FaceSelector.largest(faceDetectionResult.multiFaceDetections(), BOX_WIDTH);
+                    long timestampUs = STATIC_IMAGE_MODE ? pollSentTimestamp() : faceDetectionResult.timestamp();
+                    boolean current;
+                    float center = 0;
                     if (foundDetection != null) { // Found!!!
-                        boolean isStartSeq = (startFoundSeq == null);
-                        if (isStartSeq) {
-                            startFoundSeq = new Date();
-                            startNotFoundSeq = null;
-                        }
-                        zakuHeadController.ledOn(isStartSeq);
                         LocationDataProto.LocationData.RelativeBoundingBox box = foundDetection.getLocationData().getRelativeBoundingBox();
-                        float center = box.getXmin() + (box.getWidth() / 2);
-
-                        if (0.4f > center || center > 0.6f) {
-                            if (center > 0.5) {
-                                faceDirection = FACE_DIRECTION.RIGHT;
-                                zakuHeadController.moveRight(5, true);
-                            } else {
-                                faceDirection = FACE_DIRECTION.LEFT;
-                                zakuHeadController.moveLeft(5, true);
-                            }
-                        } else {
-                            Date now = new Date();
-                            // 일정 시간동안 얼굴을 찾고 있더라도 찾았다는 사실을 알림
-                            if (((now.getTime() - startFoundSeq.getTime()) / 1000) % 3 == 1) {
-                                zakuHeadController.moveLeft(0, true);
-                            }
+                        current = zakuHeadController.onInferenceDone(timestampUs, true,
+                                box.getXmin(), box.getYmin(), box.getWidth(), box.getHeight());
+                        center = box.getXmin() + (box.getWidth() / 2);
+                        if (current && foundDetection.getScoreCount() > 0) {
+                            zakuHeadController.onDetectionScore(foundDetection.getScore(0));
                         }
-                        lastDetection = new Date();
                     } else {
-                        Date now = new Date();
-                        long lostSeconds = (now.getTime() - lastDetection.getTime()) / 1000;
-
-                        // LOST!!!
-                        if ((startNotFoundSeq == null) && (lostSeconds > 2)) {
-                            startFoundSeq = null;
-                            startNotFoundSeq = new Date();
-                            zakuHeadController.ledOff(true);
-                        }
+                        current = zakuHeadController.onInferenceDone(timestampUs);
+                    }
+                    if (SHOW_PREVIEW && USE_SURFACE_PREVIEW) {
+                        surfaceView.setFaceDetectionResult(faceDetectionResult);
+                    } else if (SHOW_PREVIEW) {
+                        imageView.setFaceDetectionResult(faceDetectionResult);
+                        runOnUiThread(() -> imageView.update());
+                    }
 
-                        // 기존 방향으로 카메라 이동
-                        int lastAngle = zakuHeadController.getLastAngle();
-                        if ((20 < lastAngle) && (lastAngle < 160)) {
-                            if (faceDirection == FACE_DIRECTION.RIGHT) {
-                                zakuHeadController.moveRight(30, false);
-                            } else {
-                                zakuHeadController.moveLeft(30, false);
-                            }
+                    detectionStats.onResult(System.nanoTime(), foundDetection != null, center);
+                    // A result that came back after its frame timed out is stale; a newer frame is on its way.
+                    if (current) {
+                        steer(foundDetection != null, center, timestampUs * 1000);
+                    }
+                    if (detectionStats.getResults() % STATS_LOG_INTERVAL == 0) {
+                        Log.i(TAG, detectionStats.toString());
+                        Log.i(TAG, zakuHeadController.getMetrics().snapshot().toString());
+                        double servoRtt = zakuHeadController.getMetrics()
+                                .getHistogram(PipelineMetrics.Stage.SERVO_RTT).getPercentileMillis(50);
+                        if (servoRtt > 0) {
+                            faceTracker.setCommandLeadMillis((long) (servoRtt / 2));
                         }
                     }
                 });
         faceDetection.setErrorListener(
-                (message, e) -> Log.e(TAG, "MediaPipe Face Detection error:" + message));
+                (message, e) -> {
+                    Log.e(TAG, "MediaPipe Face Detection error:" + message);
+                    if (STATIC_IMAGE_MODE) {
+                        pollSentTimestamp();
+                    }
+                    zakuHeadController.onInferenceError();
+                });
 
         // Updates the preview layout.
         FrameLayout frameLayout = findViewById(R.id.preview_display_layout);
         frameLayout.removeAllViewsInLayout();
-        imageView.setImageDrawable(null);
-        frameLayout.addView(imageView);
-        imageView.setVisibility(View.VISIBLE);
+        if (imageView != null) {
+            imageView.setImageDrawable(null);
+        }
+        frameLayout.addView(previewView);
+        previewView.setVisibility(SHOW_PREVIEW ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * In static image mode MediaPipe does not carry the timestamp through, but answers in the order it was sent.
+     */
+    private long pollSentTimestamp() {
+        synchronized (sentTimestampsUs) {
+            Long timestampUs = sentTimestampsUs.pollFirst();
+            return timestampUs != null ? timestampUs : -1;
+        }
+    }
+
+    /**
+     * Detector results and tracked faces arrive on different threads.
+     */
+    private synchronized void steer(boolean found, float center, long captureNanos) {
+        lastFound = found;
+        lastCenter = center;
+        if (found) {
+            faceTracker.onFace(center, captureNanos, zakuHeadController.getLastAngle());
+        } else {
+            faceTracker.onNoFace(captureNanos, zakuHeadController.getLastAngle());
+        }
+        zakuHeadController.onTrackerState(faceTracker.getState());
+    }
+
+    private synchronized void steerUnchanged(long captureNanos) {
+        steer(lastFound, lastCenter, captureNanos);
+    }
+
+    private final Runnable refreshMetricsOverlay = new Runnable() {
+        @Override
+        public void run() {
+            if (metricsOverlay.getVisibility() != View.VISIBLE) {
+                return;
+            }
+            metricsOverlay.setText(describeStats());
+            metricsOverlay.postDelayed(this, METRICS_OVERLAY_REFRESH_MILLIS);
+        }
+    };
+
+    private String describeStats() {
+        return detectionStats + "\n"
+                + uiJankMonitor + "\n"
+                + (surfaceView != null ? surfaceView + "\n" : "")
+                + zakuHeadController.describeStats();
+    }
+
+    /**
+     * Shows or hides the live metrics. Hiding also writes a snapshot of them to the log.
+     */
+    private void toggleMetricsOverlay() {
+        if (metricsOverlay.getVisibility() == View.VISIBLE) {
+            metricsOverlay.removeCallbacks(refreshMetricsOverlay);
+            metricsOverlay.setVisibility(View.GONE);
+            Log.i(TAG, "Metrics snapshot\n" + describeStats());
+        } else {
+            metricsOverlay.setVisibility(View.VISIBLE);
+            refreshMetricsOverlay.run();
+        }
     }
 
     private void stopCurrentPipeline() {
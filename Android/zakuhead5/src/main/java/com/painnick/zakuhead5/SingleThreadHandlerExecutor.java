@@ -3,10 +3,12 @@ package com.painnick.zakuhead5;
 import android.os.Handler;
 import android.os.HandlerThread;
 
-import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 
-public class SingleThreadHandlerExecutor implements Executor {
+/**
+ * {@link SerialExecutor} on a {@link HandlerThread}.
+ */
+public class SingleThreadHandlerExecutor implements SerialExecutor {
     private final HandlerThread handlerThread;
     private final Handler handler;
 
@@ -23,7 +25,15 @@ public class SingleThreadHandlerExecutor implements Executor {
         }
     }
 
-    boolean shutdown() {
+    @Override
+    public void executeDelayed(Runnable command, long delayMillis) {
+        if (!handler.postDelayed(command, delayMillis)) {
+            throw new RejectedExecutionException(handlerThread.getName() + " is shutting down.");
+        }
+    }
+
+    @Override
+    public boolean shutdown() {
         return handlerThread.quitSafely();
     }
 }
@@ -0,0 +1,65 @@
+package com.painnick.zakuhead5;
+
+import android.view.Choreographer;
+
+import java.util.Locale;
+
+/**
+ * Measures how smoothly the UI thread draws, from the interval between {@link Choreographer} frames.
+ * <p>
+ * A frame that comes more than one and a half refresh periods after the previous one missed at least one
+ * vsync: something held the UI thread, e.g. a large {@code setImageBitmap}. Only touched on the UI thread.
+ */
+public class UiJankMonitor implements Choreographer.FrameCallback {
+
+    private final long jankNanos;
+    private final LatencyHistogram intervals = new LatencyHistogram();
+    private boolean running = false;
+    private long lastFrameAt = 0;
+    private long janky = 0;
+
+    /**
+     * @param refreshRate frames per second of the display.
+     */
+    public UiJankMonitor(float refreshRate) {
+        jankNanos = (long) (1.5e9 / refreshRate);
+    }
+
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        lastFrameAt = 0;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    public void stop() {
+        running = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!running) {
+            return;
+        }
+        if (lastFrameAt != 0) {
+            long interval = frameTimeNanos - lastFrameAt;
+            intervals.recordNanos(interval);
+            if (interval > jankNanos) {
+                janky++;
+            }
+        }
+        lastFrameAt = frameTimeNanos;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    @Override
+    public String toString() {
+        long frames = intervals.getCount();
+        return String.format(Locale.US, "ui: frames=%d janky=%d (%.1f%%) p99=%.1fms max=%.1fms",
+                frames, janky, frames == 0 ? 0 : janky * 100.0 / frames,
+                intervals.getPercentileMillis(99), intervals.getMaxMillis());
+    }
+}
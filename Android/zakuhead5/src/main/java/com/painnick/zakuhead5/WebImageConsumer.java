@@ -1,7 +0,0 @@
-package com.painnick.zakuhead5;
-
-import android.graphics.Bitmap;
-
-public interface WebImageConsumer {
-    void onNewBitmap(Bitmap bitmap);
-}
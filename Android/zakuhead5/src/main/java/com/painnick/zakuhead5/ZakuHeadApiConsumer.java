@@ -1,7 +0,0 @@
-package com.painnick.zakuhead5;
-
-import org.json.JSONObject;
-
-public interface ZakuHeadApiConsumer {
-    void onResponse(JSONObject response);
-}
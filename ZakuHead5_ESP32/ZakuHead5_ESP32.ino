@@ -19,6 +19,7 @@
 void initCamera();
 void initCameraServer();
 void startCameraServer();
+void startCommandServer();
 
 void breath();
 
@@ -39,6 +40,7 @@ void setup() {
   initCamera();
   initCameraServer();
   startCameraServer();
+  startCommandServer();
 
   time(&last_catch);
   time(&last_random_move);
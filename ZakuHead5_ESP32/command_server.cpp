@@ -0,0 +1,100 @@
+#include "Arduino.h"
+#include "esp_timer.h"
+#include "lwip/sockets.h"
+
+#include "zaku_status.h"
+#include "zaku_leds.h"
+#include "zaku_servo.h"
+
+// Servo/LED commands as 10 byte UDP datagrams, next to /servo and /led on the control server. No HTTP
+// parsing, no query string and no JSON: one recvfrom, one sendto.
+//
+//  0     magic 'Z'
+//  1     op: 1 move, 2 led. The ack has bit 7 set.
+//  2-3   sequence number, big endian
+//  4-5   value, signed big endian: degrees for a move (positive turns left), brightness for the LED
+//  6     flags: bit 0 face found. In the ack, bit 6 means the command was refused.
+//  7     ack: servo angle after the command
+//  8-9   ack: microseconds the head spent on the command, big endian
+#define COMMAND_PORT          82
+#define COMMAND_FRAME_LENGTH  10
+#define COMMAND_MAGIC         'Z'
+#define COMMAND_OP_MOVE       1
+#define COMMAND_OP_LED        2
+#define COMMAND_ACK           0x80
+#define COMMAND_FLAG_FOUND    0x01
+#define COMMAND_FLAG_ERROR    0x40
+
+static void command_task(void *arg){
+  int sock = socket(AF_INET, SOCK_DGRAM, IPPROTO_IP);
+  if (sock < 0) {
+    Serial.println("command_task : socket failed");
+    vTaskDelete(NULL);
+    return;
+  }
+  struct sockaddr_in address;
+  memset(&address, 0, sizeof(address));
+  address.sin_family = AF_INET;
+  address.sin_addr.s_addr = htonl(INADDR_ANY);
+  address.sin_port = htons(COMMAND_PORT);
+  if (bind(sock, (struct sockaddr *)&address, sizeof(address)) < 0) {
+    Serial.println("command_task : bind failed");
+    close(sock);
+    vTaskDelete(NULL);
+    return;
+  }
+
+  uint8_t frame[COMMAND_FRAME_LENGTH];
+  // The app resends a command whose ack got lost with the same sequence number. It must not move twice.
+  int last_seq = -1;
+  uint8_t last_ack[COMMAND_FRAME_LENGTH];
+  struct sockaddr_in source;
+  socklen_t source_len;
+
+  for (;;) {
+    source_len = sizeof(source);
+    int len = recvfrom(sock, frame, sizeof(frame), 0, (struct sockaddr *)&source, &source_len);
+    if (len != COMMAND_FRAME_LENGTH || frame[0] != COMMAND_MAGIC || (frame[1] & COMMAND_ACK)) {
+      continue;
+    }
+    int64_t started = esp_timer_get_time();
+    int seq = (frame[2] << 8) | frame[3];
+    if (seq == last_seq) {
+      sendto(sock, last_ack, COMMAND_FRAME_LENGTH, 0, (struct sockaddr *)&source, source_len);
+      continue;
+    }
+    int value = (int16_t)((frame[4] << 8) | frame[5]);
+    uint8_t flags = 0;
+    if (frame[1] == COMMAND_OP_MOVE) {
+      if (frame[6] & COMMAND_FLAG_FOUND) {
+        time(&last_catch);
+      }
+      if (value > 0) {
+        zakuServo.left(value);
+      } else if (value < 0) {
+        zakuServo.right(-value);
+      }
+    } else if (frame[1] == COMMAND_OP_LED && 0 <= value && value < 256) {
+      mono_eye_leds.red(value);
+      mono_eye_leds.orange(value);
+    } else {
+      flags |= COMMAND_FLAG_ERROR;
+    }
+
+    frame[1] |= COMMAND_ACK;
+    frame[6] = flags;
+    frame[7] = (uint8_t)zakuServo.angle();
+    int64_t spent = esp_timer_get_time() - started;
+    uint16_t micros = spent > 0xFFFF ? 0xFFFF : (uint16_t)spent;
+    frame[8] = micros >> 8;
+    frame[9] = micros & 0xFF;
+    sendto(sock, frame, COMMAND_FRAME_LENGTH, 0, (struct sockaddr *)&source, source_len);
+    last_seq = seq;
+    memcpy(last_ack, frame, COMMAND_FRAME_LENGTH);
+  }
+}
+
+void startCommandServer(){
+  // Same priority as the control httpd task.
+  xTaskCreate(command_task, "zaku_command", 3072, NULL, tskIDLE_PRIORITY + 6, NULL);
+}
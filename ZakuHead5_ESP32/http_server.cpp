@@ -35,6 +35,11 @@
   #error "Camera model not selected"
 #endif
 
+#define PART_BOUNDARY "123456789000000000000987654321"
+static const char* _STREAM_CONTENT_TYPE = "multipart/x-mixed-replace;boundary=" PART_BOUNDARY;
+static const char* _STREAM_BOUNDARY = "\r\n--" PART_BOUNDARY "\r\n";
+static const char* _STREAM_PART = "Content-Type: image/jpeg\r\nContent-Length: %u\r\n\r\n";
+
 typedef struct {
         httpd_req_t *req;
         size_t len;
@@ -43,6 +48,7 @@ typedef struct {
 time_t last_catch;
 
 httpd_handle_t camera_httpd = NULL;
+httpd_handle_t control_httpd = NULL;
 
 static size_t jpg_encode_stream(void * arg, size_t index, const void* data, size_t len){
     jpg_chunking_t *j = (jpg_chunking_t *)arg;
@@ -127,11 +133,69 @@ static esp_err_t capture_handler(httpd_req_t *req){
     return res;
 }
 
+// Sends frames back to back on one connection until the client goes away.
+// Blocks this server task while streaming; /servo and /led stay reachable on the control server.
+static esp_err_t stream_handler(httpd_req_t *req){
+    camera_fb_t * fb = NULL;
+    esp_err_t res = ESP_OK;
+    size_t jpg_buf_len = 0;
+    uint8_t * jpg_buf = NULL;
+    char part_buf[64];
+
+    res = httpd_resp_set_type(req, _STREAM_CONTENT_TYPE);
+    if(res != ESP_OK){
+        return res;
+    }
+    httpd_resp_set_hdr(req, "Access-Control-Allow-Origin", "*");
+
+    while(true){
+        fb = esp_camera_fb_get();
+        if (!fb) {
+            Serial.println("Camera capture failed");
+            res = ESP_FAIL;
+        } else if(fb->format != PIXFORMAT_JPEG){
+            bool jpeg_converted = frame2jpg(fb, 80, &jpg_buf, &jpg_buf_len);
+            esp_camera_fb_return(fb);
+            fb = NULL;
+            if(!jpeg_converted){
+                Serial.println("JPEG compression failed");
+                res = ESP_FAIL;
+            }
+        } else {
+            jpg_buf_len = fb->len;
+            jpg_buf = fb->buf;
+        }
+        if(res == ESP_OK){
+            res = httpd_resp_send_chunk(req, _STREAM_BOUNDARY, strlen(_STREAM_BOUNDARY));
+        }
+        if(res == ESP_OK){
+            size_t hlen = snprintf(part_buf, sizeof(part_buf), _STREAM_PART, jpg_buf_len);
+            res = httpd_resp_send_chunk(req, part_buf, hlen);
+        }
+        if(res == ESP_OK){
+            res = httpd_resp_send_chunk(req, (const char *)jpg_buf, jpg_buf_len);
+        }
+        if(fb){
+            esp_camera_fb_return(fb);
+            fb = NULL;
+            jpg_buf = NULL;
+        } else if(jpg_buf){
+            free(jpg_buf);
+            jpg_buf = NULL;
+        }
+        if(res != ESP_OK){
+            break;
+        }
+    }
+    return res;
+}
+
 static esp_err_t servo_handler(httpd_req_t *req){
+  int64_t started = esp_timer_get_time();
   char*  buf;
   size_t buf_len;
   char direction[32] = {0,}, step[5] = {0,}, found[6] = {0,};
-  char body[18] = {0,};
+  char body[40] = {0,};
   
   buf_len = httpd_req_get_url_query_len(req) + 1;
   if (buf_len > 1) {
@@ -200,7 +264,8 @@ static esp_err_t servo_handler(httpd_req_t *req){
     Serial.println(direction);
   }
 
-  sprintf(body, "{\"angle\":%d}", zakuServo.angle());
+  // "us": time spent in this handler, to compare with the UDP command channel.
+  sprintf(body, "{\"angle\":%d,\"us\":%d}", zakuServo.angle(), (int)(esp_timer_get_time() - started));
 
   httpd_resp_set_hdr(req, "Access-Control-Allow-Origin", "*");
   return httpd_resp_send(req, body, strlen(body));
@@ -255,6 +320,132 @@ static esp_err_t led_handler(httpd_req_t *req){
   return httpd_resp_send(req, NULL, 0);
 }
 
+// The head is mounted upside down. Flipping both axes on the sensor is a 180 degree rotation that costs
+// nothing, instead of the app rotating every frame on the phone's CPU.
+// The flip is state of the sensor, shared by every client, and lasts until it is set again or the head
+// reboots: /capture and /stream come out upright for everyone. GET /orientation without a query reports it,
+// so other clients (main.py) can tell whether they still have to rotate; the app sets flip=0 again when it
+// closes.
+static esp_err_t orientation_handler(httpd_req_t *req){
+  char*  buf;
+  size_t buf_len;
+  char variable[8] = {0,};
+  char body[16] = {0,};
+
+  buf_len = httpd_req_get_url_query_len(req) + 1;
+  if (buf_len > 1) {
+    buf = (char*)malloc(buf_len);
+    if(!buf){
+      httpd_resp_send_500(req);
+      return ESP_FAIL;
+    }
+    if (httpd_req_get_url_query_str(req, buf, buf_len) == ESP_OK) {
+      if (httpd_query_key_value(buf, "flip", variable, sizeof(variable)) == ESP_OK) {
+      } else {
+        free(buf);
+        httpd_resp_send_404(req);
+        return ESP_FAIL;
+      }
+    } else {
+      free(buf);
+      httpd_resp_send_404(req);
+      return ESP_FAIL;
+    }
+    free(buf);
+  }
+
+  sensor_t * s = esp_camera_sensor_get();
+  if (!s) {
+    httpd_resp_send_500(req);
+    return ESP_FAIL;
+  }
+
+  int flip;
+  if (buf_len > 1) {
+    flip = atoi(variable) ? 1 : 0;
+    s->set_vflip(s, flip);
+    s->set_hmirror(s, flip);
+  } else {
+    flip = s->status.vflip && s->status.hmirror ? 1 : 0;
+  }
+
+  sprintf(body, "{\"flip\":%d}", flip);
+
+  httpd_resp_set_hdr(req, "Access-Control-Allow-Origin", "*");
+  return httpd_resp_send(req, body, strlen(body));
+}
+
+// Framesizes the app may switch between, smallest first.
+static const struct {
+  const char *name;
+  framesize_t size;
+} camera_framesizes[] = {
+  {"QVGA", FRAMESIZE_QVGA},
+  {"CIF", FRAMESIZE_CIF},
+  {"VGA", FRAMESIZE_VGA},
+  {"SVGA", FRAMESIZE_SVGA},
+};
+
+// The frame buffers are allocated for the framesize and quality given at init. A larger frame or a better
+// quality could overflow them, so neither may go past the init values.
+static framesize_t max_framesize = FRAMESIZE_VGA;
+static int best_quality = 10;
+
+static const char* framesize_name(framesize_t size){
+  for (size_t i = 0; i < sizeof(camera_framesizes) / sizeof(camera_framesizes[0]); i++) {
+    if (camera_framesizes[i].size == size) {
+      return camera_framesizes[i].name;
+    }
+  }
+  return "?";
+}
+
+// GET /camera?framesize=VGA&quality=12 changes either or both; without a query it only reports them.
+// Responds with what the sensor now uses, which may differ from the request.
+static esp_err_t camera_handler(httpd_req_t *req){
+  char*  buf;
+  size_t buf_len;
+  char variable[16] = {0,};
+  char body[96] = {0,};
+
+  sensor_t * s = esp_camera_sensor_get();
+  if (!s) {
+    httpd_resp_send_500(req);
+    return ESP_FAIL;
+  }
+
+  buf_len = httpd_req_get_url_query_len(req) + 1;
+  if (buf_len > 1) {
+    buf = (char*)malloc(buf_len);
+    if(!buf){
+      httpd_resp_send_500(req);
+      return ESP_FAIL;
+    }
+    if (httpd_req_get_url_query_str(req, buf, buf_len) == ESP_OK) {
+      if (httpd_query_key_value(buf, "framesize", variable, sizeof(variable)) == ESP_OK) {
+        for (size_t i = 0; i < sizeof(camera_framesizes) / sizeof(camera_framesizes[0]); i++) {
+          if (!strcmp(variable, camera_framesizes[i].name) && camera_framesizes[i].size <= max_framesize) {
+            s->set_framesize(s, camera_framesizes[i].size);
+          }
+        }
+      }
+      if (httpd_query_key_value(buf, "quality", variable, sizeof(variable)) == ESP_OK) {
+        int quality = atoi(variable);
+        if ((best_quality <= quality) && (quality <= 63)) {
+          s->set_quality(s, quality);
+        }
+      }
+    }
+    free(buf);
+  }
+
+  sprintf(body, "{\"framesize\":\"%s\",\"quality\":%d,\"max\":\"%s\"}",
+          framesize_name(s->status.framesize), s->status.quality, framesize_name(max_framesize));
+
+  httpd_resp_set_hdr(req, "Access-Control-Allow-Origin", "*");
+  return httpd_resp_send(req, body, strlen(body));
+}
+
 void initCamera() {
   camera_config_t config;
   config.ledc_channel = LEDC_CHANNEL_0;
@@ -287,6 +478,8 @@ void initCamera() {
     config.jpeg_quality = 12;
     config.fb_count = 1;
   }
+  max_framesize = config.frame_size;
+  best_quality = config.jpeg_quality;
   
   // Camera init
   esp_err_t err = esp_camera_init(&config);
@@ -399,21 +592,58 @@ void startCameraServer(){
     .handler   = led_handler,
     .user_ctx  = NULL
   };
+  httpd_uri_t orientation_uri = {
+    .uri       = "/orientation",
+    .method    = HTTP_GET,
+    .handler   = orientation_handler,
+    .user_ctx  = NULL
+  };
+  httpd_uri_t camera_uri = {
+    .uri       = "/camera",
+    .method    = HTTP_GET,
+    .handler   = camera_handler,
+    .user_ctx  = NULL
+  };
   httpd_uri_t capture_uri = {
     .uri       = "/capture",
     .method    = HTTP_GET,
     .handler   = capture_handler,
     .user_ctx  = NULL
   };
+  httpd_uri_t stream_uri = {
+    .uri       = "/stream",
+    .method    = HTTP_GET,
+    .handler   = stream_handler,
+    .user_ctx  = NULL
+  };
   if (httpd_start(&camera_httpd, &config) == ESP_OK) {
     httpd_register_uri_handler(camera_httpd, &servo_uri);
     httpd_register_uri_handler(camera_httpd, &led_uri);
+    httpd_register_uri_handler(camera_httpd, &orientation_uri);
+    httpd_register_uri_handler(camera_httpd, &camera_uri);
     httpd_register_uri_handler(camera_httpd, &capture_uri);
+    httpd_register_uri_handler(camera_httpd, &stream_uri);
+  }
+
+  // Servo/LED commands get their own server task, so they are not queued behind a /capture download.
+  config.server_port += 1;
+  config.ctrl_port += 1;
+  config.task_priority += 1;
+  if (httpd_start(&control_httpd, &config) == ESP_OK) {
+    httpd_register_uri_handler(control_httpd, &servo_uri);
+    httpd_register_uri_handler(control_httpd, &led_uri);
+    httpd_register_uri_handler(control_httpd, &orientation_uri);
+    httpd_register_uri_handler(control_httpd, &camera_uri);
   }
 }
 
 void stopCameraServer(){
       if(camera_httpd != NULL){
         httpd_stop(camera_httpd);
+        camera_httpd = NULL;
+    }
+      if(control_httpd != NULL){
+        httpd_stop(control_httpd);
+        control_httpd = NULL;
     }
 }
@@ -30,6 +30,17 @@ direction = 'none'
 last_angle = 90
 
 
+def sensorFlipped():
+  # The Android app may have left the sensor flipped (/orientation?flip=1), which already turns the frames
+  # upright. Old firmware without /orientation, or no answer: rotate here as before.
+  try:
+    res = urllib.request.urlopen(host + '/orientation', timeout=1)
+    return json.loads(res.read().decode()).get("flip") == 1
+  except (HTTPError, URLError, socket.timeout, ValueError) as error:
+    logger.warning('Orientation not retrieved because %s', error)
+    return False
+
+
 def parseAngle(res):
   json_string = res.read().decode()
   # logger.debug(json_string)
@@ -39,6 +50,8 @@ def parseAngle(res):
   return angle
 
 
+rotate = not sensorFlipped()
+
 # For webcam input:
 with mp_face_detection.FaceDetection(
     model_selection=0, min_detection_confidence=0.6) as face_detection:
@@ -63,7 +76,8 @@ with mp_face_detection.FaceDetection(
     # To improve performance, optionally mark the image as not writeable to
     # pass by reference.
     image.flags.writeable = False
-    image = cv2.rotate(image, ROTATE_180)
+    if rotate:
+      image = cv2.rotate(image, ROTATE_180)
     image = cv2.cvtColor(image, cv2.COLOR_BGR2RGB)
     results = face_detection.process(image)
 